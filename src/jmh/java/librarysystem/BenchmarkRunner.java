@@ -0,0 +1,34 @@
+package librarysystem;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH suite and writes machine-readable JSON results.
+ *
+ * <p>Usage: {@code BenchmarkRunner <result.json> [JMH options...]}, e.g.
+ * {@code mvn -Pbenchmarks verify -Djmh.args="LibraryBenchmark -p catalogSize=10000"}.</p>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String resultFile = args.length > 0 ? args[0] : "jmh-result.json";
+
+        String[] jmhArgs = new String[Math.max(args.length - 1, 0)];
+        System.arraycopy(args, Math.min(1, args.length), jmhArgs, 0, jmhArgs.length);
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs))
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+
+        new Runner(options).run();
+    }
+}
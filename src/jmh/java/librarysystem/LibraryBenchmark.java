@@ -0,0 +1,74 @@
+package librarysystem;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Circulation hot paths of {@link Library} by catalog size.
+ *
+ * <p>Borrow/return currently rewrite the whole catalog file, so their cost
+ * grows with the catalog; search and the lost-item scan walk every item.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LibraryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int catalogSize;
+
+    private Path file;
+    private Library library;
+    private String isbn;
+    private String borrower;
+    private String author;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = SyntheticCatalog.write(catalogSize);
+        library = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, file.toString());
+
+        isbn = SyntheticCatalog.idOf(catalogSize / 2 + 1);
+        borrower = "bench-borrower";
+        author = "Creator " + (catalogSize / 3 % SyntheticCatalog.AUTHORS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        library.close();
+        SyntheticCatalog.delete(file);
+    }
+
+    @Benchmark
+    public LoanResult borrowAndReturnBook() {
+        library.borrowBook(isbn, borrower);
+        return library.returnBook(isbn, borrower);
+    }
+
+    @Benchmark
+    public long searchBook() {
+        return library.searchBook(author).count();
+    }
+
+    @Benchmark
+    public boolean hasLostItem() {
+        return library.hasLostItem(SyntheticCatalog.userOf(7));
+    }
+}
@@ -0,0 +1,77 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full catalog load ({@code loadItemsFromFile}) and save
+ * ({@code updateLibraryFile}) at 10k/100k/1M records, for the CSV data file
+ * and the {@link CompactCatalogFormat}. Divide the file size by the time for
+ * MB/s; the setup logs each file size through the shared {@link AsyncLogger}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    @Param({"csv", "compact"})
+    public String format;
+
+    private Path file;
+    private Library library;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = SyntheticCatalog.write(records);
+        if (format.equals("compact")) {
+            Path csv = file;
+            file = Files.createTempFile("library-bench-" + records + "-", CompactCatalogFormat.EXTENSION);
+            try (Library source = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, csv.toString())) {
+                source.snapshot(file.toString());
+            }
+            SyntheticCatalog.delete(csv);
+        }
+        library = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, file.toString());
+        AsyncLogger.shared().info(format + " file: " + Files.size(file) + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        library.close();
+        SyntheticCatalog.delete(file);
+    }
+
+    @Benchmark
+    public int loadItemsFromFile() throws IOException {
+        try (Library loaded = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, file.toString())) {
+            return loaded.getBooks().size();
+        }
+    }
+
+    @Benchmark
+    public void updateLibraryFile() {
+        library.updateLibraryFile();
+    }
+}
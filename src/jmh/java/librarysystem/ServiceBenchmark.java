@@ -0,0 +1,51 @@
+package librarysystem;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FineManager updates and PasswordHasher cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+    private final FineManager fineManager = new FineManager();
+    private final byte[] salt = {1, 2, 3, 4};
+    private final char[] password = "benchmark-password".toCharArray();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int u = 0; u < SyntheticCatalog.USERS; u++)
+            fineManager.addFine(SyntheticCatalog.userOf(u), 10);
+    }
+
+    @Benchmark
+    public int addAndPayFine() {
+        String user = SyntheticCatalog.userOf(next++);
+        fineManager.addFine(user, 20);
+        fineManager.payFine(user, 20);
+        return fineManager.getFine(user);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] passwordHash() {
+        return PasswordHasher.hash(password, salt);
+    }
+}
@@ -0,0 +1,94 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of concurrent borrow+return cycles on random titles against a
+ * {@link ShardedLibrary}; {@code shards=1} is the single-lock baseline.
+ *
+ * <p>Each cycle saves its shard twice, so sharding helps both by spreading
+ * the lock and by shrinking the file each save rewrites.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(4)
+@Fork(1)
+public class ShardedLibraryBenchmark {
+
+    @Param({"20000"})
+    public int records;
+
+    @Param({"1", "4", "8"})
+    public int shards;
+
+    private Path dir;
+    private ShardedLibrary library;
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final String name = "bench-" + Thread.currentThread().getId();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("library-sharded-");
+        Path csv = SyntheticCatalog.write(records);
+        Library source = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, csv.toString());
+
+        library = new ShardedLibrary(new FineManager(), SyntheticCatalog.NO_EMAIL,
+                dir.resolve("library.txt").toString(), shards);
+        for (int s = 0; s < shards; s++) library.getShard(s).beginBatch();
+        List<Book> books = source.getBooks();
+        for (Book b : books) {
+            InventoryItem item = source.getBookInventory(b.getIsbn());
+            library.addBook(new Book(b.getTitle(), b.getAuthor(), b.getIsbn()), item.getAvailableCopies());
+        }
+        for (int s = 0; s < shards; s++) library.getShard(s).commitBatch();
+
+        source.close();
+        Files.delete(csv);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        library.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public LoanResult borrowAndReturnBook(Borrower borrower) {
+        String isbn;
+        do {
+            isbn = SyntheticCatalog.idOf(ThreadLocalRandom.current().nextInt(records) + 1);
+        } while (!isbn.startsWith("ISBN-"));   // every tenth synthetic item is a CD
+        library.borrowBook(isbn, borrower.name);
+        return library.returnBook(isbn, borrower.name);
+    }
+}
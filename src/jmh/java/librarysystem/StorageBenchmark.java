@@ -0,0 +1,94 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link CatalogRepository} backends: the CSV data file, the
+ * {@link CompactCatalogFormat} file and the embedded H2 database.
+ *
+ * <p>{@code borrowAndReturnBook} persists both changes, so it shows the cost
+ * of a full file rewrite against a row-level update; {@code load} opens the
+ * catalog as at startup.</p>
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"10000", "100000"})
+    public int records;
+
+    @Param({"csv", "compact", "jdbc"})
+    public String backend;
+
+    private Path dir;
+    private String location;
+    private Library library;
+    private String isbn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("library-storage-");
+        Path csv = SyntheticCatalog.write(records);
+
+        if (backend.equals("csv")) {
+            location = Files.move(csv, dir.resolve("library.txt")).toString();
+        } else {
+            location = backend.equals("jdbc")
+                    ? "jdbc:h2:" + dir.resolve("library").toAbsolutePath()
+                    : dir.resolve("library" + CompactCatalogFormat.EXTENSION).toString();
+            try (Library source = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, csv.toString())) {
+                source.snapshot(location);
+            } finally {
+                SyntheticCatalog.delete(csv);
+            }
+        }
+
+        library = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, location);
+        isbn = SyntheticCatalog.idOf(records / 2 + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        library.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public LoanResult borrowAndReturnBook() {
+        library.borrowBook(isbn, "bench-borrower");
+        return library.returnBook(isbn, "bench-borrower");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int load() throws IOException {
+        try (Library loaded = new Library(new FineManager(), SyntheticCatalog.NO_EMAIL, location)) {
+            return loaded.getBooks().size();
+        }
+    }
+}
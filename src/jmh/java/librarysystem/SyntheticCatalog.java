@@ -0,0 +1,79 @@
+package librarysystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+
+/**
+ * Generates deterministic library.txt files for benchmarks.
+ *
+ * <p>Every 10th item is a CD, creators repeat every 40,000 items (like a
+ * real catalog), and every 50th item is on loan to one of 3,000 users with
+ * a due date spread over the past and next 60 days.</p>
+ */
+final class SyntheticCatalog {
+
+    static final int USERS = 3_000;
+    static final int AUTHORS = 40_000;
+
+    /** Email stub so benchmarks never reach SMTP. */
+    static final EmailService NO_EMAIL = (to, subject, body) -> true;
+
+    private SyntheticCatalog() {
+    }
+
+    /** @return the id of the i-th synthetic item */
+    static String idOf(int i) {
+        return (i % 10 == 9 ? "CD-" : "ISBN-") + i;
+    }
+
+    /** @return the username of the u-th synthetic user */
+    static String userOf(int u) {
+        return "user" + (u % USERS);
+    }
+
+    /**
+     * Writes a catalog with {@code size} items to a new temporary file.
+     *
+     * @return the file path
+     */
+    static Path write(int size) throws IOException {
+        Path file = Files.createTempFile("library-bench-" + size + "-", ".txt");
+        LocalDate today = LocalDate.now();
+
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size; i++) {
+                boolean cd = i % 10 == 9;
+                boolean onLoan = i % 50 == 0;
+
+                w.write(cd ? "CD" : "BOOK");
+                w.write(",Title " + i);
+                w.write(",Creator " + (i % AUTHORS));
+                w.write("," + idOf(i));
+                w.write(",5");
+
+                if (onLoan) {
+                    String user = userOf(i / 50);
+                    LocalDate due = today.plusDays(i % 120 - 60);
+                    w.write(",false," + user + "," + due + "," + user + "|" + due);
+                } else {
+                    w.write(",true,null,null,");
+                }
+                w.newLine();
+            }
+        }
+        return file;
+    }
+
+    /** Deletes a data file and the sidecars a {@link Library} left next to it. */
+    static void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        for (String suffix : new String[]{FileCatalogRepository.LOCK_SUFFIX,
+                FileCatalogRepository.JOURNAL_SUFFIX, SearchIndex.SUFFIX})
+            Files.deleteIfExists(Paths.get(file + suffix));
+    }
+}
@@ -0,0 +1,293 @@
+package librarysystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncLogger moves status output off the calling thread: callers publish a
+ * line into a preallocated ring buffer and a background thread encodes and
+ * writes the lines in batches.
+ *
+ * <p><b>Responsibilities:</b></p>
+ * <ul>
+ *     <li>Accept log lines from any thread without blocking on console I/O</li>
+ *     <li>Filter by {@link Level}</li>
+ *     <li>Write lines, in publication order, to a byte channel in large batches</li>
+ *     <li>Let interactive code {@link #flush()} before it prompts for input</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>The ring is a bounded multi-producer queue: each slot carries a
+ *         sequence number, so producers claim slots with one CAS and never lock</li>
+ *     <li>Slots are allocated once; publishing only stores a reference</li>
+ *     <li>When the ring is full a DEBUG line is dropped and counted rather
+ *         than blocking the caller; INFO and above wait for a free slot, since
+ *         listings and errors must not go missing</li>
+ *     <li>The shared logger writes to whatever {@code System.out} currently is,
+ *         so tools that redirect stdout keep working</li>
+ * </ul>
+ */
+public final class AsyncLogger implements Closeable {
+
+    /** Severity levels, lowest first; {@code OFF} disables all output. */
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int SHARED_CAPACITY = 8192;
+
+    private static final AsyncLogger SHARED = createShared();
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Count of lines fully written to the sink; only the drain thread writes it. */
+    private volatile long written;
+
+    private final WritableByteChannel sink;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private final CharBuffer newline = CharBuffer.wrap(System.lineSeparator());
+    private final Thread drainer;
+
+    private volatile Level level = Level.INFO;
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity maximum number of pending lines (rounded up to a power of two)
+     * @param sink     destination of the encoded lines
+     * @param charset  encoding of the output
+     */
+    public AsyncLogger(int capacity, WritableByteChannel sink, Charset charset) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) ring[i] = new Slot(i);
+
+        this.sink = sink;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        this.drainer = new Thread(this::drainLoop, "async-logger");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /** @return the logger used by the library components, writing to stdout */
+    public static AsyncLogger shared() {
+        return SHARED;
+    }
+
+    private static AsyncLogger createShared() {
+        AsyncLogger logger = new AsyncLogger(SHARED_CAPACITY, Channels.newChannel(new OutputStream() {
+            @Override
+            public void write(int b) {
+                System.out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                System.out.write(b, off, len);
+                System.out.flush();
+            }
+        }), Charset.defaultCharset());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> logger.flush(1, TimeUnit.SECONDS)));
+        return logger;
+    }
+
+    // ==========================================================
+    // PUBLISHING
+    // ==========================================================
+
+    public void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * Publishes a line if its level is enabled.
+     *
+     * @return true if the line was queued, false if filtered out or dropped
+     *         (only DEBUG lines are dropped, and only while the ring is full)
+     */
+    public boolean log(Level lineLevel, String message) {
+        if (lineLevel.ordinal() < level.ordinal() || lineLevel == Level.OFF || closed) return false;
+
+        long pos = tail.get();
+        while (true) {
+            Slot slot = ring[(int) pos & mask];
+            long diff = slot.sequence - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slot.message = message;
+                    slot.sequence = pos + 1;   // publish
+                    if (idle) LockSupport.unpark(drainer);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {                // ring full
+                if (lineLevel == Level.DEBUG || !drainer.isAlive()) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                LockSupport.unpark(drainer);
+                LockSupport.parkNanos(50_000);
+                pos = tail.get();
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /** @return DEBUG lines dropped because the ring was full */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** @return lines published but not yet written */
+    public int getBacklog() {
+        return (int) (tail.get() - written);
+    }
+
+    /**
+     * Waits until every line published before this call has been written.
+     * Interactive code calls this before prompting, so output stays in order.
+     */
+    public void flush() {
+        flush(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return true if the backlog was written before the timeout expired
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (written < target) {
+            if (!drainer.isAlive() || System.nanoTime() >= deadline) return false;
+            LockSupport.unpark(drainer);
+            LockSupport.parkNanos(50_000);
+        }
+        return true;
+    }
+
+    /** Writes the backlog and stops the drain thread. */
+    @Override
+    public void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==========================================================
+    // DRAINING (background thread only)
+    // ==========================================================
+
+    private void drainLoop() {
+        long head = 0;
+
+        while (true) {
+            Slot slot = ring[(int) head & mask];
+
+            if (slot.sequence == head + 1) {
+                String message = slot.message;
+                slot.message = null;
+                slot.sequence = head + ring.length;   // free the slot
+                head++;
+
+                encode(message == null ? "null" : message);
+                encode(newline);
+                if (buffer.position() > buffer.capacity() / 2) writeBuffer(head);
+                continue;
+            }
+
+            // ring empty: write what we have, then wait for more
+            writeBuffer(head);
+            if (closed) return;
+
+            idle = true;
+            if (ring[(int) head & mask].sequence != head + 1 && !closed)
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            idle = false;
+        }
+    }
+
+    private void encode(String message) {
+        encode(CharBuffer.wrap(message));
+    }
+
+    private void encode(CharBuffer chars) {
+        chars.rewind();
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) writeBuffer(-1);
+        encoder.flush(buffer);
+    }
+
+    /**
+     * Writes the buffered bytes to the sink.
+     *
+     * @param lines number of lines fully encoded so far, or -1 when called mid-line
+     */
+    private void writeBuffer(long lines) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) sink.write(buffer);
+        } catch (IOException e) {
+            // nowhere left to report it; the bytes are discarded
+        }
+        buffer.clear();
+        if (lines >= 0) written = lines;
+    }
+
+    /** One preallocated ring entry. */
+    private static final class Slot {
+        volatile long sequence;
+        String message;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
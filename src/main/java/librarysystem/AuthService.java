@@ -31,6 +31,11 @@ import java.util.Properties;
  */
 public class AuthService {
 
+    private static final MetricsRegistry.Timer LOGIN_TIME = MetricsRegistry.shared()
+            .timer("auth_login_seconds", "Time to check admin credentials.");
+    private static final MetricsRegistry.Counter LOGIN_FAILURES = MetricsRegistry.shared()
+            .counter("auth_login_failures_total", "Rejected login attempts.");
+
     /** The stored admin username */
     private String username;
 
@@ -74,6 +79,15 @@ public class AuthService {
      * @return true if credentials match stored salted hash, otherwise false
      */
     public boolean login(String user, String pass) {
+        long start = System.nanoTime();
+        boolean ok = checkCredentials(user, pass);
+
+        LOGIN_TIME.recordSince(start);
+        if (!ok) LOGIN_FAILURES.increment();
+        return ok;
+    }
+
+    private boolean checkCredentials(String user, String pass) {
 
         // Username must match
         if (!user.equals(username)) return false;
@@ -0,0 +1,310 @@
+package librarysystem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * BatchRunner executes a script of library commands without the interactive
+ * menu, e.g. a nightly file of returns from the drop box.
+ *
+ * <p><b>Script format:</b> one command per line; blank lines and lines
+ * starting with {@code #} are ignored; arguments containing spaces are
+ * double-quoted.</p>
+ * <pre>
+ *   RETURN_BOOK   isbn user
+ *   BORROW_BOOK   isbn user
+ *   RETURN_CD     id user
+ *   BORROW_CD     id user
+ *   ADD_BOOK      isbn copies "title" "author"
+ *   ADD_CD        id copies "title" "artist"
+ *   PAY_FINE      user amount
+ *   CHECK_OVERDUE user
+ *   CHECK_LOST    user
+ * </pre>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Commands call {@link Library} and its {@link FineManager} directly; nothing
+ *         is printed per command</li>
+ *     <li>Changes are committed every {@code batchSize} commands through
+ *         {@link Library#beginBatch()}/{@link Library#commitBatch()}, so the data
+ *         file is rewritten once per batch instead of once per command</li>
+ *     <li>A bad line is recorded in the report and skipped; it never stops the run</li>
+ *     <li>Overdue and lost notices are queued for a background sender and
+ *         drained before exit; {@code --no-email} skips them</li>
+ *     <li>The report counts outcomes per command (the {@link LoanResult} status
+ *         for loans) and lists the first errors with their line numbers</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.BatchRunner --file=library.txt --batch-size=1000 [--no-email] returns.txt
+ *   java librarysystem.Main --batch - &lt; returns.txt
+ * </pre>
+ */
+public final class BatchRunner {
+
+    /** Errors listed in the report; further errors are only counted. */
+    private static final int MAX_LISTED_ERRORS = 20;
+
+    /** Outcome of a script run. */
+    public static final class Report {
+        private final Map<String, Map<String, Integer>> outcomes = new TreeMap<>();
+        private final List<String> errors = new ArrayList<>();
+        private long commands;
+        private int errorCount;
+        private int commits;
+        private long elapsedNanos;
+
+        void count(String command, String outcome) {
+            commands++;
+            outcomes.computeIfAbsent(command, k -> new TreeMap<>()).merge(outcome, 1, Integer::sum);
+        }
+
+        void error(long line, String message) {
+            commands++;
+            errorCount++;
+            if (errors.size() < MAX_LISTED_ERRORS) errors.add("line " + line + ": " + message);
+        }
+
+        /** @return commands executed, including failed lines */
+        public long getCommands() {
+            return commands;
+        }
+
+        /** @return lines that could not be executed */
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        /** @return how many times the data file was written */
+        public int getCommits() {
+            return commits;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** @return how many times the command ended with the given outcome (lower-case) */
+        public int getCount(String command, String outcome) {
+            Map<String, Integer> byOutcome = outcomes.get(command);
+            Integer n = byOutcome == null ? null : byOutcome.get(outcome);
+            return n == null ? 0 : n;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder out = new StringBuilder(String.format(Locale.ROOT,
+                    "Batch: %d commands in %.2f s (%.0f/s), %d commits, %d errors%n",
+                    commands, seconds, seconds == 0 ? 0 : commands / seconds, commits, errorCount));
+
+            for (Map.Entry<String, Map<String, Integer>> e : outcomes.entrySet()) {
+                out.append(String.format("  %-14s", e.getKey()));
+                for (Map.Entry<String, Integer> o : e.getValue().entrySet())
+                    out.append(' ').append(o.getKey()).append('=').append(o.getValue());
+                out.append(System.lineSeparator());
+            }
+            for (String error : errors) out.append("  ❌ ").append(error).append(System.lineSeparator());
+            if (errorCount > errors.size())
+                out.append("  ... ").append(errorCount - errors.size()).append(" more errors")
+                   .append(System.lineSeparator());
+            return out.toString();
+        }
+    }
+
+    private BatchRunner() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = "library.txt";
+        String report = null;
+        String script = "-";
+        int batchSize = 1000;
+        boolean sendEmail = true;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                script = arg;
+                continue;
+            }
+            String[] kv = arg.substring(2).split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "file": file = v; break;
+                case "batch-size": batchSize = Integer.parseInt(v); break;
+                case "report": report = v; break;
+                case "no-email": sendEmail = false; break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        Report result;
+        try (QueuedEmailService email = QueuedEmailService.forTool(sendEmail);
+             Library library = new Library(new FineManager(), email, file);
+             Reader in = script.equals("-")
+                     ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                     : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+            result = run(library, new BufferedReader(in), batchSize);
+        }
+        AsyncLogger.shared().flush();
+
+        if (report == null) {
+            System.out.print(result);
+        } else {
+            try (PrintStream out = new PrintStream(report, "UTF-8")) {
+                out.print(result);
+            }
+        }
+    }
+
+    /**
+     * Executes every command in the script.
+     *
+     * @param library   library to act on (PAY_FINE uses its FineManager)
+     * @param script    the commands
+     * @param batchSize commands per commit (at least 1)
+     * @return counts, errors and timing of the run
+     * @throws IOException if the script cannot be read
+     */
+    public static Report run(Library library, BufferedReader script, int batchSize)
+            throws IOException {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+
+        Report report = new Report();
+        long start = System.nanoTime();
+        long lineNo = 0;
+        int inBatch = 0;
+
+        library.beginBatch();
+        try {
+            for (String line; (line = script.readLine()) != null; ) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+
+                try {
+                    execute(library, tokenize(trimmed), report);
+                } catch (IllegalArgumentException e) {
+                    report.error(lineNo, e.getMessage());
+                }
+
+                if (++inBatch == batchSize) {
+                    if (library.commitBatch()) report.commits++;
+                    library.beginBatch();
+                    inBatch = 0;
+                }
+            }
+        } finally {
+            if (library.commitBatch()) report.commits++;
+            report.elapsedNanos = System.nanoTime() - start;
+        }
+        return report;
+    }
+
+    private static void execute(Library library, List<String> args, Report report) {
+        String command = args.get(0).toUpperCase(Locale.ROOT);
+
+        switch (command) {
+            case "BORROW_BOOK":
+                expect(args, 3, "BORROW_BOOK isbn user");
+                loan(report, command, library.borrowBook(args.get(1), args.get(2)));
+                break;
+            case "RETURN_BOOK":
+                expect(args, 3, "RETURN_BOOK isbn user");
+                loan(report, command, library.returnBook(args.get(1), args.get(2)));
+                break;
+            case "BORROW_CD":
+                expect(args, 3, "BORROW_CD id user");
+                loan(report, command, library.borrowCD(args.get(1), args.get(2)));
+                break;
+            case "RETURN_CD":
+                expect(args, 3, "RETURN_CD id user");
+                loan(report, command, library.returnCD(args.get(1), args.get(2)));
+                break;
+            case "ADD_BOOK":
+                expect(args, 5, "ADD_BOOK isbn copies \"title\" \"author\"");
+                library.addBook(new Book(args.get(3), args.get(4), args.get(1)), nonNegative(args.get(2)));
+                report.count(command, "ok");
+                break;
+            case "ADD_CD":
+                expect(args, 5, "ADD_CD id copies \"title\" \"artist\"");
+                library.addCD(new CD(args.get(3), args.get(4), args.get(1)), nonNegative(args.get(2)));
+                report.count(command, "ok");
+                break;
+            case "PAY_FINE":
+                expect(args, 3, "PAY_FINE user amount");
+                library.getFineManager().payFine(args.get(1), nonNegative(args.get(2)));
+                report.count(command, "ok");
+                break;
+            case "CHECK_OVERDUE":
+                expect(args, 2, "CHECK_OVERDUE user");
+                report.count(command, library.checkOverdueBooks(args.get(1)) > 0 ? "overdue" : "ok");
+                break;
+            case "CHECK_LOST":
+                expect(args, 2, "CHECK_LOST user");
+                library.checkLostItems(args.get(1));
+                report.count(command, "ok");
+                break;
+            default:
+                throw new IllegalArgumentException("unknown command " + args.get(0));
+        }
+    }
+
+    private static void loan(Report report, String command, LoanResult result) {
+        report.count(command, result.getStatus().name().toLowerCase(Locale.ROOT));
+    }
+
+    private static void expect(List<String> args, int count, String usage) {
+        if (args.size() != count) throw new IllegalArgumentException("expected " + usage);
+    }
+
+    private static int nonNegative(String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0) return n;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("not a non-negative number: " + value);
+    }
+
+    /** Splits a line on whitespace, keeping double-quoted runs together. */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) tokens.add(current.toString());
+                current.setLength(0);
+                inToken = false;
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        if (inToken) tokens.add(current.toString());
+        return tokens;
+    }
+}
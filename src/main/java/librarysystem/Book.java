@@ -43,7 +43,7 @@ public class Book extends Media {
      */
     public Book(String title, String author, String isbn) {
         super(title);
-        this.author = author;
+        this.author = StringPool.shared().intern(author);
         this.isbn = isbn;
     }
 
@@ -58,7 +58,7 @@ public class Book extends Media {
      */
     public Book(String title, String author, String isbn, boolean available, LocalDate dueDate) {
         super(title);
-        this.author = author;
+        this.author = StringPool.shared().intern(author);
         this.isbn = isbn;
         this.available = available;
         this.dueDate = dueDate;
@@ -108,7 +108,7 @@ public class Book extends Media {
      * @param username borrower username
      */
     public void setBorrowedBy(String username) {
-        this.borrowedBy = username;
+        this.borrowedBy = StringPool.shared().intern(username);
     }
 
     /**
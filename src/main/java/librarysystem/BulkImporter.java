@@ -0,0 +1,308 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BulkImporter loads an acquisitions feed (CSV or TSV) into a {@link Library}
+ * in one pass and saves the data file once at the end.
+ *
+ * <p><b>Feed format:</b> one item per line, {@code type,title,creator,id,copies}
+ * where type is {@code BOOK} or {@code CD}. CSV fields may be double-quoted
+ * (with {@code ""} for a literal quote); TSV fields are split on tabs. A header
+ * line starting with {@code type} is skipped.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Lines are parsed on a parallel stream and folded by id into one
+ *         entry per title (copies summed), keeping feed order</li>
+ *     <li>Each title is then merged into the catalog: a new id is added, an
+ *         existing id keeps its entry and loans and gains the copies
+ *         ({@link Library#restock})</li>
+ *     <li>The merge runs inside one {@link Library#beginBatch() batch}, so
+ *         the data file is written once instead of once per title</li>
+ *     <li>Malformed lines are counted and sampled in the result, never fatal</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.BulkImporter --file=library.txt [--no-email] acquisitions.tsv
+ * </pre>
+ */
+public final class BulkImporter {
+
+    /** Malformed lines kept as examples in the result. */
+    private static final int MAX_SAMPLES = 20;
+
+    /** Outcome of one import. */
+    public static final class Result {
+        private long rows;
+        private long rejected;
+        private int inserted;
+        private int merged;
+        private long elapsedNanos;
+        private List<String> rejectedSamples = Collections.emptyList();
+
+        /** @return well-formed data lines in the feed */
+        public long getRows() {
+            return rows;
+        }
+
+        /** @return malformed lines that were skipped */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** @return titles new to the catalog */
+        public int getInserted() {
+            return inserted;
+        }
+
+        /** @return titles already in the catalog that gained copies */
+        public int getMerged() {
+            return merged;
+        }
+
+        /** @return rows folded into an earlier row with the same id */
+        public long getDuplicates() {
+            return rows - inserted - merged;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : (rows + rejected) / (elapsedNanos / 1e9);
+        }
+
+        /** @return up to 20 of the malformed lines, with the reason */
+        public List<String> getRejectedSamples() {
+            return rejectedSamples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "Imported %d rows in %.2f s (%.0f rows/s): %d new, %d merged, %d duplicates, %d rejected",
+                    rows, elapsedNanos / 1e9, getRowsPerSecond(), inserted, merged, getDuplicates(), rejected);
+        }
+    }
+
+    private BulkImporter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = "library.txt";
+        String feed = null;
+        Character separator = null;
+        boolean sendEmail = true;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                feed = arg;
+                continue;
+            }
+            String[] kv = arg.substring(2).split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "file": file = v; break;
+                case "separator": separator = v.equals("tab") ? '\t' : v.charAt(0); break;
+                case "no-email": sendEmail = false; break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+        if (feed == null) {
+            System.out.println("Usage: BulkImporter [--file=library.txt] [--separator=tab|,] [--no-email] feed.csv");
+            return;
+        }
+
+        Path path = Paths.get(feed);
+        Result result;
+        try (QueuedEmailService email = QueuedEmailService.forTool(sendEmail);
+             Library library = new Library(new FineManager(), email, file)) {
+            result = run(library, path, separator == null ? separatorFor(path) : separator);
+        }
+
+        AsyncLogger.shared().flush();
+        System.out.println(result);
+        for (String sample : result.getRejectedSamples()) System.out.println("  ❌ " + sample);
+    }
+
+    /** @return tab for .tsv/.tab files, comma otherwise */
+    static char separatorFor(Path feed) {
+        String name = feed.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".tsv") || name.endsWith(".tab") ? '\t' : ',';
+    }
+
+    /**
+     * Imports a feed file.
+     *
+     * @param library   catalog to merge into
+     * @param feed      CSV or TSV file
+     * @param separator field separator ({@code ','} or {@code '\t'})
+     * @return counts and throughput of the import
+     * @throws IOException if the feed cannot be read
+     */
+    public static Result run(Library library, Path feed, char separator) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+
+        LongAdder rows = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        List<String> samples = Collections.synchronizedList(new ArrayList<>());
+
+        Map<String, Row> titles;
+        try (Stream<String> lines = Files.lines(feed, StandardCharsets.UTF_8)) {
+            titles = lines.parallel()
+                    .map(line -> {
+                        try {
+                            Row row = Row.parse(line, separator);
+                            if (row != null) rows.increment();
+                            return row;
+                        } catch (IllegalArgumentException e) {
+                            rejected.increment();
+                            if (samples.size() < MAX_SAMPLES) samples.add(e.getMessage() + ": " + line);
+                            return null;
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toMap(Row::key, r -> r, Row::merge, LinkedHashMap::new));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        library.beginBatch();
+        try {
+            for (Row row : titles.values()) {
+                if (library.restock(row.toMedia(), row.copies)) result.inserted++;
+                else result.merged++;
+            }
+        } finally {
+            library.commitBatch();
+        }
+
+        result.rows = rows.sum();
+        result.rejected = rejected.sum();
+        result.rejectedSamples = new ArrayList<>(samples);
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // ==========================================================
+    // PARSING
+    // ==========================================================
+
+    /** One parsed feed line. */
+    static final class Row {
+        final boolean cd;
+        final String title;
+        final String creator;
+        final String id;
+        final int copies;
+        private final String key;
+
+        Row(boolean cd, String title, String creator, String id, int copies) {
+            this.cd = cd;
+            this.title = title;
+            this.creator = creator;
+            this.id = id;
+            this.copies = copies;
+            this.key = (cd ? "CD:" : "BOOK:") + id;
+        }
+
+        /**
+         * @return the row, or null for blank and header lines
+         * @throws IllegalArgumentException if the line is malformed
+         */
+        static Row parse(String line, char separator) {
+            if (line.trim().isEmpty()) return null;
+
+            List<String> f = split(line, separator);
+            if (f.get(0).trim().equalsIgnoreCase("type")) return null;
+            if (f.size() != 5) throw new IllegalArgumentException("expected 5 fields, got " + f.size());
+
+            String type = f.get(0).trim().toUpperCase(Locale.ROOT);
+            if (!type.equals("BOOK") && !type.equals("CD"))
+                throw new IllegalArgumentException("unknown type " + f.get(0));
+
+            String id = f.get(3).trim();
+            if (id.isEmpty()) throw new IllegalArgumentException("missing id");
+            if (id.indexOf(',') >= 0) throw new IllegalArgumentException("comma in id " + id);
+
+            int copies;
+            try {
+                copies = Integer.parseInt(f.get(4).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad copies " + f.get(4));
+            }
+            if (copies < 0) throw new IllegalArgumentException("negative copies");
+
+            // the data file is comma-separated, so commas cannot survive in text
+            // fields; they are blanked there, while an id is refused above rather
+            // than silently turned into another one
+            return new Row(type.equals("CD"), clean(f.get(1)), clean(f.get(2)), id, copies);
+        }
+
+        /** @return the catalog identity: type plus id (books and CDs have separate ids) */
+        String key() {
+            return key;
+        }
+
+        /** Keeps the first row's details and sums the copies. */
+        Row merge(Row later) {
+            return new Row(cd, title, creator, id, copies + later.copies);
+        }
+
+        Media toMedia() {
+            return cd ? new CD(title, creator, id) : new Book(title, creator, id);
+        }
+
+        private static String clean(String field) {
+            return field.trim().replace(',', ' ');
+        }
+    }
+
+    /** Splits one line; with a comma separator, honours double-quoted fields. */
+    static List<String> split(String line, char separator) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean csv = separator == ',';
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (csv && c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == separator && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -42,7 +42,7 @@ public class CD extends Media {
      */
     public CD(String title, String artist, String id) {
         super(title);
-        this.artist = artist;
+        this.artist = StringPool.shared().intern(artist);
         this.id = id;
     }
 
@@ -57,7 +57,7 @@ public class CD extends Media {
      */
     public CD(String title, String artist, String id, boolean available, LocalDate dueDate) {
         super(title);
-        this.artist = artist;
+        this.artist = StringPool.shared().intern(artist);
         this.id = id;
         this.available = available;
         this.dueDate = dueDate;
@@ -96,7 +96,7 @@ public class CD extends Media {
      * @param username username of borrower
      */
     public void setBorrowedBy(String username) {
-        this.borrowedBy = username;
+        this.borrowedBy = StringPool.shared().intern(username);
     }
 
     /**
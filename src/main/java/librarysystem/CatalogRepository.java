@@ -0,0 +1,161 @@
+package librarysystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * CatalogRepository is the storage SPI behind {@link Library}: it loads the
+ * catalog at startup and is told about every change, then persists the
+ * changes when the library saves.
+ *
+ * <p><b>Backends:</b></p>
+ * <ul>
+ *     <li>{@link FileCatalogRepository} — the text data file (default) or the
+ *         binary {@link CompactCatalogFormat}; rewrites the whole file per save</li>
+ *     <li>{@link JdbcCatalogRepository} — an embedded SQL database; writes only
+ *         the rows of items changed since the last save</li>
+ *     <li>{@link OffHeapCatalogRepository} — a memory-mapped
+ *         {@link OffHeapCatalog}; writes only the records of changed items</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>A backend is picked by location, so every tool that takes a data
+ *         file also takes a {@code jdbc:} URL ({@link #open(String)})</li>
+ *     <li>Change notifications only record what changed; nothing is written
+ *         before {@link #flush(Library)}, which is what lets
+ *         {@link Library#beginBatch()} group changes into one save</li>
+ *     <li>Backends shared by several processes serialize writers between
+ *         {@link #beginChange(Library)} and {@link #endChange()} and apply the
+ *         other processes' changes there; the defaults do nothing</li>
+ *     <li>All methods are called with the library lock held</li>
+ * </ul>
+ */
+public interface CatalogRepository extends Closeable {
+
+    /**
+     * Opens the backend for a location: a {@code jdbc:} URL or a file path
+     * (".lcf" selects the compact format, ".ohc" an off-heap catalog).
+     *
+     * @throws IOException if the database cannot be opened
+     */
+    static CatalogRepository open(String location) throws IOException {
+        if (JdbcCatalogRepository.handles(location)) return new JdbcCatalogRepository(location);
+        if (OffHeapCatalogRepository.handles(location)) return new OffHeapCatalogRepository(location);
+        return new FileCatalogRepository(location);
+    }
+
+    /**
+     * Opens the backend for a location like {@link #open(String)}; an ".ohc"
+     * catalog with a positive cache size is opened tiered, keeping only the
+     * items on loan and that many others on the heap ({@link TieredCatalog}).
+     *
+     * @throws IOException if the database cannot be opened
+     */
+    static CatalogRepository open(String location, int cacheSize) throws IOException {
+        if (cacheSize > 0 && OffHeapCatalogRepository.handles(location))
+            return new OffHeapCatalogRepository(location, cacheSize);
+        return open(location);
+    }
+
+    /** @return the file path or URL, for logs and events */
+    String getLocation();
+
+    /** @return true if the backend refuses every change (a replica) */
+    default boolean isReadOnly() {
+        return false;
+    }
+
+    /** @return bytes used by the stored catalog, or 0 if not known */
+    long getStoredBytes();
+
+    /**
+     * @return a file next to the stored catalog for derived data such as the
+     *         search index, or null if the backend has no such place
+     */
+    Path sidecar(String suffix);
+
+    /**
+     * Adds every stored item to the library, in catalog order.
+     *
+     * @return number of items loaded
+     */
+    int load(Library library) throws IOException;
+
+    /** An item was added, or replaced with a new entry for the same id. */
+    void upsertItem(InventoryItem item);
+
+    /** An item was withdrawn from the catalog. */
+    void removeItem(InventoryItem item);
+
+    /** A copy of the item was lent. */
+    void recordLoan(InventoryItem item, int copy);
+
+    /** A copy of the item came back (the copy is already released). */
+    void recordReturn(InventoryItem item, int copy);
+
+    /** Copies were added to an existing item. */
+    void updateStock(InventoryItem item);
+
+    /**
+     * Persists every change recorded since the last successful flush. After
+     * a failure the changes stay pending, so a later flush retries them.
+     */
+    void flush(Library library) throws IOException;
+
+    /** Replaces the stored catalog with the library's full contents. */
+    void replaceAll(Library library) throws IOException;
+
+    // ==========================================================
+    // SHARING BETWEEN PROCESSES
+    // ==========================================================
+
+    /**
+     * Starts a change (one operation, or a whole batch): waits until no other
+     * process is changing the catalog, then applies the changes they saved.
+     * Calls nest; each must be matched by {@link #endChange()}, which is
+     * called even if this one throws. A read-only backend throws
+     * {@link UnsupportedOperationException}, which refuses the change.
+     *
+     * @throws IOException if the catalog cannot be locked or caught up
+     */
+    default void beginChange(Library library) throws IOException {
+    }
+
+    /** Ends the change begun by the matching {@link #beginChange(Library)}. */
+    default void endChange() {
+    }
+
+    /**
+     * Applies changes saved by other processes since this one last looked.
+     *
+     * @throws IOException if they cannot be read
+     */
+    default void refresh(Library library) throws IOException {
+    }
+
+    /**
+     * Calls {@link Library#refresh()} whenever another process saves, until
+     * the returned handle is closed.
+     *
+     * @throws IOException if the location cannot be watched
+     */
+    default Closeable watch(Library library) throws IOException {
+        return () -> { };
+    }
+
+    /**
+     * Told by the library when catching up applies an item another process
+     * saved, or withdraws one ({@code item} is null). Wrappers use it to pass
+     * such changes on; the storage itself has nothing to record.
+     *
+     * @param key "TYPE:id", as from {@link FileCatalogRepository#keyOf}
+     */
+    default void changedElsewhere(String key, InventoryItem item) {
+    }
+
+    /** Told by the library when it is emptied to reload the whole catalog. */
+    default void catalogCleared() {
+    }
+}
@@ -0,0 +1,546 @@
+package librarysystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * CatalogSync brings the {@link Library} catalog in line with a full dump from
+ * the union catalog, applying only the differences.
+ *
+ * <p><b>How it works:</b></p>
+ * <ul>
+ *     <li>The feed (same format as {@link BulkImporter}) is sorted by type and id.
+ *         Up to {@code runSize} rows are sorted in memory; larger feeds are
+ *         spilled to sorted run files and k-way merged (external merge sort).
+ *         More than {@code mergeFanIn} runs are first merged in groups into
+ *         longer runs, so the final merge never has more files open</li>
+ *     <li>The catalog's keys are sorted the same way, and the two sorted
+ *         streams are merge-joined in one pass:
+ *         <ul>
+ *             <li>only in the feed → insert</li>
+ *             <li>in both, title/creator/copies differ → update</li>
+ *             <li>only in the catalog → delete</li>
+ *         </ul></li>
+ *     <li>Items with copies on loan are never updated or deleted; they are
+ *         counted as skipped and picked up by a later sync</li>
+ *     <li>Deletes are held back until the join is done and then withheld
+ *         altogether if any feed line was rejected (its id would look
+ *         withdrawn) or if they would remove more than
+ *         {@code maxDeleteFraction} of the catalog (an empty or truncated
+ *         dump); inserts and updates still go ahead</li>
+ *     <li>Rows repeating an id are folded into the first (copies summed), as in
+ *         the bulk importer</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Memory is bounded by {@code runSize} feed rows plus one row per
+ *         merged run, whatever the feed size</li>
+ *     <li>Run files store strings as a length and UTF-8 bytes, so a field is
+ *         not limited to the 64 KB of {@link DataOutputStream#writeUTF}</li>
+ *     <li>Changes are applied inside one {@link Library#beginBatch() batch};
+ *         a dry run only counts them</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.CatalogSync --file=library.txt --run-size=100000 [--merge-fan-in=64]
+ *                                  [--dry-run] [--max-delete-fraction=0.1] [--no-email] dump.csv
+ * </pre>
+ */
+public final class CatalogSync {
+
+    /** Run parameters. */
+    public static final class Config {
+        /** Feed rows sorted in memory before spilling a run to disk. */
+        public int runSize = 100_000;
+        /** Most run files merged (and open) at once; more are merged in passes. */
+        public int mergeFanIn = 64;
+        /** Directory for run files (default: the system temp directory). */
+        public Path tempDir;
+        /** Count the changes without applying them. */
+        public boolean dryRun;
+        /** Largest share of the catalog one run may delete; more withholds every delete. */
+        public double maxDeleteFraction = 0.1;
+        public char separator = ',';
+    }
+
+    /** Changes found (and applied unless dry-run). */
+    public static final class Result {
+        private int inserts;
+        private int updates;
+        private int deletes;
+        private int deletesWithheld;
+        private int skippedOnLoan;
+        private long rejected;
+        private int runs;
+        private long elapsedNanos;
+
+        public int getInserts() {
+            return inserts;
+        }
+
+        public int getUpdates() {
+            return updates;
+        }
+
+        public int getDeletes() {
+            return deletes;
+        }
+
+        /** @return deletes found but not made because the feed looked incomplete */
+        public int getDeletesWithheld() {
+            return deletesWithheld;
+        }
+
+        /** @return updates and deletes left undone because copies were on loan */
+        public int getSkippedOnLoan() {
+            return skippedOnLoan;
+        }
+
+        /** @return malformed feed lines */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** @return sorted runs spilled to disk (0 if the feed fit in memory) */
+        public int getRuns() {
+            return runs;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "Sync: %d inserts, %d updates, %d deletes (%d withheld), %d skipped (on loan), %d rejected, %d runs, %.2f s",
+                    inserts, updates, deletes, deletesWithheld, skippedOnLoan, rejected, runs, elapsedNanos / 1e9);
+        }
+    }
+
+    private static final Comparator<BulkImporter.Row> BY_KEY = Comparator.comparing(BulkImporter.Row::key);
+
+    private CatalogSync() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Config cfg = new Config();
+        String file = "library.txt";
+        String feed = null;
+        boolean separatorGiven = false;
+        boolean sendEmail = true;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                feed = arg;
+                continue;
+            }
+            String[] kv = arg.substring(2).split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "file": file = v; break;
+                case "run-size": cfg.runSize = Integer.parseInt(v); break;
+                case "merge-fan-in": cfg.mergeFanIn = Integer.parseInt(v); break;
+                case "temp-dir": cfg.tempDir = Paths.get(v); break;
+                case "dry-run": cfg.dryRun = true; break;
+                case "max-delete-fraction": cfg.maxDeleteFraction = Double.parseDouble(v); break;
+                case "no-email": sendEmail = false; break;
+                case "separator":
+                    cfg.separator = v.equals("tab") ? '\t' : v.charAt(0);
+                    separatorGiven = true;
+                    break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+        if (feed == null) {
+            System.out.println("Usage: CatalogSync [--file=library.txt] [--run-size=N] [--merge-fan-in=N] [--dry-run] "
+                    + "[--max-delete-fraction=0.1] [--no-email] dump.csv");
+            return;
+        }
+
+        Path path = Paths.get(feed);
+        if (!separatorGiven) cfg.separator = BulkImporter.separatorFor(path);
+
+        Result result;
+        try (QueuedEmailService email = QueuedEmailService.forTool(sendEmail);
+             Library library = new Library(new FineManager(), email, file)) {
+            result = run(library, path, cfg);
+        }
+        AsyncLogger.shared().flush();
+        System.out.println(result);
+    }
+
+    /**
+     * Sorts the feed and merge-joins it against the catalog.
+     *
+     * @param library catalog to update
+     * @param feed    full dump of the union catalog
+     * @param cfg     run parameters
+     * @return the changes found
+     * @throws IOException if the feed or a run file cannot be read or written
+     */
+    public static Result run(Library library, Path feed, Config cfg) throws IOException {
+        if (cfg.runSize < 1) throw new IllegalArgumentException("runSize must be at least 1");
+        if (cfg.mergeFanIn < 2) throw new IllegalArgumentException("mergeFanIn must be at least 2");
+        long start = System.nanoTime();
+        Result result = new Result();
+
+        try (SortedFeed sorted = sort(feed, cfg, result)) {
+            List<String> catalog = catalogKeys(library);
+
+            if (!cfg.dryRun) library.beginBatch();
+            try {
+                List<String> deletions = mergeJoin(library, sorted, catalog, cfg.dryRun, result);
+                applyDeletes(library, deletions, catalog.size(), cfg, result);
+            } finally {
+                if (!cfg.dryRun) library.commitBatch();
+            }
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // ==========================================================
+    // MERGE JOIN
+    // ==========================================================
+
+    /** Applies inserts and updates; @return the keys to delete, in key order */
+    private static List<String> mergeJoin(Library library, SortedFeed feed, List<String> catalog,
+                                          boolean dryRun, Result result) throws IOException {
+        List<String> deletions = new ArrayList<>();
+        Iterator<String> keys = catalog.iterator();
+        String key = keys.hasNext() ? keys.next() : null;
+        BulkImporter.Row row = feed.next();
+
+        while (row != null || key != null) {
+            int cmp = row == null ? 1 : key == null ? -1 : row.key().compareTo(key);
+
+            if (cmp < 0) {
+                result.inserts++;
+                if (!dryRun) library.restock(row.toMedia(), row.copies);
+                row = feed.next();
+
+            } else if (cmp > 0) {
+                InventoryItem item = lookup(library, key);
+                if (item != null && item.getLoanCount() > 0) result.skippedOnLoan++;
+                else if (item != null) deletions.add(key);
+                key = keys.hasNext() ? keys.next() : null;
+
+            } else {
+                InventoryItem item = lookup(library, key);
+                if (item != null && differs(row, item)) {
+                    if (item.getLoanCount() > 0) result.skippedOnLoan++;
+                    else {
+                        result.updates++;
+                        if (!dryRun) update(library, row);
+                    }
+                }
+                row = feed.next();
+                key = keys.hasNext() ? keys.next() : null;
+            }
+        }
+        return deletions;
+    }
+
+    /**
+     * Makes the deletes unless the feed had rejected lines or the deletes
+     * exceed the configured share of the catalog.
+     */
+    private static void applyDeletes(Library library, List<String> deletions, int catalogSize,
+                                     Config cfg, Result result) {
+        if (result.rejected > 0 || deletions.size() > cfg.maxDeleteFraction * catalogSize) {
+            result.deletesWithheld = deletions.size();
+            if (!deletions.isEmpty())
+                AsyncLogger.shared().error("Sync withheld " + deletions.size() + " deletes of " + catalogSize
+                        + " items (" + result.rejected + " rejected feed lines).");
+            return;
+        }
+        result.deletes = deletions.size();
+        if (!cfg.dryRun) for (String key : deletions) remove(library, key);
+    }
+
+    /** @return "BOOK:isbn" / "CD:id" for every catalog item, sorted */
+    private static List<String> catalogKeys(Library library) {
+        List<String> keys;
+        synchronized (library) {
+            keys = new ArrayList<>(library.getBooks().size() + library.getCDs().size());
+            for (Book b : library.getBooks()) keys.add("BOOK:" + b.getIsbn());
+            for (CD cd : library.getCDs()) keys.add("CD:" + cd.getId());
+        }
+        keys.sort(null);
+        return keys;
+    }
+
+    private static InventoryItem lookup(Library library, String key) {
+        return key.startsWith("CD:")
+                ? library.getCDInventory(key.substring(3))
+                : library.getBookInventory(key.substring(5));
+    }
+
+    private static void remove(Library library, String key) {
+        if (key.startsWith("CD:")) library.removeCD(key.substring(3));
+        else library.removeBook(key.substring(5));
+    }
+
+    private static boolean differs(BulkImporter.Row row, InventoryItem item) {
+        Media m = item.getMedia();
+        String creator = m instanceof Book ? ((Book) m).getAuthor() : ((CD) m).getArtist();
+        return !row.title.equals(m.getTitle())
+                || !row.creator.equals(creator)
+                || row.copies != item.getTotalCopies();
+    }
+
+    private static void update(Library library, BulkImporter.Row row) {
+        if (row.cd) library.addCD(new CD(row.title, row.creator, row.id), row.copies);
+        else library.addBook(new Book(row.title, row.creator, row.id), row.copies);
+    }
+
+    // ==========================================================
+    // EXTERNAL SORT
+    // ==========================================================
+
+    /** Feed rows in key order, duplicates folded; returns null when exhausted. */
+    private interface SortedFeed extends Closeable {
+        BulkImporter.Row next() throws IOException;
+    }
+
+    private static SortedFeed sort(Path feed, Config cfg, Result result) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        List<BulkImporter.Row> buffer = new ArrayList<>();
+
+        try (BufferedReader in = Files.newBufferedReader(feed, StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                BulkImporter.Row row;
+                try {
+                    row = BulkImporter.Row.parse(line, cfg.separator);
+                } catch (IllegalArgumentException e) {
+                    result.rejected++;
+                    continue;
+                }
+                if (row == null) continue;
+
+                buffer.add(row);
+                if (buffer.size() == cfg.runSize) {
+                    runs.add(spill(buffer, cfg.tempDir));
+                    buffer.clear();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteAll(runs);
+            throw e;
+        }
+
+        buffer.sort(BY_KEY);   // stable: the first row of a repeated id stays first
+        if (runs.isEmpty()) return folding(new MemoryRun(buffer), () -> { });
+
+        try {
+            if (!buffer.isEmpty()) runs.add(spill(buffer, cfg.tempDir));
+            result.runs = runs.size();
+            reduceRuns(runs, cfg.mergeFanIn, cfg.tempDir);
+            return folding(new MergedRuns(runs), () -> deleteAll(runs));
+        } catch (IOException | RuntimeException e) {
+            deleteAll(runs);
+            throw e;
+        }
+    }
+
+    private static Path spill(List<BulkImporter.Row> rows, Path dir) throws IOException {
+        rows.sort(BY_KEY);
+        Path run = createRun(dir);
+        try (DataOutputStream out = openRun(run)) {
+            for (BulkImporter.Row r : rows) writeRow(out, r);
+        }
+        return run;
+    }
+
+    /**
+     * Merges consecutive groups of {@code fanIn} runs into one until at most
+     * {@code fanIn} are left. Groups keep the runs' order, so ties still go to
+     * the row earlier in the feed. On return {@code runs} lists the files
+     * left; on failure it also lists the merged files written so far.
+     */
+    private static void reduceRuns(List<Path> runs, int fanIn, Path dir) throws IOException {
+        while (runs.size() > fanIn) {
+            List<Path> inputs = new ArrayList<>(runs);
+            runs.clear();
+            try {
+                for (int i = 0; i < inputs.size(); i += fanIn) {
+                    List<Path> group = inputs.subList(i, Math.min(i + fanIn, inputs.size()));
+                    if (group.size() == 1) {
+                        runs.add(group.get(0));
+                        continue;
+                    }
+                    Path merged = createRun(dir);
+                    runs.add(merged);
+                    try (MergedRuns in = new MergedRuns(group);
+                         DataOutputStream out = openRun(merged)) {
+                        for (BulkImporter.Row r; (r = in.next()) != null; ) writeRow(out, r);
+                    }
+                    deleteAll(group);
+                }
+            } catch (IOException | RuntimeException e) {
+                runs.addAll(inputs);
+                throw e;
+            }
+        }
+    }
+
+    private static Path createRun(Path dir) throws IOException {
+        return dir == null ? Files.createTempFile("sync-run", ".bin")
+                : Files.createTempFile(dir, "sync-run", ".bin");
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 64 * 1024));
+    }
+
+    private static void writeRow(DataOutputStream out, BulkImporter.Row r) throws IOException {
+        out.writeBoolean(r.cd);
+        writeString(out, r.title);
+        writeString(out, r.creator);
+        writeString(out, r.id);
+        out.writeInt(r.copies);
+    }
+
+    /** Writes a string as its UTF-8 length and bytes; unlike writeUTF, any length fits. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void deleteAll(List<Path> files) throws IOException {
+        for (Path f : files) Files.deleteIfExists(f);
+    }
+
+    /** Wraps a sorted source so consecutive rows with the same key come out as one. */
+    private static SortedFeed folding(SortedFeed source, Closeable cleanup) throws IOException {
+        return new SortedFeed() {
+            private BulkImporter.Row pending = source.next();
+
+            @Override
+            public BulkImporter.Row next() throws IOException {
+                BulkImporter.Row row = pending;
+                if (row == null) return null;
+
+                pending = source.next();
+                while (pending != null && pending.key().equals(row.key())) {
+                    row = row.merge(pending);
+                    pending = source.next();
+                }
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    source.close();
+                } finally {
+                    cleanup.close();
+                }
+            }
+        };
+    }
+
+    /** A feed small enough to sort in memory. */
+    private static final class MemoryRun implements SortedFeed {
+        private final Iterator<BulkImporter.Row> rows;
+
+        MemoryRun(List<BulkImporter.Row> rows) {
+            this.rows = rows.iterator();
+        }
+
+        @Override
+        public BulkImporter.Row next() {
+            return rows.hasNext() ? rows.next() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** K-way merge of sorted run files; ties go to the earlier run, i.e. earlier in the feed. */
+    private static final class MergedRuns implements SortedFeed {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> heads = new PriorityQueue<>(
+                Comparator.comparing((RunReader r) -> r.head.key()).thenComparingInt(r -> r.index));
+
+        MergedRuns(List<Path> runs) throws IOException {
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader reader = new RunReader(runs.get(i), i);
+                    readers.add(reader);
+                    if (reader.advance()) heads.add(reader);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public BulkImporter.Row next() throws IOException {
+            RunReader reader = heads.poll();
+            if (reader == null) return null;
+
+            BulkImporter.Row row = reader.head;
+            if (reader.advance()) heads.add(reader);
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader r : readers) r.in.close();
+        }
+    }
+
+    private static final class RunReader {
+        final DataInputStream in;
+        final int index;
+        BulkImporter.Row head;
+
+        RunReader(Path run, int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 64 * 1024));
+            this.index = index;
+        }
+
+        /** @return false at the end of the run */
+        boolean advance() throws IOException {
+            try {
+                boolean cd = in.readBoolean();
+                head = new BulkImporter.Row(cd, readString(), readString(), readString(), in.readInt());
+                return true;
+            } catch (EOFException e) {
+                head = null;
+                return false;
+            }
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
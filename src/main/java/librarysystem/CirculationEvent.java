@@ -0,0 +1,69 @@
+package librarysystem;
+
+import java.util.Locale;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one borrow or return, emitted by {@link Library}.
+ *
+ * <p>The event's duration covers the whole operation, including the file
+ * rewrite and the notification emails, which have their own events
+ * ({@link PersistEvent}, {@link EmailEvent}) nested inside it.</p>
+ */
+@Name("librarysystem.Circulation")
+@Label("Circulation")
+@Category({"Library", "Circulation"})
+@Description("A book or CD was borrowed or returned.")
+@StackTrace(false)
+final class CirculationEvent extends Event {
+
+    @Label("Operation")
+    @Description("borrow or return")
+    String operation;
+
+    @Label("Item Type")
+    String itemType;
+
+    @Label("Item Id")
+    String itemId;
+
+    @Label("Copy")
+    @Description("Copy number lent or returned, -1 if none")
+    int copy = -1;
+
+    @Label("Fine")
+    @Description("Late fine added on return, in NIS")
+    int fine;
+
+    @Label("Outcome")
+    @Description("LoanResult status in lower case, or error if an exception escaped")
+    String outcome = "error";
+
+    /** Creates and begins an event; the caller sets the outcome and commits it. */
+    static CirculationEvent start(String operation, String itemType, String itemId) {
+        CirculationEvent event = new CirculationEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.itemType = itemType;
+            event.itemId = itemId;
+            event.begin();
+        }
+        return event;
+    }
+
+    /** Records the operation's result (null if it threw) and commits the event. */
+    void finish(LoanResult result) {
+        if (!shouldCommit()) return;
+        if (result != null) {
+            outcome = result.getStatus().name().toLowerCase(Locale.ROOT);
+            if (result.getFine() > 0) fine = result.getFine();
+        }
+        commit();
+    }
+}
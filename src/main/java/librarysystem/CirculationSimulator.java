@@ -0,0 +1,270 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CirculationSimulator replays many days of library use on a
+ * {@link SimulationClock}, as fast as the CPU allows, to show how fines,
+ * overdue sweeps and the data file grow over time.
+ *
+ * <p><b>Each simulated day:</b></p>
+ * <ul>
+ *     <li>Users with fines pay them off with some probability</li>
+ *     <li>Users return the loans they planned to return by today; most keep
+ *         an item 1-40 days (so some come back late), a few keep it 60-90 days
+ *         and are reported lost</li>
+ *     <li>Users borrow a Zipf-popular book with some probability</li>
+ *     <li>An overdue sweep runs for every user with loans, and a lost-item
+ *         sweep runs once a week</li>
+ *     <li>The clock then advances one day</li>
+ * </ul>
+ *
+ * <p><b>Output:</b> one row per day with wall time, operations per second,
+ * loans outstanding, unpaid fines, emails sent and the data file size.</p>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.CirculationSimulator --days=365 --users=500 --items=5000
+ * </pre>
+ */
+public final class CirculationSimulator {
+
+    /** Run parameters. */
+    public static final class Config {
+        public int days = 365;
+        public int users = 200;
+        public int items = 2_000;
+        public double borrowProbability = 0.3;
+        public double payProbability = 0.5;
+        public int maxLoansPerUser = 5;
+        public double zipfExponent = 0.99;
+        public LocalDate start = LocalDate.of(2024, 1, 1);
+        public long seed = 42;
+    }
+
+    /** Metrics for one simulated day. */
+    public static final class Day {
+        private final LocalDate date;
+        private final long operations;
+        private final long elapsedNanos;
+        private final int loansOutstanding;
+        private final long finesOutstanding;
+        private final long emailsSent;
+        private final long fileBytes;
+
+        Day(LocalDate date, long operations, long elapsedNanos, int loansOutstanding,
+            long finesOutstanding, long emailsSent, long fileBytes) {
+            this.date = date;
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.loansOutstanding = loansOutstanding;
+            this.finesOutstanding = finesOutstanding;
+            this.emailsSent = emailsSent;
+            this.fileBytes = fileBytes;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : operations / (elapsedNanos / 1e9);
+        }
+
+        public int getLoansOutstanding() {
+            return loansOutstanding;
+        }
+
+        /** @return total unpaid fines (NIS) at the end of the day */
+        public long getFinesOutstanding() {
+            return finesOutstanding;
+        }
+
+        /** @return emails sent during the day */
+        public long getEmailsSent() {
+            return emailsSent;
+        }
+
+        /** @return size of the data file at the end of the day */
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        static String header() {
+            return String.format("%-10s %8s %10s %10s %8s %10s %8s %12s",
+                    "date", "ops", "wall(ms)", "ops/s", "loans", "fines", "emails", "file(bytes)");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %8d %10.1f %10.0f %8d %10d %8d %12d",
+                    date, operations, elapsedNanos / 1e6, getThroughput(),
+                    loansOutstanding, finesOutstanding, emailsSent, fileBytes);
+        }
+    }
+
+    /** Receives each day's metrics as soon as the day is over. */
+    public interface DayListener {
+        void onDay(Day day);
+    }
+
+    private CirculationSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "days": cfg.days = Integer.parseInt(v); break;
+                case "users": cfg.users = Integer.parseInt(v); break;
+                case "items": cfg.items = Integer.parseInt(v); break;
+                case "borrow": cfg.borrowProbability = Double.parseDouble(v); break;
+                case "pay": cfg.payProbability = Double.parseDouble(v); break;
+                case "zipf": cfg.zipfExponent = Double.parseDouble(v); break;
+                case "start": cfg.start = LocalDate.parse(v); break;
+                case "seed": cfg.seed = Long.parseLong(v); break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        PrintStream console = System.out;
+        console.println(Day.header());
+        run(cfg, console::println);
+    }
+
+    /**
+     * Seeds a temporary catalog and simulates {@code cfg.days} days of circulation.
+     *
+     * @param listener receives each day's metrics (may be null)
+     * @return the metrics of every simulated day, in order
+     */
+    public static List<Day> run(Config cfg, DayListener listener) throws IOException {
+        Path file = LoadGenerator.seedCatalog(cfg.items);
+        AtomicLong emails = new AtomicLong();
+        EmailService countingEmail = (to, subject, body) -> {
+            emails.incrementAndGet();
+            return true;
+        };
+
+        PrintStream console = System.out;
+        System.setOut(LoadGenerator.discardingStream());
+
+        SimulationClock clock = new SimulationClock(cfg.start);
+        FineManager fines = new FineManager();
+        try (Library library = new Library(fines, countingEmail, file.toString(), clock)) {
+            ZipfDistribution zipf = new ZipfDistribution(cfg.items, cfg.zipfExponent);
+            Random random = new Random(cfg.seed);
+
+            List<List<Loan>> loans = new ArrayList<>(cfg.users);
+            for (int u = 0; u < cfg.users; u++) loans.add(new ArrayList<>());
+
+            List<Day> result = new ArrayList<>(cfg.days);
+
+            for (int d = 0; d < cfg.days; d++) {
+                LocalDate today = clock.today();
+                long emailsBefore = emails.get();
+                long ops = 0;
+                long start = System.nanoTime();
+
+                for (int u = 0; u < cfg.users; u++) {
+                    String user = "sim-user-" + u;
+                    List<Loan> held = loans.get(u);
+
+                    int owed = fines.getFine(user);
+                    if (owed > 0 && random.nextDouble() < cfg.payProbability) {
+                        fines.payFine(user, owed);
+                        ops++;
+                    }
+
+                    for (Iterator<Loan> it = held.iterator(); it.hasNext(); ) {
+                        Loan loan = it.next();
+                        if (!today.isBefore(loan.returnOn)) {
+                            library.returnBook(loan.isbn, user);
+                            it.remove();
+                            ops++;
+                        }
+                    }
+
+                    if (held.size() < cfg.maxLoansPerUser
+                            && random.nextDouble() < cfg.borrowProbability) {
+                        String isbn = "LG" + zipf.sample(random);
+                        LoanResult loan = library.borrowBook(isbn, user);
+                        ops++;
+
+                        if (loan.isSuccess())
+                            held.add(new Loan(isbn, today.plusDays(keepDays(random))));
+                    }
+                }
+
+                boolean weekly = d % 7 == 6;
+                int outstanding = 0;
+                for (int u = 0; u < cfg.users; u++) {
+                    if (loans.get(u).isEmpty()) continue;
+                    String user = "sim-user-" + u;
+                    library.checkOverdueBooks(user);
+                    ops++;
+                    if (weekly) {
+                        library.checkLostItems(user);
+                        ops++;
+                    }
+                    outstanding += loans.get(u).size();
+                }
+
+                Day day = new Day(today, ops, System.nanoTime() - start, outstanding,
+                        fines.getTotalOutstanding(), emails.get() - emailsBefore, Files.size(file));
+                result.add(day);
+                if (listener != null) listener.onDay(day);
+
+                clock.advanceDays(1);
+            }
+
+            return result;
+
+        } finally {
+            AsyncLogger.shared().flush();
+            System.setOut(console);
+            Files.deleteIfExists(file);
+            for (String suffix : new String[]{FileCatalogRepository.LOCK_SUFFIX,
+                    FileCatalogRepository.JOURNAL_SUFFIX, SearchIndex.SUFFIX})
+                Files.deleteIfExists(Paths.get(file + suffix));
+        }
+    }
+
+    /** @return how many days a user keeps a book: usually 1-40, occasionally 60-90 */
+    private static int keepDays(Random random) {
+        return random.nextInt(50) == 0 ? 60 + random.nextInt(31) : 1 + random.nextInt(40);
+    }
+
+    /** A loan held by a simulated user and the day they intend to return it. */
+    private static final class Loan {
+        final String isbn;
+        final LocalDate returnOn;
+
+        Loan(String isbn, LocalDate returnOn) {
+            this.isbn = isbn;
+            this.returnOn = returnOn;
+        }
+    }
+}
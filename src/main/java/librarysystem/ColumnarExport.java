@@ -0,0 +1,515 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ColumnarExport writes a consistent snapshot of the catalog and its loans
+ * to a compact, typed, column-oriented file for the reporting team, and
+ * reads such files back.
+ *
+ * <p><b>File layout:</b></p>
+ * <pre>
+ *   "LCX1"
+ *   block*     table(1) flags(1) rows(4) rawLength(4) storedLength(4) payload
+ *   end        table 0
+ * </pre>
+ * Items are written in row groups of up to {@code rowsPerGroup} items; each
+ * items block is followed by a loans block for the same items. A payload is
+ * a sequence of columns, each prefixed with its byte length (varint) so a
+ * reader can skip the columns it does not need.
+ *
+ * <p><b>Columns:</b></p>
+ * <ul>
+ *     <li>Items: kind (run-length booleans, CD = true), id, title (UTF-8),
+ *         creator (group dictionary + codes), copies (varint),
+ *         available (run-length booleans: at least one copy on the shelf)</li>
+ *     <li>Loans: item row (delta varint, rows are numbered across the file),
+ *         borrower (group dictionary + codes), due date (zig-zag varint epoch day)</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>The export holds the Library lock, like {@link Library#snapshot}, so
+ *         the file is one consistent point in time</li>
+ *     <li>Strings are UTF-8 encoded straight from the catalog's own String
+ *         objects into reused column buffers; no per-row objects are created</li>
+ *     <li>Dictionaries are per row group, so memory stays bounded by the group
+ *         size however large the catalog is</li>
+ *     <li>Each block is deflated at {@link Deflater#BEST_SPEED} (optional);
+ *         titles are unlike the comma-joined data file, so commas survive</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.ColumnarExport --file=library.txt --out=catalog.lcx
+ * </pre>
+ */
+public final class ColumnarExport {
+
+    static final int MAGIC = 0x4C435831;   // "LCX1"
+
+    static final byte TABLE_END = 0;
+    static final byte TABLE_ITEMS = 1;
+    static final byte TABLE_LOANS = 2;
+
+    private static final byte FLAG_DEFLATED = 1;
+
+    private static final int HEADER_BYTES = 14;
+
+    /** Export parameters. */
+    public static final class Config {
+        public int rowsPerGroup = 65_536;
+        public boolean compress = true;
+    }
+
+    /** Receives the rows of an exported file, in file order. */
+    public interface Visitor {
+        void item(long row, boolean cd, String id, String title, String creator, int copies, boolean available);
+
+        void loan(long itemRow, String borrower, LocalDate due);
+    }
+
+    /** Size and timing of one export. */
+    public static final class Summary {
+        private long items;
+        private long loans;
+        private int groups;
+        private long rawBytes;
+        private long fileBytes;
+        private long elapsedNanos;
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getLoans() {
+            return loans;
+        }
+
+        public int getGroups() {
+            return groups;
+        }
+
+        /** @return payload bytes before compression */
+        public long getRawBytes() {
+            return rawBytes;
+        }
+
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format(Locale.ROOT,
+                    "Exported %d items and %d loans in %d groups: %d bytes (%d uncompressed), %.2f s (%.0f rows/s)",
+                    items, loans, groups, fileBytes, rawBytes, seconds,
+                    seconds == 0 ? 0 : (items + loans) / seconds);
+        }
+    }
+
+    private ColumnarExport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Config cfg = new Config();
+        String file = "library.txt";
+        String out = "catalog.lcx";
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "file": file = v; break;
+                case "out": out = v; break;
+                case "rows-per-group": cfg.rowsPerGroup = Integer.parseInt(v); break;
+                case "no-compress": cfg.compress = false; break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        Summary summary;
+        try (Library library = new Library(new FineManager(), (to, subject, body) -> true, file)) {
+            summary = write(library, Paths.get(out), cfg);
+        }
+        AsyncLogger.shared().flush();
+        System.out.println(summary);
+    }
+
+    // ==========================================================
+    // WRITING
+    // ==========================================================
+
+    /**
+     * Exports the library's catalog and loans.
+     *
+     * @param library source (locked for the duration of the export)
+     * @param out     destination file (replaced)
+     * @param cfg     export parameters
+     * @return sizes and timing of the export
+     * @throws IOException if the file cannot be written
+     */
+    public static Summary write(Library library, Path out, Config cfg) throws IOException {
+        if (cfg.rowsPerGroup < 1) throw new IllegalArgumentException("rowsPerGroup must be at least 1");
+        long start = System.nanoTime();
+
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            GroupWriter writer = new GroupWriter(ch, cfg);
+            ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC);
+            magic.flip();
+            writeFully(ch, magic);
+
+            synchronized (library) {
+                for (Book b : library.getBooks())
+                    writer.add(false, b.getIsbn(), b.getTitle(), b.getAuthor(), library.getBookInventory(b.getIsbn()));
+                for (CD cd : library.getCDs())
+                    writer.add(true, cd.getId(), cd.getTitle(), cd.getArtist(), library.getCDInventory(cd.getId()));
+            }
+            writer.finish();
+
+            Summary summary = writer.summary;
+            summary.fileBytes = ch.size();
+            summary.elapsedNanos = System.nanoTime() - start;
+            return summary;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    /** Accumulates one row group in column buffers and writes it out as two blocks. */
+    private static final class GroupWriter {
+        private final FileChannel channel;
+        private final Config cfg;
+        private final Summary summary = new Summary();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] compressed = new byte[64 * 1024];
+
+        // items columns
+        private final VarintBuffer kind = new VarintBuffer();
+        private final VarintBuffer ids = new VarintBuffer();
+        private final VarintBuffer titles = new VarintBuffer();
+        private final VarintBuffer creators = new VarintBuffer();
+        private final VarintBuffer copies = new VarintBuffer();
+        private final VarintBuffer available = new VarintBuffer();
+        private final Dictionary creatorDict = new Dictionary();
+        private final RunLength kindRuns = new RunLength(kind);
+        private final RunLength availableRuns = new RunLength(available);
+
+        // loans columns
+        private final VarintBuffer loanRows = new VarintBuffer();
+        private final VarintBuffer borrowers = new VarintBuffer();
+        private final VarintBuffer dues = new VarintBuffer();
+        private final Dictionary borrowerDict = new Dictionary();
+
+        private final VarintBuffer payload = new VarintBuffer();
+
+        private int groupItems;
+        private int groupLoans;
+        private long row;
+        private long lastLoanRow;
+
+        GroupWriter(FileChannel channel, Config cfg) {
+            this.channel = channel;
+            this.cfg = cfg;
+        }
+
+        void add(boolean cd, String id, String title, String creator, InventoryItem item) throws IOException {
+            kindRuns.add(cd);
+            ids.putUtf8(id);
+            titles.putUtf8(title);
+            creators.putVarint(creatorDict.code(creator));
+            copies.putVarint(item.getTotalCopies());
+            availableRuns.add(item.getAvailableCopies() > 0);
+
+            for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1)) {
+                loanRows.putVarint(row - lastLoanRow);
+                lastLoanRow = row;
+                borrowers.putVarint(borrowerDict.code(item.getBorrower(c)));
+                int due = item.getDueEpochDay(c);
+                // NO_DATE is stored as 0; real dates as zig-zag(day) + 1
+                dues.putVarint(due == InventoryItem.NO_DATE ? 0 : VarintBuffer.zigZag(due) + 1);
+                groupLoans++;
+            }
+
+            row++;
+            if (++groupItems == cfg.rowsPerGroup) flushGroup();
+        }
+
+        void finish() throws IOException {
+            if (groupItems > 0) flushGroup();
+            ByteBuffer end = ByteBuffer.allocate(1).put(TABLE_END);
+            end.flip();
+            writeFully(channel, end);
+            deflater.end();
+        }
+
+        private void flushGroup() throws IOException {
+            kindRuns.finish();
+            availableRuns.finish();
+
+            payload.clear();
+            payload.putSection(kind);
+            payload.putSection(ids);
+            payload.putSection(titles);
+            payload.putSection(creatorDict.column);
+            payload.putSection(creators);
+            payload.putSection(copies);
+            payload.putSection(available);
+            writeBlock(TABLE_ITEMS, groupItems);
+
+            payload.clear();
+            payload.putSection(loanRows);
+            payload.putSection(borrowerDict.column);
+            payload.putSection(borrowers);
+            payload.putSection(dues);
+            writeBlock(TABLE_LOANS, groupLoans);
+
+            summary.items += groupItems;
+            summary.loans += groupLoans;
+            summary.groups++;
+
+            for (VarintBuffer c : new VarintBuffer[]{kind, ids, titles, creators, copies, available, loanRows, borrowers, dues})
+                c.clear();
+            creatorDict.clear();
+            borrowerDict.clear();
+            groupItems = 0;
+            groupLoans = 0;
+        }
+
+        private void writeBlock(byte table, int rows) throws IOException {
+            byte[] body = payload.bytes;
+            int length = payload.size;
+            byte flags = 0;
+
+            if (cfg.compress) {
+                deflater.reset();
+                deflater.setInput(payload.bytes, 0, payload.size);
+                deflater.finish();
+                int n = 0;
+                while (!deflater.finished()) {
+                    if (n == compressed.length) compressed = Arrays.copyOf(compressed, n * 2);
+                    n += deflater.deflate(compressed, n, compressed.length - n);
+                }
+                if (n < payload.size) {
+                    body = compressed;
+                    length = n;
+                    flags = FLAG_DEFLATED;
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.put(table).put(flags).putInt(rows).putInt(payload.size).putInt(length);
+            header.flip();
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(body, 0, length));
+            summary.rawBytes += payload.size;
+        }
+    }
+
+    /** Per-group string dictionary; code 0 stands for null. */
+    private static final class Dictionary {
+        final VarintBuffer column = new VarintBuffer();
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        int code(String value) {
+            if (value == null) return 0;
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = codes.size() + 1;
+                codes.put(value, code);
+                column.putUtf8(value);
+            }
+            return code;
+        }
+
+        void clear() {
+            codes.clear();
+            column.clear();
+        }
+    }
+
+    /** Encodes booleans as alternating run lengths, starting with a run of false. */
+    private static final class RunLength {
+        private final VarintBuffer out;
+        private boolean current;
+        private int run;
+
+        RunLength(VarintBuffer out) {
+            this.out = out;
+        }
+
+        void add(boolean value) {
+            if (value != current) {
+                out.putVarint(run);
+                current = value;
+                run = 0;
+            }
+            run++;
+        }
+
+        void finish() {
+            if (run > 0) out.putVarint(run);
+            current = false;
+            run = 0;
+        }
+    }
+
+    // ==========================================================
+    // READING
+    // ==========================================================
+
+    /**
+     * Reads an exported file and passes every row to the visitor.
+     *
+     * @return number of item rows read
+     * @throws IOException if the file cannot be read or is not an export
+     */
+    public static long read(Path file, Visitor visitor) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = readFully(ch, 4);
+            if (magic.getInt() != MAGIC) throw new IOException("Not a columnar export: " + file);
+
+            Inflater inflater = new Inflater();
+            long row = 0;
+            long loanRow = 0;
+            try {
+                while (true) {
+                    byte table = readFully(ch, 1).get();
+                    if (table == TABLE_END) return row;
+
+                    ByteBuffer header = readFully(ch, HEADER_BYTES - 1);
+                    byte flags = header.get();
+                    int rows = header.getInt();
+                    int raw = header.getInt();
+                    int stored = header.getInt();
+                    ByteBuffer payload = readFully(ch, stored);
+
+                    if ((flags & FLAG_DEFLATED) != 0) {
+                        byte[] out = new byte[raw];
+                        inflater.reset();
+                        inflater.setInput(payload.array(), 0, stored);
+                        try {
+                            if (inflater.inflate(out) != raw) throw new IOException("Truncated block in " + file);
+                        } catch (DataFormatException e) {
+                            throw new IOException("Corrupt block in " + file, e);
+                        }
+                        payload = ByteBuffer.wrap(out);
+                    }
+
+                    if (table == TABLE_ITEMS) {
+                        readItems(payload, rows, row, visitor);
+                        row += rows;
+                    } else if (table == TABLE_LOANS) {
+                        loanRow = readLoans(payload, rows, loanRow, visitor);
+                    } else {
+                        throw new IOException("Unknown table " + table + " in " + file);
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private static void readItems(ByteBuffer p, int rows, long firstRow, Visitor visitor) {
+        ByteBuffer kind = column(p);
+        ByteBuffer ids = column(p);
+        ByteBuffer titles = column(p);
+        String[] creatorDict = dictionary(column(p));
+        ByteBuffer creators = column(p);
+        ByteBuffer copies = column(p);
+        ByteBuffer available = column(p);
+
+        RunReader kinds = new RunReader(kind);
+        RunReader avail = new RunReader(available);
+        for (int i = 0; i < rows; i++) {
+            visitor.item(firstRow + i, kinds.next(), VarintBuffer.readUtf8(ids), VarintBuffer.readUtf8(titles),
+                    creatorDict[(int) VarintBuffer.readVarint(creators)], (int) VarintBuffer.readVarint(copies), avail.next());
+        }
+    }
+
+    private static long readLoans(ByteBuffer p, int rows, long row, Visitor visitor) {
+        ByteBuffer itemRows = column(p);
+        String[] borrowerDict = dictionary(column(p));
+        ByteBuffer borrowers = column(p);
+        ByteBuffer dues = column(p);
+
+        for (int i = 0; i < rows; i++) {
+            row += VarintBuffer.readVarint(itemRows);
+            String borrower = borrowerDict[(int) VarintBuffer.readVarint(borrowers)];
+            long due = VarintBuffer.readVarint(dues);
+            visitor.loan(row, borrower, due == 0 ? null : LocalDate.ofEpochDay(VarintBuffer.unZigZag(due - 1)));
+        }
+        return row;
+    }
+
+    private static final class RunReader {
+        private final ByteBuffer runs;
+        private boolean value = true;   // flipped before the first run (false)
+        private long left;
+
+        RunReader(ByteBuffer runs) {
+            this.runs = runs;
+        }
+
+        boolean next() {
+            while (left == 0) {
+                left = VarintBuffer.readVarint(runs);
+                value = !value;
+            }
+            left--;
+            return value;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) throw new IOException("Unexpected end of export file");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** @return the next length-prefixed column as a slice, advancing past it */
+    private static ByteBuffer column(ByteBuffer p) {
+        int length = (int) VarintBuffer.readVarint(p);
+        ByteBuffer slice = p.slice();
+        slice.limit(length);
+        p.position(p.position() + length);
+        return slice;
+    }
+
+    private static String[] dictionary(ByteBuffer column) {
+        String[] values = new String[8];
+        int n = 1;   // code 0 = null
+        while (column.hasRemaining()) {
+            if (n == values.length) values = Arrays.copyOf(values, n * 2);
+            values[n++] = VarintBuffer.readUtf8(column);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,255 @@
+package librarysystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * CompactCatalogFormat is the binary alternative to the comma-separated data
+ * file, used by {@link Library} when the file name ends in {@value #EXTENSION}.
+ *
+ * <p><b>File layout:</b></p>
+ * <pre>
+ *   "LCF1"
+ *   block*   rawLength(4) storedLength(4, 0 = not compressed) bytes
+ *   end      rawLength 0
+ * </pre>
+ * Each block holds whole records, about 64 KB of them before compression:
+ * <pre>
+ *   kind(1)  title  creator  id  shelfCopies  loanCount  (borrower  due)*
+ * </pre>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Creators and borrowers share one dictionary for the whole file: a
+ *         string is written in full the first time and as a small code after
+ *         that (code 0 = null, next unused code = a new string follows)</li>
+ *     <li>Numbers are varints and dates are zig-zag epoch days
+ *         ({@link VarintBuffer}); no "true"/"false"/"null" literals</li>
+ *     <li>Blocks are compressed with the in-project {@link LzBlockCodec} and
+ *         stored raw when that does not help</li>
+ *     <li>The record content mirrors the CSV file (shelf copies, then every
+ *         loan with the one shown on the Media object last), so both formats
+ *         load into the same state</li>
+ * </ul>
+ */
+final class CompactCatalogFormat {
+
+    static final String EXTENSION = ".lcf";
+
+    static final int MAGIC = 0x4C434631;   // "LCF1"
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private CompactCatalogFormat() {
+    }
+
+    /** @return true if the path names a compact catalog file */
+    static boolean handles(String path) {
+        return path.toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+
+    // ==========================================================
+    // WRITING
+    // ==========================================================
+
+    /**
+     * Writes the whole catalog. The caller holds the library lock.
+     *
+     * @return number of records written
+     */
+    static int write(Library library, String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path), BLOCK_SIZE))) {
+            out.writeInt(MAGIC);
+
+            BlockWriter blocks = new BlockWriter(out);
+            Map<String, Integer> dictionary = new HashMap<>();
+            int records = 0;
+
+            for (Book b : library.getBooks()) {
+                blocks.record(dictionary, false, b.getTitle(), b.getAuthor(), b.getIsbn(),
+                        library.getBookInventory(b.getIsbn()));
+                records++;
+            }
+            for (CD cd : library.getCDs()) {
+                blocks.record(dictionary, true, cd.getTitle(), cd.getArtist(), cd.getId(),
+                        library.getCDInventory(cd.getId()));
+                records++;
+            }
+
+            blocks.flush();
+            out.writeInt(0);
+            return records;
+        }
+    }
+
+    private static final class BlockWriter {
+        private final DataOutputStream out;
+        private final VarintBuffer buffer = new VarintBuffer(BLOCK_SIZE + 4096);
+        private final LzBlockCodec codec = new LzBlockCodec();
+        private byte[] compressed = new byte[LzBlockCodec.maxCompressedLength(BLOCK_SIZE + 4096)];
+
+        BlockWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void record(Map<String, Integer> dictionary, boolean cd, String title, String creator,
+                    String id, InventoryItem item) throws IOException {
+            buffer.put((byte) (cd ? 1 : 0));
+            buffer.putUtf8(title);
+            putShared(dictionary, creator);
+            buffer.putUtf8(id);
+            buffer.putVarint(item.getAvailableCopies());
+            buffer.putVarint(item.getLoanCount());
+
+            int shown = Library.shownLoan(item);
+            for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1))
+                if (c != shown) putLoan(dictionary, item, c);
+            if (shown >= 0) putLoan(dictionary, item, shown);
+
+            if (buffer.size >= BLOCK_SIZE) flush();
+        }
+
+        private void putLoan(Map<String, Integer> dictionary, InventoryItem item, int copy) {
+            putShared(dictionary, item.getBorrower(copy));
+            int due = item.getDueEpochDay(copy);
+            buffer.putVarint(due == InventoryItem.NO_DATE ? 0 : VarintBuffer.zigZag(due) + 1);
+        }
+
+        private void putShared(Map<String, Integer> dictionary, String value) {
+            if (value == null) {
+                buffer.putVarint(0);
+                return;
+            }
+            Integer code = dictionary.get(value);
+            if (code != null) {
+                buffer.putVarint(code);
+            } else {
+                code = dictionary.size() + 1;
+                dictionary.put(value, code);
+                buffer.putVarint(code);
+                buffer.putUtf8(value);
+            }
+        }
+
+        void flush() throws IOException {
+            if (buffer.size == 0) return;
+
+            int max = LzBlockCodec.maxCompressedLength(buffer.size);
+            if (compressed.length < max) compressed = new byte[max];
+            int n = codec.compress(buffer.bytes, buffer.size, compressed);
+
+            out.writeInt(buffer.size);
+            if (n < buffer.size) {
+                out.writeInt(n);
+                out.write(compressed, 0, n);
+            } else {
+                out.writeInt(0);
+                out.write(buffer.bytes, 0, buffer.size);
+            }
+            buffer.clear();
+        }
+    }
+
+    // ==========================================================
+    // READING
+    // ==========================================================
+
+    /**
+     * Loads every record into the library. An empty file is an empty catalog.
+     *
+     * @return number of records read
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    static int read(Library library, String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path), BLOCK_SIZE))) {
+
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                return 0;
+            }
+            if (magic != MAGIC) throw new IOException("Not a compact catalog file: " + path);
+
+            SharedStrings dictionary = new SharedStrings();
+            byte[] stored = new byte[0];
+            byte[] raw = new byte[0];
+            int records = 0;
+
+            for (int rawLength; (rawLength = in.readInt()) != 0; ) {
+                int storedLength = in.readInt();
+                if (raw.length < rawLength) raw = new byte[rawLength];
+
+                if (storedLength == 0) {
+                    in.readFully(raw, 0, rawLength);
+                } else {
+                    if (stored.length < storedLength) stored = new byte[storedLength];
+                    in.readFully(stored, 0, storedLength);
+                    try {
+                        if (LzBlockCodec.decompress(stored, storedLength, raw) != rawLength)
+                            throw new IOException("Corrupt block in " + path);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Corrupt block in " + path, e);
+                    }
+                }
+
+                ByteBuffer block = ByteBuffer.wrap(raw, 0, rawLength);
+                while (block.hasRemaining()) {
+                    boolean cd = block.get() == 1;
+                    String title = VarintBuffer.readUtf8(block);
+                    String creator = dictionary.read(block, path);
+
+                    String id = VarintBuffer.readUtf8(block);
+                    int shelf = (int) VarintBuffer.readVarint(block);
+                    int loans = (int) VarintBuffer.readVarint(block);
+
+                    InventoryItem item = library.stockLoaded(
+                            cd ? new CD(title, creator, id) : new Book(title, creator, id), shelf);
+                    for (int i = 0; i < loans; i++) {
+                        String borrower = dictionary.read(block, path);
+                        long due = VarintBuffer.readVarint(block);
+
+                        item.addCopies(1);
+                        item.lend(borrower, due == 0 ? null : LocalDate.ofEpochDay(VarintBuffer.unZigZag(due - 1)));
+                    }
+                    records++;
+                }
+            }
+            return records;
+        }
+    }
+
+    /** Reader side of the shared creator/borrower dictionary. */
+    private static final class SharedStrings {
+        private String[] values = new String[256];
+        private int size;
+
+        String read(ByteBuffer block, String path) throws IOException {
+            int code = (int) VarintBuffer.readVarint(block);
+            if (code == 0) return null;
+
+            if (code == size + 1) {   // first use: the string follows
+                if (code == values.length) values = Arrays.copyOf(values, code * 2);
+                values[code] = VarintBuffer.readUtf8(block);
+                size = code;
+            } else if (code > size) {
+                throw new IOException("Bad dictionary code " + code + " in " + path);
+            }
+            return values[code];
+        }
+    }
+}
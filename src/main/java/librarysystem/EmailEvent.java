@@ -0,0 +1,33 @@
+package librarysystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one SMTP send, emitted by {@link EmailSender}.
+ * The recipient address is deliberately not recorded.
+ */
+@Name("librarysystem.Email")
+@Label("Email Send")
+@Category({"Library", "Email"})
+@Description("An email was handed to the SMTP server.")
+@StackTrace(false)
+final class EmailEvent extends Event {
+
+    @Label("Subject")
+    String subject;
+
+    @Label("SMTP Host")
+    String host;
+
+    @Label("Outcome")
+    @Description("ok or error")
+    String outcome = "error";
+
+    @Label("Error")
+    String error;
+}
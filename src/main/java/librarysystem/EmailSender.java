@@ -14,6 +14,13 @@ import jakarta.mail.internet.MimeMessage;
 
 public class EmailSender {
 
+    private static final AsyncLogger LOG = AsyncLogger.shared();
+
+    private static final MetricsRegistry.Timer SEND_TIME = MetricsRegistry.shared()
+            .timer("email_send_seconds", "Time to hand an email to the SMTP server.");
+    private static final MetricsRegistry.Counter SEND_FAILURES = MetricsRegistry.shared()
+            .counter("email_send_failures_total", "Emails that could not be sent.");
+
     private final String username;
     private final String password;
     private final String smtpHost;
@@ -39,6 +46,9 @@ public class EmailSender {
      * @return true if email sent successfully, false otherwise
      */
     public boolean sendEmail(String to, String subject, String body) {
+        long start = System.nanoTime();
+        EmailEvent event = new EmailEvent();
+        event.begin();
         try {
             Properties props = new Properties();
             props.put("mail.smtp.auth", "true");
@@ -61,12 +71,23 @@ public class EmailSender {
 
             Transport.send(msg);
 
-            System.out.println("📧 Email sent to: " + to);
+            LOG.info("📧 Email sent to: " + to);
+            event.outcome = "ok";
             return true;
 
         } catch (Exception e) {
-            System.out.println("❌ Email error: " + e.getMessage());
+            SEND_FAILURES.increment();
+            event.error = e.getMessage();
+            LOG.error("❌ Email error: " + e.getMessage());
             return false;
+
+        } finally {
+            SEND_TIME.recordSince(start);
+            if (event.shouldCommit()) {
+                event.subject = subject;
+                event.host = smtpHost;
+                event.commit();
+            }
         }
     }
 }
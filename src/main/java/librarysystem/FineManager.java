@@ -5,29 +5,51 @@ import java.util.Map;
 
 public class FineManager {
 
-    private final Map<String, Integer> fines = new HashMap<>();
+    private static final MetricsRegistry.Counter ASSESSED = MetricsRegistry.shared()
+            .counter("fines_assessed_total", "Fines added, in NIS.");
+    private static final MetricsRegistry.Counter PAID = MetricsRegistry.shared()
+            .counter("fines_paid_total", "Fines paid off, in NIS.");
 
-    public void addFine(String user, int amount) {
+    /** user → balance; a one-element array so updates happen in place instead of boxing */
+    private final Map<String, int[]> fines = new HashMap<>();
+
+    public synchronized void addFine(String user, int amount) {
         if (amount < 0) return; // ignore negatives
-        fines.put(user, fines.getOrDefault(user, 0) + amount);
+        balance(user)[0] += amount;
+        ASSESSED.add(amount);
     }
 
-    public int getFine(String user) {
-        return fines.getOrDefault(user, 0);
+    public synchronized int getFine(String user) {
+        int[] balance = fines.get(user);
+        return balance == null ? 0 : balance[0];
     }
 
-    public void payFine(String user, int amount) {
+    public synchronized void payFine(String user, int amount) {
         if (amount < 0) return;
 
         int current = getFine(user);
+        PAID.add(Math.min(amount, current));
         current -= amount;
 
         if (current < 0) current = 0;
 
-        fines.put(user, current);
+        balance(user)[0] = current;
     }
 
-    public boolean hasOutstandingFine(String user) {
+    public synchronized boolean hasOutstandingFine(String user) {
         return getFine(user) > 0;
     }
+
+    /** Sum of all unpaid fines, for reporting. */
+    public synchronized long getTotalOutstanding() {
+        long total = 0;
+        for (int[] balance : fines.values()) total += balance[0];
+        return total;
+    }
+
+    private int[] balance(String user) {
+        int[] balance = fines.get(user);
+        if (balance == null) fines.put(user, balance = new int[1]);
+        return balance;
+    }
 }
@@ -1,5 +1,8 @@
 package librarysystem;
 
+import java.time.LocalDate;
+import java.util.Arrays;
+
 /**
  * InventoryItem represents a single media item (Book, CD, etc.)
  * inside the library's inventory, along with the number of total
@@ -9,6 +12,7 @@ package librarysystem;
  * <ul>
  *     <li>Track how many copies of a media item exist in the library</li>
  *     <li>Track how many copies are currently available for borrowing</li>
+ *     <li>Record which user holds each copy on loan and when it is due</li>
  *     <li>Reduce available copies when a user borrows an item</li>
  *     <li>Increase available copies when a user returns an item</li>
  * </ul>
@@ -18,14 +22,23 @@ package librarysystem;
  *     <li>The Media object is stored as final because the item type never changes.</li>
  *     <li>Borrowing is prevented if no copies are available, ensuring data consistency.</li>
  *     <li>Available copies never exceed total copies.</li>
- *     <li>This class is intentionally simple and focused → Single Responsibility Principle.</li>
+ *     <li>Loans are kept in a compact per-copy table: an on-loan bitset plus parallel
+ *         borrower and due-date (epoch day) arrays.</li>
+ *     <li>Free copies are kept on a stack, so finding one is O(1).</li>
+ *     <li>The Media object mirrors the most recent outstanding loan, so existing
+ *         code reading {@link Media#getBorrowedBy()} keeps working.</li>
+ *     <li>Once stocked by a Library, every loan and return is also reported to
+ *         its {@link LoanLedger}, which indexes loans by borrower.</li>
  * </ul>
  *
  * @author Team Library
- * @version 1.0
+ * @version 1.1
  */
 public class InventoryItem {
 
+    /** Due-date marker for copies on loan without a due date. */
+    static final int NO_DATE = Integer.MIN_VALUE;
+
     /** The media item (e.g., Book, CD) stored in inventory */
     private final Media media;
 
@@ -35,16 +48,45 @@ public class InventoryItem {
     /** Number of copies currently available to borrow */
     private int availableCopies;
 
+    /** Bit i is set while copy i is on loan */
+    private long[] onLoan;
+
+    /** Borrower of each copy (null when free or unknown) */
+    private String[] borrowers;
+
+    /** Due date of each copy as epoch day ({@link #NO_DATE} when none) */
+    private int[] dueDays;
+
+    /** Stack of free copy numbers; the top {@code availableCopies} entries are valid */
+    private int[] freeCopies;
+
+    /** Borrower index of the library that stocks this item (null otherwise) */
+    LoanLedger ledger;
+
     /**
      * Creates an inventory item for a given media with a fixed number of copies.
      *
+     * <p>If the media is already on loan (for example a book loaded from file),
+     * that loan is recorded as one additional copy.</p>
+     *
      * @param media  the media object (Book, CD, etc.)
      * @param copies total number of copies available at initialization
      */
     public InventoryItem(Media media, int copies) {
         this.media = media;
-        this.totalCopies = copies;
-        this.availableCopies = copies;
+        this.onLoan = new long[0];
+        this.borrowers = new String[0];
+        this.dueDays = new int[0];
+        this.freeCopies = new int[0];
+
+        addCopies(Math.max(copies, 0));
+
+        if (!media.isAvailable()) {
+            addCopies(1);
+            record(takeFreeCopy(), media.getBorrowedBy(), media.getDueDate());
+        }
+
+        media.inventory = this;
     }
 
     /**
@@ -68,16 +110,20 @@ public class InventoryItem {
         return availableCopies;
     }
 
+    /**
+     * @return how many copies are currently on loan
+     */
+    public int getLoanCount() {
+        return totalCopies - availableCopies;
+    }
+
     /**
      * Decreases the number of available copies when a user borrows this item.
      *
      * @throws IllegalStateException if no copies are available to borrow
      */
     public void borrowCopy() {
-        if (availableCopies <= 0)
-            throw new IllegalStateException("No copies available for this item.");
-
-        availableCopies--;
+        record(takeFreeCopy(), null, null);
     }
 
     /**
@@ -85,7 +131,130 @@ public class InventoryItem {
      * Ensures available copies never exceed total copies.
      */
     public void returnCopy() {
-        if (availableCopies < totalCopies)
-            availableCopies++;
+        int copy = nextLoan(0);
+        if (copy >= 0) release(copy);
+    }
+
+    /**
+     * Lends a free copy to a user.
+     *
+     * @param username borrower
+     * @param due      due date (may be null)
+     * @return the copy number that was lent
+     * @throws IllegalStateException if no copies are available to borrow
+     */
+    public int lend(String username, LocalDate due) {
+        int copy = takeFreeCopy();
+        record(copy, username, due);
+        media.setLoan(due, borrowers[copy]);
+        return copy;
+    }
+
+    /**
+     * Returns a copy to the shelf. If it was the loan shown on the Media
+     * object, the Media switches to another outstanding loan (or becomes available).
+     *
+     * @param copy copy number previously returned by {@link #lend}
+     */
+    public void release(int copy) {
+        if (!isOnLoan(copy)) return;
+
+        String user = borrowers[copy];
+        if (ledger != null) ledger.remove(this, copy, user);
+        onLoan[copy >>> 6] &= ~(1L << copy);
+        borrowers[copy] = null;
+        dueDays[copy] = NO_DATE;
+        freeCopies[availableCopies++] = copy;
+
+        if (user != null ? user.equals(media.getBorrowedBy()) : media.getBorrowedBy() == null) {
+            int other = nextLoan(0);
+            if (other >= 0) media.setLoan(getDueDate(other), borrowers[other]);
+            else media.clearLoan();
+        }
+    }
+
+    /**
+     * Adds copies to the inventory, for example when more copies are purchased.
+     *
+     * @param count number of new copies
+     */
+    public void addCopies(int count) {
+        if (count <= 0) return;
+
+        int total = totalCopies + count;
+        onLoan = Arrays.copyOf(onLoan, (total + 63) >>> 6);
+        borrowers = Arrays.copyOf(borrowers, total);
+        dueDays = Arrays.copyOf(dueDays, total);
+        freeCopies = Arrays.copyOf(freeCopies, total);
+
+        for (int copy = totalCopies; copy < total; copy++) {
+            dueDays[copy] = NO_DATE;
+            freeCopies[availableCopies++] = copy;
+        }
+        totalCopies = total;
+    }
+
+    /**
+     * @return the first copy on loan to the user, or -1 if there is none
+     */
+    public int findLoan(String username) {
+        for (int copy = nextLoan(0); copy >= 0; copy = nextLoan(copy + 1)) {
+            if (username.equals(borrowers[copy])) return copy;
+        }
+        return -1;
+    }
+
+    /**
+     * Iterates over copies on loan:
+     * {@code for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1))}.
+     *
+     * @param fromCopy first copy number to consider
+     * @return the next copy on loan at or after {@code fromCopy}, or -1
+     */
+    public int nextLoan(int fromCopy) {
+        if (fromCopy >= totalCopies) return -1;
+
+        int word = fromCopy >>> 6;
+        long bits = onLoan[word] & (-1L << fromCopy);
+
+        while (true) {
+            if (bits != 0) return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word >= onLoan.length) return -1;
+            bits = onLoan[word];
+        }
+    }
+
+    /** @return true if the copy is currently on loan */
+    public boolean isOnLoan(int copy) {
+        return copy >= 0 && copy < totalCopies && (onLoan[copy >>> 6] & (1L << copy)) != 0;
+    }
+
+    /** @return the user holding the copy, or null */
+    public String getBorrower(int copy) {
+        return borrowers[copy];
+    }
+
+    /** @return the due date of the copy, or null */
+    public LocalDate getDueDate(int copy) {
+        return dueDays[copy] == NO_DATE ? null : LocalDate.ofEpochDay(dueDays[copy]);
+    }
+
+    /** @return the due date of the copy as epoch day, or {@link #NO_DATE} */
+    int getDueEpochDay(int copy) {
+        return dueDays[copy];
+    }
+
+    private int takeFreeCopy() {
+        if (availableCopies <= 0)
+            throw new IllegalStateException("No copies available for this item.");
+
+        return freeCopies[--availableCopies];
+    }
+
+    private void record(int copy, String username, LocalDate due) {
+        onLoan[copy >>> 6] |= 1L << copy;
+        borrowers[copy] = StringPool.shared().intern(username);
+        dueDays[copy] = due == null ? NO_DATE : (int) due.toEpochDay();
+        if (ledger != null) ledger.add(this, copy, borrowers[copy], dueDays[copy]);
     }
 }
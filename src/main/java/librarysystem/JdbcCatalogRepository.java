@@ -0,0 +1,340 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JdbcCatalogRepository keeps the catalog in an embedded SQL database, for
+ * example {@code jdbc:h2:./library} (H2 ships with the application).
+ *
+ * <p><b>Schema:</b></p>
+ * <pre>
+ *   catalog_item (kind, id, title, creator, shelf_copies, ordinal)   key (kind, id)
+ *   catalog_loan (kind, id, seq, borrower, due)                       key (kind, id, seq)
+ * </pre>
+ * {@code kind} is "BOOK" or "CD"; {@code ordinal} keeps the catalog order;
+ * loans are numbered so the one shown on the Media object comes last, as in
+ * the data file.
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>One connection is opened for the repository's lifetime and every
+ *         statement is prepared once</li>
+ *     <li>Change notifications only mark an item dirty; a flush writes the
+ *         final state of each dirty item (its row and its loans) in one
+ *         transaction, so lending the same title ten times in a batch writes
+ *         it once</li>
+ *     <li>Rows go through JDBC statement batches of {@value #BATCH_SIZE}</li>
+ *     <li>Loans of a dirty item are deleted and re-inserted instead of being
+ *         tracked by copy number, since copy numbers are not stable across
+ *         restarts</li>
+ *     <li>The schema is created on first use</li>
+ * </ul>
+ */
+public class JdbcCatalogRepository implements CatalogRepository {
+
+    static final String URL_PREFIX = "jdbc:";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS catalog_item ("
+            + "kind VARCHAR(4) NOT NULL, id VARCHAR(255) NOT NULL, title VARCHAR(1024) NOT NULL, "
+            + "creator VARCHAR(1024), shelf_copies INT NOT NULL, ordinal BIGINT NOT NULL, "
+            + "PRIMARY KEY (kind, id))",
+        "CREATE TABLE IF NOT EXISTS catalog_loan ("
+            + "kind VARCHAR(4) NOT NULL, id VARCHAR(255) NOT NULL, seq INT NOT NULL, "
+            + "borrower VARCHAR(255), due DATE, PRIMARY KEY (kind, id, seq))"
+    };
+
+    private final String url;
+    private final Connection connection;
+
+    private final PreparedStatement mergeItem;
+    private final PreparedStatement deleteItem;
+    private final PreparedStatement deleteLoans;
+    private final PreparedStatement insertLoan;
+
+    /** "KIND:id" → item to write, or null for an item to delete; in change order. */
+    private final Map<String, InventoryItem> dirty = new LinkedHashMap<>();
+
+    /** Dirty keys that were deleted and then added again; their old row goes first. */
+    private final Set<String> readded = new HashSet<>();
+
+    /** Ordinal for the next new item, so loading keeps the catalog order. */
+    private long nextOrdinal;
+
+    /**
+     * Connects and creates the tables if needed.
+     *
+     * @throws IOException if the database cannot be opened
+     */
+    public JdbcCatalogRepository(String url) throws IOException {
+        this.url = url;
+        try {
+            connection = DriverManager.getConnection(url);
+            try (Statement st = connection.createStatement()) {
+                for (String ddl : SCHEMA) st.execute(ddl);
+                try (ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(ordinal), 0) FROM catalog_item")) {
+                    rs.next();
+                    nextOrdinal = rs.getLong(1) + 1;
+                }
+            }
+            connection.setAutoCommit(false);
+
+            mergeItem = connection.prepareStatement(
+                    "MERGE INTO catalog_item t USING (VALUES (CAST(? AS VARCHAR(4)), CAST(? AS VARCHAR(255)), "
+                  + "CAST(? AS VARCHAR(1024)), CAST(? AS VARCHAR(1024)), CAST(? AS INT), CAST(? AS BIGINT))) "
+                  + "s (kind, id, title, creator, shelf_copies, ordinal) "
+                  + "ON t.kind = s.kind AND t.id = s.id "
+                  + "WHEN MATCHED THEN UPDATE SET title = s.title, creator = s.creator, shelf_copies = s.shelf_copies "
+                  + "WHEN NOT MATCHED THEN INSERT VALUES (s.kind, s.id, s.title, s.creator, s.shelf_copies, s.ordinal)");
+            deleteItem = connection.prepareStatement("DELETE FROM catalog_item WHERE kind = ? AND id = ?");
+            deleteLoans = connection.prepareStatement("DELETE FROM catalog_loan WHERE kind = ? AND id = ?");
+            insertLoan = connection.prepareStatement("INSERT INTO catalog_loan VALUES (?, ?, ?, ?, ?)");
+
+        } catch (SQLException e) {
+            throw new IOException("Cannot open catalog database " + url, e);
+        }
+    }
+
+    /** @return true if the location is a JDBC URL */
+    static boolean handles(String location) {
+        return location.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public String getLocation() {
+        return url;
+    }
+
+    @Override
+    public long getStoredBytes() {
+        return 0;
+    }
+
+    @Override
+    public Path sidecar(String suffix) {
+        return null;
+    }
+
+    // ==========================================================
+    // LOAD
+    // ==========================================================
+
+    @Override
+    public int load(Library library) throws IOException {
+        int records = 0;
+        try (Statement st = connection.createStatement()) {
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT kind, id, title, creator, shelf_copies FROM catalog_item ORDER BY ordinal")) {
+                while (rs.next()) {
+                    boolean cd = rs.getString(1).equals("CD");
+                    String id = rs.getString(2);
+                    String title = rs.getString(3);
+                    String creator = rs.getString(4);
+                    library.stockLoaded(cd ? new CD(title, creator, id) : new Book(title, creator, id), rs.getInt(5));
+                    records++;
+                }
+            }
+
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT kind, id, borrower, due FROM catalog_loan ORDER BY kind, id, seq")) {
+                while (rs.next()) {
+                    String id = rs.getString(2);
+                    InventoryItem item = rs.getString(1).equals("CD")
+                            ? library.getCDInventory(id)
+                            : library.getBookInventory(id);
+                    if (item == null) continue;   // loan of a withdrawn item
+
+                    Date due = rs.getDate(4);
+                    item.addCopies(1);
+                    item.lend(rs.getString(3), due == null ? null : due.toLocalDate());
+                }
+            }
+            connection.commit();
+
+        } catch (SQLException e) {
+            throw new IOException("Cannot load catalog from " + url, e);
+        }
+        return records;
+    }
+
+    // ==========================================================
+    // CHANGES
+    // ==========================================================
+
+    @Override
+    public void upsertItem(InventoryItem item) {
+        String key = keyOf(item);
+        if (dirty.containsKey(key) && dirty.get(key) == null) readded.add(key);
+        dirty.put(key, item);
+    }
+
+    @Override
+    public void removeItem(InventoryItem item) {
+        dirty.put(keyOf(item), null);
+    }
+
+    @Override
+    public void recordLoan(InventoryItem item, int copy) {
+        dirty.put(keyOf(item), item);
+    }
+
+    @Override
+    public void recordReturn(InventoryItem item, int copy) {
+        dirty.put(keyOf(item), item);
+    }
+
+    @Override
+    public void updateStock(InventoryItem item) {
+        dirty.put(keyOf(item), item);
+    }
+
+    private static String keyOf(InventoryItem item) {
+        Media m = item.getMedia();
+        return m instanceof CD ? "CD:" + ((CD) m).getId() : "BOOK:" + ((Book) m).getIsbn();
+    }
+
+    // ==========================================================
+    // FLUSH
+    // ==========================================================
+
+    /** Writes the dirty items in one transaction; on failure they stay dirty. */
+    @Override
+    public void flush(Library library) throws IOException {
+        if (dirty.isEmpty()) return;
+        try {
+            Iterator<Map.Entry<String, InventoryItem>> it = dirty.entrySet().iterator();
+            while (it.hasNext()) {
+                for (int n = 0; n < BATCH_SIZE && it.hasNext(); n++) {
+                    Map.Entry<String, InventoryItem> e = it.next();
+                    String key = e.getKey();
+                    int colon = key.indexOf(':');
+                    addToBatch(key.substring(0, colon), key.substring(colon + 1), e.getValue(),
+                               readded.contains(key));
+                }
+                executeBatches();
+            }
+            connection.commit();
+            dirty.clear();
+            readded.clear();
+
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Cannot save catalog to " + url, e);
+        }
+    }
+
+    @Override
+    public void replaceAll(Library library) throws IOException {
+        try {
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate("DELETE FROM catalog_loan");
+                st.executeUpdate("DELETE FROM catalog_item");
+            }
+            int n = 0;
+            for (Book b : library.getBooks()) {
+                addToBatch("BOOK", b.getIsbn(), library.getBookInventory(b.getIsbn()), false);
+                if (++n % BATCH_SIZE == 0) executeBatches();
+            }
+            for (CD cd : library.getCDs()) {
+                addToBatch("CD", cd.getId(), library.getCDInventory(cd.getId()), false);
+                if (++n % BATCH_SIZE == 0) executeBatches();
+            }
+            executeBatches();
+            connection.commit();
+            dirty.clear();
+            readded.clear();
+
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException("Cannot save catalog to " + url, e);
+        }
+    }
+
+    /**
+     * Queues the statements that bring one item's rows to its current state
+     * (or delete them when {@code item} is null). A re-added item loses its
+     * old row, and with it its old place in the catalog order.
+     */
+    private void addToBatch(String kind, String id, InventoryItem item, boolean readd) throws SQLException {
+        deleteLoans.setString(1, kind);
+        deleteLoans.setString(2, id);
+        deleteLoans.addBatch();
+
+        if (item == null || readd) {
+            deleteItem.setString(1, kind);
+            deleteItem.setString(2, id);
+            deleteItem.addBatch();
+            if (item == null) return;
+        }
+
+        Media m = item.getMedia();
+        mergeItem.setString(1, kind);
+        mergeItem.setString(2, id);
+        mergeItem.setString(3, m.getTitle());
+        mergeItem.setString(4, m instanceof CD ? ((CD) m).getArtist() : ((Book) m).getAuthor());
+        mergeItem.setInt(5, item.getAvailableCopies());
+        mergeItem.setLong(6, nextOrdinal++);
+        mergeItem.addBatch();
+
+        int shown = Library.shownLoan(item);
+        int seq = 0;
+        for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1))
+            if (c != shown) addLoan(kind, id, seq++, item, c);
+        if (shown >= 0) addLoan(kind, id, seq, item, shown);
+    }
+
+    private void addLoan(String kind, String id, int seq, InventoryItem item, int copy) throws SQLException {
+        LocalDate due = item.getDueDate(copy);
+        insertLoan.setString(1, kind);
+        insertLoan.setString(2, id);
+        insertLoan.setInt(3, seq);
+        insertLoan.setString(4, item.getBorrower(copy));
+        if (due == null) insertLoan.setNull(5, Types.DATE);
+        else insertLoan.setDate(5, Date.valueOf(due));
+        insertLoan.addBatch();
+    }
+
+    /** Runs the queued batches; loans are deleted before items change and re-inserted after. */
+    private void executeBatches() throws SQLException {
+        deleteLoans.executeBatch();
+        deleteItem.executeBatch();
+        mergeItem.executeBatch();
+        insertLoan.executeBatch();
+    }
+
+    private void rollback() {
+        try {
+            deleteLoans.clearBatch();
+            deleteItem.clearBatch();
+            mergeItem.clearBatch();
+            insertLoan.clearBatch();
+            connection.rollback();
+        } catch (SQLException ignored) {}
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("Cannot close catalog database " + url, e);
+        }
+    }
+}
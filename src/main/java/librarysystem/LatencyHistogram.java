@@ -0,0 +1,161 @@
+package librarysystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records non-negative values (typically nanoseconds) in
+ * log-linear buckets, in the style of HdrHistogram.
+ *
+ * <p>Each power-of-two range is split into 64 linear sub-buckets, so any
+ * reported percentile is within about 1.6% of the true value, for values from
+ * 0 up to {@link Long#MAX_VALUE}, in a fixed array of about 3,800 counters.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Recording is lock-free and allocation-free ({@link AtomicLongArray}),
+ *         so many threads can share one histogram</li>
+ *     <li>{@link #recordValueWithExpectedInterval} back-fills the samples a
+ *         stalled closed-loop client would have taken (coordinated omission)</li>
+ *     <li>Percentiles report the highest value equivalent to the bucket,
+ *         so they never understate latency</li>
+ * </ul>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;      // 64
+    private static final int FIRST_RANGE = SUB_BUCKETS * 2;            // 0..127 are exact
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + FIRST_RANGE;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value.
+     *
+     * @param value the value (negative values are recorded as 0)
+     */
+    public void recordValue(long value) {
+        long v = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(v));
+        totalCount.incrementAndGet();
+        sum.addAndGet(v);
+
+        long current;
+        while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+            // retry
+        }
+    }
+
+    /**
+     * Records a value and, if it exceeds the expected interval between
+     * samples, the values that were missed while the caller was stalled.
+     *
+     * @param value            measured value
+     * @param expectedInterval expected time between samples (0 = no correction)
+     */
+    public void recordValueWithExpectedInterval(long value, long expectedInterval) {
+        recordValue(value);
+        if (expectedInterval <= 0) return;
+
+        for (long missing = value - expectedInterval; missing >= expectedInterval;
+             missing -= expectedInterval)
+            recordValue(missing);
+    }
+
+    /** Adds all samples of another histogram to this one. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+
+        long otherMax = other.max.get();
+        long current;
+        while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)) {
+            // retry
+        }
+    }
+
+    /** Clears all samples. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        totalCount.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return max.get();
+    }
+
+    /** @return the sum of all recorded values */
+    public long getSum() {
+        return sum.get();
+    }
+
+    public double getMean() {
+        long n = totalCount.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile percentile in [0, 100]
+     * @return the value at or below which the given percentage of samples fall
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(highestEquivalentValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Calls the visitor for every non-empty bucket, in increasing order.
+     *
+     * @param visitor receives the bucket's upper bound and its count
+     */
+    public void forEachBucket(BucketVisitor visitor) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c != 0) visitor.visit(highestEquivalentValue(i), c);
+        }
+    }
+
+    /** Receives histogram buckets. */
+    public interface BucketVisitor {
+        void visit(long upperBound, long count);
+    }
+
+    // ==========================================================
+    // BUCKET MATH
+    // ==========================================================
+
+    static int indexOf(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1));
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < FIRST_RANGE) return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index - (long) shift * SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
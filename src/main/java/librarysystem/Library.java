@@ -1,8 +1,11 @@
 package librarysystem;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * The Library class represents the core service layer of the Library Management System.
@@ -19,161 +22,392 @@ import java.util.*;
  *
  * <p><b>Design Decisions:</b></p>
  * <ul>
- *     <li>Uses a lightweight text file for persistence</li>
- *     <li>Stock is stored separately from Media objects</li>
- *     <li>FineManager and EmailSender are injected to keep logic modular</li>
+ *     <li>Storage goes through a {@link CatalogRepository}: a lightweight text
+ *         file by default, the binary {@link CompactCatalogFormat} for ".lcf"
+ *         files, a memory-mapped {@link OffHeapCatalog} for ".ohc", or an
+ *         embedded SQL database for {@code jdbc:} URLs</li>
+ *     <li>Stock and copy-level loans are tracked by one {@link InventoryItem} per title,
+ *         which also serves as the id index</li>
+ *     <li>An ".ohc" catalog opened with a cache size runs tiered: only the
+ *         items on loan and a bounded cache of others are on the heap, and
+ *         the rest are read from the {@link TieredCatalog} on lookup</li>
+ *     <li>A {@link LoanLedger} indexes the copies on loan by borrower, so the
+ *         lost-item, overdue and active-loan checks walk only that user's
+ *         loans instead of the whole catalog</li>
+ *     <li>Keyword search uses a {@link SearchIndex} kept next to the data file;
+ *         it is mapped back in on the first search after a restart and rebuilt
+ *         on a background thread when missing or stale</li>
+ *     <li>FineManager and EmailService are injected to keep logic modular;
+ *         the single-argument constructor keeps the SMTP EmailSender</li>
+ *     <li>Emails are queued during a change and sent once it ends (a batch
+ *         at its commit), outside the library and repository locks</li>
+ *     <li>Operations synchronize on the Library instance, so one Library can be
+ *         shared by concurrent clients (the catalog lists are still not safe to
+ *         iterate from outside without holding that lock)</li>
+ *     <li>Several processes may share one data file: each change or batch
+ *         locks it through the repository and first applies what the others
+ *         saved; {@link #watchForChanges()} keeps a read-mostly view current</li>
  * </ul>
  */
-public class Library {
+public class Library implements Closeable {
 
     private static final String FILE_PATH = "library.txt";
 
+    /** Catalogs with fewer books are searched by a plain scan and get no index file. */
+    static final int MIN_INDEXED_BOOKS = 1000;
+
+    private static final AsyncLogger LOG = AsyncLogger.shared();
+
+    private static final MetricsRegistry.Timer BORROW_TIME = MetricsRegistry.shared()
+            .timer("library_borrow_seconds", "Time to borrow a book or CD.");
+    private static final MetricsRegistry.Timer RETURN_TIME = MetricsRegistry.shared()
+            .timer("library_return_seconds", "Time to return a book or CD.");
+    private static final MetricsRegistry.Timer SEARCH_TIME = MetricsRegistry.shared()
+            .timer("library_search_seconds", "Time to snapshot the book catalog for a search.");
+    private static final MetricsRegistry.Timer SEARCH_INDEX_BUILD_TIME = MetricsRegistry.shared()
+            .timer("library_search_index_build_seconds", "Time to rebuild the book search index.");
+    private static final MetricsRegistry.Timer FILE_LOAD_TIME = MetricsRegistry.shared()
+            .timer("library_file_load_seconds", "Time to load the catalog file.");
+    private static final MetricsRegistry.Timer FILE_SAVE_TIME = MetricsRegistry.shared()
+            .timer("library_file_save_seconds", "Time to rewrite the catalog file.");
+    private static final MetricsRegistry.Counter FILE_BYTES_READ = MetricsRegistry.shared()
+            .counter("library_file_read_bytes_total", "Bytes of catalog file loaded.");
+    private static final MetricsRegistry.Counter FILE_BYTES_WRITTEN = MetricsRegistry.shared()
+            .counter("library_file_written_bytes_total", "Bytes of catalog file written.");
+
+    /** Where the catalog is loaded from and saved to. */
+    private final CatalogRepository repository;
+
+    /** Books and CDs in catalog order; read them through {@link #books()} and {@link #cds()}. */
     private final List<Book> books = new ArrayList<>();
     private final List<CD> cds = new ArrayList<>();
 
+    /**
+     * Set when an entry was replaced or removed. The list is then rebuilt
+     * from the inventory map, which keeps the same order, on its next read,
+     * so a run of changes costs one pass instead of one scan each.
+     */
+    private boolean booksStale;
+    private boolean cdsStale;
+
     private final FineManager fineManager;
-    private final EmailSender emailSender = new EmailSender();
+    private final EmailService emailService;
+
+    /** Source of "today" for due dates, fines and lost-item checks. */
+    private final Clock clock;
+
+    /** ISBN → inventory, in insertion order. */
+    private final Map<String, InventoryItem> bookInventory = new LinkedHashMap<>();
+
+    /** CD id → inventory, in insertion order. */
+    private final Map<String, InventoryItem> cdInventory = new LinkedHashMap<>();
+
+    /** Where items are looked up instead of the maps and lists above, or null if every item is loaded. */
+    private TieredCatalog tiers;
+
+    /** Every copy on loan, by borrower; kept current by the stocked InventoryItems. */
+    private final LoanLedger loans = new LoanLedger();
+
+    /** Wall-clock millis of the last successful save (0 = never). */
+    private long lastSavedAt;
+
+    /** Wall-clock millis of the first failed save since the last success (0 = none). */
+    private long unsavedSince;
+
+    /** Nesting depth of {@link #beginBatch()} calls; saves are deferred while above 0. */
+    private int batchDepth;
 
-    private final Map<String, Integer> bookStock = new HashMap<>();
-    private final Map<String, Integer> cdStock = new HashMap<>();
+    /** True if a change was made during the current batch and not yet saved. */
+    private boolean batchDirty;
+
+    /** Thread that opened the current batch; only it may nest or commit. */
+    private Thread batchOwner;
+
+    /** Emails (to, subject, body) waiting for {@link #sendQueued()}. */
+    private final List<String[]> outbox = new ArrayList<>();
+
+    /** Index over the leading books, or null while missing or stale. */
+    private SearchIndex searchIndex;
+
+    /** True once the index file was tried, so it is only mapped on the first search. */
+    private boolean searchIndexOpened;
+
+    /** True while a background rebuild runs (until its file is written). */
+    private boolean searchIndexBuilding;
+
+    /** Bumped when a book row is replaced or removed, which invalidates {@link #searchIndex}. */
+    private int bookGeneration;
 
     public Library(FineManager fineManager) {
+        this(fineManager, new EmailSender()::sendEmail);
+    }
+
+    /**
+     * Creates a library backed by library.txt that notifies users through the given service.
+     *
+     * @param fineManager  fine bookkeeping
+     * @param emailService notification channel (SMTP, console, or a test stub)
+     */
+    public Library(FineManager fineManager, EmailService emailService) {
+        this(fineManager, emailService, FILE_PATH);
+    }
+
+    /**
+     * Creates a library backed by a specific data file.
+     *
+     * @param fineManager  fine bookkeeping
+     * @param emailService notification channel
+     * @param filePath     path of the catalog file (created if missing)
+     */
+    public Library(FineManager fineManager, EmailService emailService, String filePath) {
+        this(fineManager, emailService, filePath, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates a library backed by a specific data file that reads the current
+     * date from the given clock (for example a {@link SimulationClock}).
+     *
+     * @param fineManager  fine bookkeeping
+     * @param emailService notification channel
+     * @param filePath     path of the catalog file (created if missing), or a
+     *                     {@code jdbc:} URL of the catalog database
+     * @param clock        source of the current date
+     * @throws UncheckedIOException if the catalog database cannot be opened
+     */
+    public Library(FineManager fineManager, EmailService emailService, String filePath, Clock clock) {
+        this(fineManager, emailService, openRepository(filePath), clock);
+    }
+
+    /**
+     * Creates a library stored in the given repository, which it loads now
+     * and closes in {@link #close()}.
+     *
+     * @param fineManager  fine bookkeeping
+     * @param emailService notification channel
+     * @param repository   catalog storage
+     * @param clock        source of the current date
+     */
+    public Library(FineManager fineManager, EmailService emailService, CatalogRepository repository, Clock clock) {
         this.fineManager = fineManager;
-        ensureFileExists();
+        this.emailService = emailService;
+        this.repository = repository;
+        this.clock = clock;
         loadItemsFromFile();
     }
 
-    /** Ensures that the data file exists. */
-    private void ensureFileExists() {
+    private static CatalogRepository openRepository(String location) {
         try {
-            File f = new File(FILE_PATH);
-            if (!f.exists()) f.createNewFile();
-        } catch (Exception ignored) {}
-    }
-
-    /** Loads books and CDs from library.txt */
-    private void loadItemsFromFile() {
-        try (BufferedReader br = new BufferedReader(new FileReader(FILE_PATH))) {
-
-            String line;
-            while ((line = br.readLine()) != null) {
-
-                String[] p = line.split(",", -1);
-                if (p.length < 8) continue;
-
-                String type = p[0];
-                String title = p[1];
-                String creator = p[2];
-                String id = p[3];
-
-                int copies = Integer.parseInt(p[4]);
-                boolean available = Boolean.parseBoolean(p[5]);
-                String borrowedBy = p[6].equals("null") ? null : p[6];
-                LocalDate due = p[7].equals("null") ? null : LocalDate.parse(p[7]);
-
-                if (type.equals("BOOK")) {
-                    Book b = new Book(title, creator, id, available, due);
-                    b.setBorrowedBy(borrowedBy);
-                    books.add(b);
-                    bookStock.put(id, copies);
-
-                } else if (type.equals("CD")) {
-                    CD cd = new CD(title, creator, id, available, due);
-                    cd.setBorrowedBy(borrowedBy);
-                    cds.add(cd);
-                    cdStock.put(id, copies);
-                }
-            }
+            return CatalogRepository.open(location);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Loads books and CDs from the repository (package-private for benchmarks). */
+    void loadItemsFromFile() {
+        long start = System.nanoTime();
+        PersistEvent event = PersistEvent.start("load", repository.getLocation());
+        try {
+            event.records = repository.load(this);
+            event.outcome = "ok";
 
         } catch (Exception e) {
-            System.out.println("Error loading file.");
-        }
-    }
-
-    /** Writes the full current state of the library to library.txt */
-    private void updateLibraryFile() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(FILE_PATH))) {
-
-            for (Book b : books) {
-                bw.write(String.join(",",
-                        "BOOK",
-                        b.getTitle(),
-                        b.getAuthor(),
-                        b.getIsbn(),
-                        String.valueOf(bookStock.get(b.getIsbn())),
-                        String.valueOf(b.isAvailable()),
-                        String.valueOf(b.getBorrowedBy()),
-                        String.valueOf(b.getDueDate())
-                ));
-                bw.newLine();
-            }
+            LOG.error("Error loading file.");
+        }
 
-            for (CD cd : cds) {
-                bw.write(String.join(",",
-                        "CD",
-                        cd.getTitle(),
-                        cd.getArtist(),
-                        cd.getId(),
-                        String.valueOf(cdStock.get(cd.getId())),
-                        String.valueOf(cd.isAvailable()),
-                        String.valueOf(cd.getBorrowedBy()),
-                        String.valueOf(cd.getDueDate())
-                ));
-                bw.newLine();
-            }
+        long bytes = repository.getStoredBytes();
+        FILE_LOAD_TIME.recordSince(start);
+        FILE_BYTES_READ.add(bytes);
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    /**
+     * Switches to tiered mode: items are looked up through the tiers instead
+     * of being loaded (called by {@link OffHeapCatalogRepository#load}).
+     *
+     * @return number of items in the catalog
+     */
+    int loadTiered(TieredCatalog tiers) {
+        this.tiers = tiers;
+        return tiers.load(loans);
+    }
+
+    /** @return the inventory of a book, faulted in from the cold tier in tiered mode; null if unknown */
+    private InventoryItem bookItem(String isbn) {
+        return tiers == null ? bookInventory.get(isbn) : tiers.get(false, isbn);
+    }
+
+    /** CD counterpart of {@link #bookItem}. */
+    private InventoryItem cdItem(String id) {
+        return tiers == null ? cdInventory.get(id) : tiers.get(true, id);
+    }
+
+    /**
+     * Adds one item read by a {@link CatalogRepository} with its shelf copies;
+     * the caller then adds one copy per loan.
+     */
+    InventoryItem stockLoaded(Media media, int shelfCopies) {
+        return media instanceof CD ? stockCD((CD) media, shelfCopies)
+                                   : stockBook((Book) media, shelfCopies);
+    }
+
+    /**
+     * Saves the changes made since the last save (package-private for
+     * benchmarks). File repositories rewrite the whole data file.
+     */
+    synchronized void updateLibraryFile() {
+        long start = System.nanoTime();
+        PersistEvent event = PersistEvent.start("save", repository.getLocation());
+        beginChange();
+        try {
+            repository.flush(this);
+            event.outcome = "ok";
+            unsavedSince = 0;
+            lastSavedAt = System.currentTimeMillis();
 
         } catch (Exception e) {
-            System.out.println("Error writing file.");
+            LOG.error("Error writing file.");
+            if (unsavedSince == 0) unsavedSince = System.currentTimeMillis();
+        } finally {
+            endChange();
         }
+
+        long bytes = repository.getStoredBytes();
+        FILE_SAVE_TIME.recordSince(start);
+        FILE_BYTES_WRITTEN.add(bytes);
+        event.records = tiers != null ? tiers.size() : bookInventory.size() + cdInventory.size();
+        event.bytes = bytes;
+        event.commit();
     }
 
-    /** Checks general borrowing restrictions for users. */
-    private boolean blocked(String username) {
-        if (fineManager.hasOutstandingFine(username)) {
-            System.out.println("❌ Borrow blocked: unpaid fines.");
-            return true;
+    /**
+     * Starts a change through the repository, which for a shared data file
+     * waits for other processes and applies their saved changes first. A
+     * failure is logged and the change goes ahead unsynchronized.
+     */
+    private void beginChange() {
+        try {
+            repository.beginChange(this);
+        } catch (IOException e) {
+            LOG.error("Error locking file.");
         }
+    }
 
-        if (hasLostItem(username)) {
-            System.out.println("❌ Borrow blocked: lost item exists.");
-            return true;
+    private void endChange() {
+        repository.endChange();
+    }
+
+    /** Queues an email for {@link #sendQueued()}. */
+    private void queueEmail(String to, String subject, String body) {
+        outbox.add(new String[] {to, subject, body});
+    }
+
+    /**
+     * Sends the queued emails once the change that caused them has ended,
+     * outside the library lock and the repository's change lock, so a slow
+     * mail server holds up neither. While a batch is open they wait for its
+     * commit.
+     */
+    private void sendQueued() {
+        List<String[]> due;
+        synchronized (this) {
+            if (batchDepth > 0 || outbox.isEmpty()) return;
+            due = new ArrayList<>(outbox);
+            outbox.clear();
         }
+        for (String[] email : due) emailService.send(email[0], email[1], email[2]);
+    }
 
-        return false;
+    /** Saves after a change, or only marks the batch dirty while a batch is open. */
+    private void saveOrDefer() {
+        if (batchDepth > 0) batchDirty = true;
+        else updateLibraryFile();
     }
 
-    /** Checks whether user has a lost item (30+ days overdue). */
-    boolean hasLostItem(String username) {
+    /** @return the copy whose loan the Media object shows, or -1 if it shows none */
+    static int shownLoan(InventoryItem item) {
+        Media m = item.getMedia();
+        return m.isAvailable() ? -1
+                : m.getBorrowedBy() == null ? item.nextLoan(0) : item.findLoan(m.getBorrowedBy());
+    }
 
-        LocalDate today = LocalDate.now();
+    /**
+     * Registers a book and its inventory. Re-adding an existing ISBN replaces the
+     * entry in place; copies still on loan under the old entry are carried over.
+     */
+    private InventoryItem stockBook(Book b, int copies) {
+        InventoryItem old = bookItem(b.getIsbn());
+        if (old != null && old.getMedia() == b) b.clearLoan(); // its loans are carried below
+
+        InventoryItem item = new InventoryItem(b, copies);
+        if (tiers == null) bookInventory.put(b.getIsbn(), item);   // tiers file it on upsertItem
+        loans.attach(item);
+
+        if (old == null) {
+            if (tiers == null && !booksStale) books.add(b);
+        } else {
+            if (old.getMedia() != b) booksStale = true;
+            loans.detach(old);
+            carryLoans(old, item);
+            invalidateSearchIndex();
+        }
+        return item;
+    }
 
-        for (Book b : books) {
-            if (!b.isAvailable() &&
-                username.equals(b.getBorrowedBy()) &&
-                b.getDueDate() != null &&
-                today.isAfter(b.getDueDate().plusDays(30)))
-                return true;
+    /** CD counterpart of {@link #stockBook}. */
+    private InventoryItem stockCD(CD cd, int copies) {
+        InventoryItem old = cdItem(cd.getId());
+        if (old != null && old.getMedia() == cd) cd.clearLoan();
+
+        InventoryItem item = new InventoryItem(cd, copies);
+        if (tiers == null) cdInventory.put(cd.getId(), item);
+        loans.attach(item);
+
+        if (old == null) {
+            if (tiers == null && !cdsStale) cds.add(cd);
+        } else {
+            if (old.getMedia() != cd) cdsStale = true;
+            loans.detach(old);
+            carryLoans(old, item);
         }
+        return item;
+    }
 
-        for (CD cd : cds) {
-            if (!cd.isAvailable() &&
-                username.equals(cd.getBorrowedBy()) &&
-                cd.getDueDate() != null &&
-                today.isAfter(cd.getDueDate().plusDays(30)))
-                return true;
+    private static void carryLoans(InventoryItem from, InventoryItem to) {
+        for (int c = from.nextLoan(0); c >= 0; c = from.nextLoan(c + 1)) {
+            to.addCopies(1);
+            to.lend(from.getBorrower(c), from.getDueDate(c));
         }
+    }
 
-        return false;
+    /** @return why the user may not borrow, or null if they may */
+    private LoanResult.Status blocked(String username) {
+        if (fineManager.hasOutstandingFine(username)) return LoanResult.Status.BLOCKED_BY_FINE;
+        if (hasLostItem(username)) return LoanResult.Status.BLOCKED_BY_LOST_ITEM;
+        return null;
+    }
+
+    /** Checks whether user has a lost item (30+ days overdue) on any copy. */
+    synchronized boolean hasLostItem(String username) {
+
+        long lostBefore = LocalDate.now(clock).minusDays(30).toEpochDay();
+
+        return loans.hasLoanDueBefore(username, lostBefore);
     }
 
     // ==========================================================
     // ADD BOOK — MAIN + OVERLOADS
     // ==========================================================
 
-    public void addBook(Book b, int copies) {
-        books.add(b);
-        bookStock.put(b.getIsbn(), copies);
-        updateLibraryFile();
+    public synchronized void addBook(Book b, int copies) {
+        beginChange();
+        try {
+            repository.upsertItem(stockBook(b, copies));
+            saveOrDefer();
+        } finally {
+            endChange();
+        }
     }
 
     public void addBook(Book b) {
@@ -193,10 +427,14 @@ public class Library {
     // ADD CD — MAIN + OVERLOADS
     // ==========================================================
 
-    public void addCD(CD cd, int copies) {
-        cds.add(cd);
-        cdStock.put(cd.getId(), copies);
-        updateLibraryFile();
+    public synchronized void addCD(CD cd, int copies) {
+        beginChange();
+        try {
+            repository.upsertItem(stockCD(cd, copies));
+            saveOrDefer();
+        } finally {
+            endChange();
+        }
     }
 
     public void addCD(CD cd) {
@@ -213,284 +451,947 @@ public class Library {
     }
 
     // ==========================================================
-    // BORROW / RETURN BOOK
+    // RESTOCK (used by BulkImporter)
     // ==========================================================
 
-    public void borrowBook(String isbn, String username) {
-
-        if (blocked(username)) return;
+    /**
+     * Adds copies of a book or CD. Unlike addBook/addCD, an id already in the
+     * catalog keeps its entry, title and loans and only gains copies.
+     * Saves like addBook, so bulk callers wrap it in a batch.
+     *
+     * @return true if the id was new to the catalog
+     */
+    synchronized boolean restock(Media media, int copies) {
+        beginChange();
+        try {
+            InventoryItem existing = media instanceof Book
+                    ? bookItem(((Book) media).getIsbn())
+                    : cdItem(((CD) media).getId());
+
+            if (existing != null) {
+                existing.addCopies(copies);
+                repository.updateStock(existing);
+            } else {
+                repository.upsertItem(stockLoaded(media, copies));
+            }
 
-        for (Book b : books) {
-            if (b.getIsbn().equalsIgnoreCase(isbn)) {
+            saveOrDefer();
+            return existing == null;
+        } finally {
+            endChange();
+        }
+    }
 
-                int left = bookStock.getOrDefault(isbn, 0);
-                if (left <= 0) {
-                    System.out.println("❌ No copies left.");
-                    return;
-                }
+    // ==========================================================
+    // REMOVE
+    // ==========================================================
 
-                LocalDate due = LocalDate.now().plusDays(28);
-                b.borrow(due, username);
+    /**
+     * Withdraws a book from the catalog. Titles with copies on loan stay.
+     *
+     * @return true if the book was removed
+     */
+    public synchronized boolean removeBook(String isbn) {
+        beginChange();
+        try {
+            InventoryItem item = bookItem(isbn);
+            if (item == null || item.getLoanCount() > 0) return false;
+
+            bookInventory.remove(isbn);
+            loans.detach(item);
+            booksStale = true;
+            invalidateSearchIndex();
+            repository.removeItem(item);
+            saveOrDefer();
+            return true;
+        } finally {
+            endChange();
+        }
+    }
 
-                bookStock.put(isbn, left - 1);
-                updateLibraryFile();
+    /** CD counterpart of {@link #removeBook}. */
+    public synchronized boolean removeCD(String id) {
+        beginChange();
+        try {
+            InventoryItem item = cdItem(id);
+            if (item == null || item.getLoanCount() > 0) return false;
+
+            cdInventory.remove(id);
+            loans.detach(item);
+            cdsStale = true;
+            repository.removeItem(item);
+            saveOrDefer();
+            return true;
+        } finally {
+            endChange();
+        }
+    }
 
-                emailSender.sendEmail(username,
-                        "Book Borrowed",
-                        "You borrowed: " + b.getTitle() + "\nDue: " + due);
+    // ==========================================================
+    // BORROW / RETURN BOOK
+    // ==========================================================
 
-                System.out.println("✔ Book borrowed.");
-                return;
-            }
+    /**
+     * Lends a copy of a book for 28 days.
+     *
+     * @return the outcome, with the due date on success
+     */
+    public LoanResult borrowBook(String isbn, String username) {
+        try {
+            return lendBook(isbn, username);
+        } finally {
+            sendQueued();
         }
+    }
 
-        System.out.println("❌ Book not found.");
+    private synchronized LoanResult lendBook(String isbn, String username) {
+        long start = System.nanoTime();
+        CirculationEvent event = CirculationEvent.start("borrow", "BOOK", isbn);
+        LoanResult result = null;
+        try {
+            beginChange();
+            LoanResult.Status refused = blocked(username);
+            if (refused != null) return result = LoanResult.failed(refused, null);
+
+            InventoryItem item = bookItem(isbn);
+            if (item == null) return result = LoanResult.failed(LoanResult.Status.NOT_FOUND, null);
+
+            Book b = (Book) item.getMedia();
+            if (item.getAvailableCopies() <= 0)
+                return result = LoanResult.failed(LoanResult.Status.NO_COPIES, b);
+
+            LocalDate due = LocalDate.now(clock).plusDays(28);
+            event.copy = item.lend(username, due);
+            repository.recordLoan(item, event.copy);
+            saveOrDefer();
+
+            queueEmail(username,
+                    "Book Borrowed",
+                    "You borrowed: " + b.getTitle() + "\nDue: " + due);
+
+            return result = new LoanResult(LoanResult.Status.OK, b, due, 0);
+        } finally {
+            endChange();
+            BORROW_TIME.recordSince(start);
+            event.finish(result);
+        }
     }
 
-    public void returnBook(String isbn, String username) {
+    /**
+     * Takes back the user's copy of a book, adding a late fine if it is overdue.
+     *
+     * @return the outcome, with the copy's due date and any fine applied
+     */
+    public LoanResult returnBook(String isbn, String username) {
+        try {
+            return takeBackBook(isbn, username);
+        } finally {
+            sendQueued();
+        }
+    }
 
-        for (Book b : books) {
+    private synchronized LoanResult takeBackBook(String isbn, String username) {
+        long start = System.nanoTime();
+        CirculationEvent event = CirculationEvent.start("return", "BOOK", isbn);
+        LoanResult result = null;
+        try {
+            beginChange();
+            InventoryItem item = bookItem(isbn);
+            if (item == null) return result = LoanResult.failed(LoanResult.Status.NOT_FOUND, null);
 
-            if (b.getIsbn().equals(isbn) &&
-                username.equals(b.getBorrowedBy())) {
+            Book b = (Book) item.getMedia();
+            int copy = item.findLoan(username);
+            if (copy < 0) return result = LoanResult.failed(LoanResult.Status.NOT_BORROWED, b);
 
-                LocalDate today = LocalDate.now();
+            LocalDate today = LocalDate.now(clock);
+            LocalDate dueDate = item.getDueDate(copy);
+            int fine = 0;
 
-                if (b.getDueDate() != null &&
-                    today.isAfter(b.getDueDate())) {
+            if (dueDate != null &&
+                today.isAfter(dueDate)) {
 
-                    long lateDays = java.time.temporal.ChronoUnit.DAYS
-                            .between(b.getDueDate(), today);
+                long lateDays = java.time.temporal.ChronoUnit.DAYS
+                        .between(dueDate, today);
 
-                    int fine = (int) lateDays * b.getOverdueFineAmount();
-                    fineManager.addFine(username, fine);
+                fine = (int) lateDays * b.getOverdueFineAmount();
+                fineManager.addFine(username, fine);
 
-                    emailSender.sendEmail(username,
-                            "Late Book Returned",
-                            "You returned the book late.\nFine added: " + fine + " NIS");
-                }
+                queueEmail(username,
+                        "Late Book Returned",
+                        "You returned the book late.\nFine added: " + fine + " NIS");
+            }
 
-                b.returnItem();
-                bookStock.put(isbn, bookStock.get(isbn) + 1);
-                updateLibraryFile();
+            item.release(copy);
+            event.copy = copy;
+            repository.recordReturn(item, copy);
+            saveOrDefer();
 
-                emailSender.sendEmail(username,
-                        "Book Returned",
-                        "Returned: " + b.getTitle());
+            queueEmail(username,
+                    "Book Returned",
+                    "Returned: " + b.getTitle());
 
-                System.out.println("✔ Book returned.");
-                return;
-            }
+            return result = new LoanResult(LoanResult.Status.OK, b, dueDate, fine);
+        } finally {
+            endChange();
+            RETURN_TIME.recordSince(start);
+            event.finish(result);
         }
-
-        System.out.println("❌ You did not borrow this book.");
     }
 
     // ==========================================================
     // BORROW / RETURN CD
     // ==========================================================
 
-    public void borrowCD(String id, String username) {
+    /**
+     * Lends a copy of a CD for 7 days.
+     *
+     * @return the outcome, with the due date on success
+     */
+    public LoanResult borrowCD(String id, String username) {
+        try {
+            return lendCD(id, username);
+        } finally {
+            sendQueued();
+        }
+    }
+
+    private synchronized LoanResult lendCD(String id, String username) {
+        long start = System.nanoTime();
+        CirculationEvent event = CirculationEvent.start("borrow", "CD", id);
+        LoanResult result = null;
+        try {
+            beginChange();
+            LoanResult.Status refused = blocked(username);
+            if (refused != null) return result = LoanResult.failed(refused, null);
+
+            InventoryItem item = cdItem(id);
+            if (item == null) return result = LoanResult.failed(LoanResult.Status.NOT_FOUND, null);
+
+            CD cd = (CD) item.getMedia();
+            if (item.getAvailableCopies() <= 0)
+                return result = LoanResult.failed(LoanResult.Status.NO_COPIES, cd);
+
+            LocalDate due = LocalDate.now(clock).plusDays(7);
+            event.copy = item.lend(username, due);
+            repository.recordLoan(item, event.copy);
+            saveOrDefer();
+
+            queueEmail(username,
+                    "CD Borrowed",
+                    "You borrowed CD: " + cd.getTitle() + "\nDue: " + due);
+
+            return result = new LoanResult(LoanResult.Status.OK, cd, due, 0);
+        } finally {
+            endChange();
+            BORROW_TIME.recordSince(start);
+            event.finish(result);
+        }
+    }
+
+    /**
+     * Takes back the user's copy of a CD, adding a late fine if it is overdue.
+     *
+     * @return the outcome, with the copy's due date and any fine applied
+     */
+    public LoanResult returnCD(String id, String username) {
+        try {
+            return takeBackCD(id, username);
+        } finally {
+            sendQueued();
+        }
+    }
 
-        if (blocked(username)) return;
+    private synchronized LoanResult takeBackCD(String id, String username) {
+        long start = System.nanoTime();
+        CirculationEvent event = CirculationEvent.start("return", "CD", id);
+        LoanResult result = null;
+        try {
+            beginChange();
+            InventoryItem item = cdItem(id);
+            if (item == null) return result = LoanResult.failed(LoanResult.Status.NOT_FOUND, null);
 
-        for (CD cd : cds) {
-            if (cd.getId().equals(id)) {
+            CD cd = (CD) item.getMedia();
+            int copy = item.findLoan(username);
+            if (copy < 0) return result = LoanResult.failed(LoanResult.Status.NOT_BORROWED, cd);
 
-                int left = cdStock.getOrDefault(id, 0);
-                if (left <= 0) {
-                    System.out.println("❌ No copies left.");
-                    return;
-                }
+            LocalDate today = LocalDate.now(clock);
+            LocalDate dueDate = item.getDueDate(copy);
+            int fine = 0;
 
-                LocalDate due = LocalDate.now().plusDays(7);
-                cd.borrow(due, username);
+            if (dueDate != null &&
+                today.isAfter(dueDate)) {
 
-                cdStock.put(id, left - 1);
-                updateLibraryFile();
+                long lateDays = java.time.temporal.ChronoUnit.DAYS
+                        .between(dueDate, today);
 
-                emailSender.sendEmail(username,
-                        "CD Borrowed",
-                        "You borrowed CD: " + cd.getTitle() + "\nDue: " + due);
+                fine = (int) lateDays * cd.getOverdueFineAmount();
+                fineManager.addFine(username, fine);
 
-                System.out.println("✔ CD borrowed.");
-                return;
+                queueEmail(username,
+                        "Late CD Returned",
+                        "You returned the CD late.\nFine added: " + fine + " NIS");
             }
-        }
 
-        System.out.println("❌ CD not found.");
+            item.release(copy);
+            event.copy = copy;
+            repository.recordReturn(item, copy);
+            saveOrDefer();
+
+            queueEmail(username,
+                    "CD Returned",
+                    "Returned: " + cd.getTitle());
+
+            return result = new LoanResult(LoanResult.Status.OK, cd, dueDate, fine);
+        } finally {
+            endChange();
+            RETURN_TIME.recordSince(start);
+            event.finish(result);
+        }
     }
 
-    public void returnCD(String id, String username) {
+    // ==========================================================
+    // OVERDUE & LOST
+    // ==========================================================
 
-        for (CD cd : cds) {
-            if (cd.getId().equals(id) &&
-                username.equals(cd.getBorrowedBy())) {
+    /**
+     * Fines and notifies the user for each overdue copy, books first.
+     *
+     * @return number of overdue copies
+     */
+    public int checkOverdueBooks(String username) {
+        try {
+            return fineOverdue(username);
+        } finally {
+            sendQueued();
+        }
+    }
 
-                LocalDate today = LocalDate.now();
+    private synchronized int fineOverdue(String username) {
+        int count = 0;
+        long today = LocalDate.now(clock).toEpochDay();
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean cdPass = pass == 1;
+            for (int e = loans.first(username); e >= 0; e = loans.next(e)) {
+                int due = loans.dueEpochDay(e);
+                Media m = loans.item(e).getMedia();
+                if (due != InventoryItem.NO_DATE &&
+                    due < today &&
+                    (m instanceof CD) == cdPass) {
+
+                    fineManager.addFine(username, m.getOverdueFineAmount());
+                    count++;
+
+                    if (cdPass)
+                        queueEmail(username,
+                                "Overdue CD",
+                                "Your CD '" + m.getTitle() + "' is overdue!");
+                    else
+                        queueEmail(username,
+                                "Overdue Book",
+                                "Your book '" + m.getTitle() + "' is overdue!");
+                }
+            }
+        }
 
-                if (cd.getDueDate() != null &&
-                    today.isAfter(cd.getDueDate())) {
+        return count;
+    }
 
-                    long lateDays = java.time.temporal.ChronoUnit.DAYS
-                            .between(cd.getDueDate(), today);
+    /** Fines and notifies the user for each copy 30+ days overdue, books first. */
+    public void checkLostItems(String username) {
+        try {
+            fineLost(username);
+        } finally {
+            sendQueued();
+        }
+    }
 
-                    int fine = (int) lateDays * cd.getOverdueFineAmount();
-                    fineManager.addFine(username, fine);
+    private synchronized void fineLost(String username) {
 
-                    emailSender.sendEmail(username,
-                            "Late CD Returned",
-                            "You returned the CD late.\nFine added: " + fine + " NIS");
+        long lostBefore = LocalDate.now(clock).minusDays(30).toEpochDay();
+        boolean found = false;
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean cdPass = pass == 1;
+            for (int e = loans.first(username); e >= 0; e = loans.next(e)) {
+                int due = loans.dueEpochDay(e);
+                Media m = loans.item(e).getMedia();
+                if (due != InventoryItem.NO_DATE &&
+                    due < lostBefore &&
+                    (m instanceof CD) == cdPass) {
+
+                    found = true;
+                    if (cdPass) {
+                        fineManager.addFine(username, 40);
+                        queueEmail(username,
+                                "Lost CD",
+                                "You lost the CD '" + m.getTitle() + "'. Fine: 40 NIS");
+                    } else {
+                        fineManager.addFine(username, 60);
+                        queueEmail(username,
+                                "Lost Book",
+                                "You lost the book '" + m.getTitle() + "'. Fine: 60 NIS");
+                    }
                 }
+            }
+        }
 
-                cd.returnCD();
-                cdStock.put(id, cdStock.get(id) + 1);
-                updateLibraryFile();
+        if (found) saveOrDefer();
+    }
 
-                emailSender.sendEmail(username,
-                        "CD Returned",
-                        "Returned: " + cd.getTitle());
+    // ==========================================================
+    // DISPLAY
+    // ==========================================================
 
-                System.out.println("✔ CD returned.");
-                return;
-            }
+    public synchronized void showBooks() {
+        LOG.info("=== BOOKS ===");
+        List<Book> books = books();
+        for (int i = 0; i < books.size(); i++) {
+            Book b = books.get(i);
+            int copies = tiers != null ? tiers.availableCopiesAt(false, i)   // no fault-in per row
+                                       : bookItem(b.getIsbn()).getAvailableCopies();
+            LOG.info(b + " | Copies: " + copies);
         }
+    }
 
-        System.out.println("❌ You did not borrow this CD.");
+    public synchronized void showCDs() {
+        LOG.info("=== CDs ===");
+        List<CD> cds = cds();
+        for (int i = 0; i < cds.size(); i++) {
+            CD cd = cds.get(i);
+            int copies = tiers != null ? tiers.availableCopiesAt(true, i)
+                                       : cdItem(cd.getId()).getAvailableCopies();
+            LOG.info(cd + " | Copies: " + copies);
+        }
     }
 
     // ==========================================================
-    // OVERDUE & LOST
+    // SEARCH
     // ==========================================================
 
-    public int checkOverdueBooks(String username) {
+    /**
+     * Finds books whose title or author contains the keyword, or whose ISBN
+     * equals it (case-insensitive).
+     *
+     * <p>The candidate books are snapshotted under the lock; matching happens
+     * lazily as the stream is consumed, so callers that stop early (findFirst,
+     * limit) don't pay for the whole scan. With a search index the candidates
+     * are the indexed books sharing the keyword's trigrams plus any books
+     * added since the index was built.</p>
+     *
+     * @return matching books in catalog order
+     */
+    public Stream<Book> searchBook(String keyword) {
+        long start = System.nanoTime();
+        String k = keyword.toLowerCase();
+        List<Book> snapshot;
+        synchronized (this) {
+            snapshot = searchCandidates(k);
+        }
+        SEARCH_TIME.recordSince(start);
 
-        int count = 0;
-        LocalDate today = LocalDate.now();
+        return snapshot.stream().filter(b ->
+                b.getTitle().toLowerCase().contains(k) ||
+                b.getAuthor().toLowerCase().contains(k) ||
+                b.getIsbn().equalsIgnoreCase(k));
+    }
 
-        for (Book b : books) {
-            if (!b.isAvailable() &&
-                username.equals(b.getBorrowedBy()) &&
-                b.getDueDate() != null &&
-                today.isAfter(b.getDueDate())) {
+    /** @return the books that may match the lower-case keyword, in catalog order */
+    private List<Book> searchCandidates(String keyword) {
+        List<Book> books = books();
+        SearchIndex index = searchIndex();
+        int[] rows = index == null ? null : index.candidates(keyword);
+        if (rows == null) return new ArrayList<>(books);
+
+        List<Book> result = new ArrayList<>(rows.length + books.size() - index.rows());
+        for (int r : rows) result.add(books.get(r));
+        result.addAll(books.subList(index.rows(), books.size()));
+        return result;
+    }
 
-                fineManager.addFine(username, b.getOverdueFineAmount());
-                count++;
+    /**
+     * Maps the index file on the first search, and starts a rebuild when the
+     * index is missing, stale, or trails the catalog by more than a quarter.
+     *
+     * @return the current index, or null to scan every book
+     */
+    private SearchIndex searchIndex() {
+        List<Book> books = books();
+        if (books.size() < MIN_INDEXED_BOOKS) return null;
+
+        if (!searchIndexOpened) {
+            searchIndexOpened = true;
+            searchIndex = openSearchIndex();
+        }
+        if (searchIndex == null || books.size() - searchIndex.rows() > searchIndex.rows() / 4)
+            rebuildSearchIndexLater();
+        return searchIndex;
+    }
 
-                emailSender.sendEmail(username,
-                        "Overdue Book",
-                        "Your book '" + b.getTitle() + "' is overdue!");
-            }
+    /** @return the saved index if it still describes the leading books, else null */
+    private SearchIndex openSearchIndex() {
+        Path path = repository.sidecar(SearchIndex.SUFFIX);
+        if (path == null || !path.toFile().exists()) return null;
+        List<Book> books = books();
+        try {
+            SearchIndex index = SearchIndex.open(path);
+            if (index.rows() <= books.size() &&
+                index.fingerprint() == SearchIndex.fingerprint(books, index.rows()))
+                return index;
+            LOG.info("Search index is out of date; rebuilding.");
+
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Search index unreadable; rebuilding.");
         }
+        return null;
+    }
+
+    /** Drops the index after a book row was replaced or removed; the next search rebuilds it. */
+    private void invalidateSearchIndex() {
+        bookGeneration++;
+        searchIndex = null;
+    }
 
-        for (CD cd : cds) {
-            if (!cd.isAvailable() &&
-                username.equals(cd.getBorrowedBy()) &&
-                cd.getDueDate() != null &&
-                today.isAfter(cd.getDueDate())) {
+    private void rebuildSearchIndexLater() {
+        if (searchIndexBuilding) return;
+        searchIndexBuilding = true;
 
-                fineManager.addFine(username, cd.getOverdueFineAmount());
-                count++;
+        Thread builder = new Thread(this::rebuildSearchIndex, "search-index");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * Builds the index from a copy of the book list outside the lock, retrying
+     * if books were replaced or removed meanwhile, then saves it.
+     */
+    private void rebuildSearchIndex() {
+        try {
+            SearchIndex built = null;
+            while (built == null) {
+                List<Book> snapshot;
+                int generation;
+                synchronized (this) {
+                    snapshot = new ArrayList<>(books());
+                    generation = bookGeneration;
+                }
 
-                emailSender.sendEmail(username,
-                        "Overdue CD",
-                        "Your CD '" + cd.getTitle() + "' is overdue!");
+                long start = System.nanoTime();
+                SearchIndex index = SearchIndex.build(snapshot);
+                SEARCH_INDEX_BUILD_TIME.recordSince(start);
+
+                synchronized (this) {
+                    if (generation == bookGeneration) searchIndex = built = index;
+                }
+            }
+            Path path;
+            synchronized (this) {
+                path = repository.sidecar(SearchIndex.SUFFIX);
+            }
+            if (path != null) built.write(path);
+
+        } catch (Exception e) {
+            LOG.error("Error rebuilding search index.");
+        } finally {
+            synchronized (this) {
+                searchIndexBuilding = false;
+                notifyAll();
             }
         }
+    }
 
-        return count;
+    /**
+     * Waits for a background search index rebuild, including its file write.
+     *
+     * @return true if no rebuild is running any more
+     */
+    synchronized boolean awaitSearchIndex(long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (searchIndexBuilding) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
     }
 
-    public void checkLostItems(String username) {
+    /** @return number of books covered by the search index (0 if none) */
+    synchronized int getIndexedBookCount() {
+        return searchIndex == null ? 0 : searchIndex.rows();
+    }
 
-        LocalDate today = LocalDate.now();
+    // ==========================================================
+    // BATCHES
+    // ==========================================================
 
-        for (Book b : books) {
-            if (!b.isAvailable() &&
-                username.equals(b.getBorrowedBy()) &&
-                b.getDueDate() != null &&
-                today.isAfter(b.getDueDate().plusDays(30))) {
+    /**
+     * Starts a batch: until the matching {@link #commitBatch()}, changes stay
+     * in memory instead of rewriting the data file after every operation.
+     * Batches nest; only the outermost commit saves. A batch belongs to the
+     * thread that began it, which must also commit it. Changes made by other
+     * threads meanwhile are deferred too, as are the emails they cause, and a
+     * crash loses the open batch. Other processes sharing the data file wait
+     * until the outermost commit.
+     *
+     * @throws IllegalStateException if another thread has a batch open
+     */
+    public synchronized void beginBatch() {
+        checkBatchOwner();
+        if (batchDepth++ == 0) {
+            batchOwner = Thread.currentThread();
+            beginChange();
+        }
+    }
 
-                fineManager.addFine(username, 60);
+    /**
+     * Ends the innermost batch. The outermost commit writes the data file
+     * once if anything changed, then sends the batch's emails.
+     *
+     * @return true if the data file was written
+     * @throws IllegalStateException if no batch is open, or another thread opened it
+     */
+    public boolean commitBatch() {
+        try {
+            return endBatch();
+        } finally {
+            sendQueued();
+        }
+    }
 
-                emailSender.sendEmail(username,
-                        "Lost Book",
-                        "You lost the book '" + b.getTitle() + "'. Fine: 60 NIS");
+    private synchronized boolean endBatch() {
+        if (batchDepth == 0) throw new IllegalStateException("No batch in progress.");
+        checkBatchOwner();
+        if (--batchDepth > 0) return false;
 
-                updateLibraryFile();
-            }
+        batchOwner = null;
+        try {
+            if (!batchDirty) return false;
+            batchDirty = false;
+            updateLibraryFile();
+            return true;
+        } finally {
+            endChange();
         }
+    }
 
-        for (CD cd : cds) {
-            if (!cd.isAvailable() &&
-                username.equals(cd.getBorrowedBy()) &&
-                cd.getDueDate() != null &&
-                today.isAfter(cd.getDueDate().plusDays(30))) {
+    /**
+     * The repository's change lock may belong to the thread that took it, so
+     * only the batch's own thread may nest, commit or close it.
+     */
+    private void checkBatchOwner() {
+        if (batchDepth > 0 && batchOwner != Thread.currentThread())
+            throw new IllegalStateException("Batch opened by another thread.");
+    }
 
-                fineManager.addFine(username, 40);
+    // ==========================================================
+    // MANAGEMENT (used by LibraryManagement over JMX)
+    // ==========================================================
 
-                emailSender.sendEmail(username,
-                        "Lost CD",
-                        "You lost the CD '" + cd.getTitle() + "'. Fine: 40 NIS");
+    /** Saves pending changes now, e.g. to retry after a failed save. */
+    public synchronized void flush() {
+        updateLibraryFile();
+    }
 
-                updateLibraryFile();
-            }
+    /**
+     * Writes a consistent copy of the catalog to another location without
+     * touching the library's own storage; also converts between backends.
+     *
+     * @param path destination file (overwritten; ".lcf" selects the compact
+     *             format, ".ohc" an off-heap catalog), or a {@code jdbc:} URL
+     *             whose catalog is replaced
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot(String path) throws IOException {
+        try (CatalogRepository target = CatalogRepository.open(path)) {
+            target.replaceAll(this);
         }
     }
 
+    /**
+     * Saves changes still pending (an open batch or a failed save) and closes
+     * the repository, for a database its connection. The library must not be
+     * used afterwards.
+     *
+     * @throws IOException if the repository cannot be closed
+     * @throws IllegalStateException if another thread has a batch open
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        checkBatchOwner();
+        if (batchDirty || unsavedSince != 0) updateLibraryFile();
+        batchDepth = 0;
+        batchDirty = false;
+        batchOwner = null;
+        repository.close();
+        sendQueued();   // what an open batch held back
+    }
+
     // ==========================================================
-    // DISPLAY
+    // SHARED DATA FILES
     // ==========================================================
 
-    public void showBooks() {
-        System.out.println("=== BOOKS ===");
-        for (Book b : books) {
-            System.out.println(b + " | Copies: " + bookStock.get(b.getIsbn()));
+    /** @return true if every change is refused, as on a replication follower */
+    public boolean isReadOnly() {
+        return repository.isReadOnly();
+    }
+
+    /**
+     * Applies the changes other processes have saved to the same catalog
+     * since this library last looked. Changes do this by themselves first;
+     * call it to bring a read-only view up to date.
+     */
+    public synchronized void refresh() {
+        try {
+            repository.refresh(this);
+        } catch (IOException e) {
+            LOG.error("Error refreshing catalog.");
         }
     }
 
-    public void showCDs() {
-        System.out.println("=== CDs ===");
-        for (CD cd : cds) {
-            System.out.println(cd + " | Copies: " + cdStock.get(cd.getId()));
+    /**
+     * Refreshes this library on a background thread whenever another process
+     * saves the catalog, until the returned handle is closed.
+     *
+     * @throws IOException if the catalog location cannot be watched
+     */
+    public synchronized Closeable watchForChanges() throws IOException {
+        return repository.watch(this);
+    }
+
+    /**
+     * Replaces an item with the state another process saved; unlike
+     * {@link #stockLoaded}, the current loans are dropped, not carried over.
+     */
+    InventoryItem restockLoaded(Media media, int shelfCopies) {
+        InventoryItem old = media instanceof CD
+                ? cdInventory.get(((CD) media).getId())
+                : bookInventory.get(((Book) media).getIsbn());
+        if (old != null)
+            for (int c = old.nextLoan(0); c >= 0; c = old.nextLoan(c + 1)) old.release(c);
+        InventoryItem item = stockLoaded(media, shelfCopies);
+        repository.changedElsewhere(FileCatalogRepository.keyOf(item), item);
+        return item;
+    }
+
+    /** Removes an item another process withdrew, whatever its loans. */
+    void dropLoaded(boolean cd, String id) {
+        InventoryItem item = cd ? cdInventory.remove(id) : bookInventory.remove(id);
+        if (item == null) return;
+        loans.detach(item);
+        if (cd) {
+            cdsStale = true;
+        } else {
+            booksStale = true;
+            invalidateSearchIndex();
         }
+        repository.changedElsewhere(FileCatalogRepository.keyOf(item), null);
+    }
+
+    /** Empties the catalog before a full reload. */
+    void clearCatalog() {
+        for (InventoryItem item : bookInventory.values()) item.ledger = null;
+        for (InventoryItem item : cdInventory.values()) item.ledger = null;
+        loans.clear();
+        books.clear();
+        cds.clear();
+        booksStale = false;
+        cdsStale = false;
+        bookInventory.clear();
+        cdInventory.clear();
+        invalidateSearchIndex();
+        repository.catalogCleared();
+    }
+
+    /**
+     * Rebuilds the search index from every book now, rather than on a later
+     * search, and saves it next to the data file. A failed save is logged;
+     * the new index is used either way.
+     *
+     * @return number of books indexed
+     */
+    synchronized int rebuildIndexes() {
+        long start = System.nanoTime();
+        SearchIndex index = SearchIndex.build(books());
+        SEARCH_INDEX_BUILD_TIME.recordSince(start);
+
+        searchIndex = index;
+        searchIndexOpened = true;
+
+        Path path = repository.sidecar(SearchIndex.SUFFIX);
+        if (path != null) {
+            try {
+                index.write(path);
+            } catch (IOException e) {
+                LOG.error("Error saving search index.");
+            }
+        }
+        return index.rows();
+    }
+
+    /** @return copies on loan across all titles */
+    synchronized int getOnLoanCount() {
+        if (tiers != null) return tiers.onLoanCount();
+        int count = 0;
+        for (InventoryItem item : bookInventory.values()) count += item.getLoanCount();
+        for (InventoryItem item : cdInventory.values()) count += item.getLoanCount();
+        return count;
+    }
+
+    /** @return copies owned across all titles */
+    synchronized int getTotalCopies() {
+        if (tiers != null) return tiers.totalCopies();
+        int count = 0;
+        for (InventoryItem item : bookInventory.values()) count += item.getTotalCopies();
+        for (InventoryItem item : cdInventory.values()) count += item.getTotalCopies();
+        return count;
+    }
+
+    /** @return wall-clock millis of the last successful save, 0 if none yet */
+    synchronized long getLastSavedAt() {
+        return lastSavedAt;
+    }
+
+    /**
+     * @return how long in-memory changes have been waiting to reach the data file
+     *         (since the first failed save), 0 when the file is current
+     */
+    synchronized long getPersistenceLagMillis() {
+        return unsavedSince == 0 ? 0 : System.currentTimeMillis() - unsavedSince;
+    }
+
+    /** @return the notification channel */
+    EmailService getEmailService() {
+        return emailService;
+    }
+
+    /** @return the fine bookkeeping */
+    FineManager getFineManager() {
+        return fineManager;
     }
 
     // ==========================================================
-    // SEARCH
+    // READ-ONLY ACCESS (used by alternative catalog stores)
     // ==========================================================
 
-    public void searchBook(String keyword) {
-        boolean found = false;
-        keyword = keyword.toLowerCase();
+    /** @return an unmodifiable view of all books */
+    List<Book> getBooks() {
+        return Collections.unmodifiableList(books());
+    }
 
-        for (Book b : books) {
-            if (b.getTitle().toLowerCase().contains(keyword) ||
-                b.getAuthor().toLowerCase().contains(keyword) ||
-                b.getIsbn().equalsIgnoreCase(keyword)) {
+    /** @return an unmodifiable view of all CDs */
+    List<CD> getCDs() {
+        return Collections.unmodifiableList(cds());
+    }
 
-                System.out.println("✔ Found: " + b);
-                found = true;
-            }
+    /** @return all books in catalog order, rebuilt first if an entry was replaced or removed */
+    private List<Book> books() {
+        if (tiers != null) return tiers.books();
+        if (booksStale) {
+            books.clear();
+            for (InventoryItem item : bookInventory.values()) books.add((Book) item.getMedia());
+            booksStale = false;
         }
+        return books;
+    }
+
+    /** CD counterpart of {@link #books()}. */
+    private List<CD> cds() {
+        if (tiers != null) return tiers.cds();
+        if (cdsStale) {
+            cds.clear();
+            for (InventoryItem item : cdInventory.values()) cds.add((CD) item.getMedia());
+            cdsStale = false;
+        }
+        return cds;
+    }
+
+    /** @return copies left for the given ISBN (0 if unknown) */
+    synchronized int getBookCopies(String isbn) {
+        InventoryItem item = bookItem(isbn);
+        return item == null ? 0 : item.getAvailableCopies();
+    }
+
+    /** @return copies left for the given CD id (0 if unknown) */
+    synchronized int getCDCopies(String id) {
+        InventoryItem item = cdItem(id);
+        return item == null ? 0 : item.getAvailableCopies();
+    }
 
-        if (!found) System.out.println("❌ No books found.");
+    /** @return the inventory (stock and copy loans) of a book, or null */
+    synchronized InventoryItem getBookInventory(String isbn) {
+        return bookItem(isbn);
+    }
+
+    /** @return the inventory (stock and copy loans) of a CD, or null */
+    synchronized InventoryItem getCDInventory(String id) {
+        return cdItem(id);
     }
 
     // ==========================================================
-    // ACTIVE LOANS
+    // TIERED CATALOG
     // ==========================================================
 
-    public boolean hasActiveLoans(String username) {
+    /** @return true if only the items on loan and a cache of others are on the heap */
+    public synchronized boolean isTiered() {
+        return tiers != null;
+    }
+
+    /** @return lookups answered by the hot tier, 0 unless tiered */
+    synchronized long getCacheHits() {
+        return tiers == null ? 0 : tiers.getHits();
+    }
+
+    /** @return lookups read from the cold tier, 0 unless tiered */
+    synchronized long getCacheMisses() {
+        return tiers == null ? 0 : tiers.getMisses();
+    }
+
+    /** @return items dropped from the hot tier, 0 unless tiered */
+    synchronized long getCacheEvictions() {
+        return tiers == null ? 0 : tiers.getEvictions();
+    }
+
+    /** @return hits / (hits + misses), 0 before any lookup or unless tiered */
+    synchronized double getCacheHitRate() {
+        return tiers == null ? 0 : tiers.getHitRate();
+    }
+
+    /** @return items in the hot tier, 0 unless tiered */
+    synchronized int getCachedCount() {
+        return tiers == null ? 0 : tiers.getCachedCount();
+    }
+
+    /** @return items on the heap because a copy is on loan, 0 unless tiered */
+    synchronized int getPinnedCount() {
+        return tiers == null ? 0 : tiers.getPinnedCount();
+    }
+
+    /** @return maximum number of items in the hot tier, 0 unless tiered */
+    synchronized int getCacheSize() {
+        return tiers == null ? 0 : tiers.getCacheSize();
+    }
+
+    /**
+     * Resizes the hot tier at runtime, evicting items if it shrinks.
+     *
+     * @throws IllegalStateException    if the library is not tiered
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    synchronized void setCacheSize(int maximumSize) {
+        if (tiers == null) throw new IllegalStateException("The catalog is not tiered.");
+        tiers.setCacheSize(maximumSize);
+    }
 
-        for (Book b : books)
-            if (!b.isAvailable() && username.equals(b.getBorrowedBy()))
-                return true;
+    /** @return a one-line summary of the tiers, or null unless tiered */
+    public synchronized String getCacheStats() {
+        return tiers == null ? null : tiers.getStats();
+    }
 
-        for (CD cd : cds)
-            if (!cd.isAvailable() && username.equals(cd.getBorrowedBy()))
-                return true;
+    // ==========================================================
+    // ACTIVE LOANS
+    // ==========================================================
 
-        return false;
+    public synchronized boolean hasActiveLoans(String username) {
+        return loans.hasLoans(username);
     }
 }
@@ -0,0 +1,75 @@
+package librarysystem;
+
+/**
+ * Management interface of a {@link Library}, registered by
+ * {@link LibraryManagement} as {@code librarysystem:type=Library,name=...}.
+ */
+public interface LibraryMXBean {
+
+    int getBookCount();
+
+    int getCDCount();
+
+    int getTotalCopies();
+
+    int getOnLoanCount();
+
+    /** @return unpaid fines across all users, in NIS */
+    long getOutstandingFines();
+
+    /** @return emails waiting to be sent (0 unless a {@link QueuedEmailService} is used) */
+    int getEmailQueueDepth();
+
+    /** @return how long in-memory changes have been waiting to reach the data file */
+    long getPersistenceLagMillis();
+
+    /** @return wall-clock millis of the last successful save, 0 if none yet */
+    long getLastSavedAt();
+
+    /** @return estimated heap bytes saved so far by the shared {@link StringPool} */
+    long getStringPoolBytesSaved();
+
+    /** @return true if the catalog runs tiered ({@link TieredCatalog}); the cache figures are 0 otherwise */
+    boolean isTiered();
+
+    /** @return maximum number of items in the tiered catalog's cache */
+    int getCacheSize();
+
+    /**
+     * Resizes the tiered catalog's cache at runtime, evicting items if it
+     * shrinks. Fails unless the catalog is tiered.
+     */
+    void setCacheSize(int maximumSize);
+
+    /** @return items in the cache */
+    int getCachedCount();
+
+    /** @return items kept on the heap because a copy is on loan */
+    int getPinnedCount();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    /** @return hits / (hits + misses), or 0 before any lookup */
+    double getCacheHitRate();
+
+    /** Rewrites the data file now. */
+    void flush();
+
+    /**
+     * Writes a copy of the catalog to another file.
+     *
+     * @return the path written
+     */
+    String snapshot(String path) throws java.io.IOException;
+
+    /**
+     * Rebuilds the search index synchronously and saves it.
+     *
+     * @return number of books indexed
+     */
+    int rebuildIndexes();
+}
@@ -0,0 +1,188 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * LibraryManagement publishes live statistics and operational controls over
+ * JMX, so the system can be monitored and scripted (jconsole, VisualVM,
+ * jmxterm, or a JMX exporter) instead of only through the interactive menu.
+ *
+ * <p><b>Beans:</b></p>
+ * <ul>
+ *     <li>{@code librarysystem:type=Library,name=...} — {@link LibraryMXBean}:
+ *         catalog size, stock, loans, unpaid fines, email queue depth,
+ *         persistence lag, string-pool savings, tiered-catalog cache
+ *         statistics and size; flush, snapshot and index rebuild</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Beans are thin adapters; every call takes the same lock the wrapped
+ *         object's normal callers use</li>
+ *     <li>Registering a name that is already taken replaces the old bean, so a
+ *         restarted component never fails on startup</li>
+ * </ul>
+ */
+public final class LibraryManagement {
+
+    private static final String DOMAIN = "librarysystem";
+
+    private LibraryManagement() {
+    }
+
+    /**
+     * Registers a Library bean on the platform MBean server.
+     *
+     * @param name    value of the {@code name} key, e.g. "main"
+     * @param library the library to expose
+     * @return the bean's object name
+     */
+    public static ObjectName register(String name, Library library) throws JMException {
+        return register(objectName("Library", name), new LibraryBean(library));
+    }
+
+    /** Removes a bean registered by this class, if present. */
+    public static void unregister(ObjectName name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    private static ObjectName register(ObjectName name, Object bean) throws JMException {
+        unregister(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+        return name;
+    }
+
+    // ==========================================================
+    // ADAPTERS
+    // ==========================================================
+
+    static final class LibraryBean implements LibraryMXBean {
+
+        private final Library library;
+
+        LibraryBean(Library library) {
+            this.library = library;
+        }
+
+        @Override
+        public int getBookCount() {
+            synchronized (library) {
+                return library.getBooks().size();
+            }
+        }
+
+        @Override
+        public int getCDCount() {
+            synchronized (library) {
+                return library.getCDs().size();
+            }
+        }
+
+        @Override
+        public int getTotalCopies() {
+            return library.getTotalCopies();
+        }
+
+        @Override
+        public int getOnLoanCount() {
+            return library.getOnLoanCount();
+        }
+
+        @Override
+        public long getOutstandingFines() {
+            return library.getFineManager().getTotalOutstanding();
+        }
+
+        @Override
+        public int getEmailQueueDepth() {
+            EmailService email = library.getEmailService();
+            return email instanceof QueuedEmailService
+                    ? ((QueuedEmailService) email).getQueueDepth() : 0;
+        }
+
+        @Override
+        public long getPersistenceLagMillis() {
+            return library.getPersistenceLagMillis();
+        }
+
+        @Override
+        public long getLastSavedAt() {
+            return library.getLastSavedAt();
+        }
+
+        @Override
+        public long getStringPoolBytesSaved() {
+            return StringPool.shared().getBytesSaved();
+        }
+
+        @Override
+        public boolean isTiered() {
+            return library.isTiered();
+        }
+
+        @Override
+        public int getCacheSize() {
+            return library.getCacheSize();
+        }
+
+        @Override
+        public void setCacheSize(int maximumSize) {
+            library.setCacheSize(maximumSize);
+        }
+
+        @Override
+        public int getCachedCount() {
+            return library.getCachedCount();
+        }
+
+        @Override
+        public int getPinnedCount() {
+            return library.getPinnedCount();
+        }
+
+        @Override
+        public long getCacheHits() {
+            return library.getCacheHits();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            return library.getCacheMisses();
+        }
+
+        @Override
+        public long getCacheEvictions() {
+            return library.getCacheEvictions();
+        }
+
+        @Override
+        public double getCacheHitRate() {
+            return library.getCacheHitRate();
+        }
+
+        @Override
+        public void flush() {
+            library.flush();
+        }
+
+        @Override
+        public String snapshot(String path) throws IOException {
+            library.snapshot(path);
+            return path;
+        }
+
+        @Override
+        public int rebuildIndexes() {
+            return library.rebuildIndexes();
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package librarysystem;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * LibraryServer is a headless HTTP/JSON front end for one shared
+ * {@link Library}, for kiosks and the web catalog.
+ *
+ * <p><b>Endpoints:</b></p>
+ * <ul>
+ *     <li>{@code GET  /api/search?q=...&limit=50} — matching books</li>
+ *     <li>{@code GET  /api/items?id=...} — availability of a book or CD</li>
+ *     <li>{@code POST /api/borrow?id=...&user=...[&type=cd]} — borrow a copy</li>
+ *     <li>{@code POST /api/return?id=...&user=...[&type=cd]} — return a copy</li>
+ *     <li>{@code GET  /api/fines?user=...}, {@code POST /api/fines/pay?user=...&amount=...}</li>
+ *     <li>{@code GET  /api/stats} — the same figures as the JMX {@link LibraryMXBean}</li>
+ *     <li>{@code GET  /metrics} — {@link MetricsRegistry} in Prometheus text format</li>
+ * </ul>
+ * Parameters may be sent in the query string or as a form-encoded body.
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Built on the JDK's {@code com.sun.net.httpserver}; no extra dependencies</li>
+ *     <li>Requests run on a fixed pool of platform threads ({@code --threads}).
+ *         Virtual threads are not supported: the Library lock is a
+ *         {@code synchronized} monitor, which pins a virtual thread to its
+ *         carrier, and a change holds it through the file lock and save</li>
+ *     <li>Emails go out after the Library lock is released, through a
+ *         {@link QueuedEmailService}, so a slow mail server does not hold up
+ *         other requests</li>
+ *     <li>Every response has a Content-Length and the request body is always
+ *         drained, so HTTP/1.1 keep-alive connections are reused</li>
+ *     <li>Each route has its own request timer, plus shared request/error counters</li>
+ *     <li>Loan outcomes map to HTTP statuses: 200 OK, 404 not found,
+ *         409 for refusals (no copies, blocked, not borrowed)</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.LibraryServer --port=8080 --file=library.txt --threads=200
+ *   java librarysystem.LibraryServer --port=8080 --file=catalog.ohc --cache-size=50000
+ *   java librarysystem.LibraryServer --port=8080 --file=library.txt --replication-port=7070
+ *   java librarysystem.LibraryServer --port=8081 --follow=localhost:7070
+ * </pre>
+ * With {@code --replication-port} the server ships every save to
+ * {@link ReplicationFollower}s; with {@code --follow} it serves a read-only
+ * replica of such a primary, and borrowing or returning answers 405. With
+ * {@code --cache-size} an ".ohc" catalog is served tiered: only the items on
+ * loan and that many others stay on the heap.
+ */
+public final class LibraryServer implements Closeable {
+
+    private static final AsyncLogger LOG = AsyncLogger.shared();
+
+    private static final MetricsRegistry.Counter REQUESTS = MetricsRegistry.shared()
+            .counter("http_requests_total", "HTTP requests handled.");
+    private static final MetricsRegistry.Counter CLIENT_ERRORS = MetricsRegistry.shared()
+            .counter("http_client_errors_total", "HTTP requests answered with a 4xx status.");
+    private static final MetricsRegistry.Counter SERVER_ERRORS = MetricsRegistry.shared()
+            .counter("http_server_errors_total", "HTTP requests answered with a 5xx status.");
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving immediately.
+     *
+     * @param library         the library to expose
+     * @param address         address to bind (port 0 picks a free port)
+     * @param platformThreads number of request threads
+     * @throws IOException if the address cannot be bound
+     */
+    public LibraryServer(Library library, InetSocketAddress address, int platformThreads) throws IOException {
+        this.library = library;
+        this.server = HttpServer.create(address, 1024);
+        this.executor = newRequestExecutor(platformThreads);
+
+        route("/api/search", "search", this::search);
+        route("/api/items", "items", this::item);
+        route("/api/borrow", "borrow", ex -> loan(ex, true));
+        route("/api/return", "return", ex -> loan(ex, false));
+        route("/api/fines/pay", "pay_fine", this::payFine);
+        route("/api/fines", "fines", this::fines);
+        route("/api/stats", "stats", this::stats);
+        route("/metrics", "metrics", ex -> new Response(200, "text/plain; version=0.0.4",
+                MetricsRegistry.shared().dump()));
+
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        int threads = 200;
+        String file = "library.txt";
+        int replicationPort = -1;
+        String follow = null;
+        int cacheSize = 0;
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "port": port = Integer.parseInt(v); break;
+                case "threads": threads = Integer.parseInt(v); break;
+                case "file": file = v; break;
+                case "replication-port": replicationPort = Integer.parseInt(v); break;
+                case "follow": follow = v; break;
+                case "cache-size": cacheSize = Integer.parseInt(v); break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        QueuedEmailService email = new QueuedEmailService(defaultEmailService(), 10_000);
+        Library library;
+        Closeable watch;
+        if (follow != null) {
+            int colon = follow.lastIndexOf(':');
+            library = ReplicationFollower.newReplica(new FineManager(), email);
+            watch = new ReplicationFollower(library, new InetSocketAddress(
+                    follow.substring(0, colon), Integer.parseInt(follow.substring(colon + 1))));
+        } else if (replicationPort >= 0) {
+            ReplicationServer replication = new ReplicationServer(new InetSocketAddress(replicationPort));
+            library = new Library(new FineManager(), email,
+                    replication.replicate(CatalogRepository.open(file, cacheSize)), Clock.systemDefaultZone());
+            replication.start(library);
+            Closeable changes = library.watchForChanges();
+            watch = () -> {
+                replication.close();
+                changes.close();
+            };
+        } else {
+            library = new Library(new FineManager(), email,
+                    CatalogRepository.open(file, cacheSize), Clock.systemDefaultZone());
+            watch = library.watchForChanges();   // other desks may share the file
+        }
+        ObjectName management = LibraryManagement.register("server", library);
+
+        LibraryServer server = new LibraryServer(library, new InetSocketAddress(port), threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                watch.close();
+            } catch (IOException ignored) {}
+            try {
+                library.close();   // flushes and releases the catalog files
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Could not close the library: " + e.getMessage());
+            }
+            try {
+                LibraryManagement.unregister(management);
+            } catch (JMException ignored) {}
+            email.close();
+        }));
+        LOG.info("Library server listening on port " + server.getPort() + " (" + threads + " threads)");
+    }
+
+    /** SMTP if config/email.properties is usable, otherwise log the emails. */
+    private static EmailService defaultEmailService() {
+        try {
+            return new EmailSender()::sendEmail;
+        } catch (RuntimeException e) {
+            return (to, subject, body) -> {
+                LOG.info("📧 " + subject + " → " + to);
+                return true;
+            };
+        }
+    }
+
+    /** @return the bound port */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /** Creates the fixed pool of daemon platform threads that runs requests. */
+    static ExecutorService newRequestExecutor(int platformThreads) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "http-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return Executors.newFixedThreadPool(platformThreads, factory);
+    }
+
+    // ==========================================================
+    // ROUTES
+    // ==========================================================
+
+    private Response search(HttpExchange ex) throws IOException {
+        Map<String, String> p = params(ex);
+        String q = required(p, "q");
+        int limit = Integer.parseInt(p.getOrDefault("limit", "50"));
+
+        StringBuilder json = new StringBuilder("[");
+        Iterator<Book> hits = library.searchBook(q).limit(limit).iterator();
+        while (hits.hasNext()) {
+            Book b = hits.next();
+            synchronized (library) {
+                InventoryItem item = library.getBookInventory(b.getIsbn());
+                if (item == null) continue;   // withdrawn since the search
+                if (json.length() > 1) json.append(',');
+                appendItem(json, "book", b, b.getAuthor(), b.getIsbn(), item);
+            }
+        }
+        return Response.json(200, json.append(']').toString());
+    }
+
+    private Response item(HttpExchange ex) throws IOException {
+        String id = required(params(ex), "id");
+
+        InventoryItem item = library.getBookInventory(id);
+        String type = "book";
+        if (item == null) {
+            item = library.getCDInventory(id);
+            type = "cd";
+        }
+        if (item == null) return Response.error(404, "No item with id " + id);
+
+        Media m = item.getMedia();
+        String creator = m instanceof Book ? ((Book) m).getAuthor() : ((CD) m).getArtist();
+        StringBuilder json = new StringBuilder();
+        synchronized (library) {
+            appendItem(json, type, m, creator, id, item);
+        }
+        return Response.json(200, json.toString());
+    }
+
+    private Response loan(HttpExchange ex, boolean borrow) throws IOException {
+        requirePost(ex);
+        Map<String, String> p = params(ex);
+        String id = required(p, "id");
+        String user = required(p, "user");
+        boolean cd = "cd".equalsIgnoreCase(p.get("type"));
+
+        LoanResult r = borrow
+                ? (cd ? library.borrowCD(id, user) : library.borrowBook(id, user))
+                : (cd ? library.returnCD(id, user) : library.returnBook(id, user));
+
+        StringBuilder json = new StringBuilder("{");
+        field(json, "status", r.getStatus().name()).append(',');
+        json.append("\"success\":").append(r.isSuccess()).append(',');
+        field(json, "id", id).append(',');
+        field(json, "title", r.getItem() == null ? null : r.getItem().getTitle()).append(',');
+        field(json, "dueDate", r.getDueDate() == null ? null : r.getDueDate().toString()).append(',');
+        json.append("\"fine\":").append(r.getFine()).append('}');
+
+        int status = r.isSuccess() ? 200 : r.getStatus() == LoanResult.Status.NOT_FOUND ? 404 : 409;
+        return Response.json(status, json.toString());
+    }
+
+    private Response fines(HttpExchange ex) throws IOException {
+        String user = required(params(ex), "user");
+        return Response.json(200, fineJson(user));
+    }
+
+    private Response payFine(HttpExchange ex) throws IOException {
+        requirePost(ex);
+        if (library.isReadOnly()) throw new UnsupportedOperationException("Read-only replica");
+        Map<String, String> p = params(ex);
+        String user = required(p, "user");
+        int amount = Integer.parseInt(required(p, "amount"));
+        if (amount <= 0) throw new IllegalArgumentException("amount must be positive");
+
+        library.getFineManager().payFine(user, amount);
+        return Response.json(200, fineJson(user));
+    }
+
+    private String fineJson(String user) {
+        StringBuilder json = new StringBuilder("{");
+        field(json, "user", user).append(',');
+        return json.append("\"fine\":").append(library.getFineManager().getFine(user)).append('}').toString();
+    }
+
+    private Response stats(HttpExchange ex) {
+        LibraryMXBean s = new LibraryManagement.LibraryBean(library);
+        return Response.json(200, "{\"books\":" + s.getBookCount()
+                + ",\"cds\":" + s.getCDCount()
+                + ",\"totalCopies\":" + s.getTotalCopies()
+                + ",\"onLoan\":" + s.getOnLoanCount()
+                + ",\"outstandingFines\":" + s.getOutstandingFines()
+                + ",\"emailQueueDepth\":" + s.getEmailQueueDepth()
+                + ",\"persistenceLagMillis\":" + s.getPersistenceLagMillis()
+                + ",\"stringPoolBytesSaved\":" + s.getStringPoolBytesSaved() + "}");
+    }
+
+    // ==========================================================
+    // PLUMBING
+    // ==========================================================
+
+    private interface Route {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    /** A response ready to be written. */
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final String body;
+
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response json(int status, String body) {
+            return new Response(status, "application/json; charset=utf-8", body);
+        }
+
+        static Response error(int status, String message) {
+            StringBuilder json = new StringBuilder("{");
+            return json(status, field(json, "error", message).append('}').toString());
+        }
+    }
+
+    private void route(String path, String name, Route route) {
+        MetricsRegistry.Timer timer = MetricsRegistry.shared()
+                .timer("http_" + name + "_seconds", "Time to handle " + path + " requests.");
+
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            Response response;
+            try {
+                if (!exchange.getRequestURI().getPath().equals(path))
+                    response = Response.error(404, "Unknown path");
+                else
+                    response = route.handle(exchange);
+            } catch (IllegalArgumentException e) {
+                response = Response.error(400, e.getMessage());
+            } catch (UnsupportedOperationException e) {
+                response = Response.error(405, e.getMessage());
+            } catch (Exception e) {
+                LOG.error("❌ HTTP " + path + " failed: " + e);
+                response = Response.error(500, "Internal error");
+            }
+
+            try {
+                send(exchange, response);
+            } finally {
+                REQUESTS.increment();
+                if (response.status >= 500) SERVER_ERRORS.increment();
+                else if (response.status >= 400) CLIENT_ERRORS.increment();
+                timer.recordSince(start);
+            }
+        });
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] skip = new byte[512];
+            while (in.read(skip) >= 0) {
+                // drain so the connection can be reused
+            }
+        }
+
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void requirePost(HttpExchange exchange) {
+        if (!"POST".equals(exchange.getRequestMethod()))
+            throw new UnsupportedOperationException("Use POST");
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String v = params.get(name);
+        if (v == null || v.isEmpty()) throw new IllegalArgumentException("Missing parameter: " + name);
+        return v;
+    }
+
+    /** Parses the query string and, for form posts, the request body. */
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type != null && type.startsWith("application/x-www-form-urlencoded")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            InputStream in = exchange.getRequestBody();
+            for (int n; (n = in.read(buf)) >= 0; ) body.write(buf, 0, n);
+            parseForm(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> into) throws UnsupportedEncodingException {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            into.put(key, value);
+        }
+    }
+
+    private static void appendItem(StringBuilder json, String type, Media m, String creator,
+                                   String id, InventoryItem item) {
+        json.append('{');
+        field(json, "type", type).append(',');
+        field(json, "id", id).append(',');
+        field(json, "title", m.getTitle()).append(',');
+        field(json, "creator", creator).append(',');
+        json.append("\"totalCopies\":").append(item.getTotalCopies()).append(',');
+        json.append("\"availableCopies\":").append(item.getAvailableCopies()).append('}');
+    }
+
+    /** Appends {@code "name":"value"} with JSON string escaping (null → null). */
+    private static StringBuilder field(StringBuilder json, String name, String value) {
+        json.append('"').append(name).append("\":");
+        if (value == null) return json.append("null");
+
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
@@ -0,0 +1,314 @@
+package librarysystem;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LoadGenerator replays a realistic circulation mix against one shared
+ * {@link Library} from many concurrent clients, for capacity planning.
+ *
+ * <p><b>Workload:</b></p>
+ * <ul>
+ *     <li>Mix: 2% add, 30% borrow, 30% return, 28% search, 10% overdue check</li>
+ *     <li>Item popularity follows a {@link ZipfDistribution}</li>
+ *     <li>Each client is one user and returns the books it borrowed</li>
+ *     <li>Email goes to an in-process counting fake</li>
+ * </ul>
+ *
+ * <p><b>Measurement:</b></p>
+ * <ul>
+ *     <li>Per-operation {@link LatencyHistogram}s with p50/p99/p99.9/max</li>
+ *     <li>With a target rate, each operation is timed from its <i>intended</i>
+ *         start, so a stall is charged to every request queued behind it
+ *         (coordinated-omission corrected); without one, clients run closed-loop
+ *         at full speed</li>
+ *     <li>Library console output is discarded while the load runs</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.LoadGenerator --clients=16 --items=10000 --seconds=60 \
+ *        --warmup=10 --rate=200 --zipf=0.99
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    /** Operations in the workload mix. */
+    public enum Op { ADD, BORROW, RETURN, SEARCH, OVERDUE }
+
+    /** Cumulative mix percentages, in {@link Op} order. */
+    private static final int[] MIX = {2, 32, 62, 90, 100};
+
+    /** Run parameters. */
+    public static final class Config {
+        public int clients = 8;
+        public int items = 10_000;
+        public int seconds = 30;
+        public int warmupSeconds = 5;
+        /** Target operations per second per client; 0 = closed loop. */
+        public double ratePerClient = 0;
+        public double zipfExponent = 0.99;
+        public long seed = 42;
+    }
+
+    /** Results of one run. */
+    public static final class Report {
+        private final LatencyHistogram[] histograms;
+        private final long elapsedNanos;
+        private final long emails;
+
+        Report(LatencyHistogram[] histograms, long elapsedNanos, long emails) {
+            this.histograms = histograms;
+            this.elapsedNanos = elapsedNanos;
+            this.emails = emails;
+        }
+
+        public LatencyHistogram getHistogram(Op op) {
+            return histograms[op.ordinal()];
+        }
+
+        public long getTotalOperations() {
+            long total = 0;
+            for (LatencyHistogram h : histograms) total += h.getTotalCount();
+            return total;
+        }
+
+        public double getThroughput() {
+            return getTotalOperations() / (elapsedNanos / 1e9);
+        }
+
+        public long getEmailsSent() {
+            return emails;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Throughput: %.1f ops/s over %.1f s (%d ops, %d emails)%n",
+                    getThroughput(), elapsedNanos / 1e9, getTotalOperations(), emails));
+            sb.append(String.format("%-8s %10s %10s %10s %10s %10s%n",
+                    "op", "count", "p50(us)", "p99(us)", "p999(us)", "max(us)"));
+
+            LatencyHistogram all = new LatencyHistogram();
+            for (Op op : Op.values()) {
+                LatencyHistogram h = histograms[op.ordinal()];
+                all.add(h);
+                appendRow(sb, op.name(), h);
+            }
+            appendRow(sb, "ALL", all);
+            return sb.toString();
+        }
+
+        private static void appendRow(StringBuilder sb, String name, LatencyHistogram h) {
+            sb.append(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f%n",
+                    name, h.getTotalCount(),
+                    h.getValueAtPercentile(50) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3,
+                    h.getValueAtPercentile(99.9) / 1e3,
+                    h.getMaxValue() / 1e3));
+        }
+    }
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "clients": cfg.clients = Integer.parseInt(v); break;
+                case "items": cfg.items = Integer.parseInt(v); break;
+                case "seconds": cfg.seconds = Integer.parseInt(v); break;
+                case "warmup": cfg.warmupSeconds = Integer.parseInt(v); break;
+                case "rate": cfg.ratePerClient = Double.parseDouble(v); break;
+                case "zipf": cfg.zipfExponent = Double.parseDouble(v); break;
+                case "seed": cfg.seed = Long.parseLong(v); break;
+                default:
+                    System.out.println("Unknown option: " + arg);
+                    return;
+            }
+        }
+
+        System.out.println(run(cfg));
+    }
+
+    /**
+     * Seeds a temporary catalog, runs the workload and returns the results.
+     */
+    public static Report run(Config cfg) throws IOException, InterruptedException {
+        Path file = seedCatalog(cfg.items);
+        AtomicLong emails = new AtomicLong();
+        EmailService fakeEmail = (to, subject, body) -> {
+            emails.incrementAndGet();
+            return true;
+        };
+
+        PrintStream console = System.out;
+        System.setOut(discardingStream());
+
+        try (Library library = new Library(new FineManager(), fakeEmail, file.toString())) {
+            ZipfDistribution zipf = new ZipfDistribution(cfg.items, cfg.zipfExponent);
+
+            LatencyHistogram[] histograms = new LatencyHistogram[Op.values().length];
+            for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(cfg.warmupSeconds);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(cfg.seconds);
+
+            CountDownLatch done = new CountDownLatch(cfg.clients);
+            for (int c = 0; c < cfg.clients; c++) {
+                Client client = new Client(c, cfg, library, zipf, histograms, measureFrom, end);
+                Thread t = new Thread(() -> {
+                    try {
+                        client.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-client-" + c);
+                t.start();
+            }
+
+            done.await();
+            long emailsSent = emails.get();
+            return new Report(histograms, end - measureFrom, emailsSent);
+
+        } finally {
+            AsyncLogger.shared().flush();
+            System.setOut(console);
+            Files.deleteIfExists(file);
+            for (String suffix : new String[]{FileCatalogRepository.LOCK_SUFFIX,
+                    FileCatalogRepository.JOURNAL_SUFFIX, SearchIndex.SUFFIX})
+                Files.deleteIfExists(Paths.get(file + suffix));
+        }
+    }
+
+    /** @return a PrintStream that drops everything written to it */
+    static PrintStream discardingStream() {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    /** Writes a catalog of {@code items} books (ids LG0, LG1, ...) to a temporary file. */
+    static Path seedCatalog(int items) throws IOException {
+        Path file = File.createTempFile("library-load-", ".txt").toPath();
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < items; i++) {
+                w.write("BOOK,Title " + i + ",Author " + (i % 1000) + ",LG" + i
+                        + ",5,true,null,null,");
+                w.newLine();
+            }
+        }
+        return file;
+    }
+
+    /** One simulated user issuing requests in a loop. */
+    private static final class Client {
+
+        private final Library library;
+        private final ZipfDistribution zipf;
+        private final LatencyHistogram[] histograms;
+        private final long measureFrom;
+        private final long end;
+        private final long intervalNanos;
+        private final Random random;
+        private final String user;
+        private final Deque<String> loans = new ArrayDeque<>();
+        private int added;
+
+        Client(int id, Config cfg, Library library, ZipfDistribution zipf,
+               LatencyHistogram[] histograms, long measureFrom, long end) {
+            this.library = library;
+            this.zipf = zipf;
+            this.histograms = histograms;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.intervalNanos = cfg.ratePerClient > 0 ? (long) (1e9 / cfg.ratePerClient) : 0;
+            this.random = new Random(cfg.seed + id);
+            this.user = "load-user-" + id;
+        }
+
+        void run() {
+            long next = System.nanoTime();
+
+            while (true) {
+                long start;
+                if (intervalNanos > 0) {
+                    next += intervalNanos;
+                    long wait;
+                    while ((wait = next - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                    start = next;
+                } else {
+                    start = System.nanoTime();
+                }
+                if (start >= end) return;
+
+                Op op = execute(pickOp());
+
+                if (start >= measureFrom)
+                    histograms[op.ordinal()].recordValue(System.nanoTime() - start);
+            }
+        }
+
+        private Op pickOp() {
+            int r = random.nextInt(100);
+            for (Op op : Op.values())
+                if (r < MIX[op.ordinal()]) return op;
+            return Op.SEARCH;
+        }
+
+        private Op execute(Op op) {
+            switch (op) {
+                case ADD:
+                    library.addBook("New " + user + " " + added, "Author", user + "-" + added++, 2);
+                    return op;
+
+                case RETURN:
+                    if (!loans.isEmpty()) {
+                        library.returnBook(loans.pop(), user);
+                        return op;
+                    }
+                    // nothing to return: borrow instead
+                    return execute(Op.BORROW);
+
+                case BORROW: {
+                    String isbn = "LG" + zipf.sample(random);
+                    if (library.borrowBook(isbn, user).isSuccess())
+                        loans.push(isbn);   // once per copy held, so every copy is returned
+                    return op;
+                }
+
+                case SEARCH:
+                    library.searchBook("Title " + zipf.sample(random)).count();
+                    return op;
+
+                default:
+                    library.checkOverdueBooks(user);
+                    return op;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package librarysystem;
+
+import java.util.Arrays;
+
+/**
+ * LoanLedger indexes every copy a {@link Library} has on loan by borrower,
+ * in struct-of-arrays form, for the per-user checks that run on every borrow.
+ *
+ * <p>Without it, "does this user have a lost item?" visits every
+ * {@link InventoryItem} in the catalog. The ledger answers it by walking
+ * only that user's loans through a few contiguous arrays.</p>
+ *
+ * <p>Only the loans are kept in columns. The items themselves stay
+ * {@link Book} and {@link CD} objects in their {@link InventoryItem}s;
+ * there is no columnar item store.</p>
+ *
+ * <p><b>Layout:</b></p>
+ * <ul>
+ *     <li>One entry per copy on loan: item, copy number, due epoch day and
+ *         the next entry of the same borrower, each in its own column</li>
+ *     <li>Borrowers are dictionary codes; each code heads a chain of its
+ *         entries, newest first</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>{@link InventoryItem} reports its loans and returns once attached,
+ *         so the ledger cannot drift from the per-copy tables, however the
+ *         loan was made (borrow, load, catch-up, {@link Media#borrow})</li>
+ *     <li>Loans without a borrower are not indexed; no user check can match them</li>
+ *     <li>Freed entries go on a free list that the next loan reuses, so
+ *         entries never move</li>
+ *     <li>Not thread-safe; the library lock covers it</li>
+ * </ul>
+ */
+final class LoanLedger {
+
+    private final StringDictionary users = new StringDictionary();
+
+    /** First entry of each borrower code, or -1. */
+    private int[] userFirst = new int[0];
+
+    private InventoryItem[] itemCol = new InventoryItem[16];
+    private int[] copyCol = new int[16];
+    private int[] dueCol = new int[16];
+    private int[] nextCol = new int[16];   // next entry of the same borrower, or next free entry
+
+    private int used;
+    private int free = -1;
+    private int count;
+
+    /** Indexes the item's current loans and reports its later ones here. */
+    void attach(InventoryItem item) {
+        item.ledger = this;
+        for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1))
+            add(item, c, item.getBorrower(c), item.getDueEpochDay(c));
+    }
+
+    /** Drops the item's loans from the index and stops following it. */
+    void detach(InventoryItem item) {
+        if (item.ledger != this) return;
+        for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1))
+            remove(item, c, item.getBorrower(c));
+        item.ledger = null;
+    }
+
+    /** Forgets every loan; the caller detaches or discards the items. */
+    void clear() {
+        Arrays.fill(userFirst, -1);
+        Arrays.fill(itemCol, 0, used, null);
+        used = 0;
+        free = -1;
+        count = 0;
+    }
+
+    /** Records a copy lent to a user (called by {@link InventoryItem}). */
+    void add(InventoryItem item, int copy, String username, int dueEpochDay) {
+        if (username == null) return;
+
+        int entry;
+        if (free >= 0) {
+            entry = free;
+            free = nextCol[entry];
+        } else {
+            if (used == itemCol.length) {
+                int capacity = used + (used >> 1);
+                itemCol = Arrays.copyOf(itemCol, capacity);
+                copyCol = Arrays.copyOf(copyCol, capacity);
+                dueCol = Arrays.copyOf(dueCol, capacity);
+                nextCol = Arrays.copyOf(nextCol, capacity);
+            }
+            entry = used++;
+        }
+
+        int user = users.encode(username);
+        if (user >= userFirst.length) {
+            int old = userFirst.length;
+            userFirst = Arrays.copyOf(userFirst, Math.max(user + 1, old + (old >> 1) + 16));
+            Arrays.fill(userFirst, old, userFirst.length, -1);
+        }
+
+        itemCol[entry] = item;
+        copyCol[entry] = copy;
+        dueCol[entry] = dueEpochDay;
+        nextCol[entry] = userFirst[user];
+        userFirst[user] = entry;
+        count++;
+    }
+
+    /** Removes a returned copy (called by {@link InventoryItem}). */
+    void remove(InventoryItem item, int copy, String username) {
+        int user = users.lookup(username);
+        if (user == StringDictionary.NONE || user >= userFirst.length) return;
+
+        int prev = -1;
+        for (int e = userFirst[user]; e >= 0; prev = e, e = nextCol[e]) {
+            if (itemCol[e] != item || copyCol[e] != copy) continue;
+
+            if (prev < 0) userFirst[user] = nextCol[e];
+            else nextCol[prev] = nextCol[e];
+
+            itemCol[e] = null;
+            nextCol[e] = free;
+            free = e;
+            count--;
+            return;
+        }
+    }
+
+    // ==========================================================
+    // PER-USER SCANS
+    // ==========================================================
+
+    /**
+     * Iterates over a user's loans, newest first:
+     * {@code for (int e = ledger.first(user); e >= 0; e = ledger.next(e))}.
+     *
+     * @return the user's newest entry, or -1 if they have nothing on loan
+     */
+    int first(String username) {
+        int user = users.lookup(username);
+        return user == StringDictionary.NONE || user >= userFirst.length ? -1 : userFirst[user];
+    }
+
+    /** @return the user's next older entry, or -1 */
+    int next(int entry) {
+        return nextCol[entry];
+    }
+
+    InventoryItem item(int entry) {
+        return itemCol[entry];
+    }
+
+    int copy(int entry) {
+        return copyCol[entry];
+    }
+
+    /** @return the entry's due date as epoch day, or {@link InventoryItem#NO_DATE} */
+    int dueEpochDay(int entry) {
+        return dueCol[entry];
+    }
+
+    /** @return true if any copy on loan to the user was due before the given epoch day */
+    boolean hasLoanDueBefore(String username, long epochDay) {
+        for (int e = first(username); e >= 0; e = nextCol[e]) {
+            if (dueCol[e] != InventoryItem.NO_DATE && dueCol[e] < epochDay)
+                return true;
+        }
+        return false;
+    }
+
+    /** @return true if the user has any copy on loan */
+    boolean hasLoans(String username) {
+        return first(username) >= 0;
+    }
+
+    /** @return number of copies on loan to a named borrower */
+    int size() {
+        return count;
+    }
+}
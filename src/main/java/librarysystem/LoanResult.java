@@ -0,0 +1,80 @@
+package librarysystem;
+
+import java.time.LocalDate;
+
+/**
+ * LoanResult is the outcome of a borrow or return: a status code plus the
+ * item involved, its due date and any late fine that was applied.
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Library never prints outcomes; callers decide what to show
+ *         (the console menu in {@link Main}, or nothing at all for batch jobs)</li>
+ *     <li>Immutable; failed operations carry the item when it is known</li>
+ * </ul>
+ */
+public final class LoanResult {
+
+    /** What happened. */
+    public enum Status {
+        /** The item was borrowed or returned. */
+        OK,
+        /** Borrowing refused: the user has unpaid fines. */
+        BLOCKED_BY_FINE,
+        /** Borrowing refused: the user has an item 30+ days overdue. */
+        BLOCKED_BY_LOST_ITEM,
+        /** No item with that id. */
+        NOT_FOUND,
+        /** Every copy is on loan. */
+        NO_COPIES,
+        /** Return refused: the user holds no copy of the item. */
+        NOT_BORROWED
+    }
+
+    private final Status status;
+    private final Media item;
+    private final LocalDate dueDate;
+    private final int fine;
+
+    LoanResult(Status status, Media item, LocalDate dueDate, int fine) {
+        this.status = status;
+        this.item = item;
+        this.dueDate = dueDate;
+        this.fine = fine;
+    }
+
+    static LoanResult failed(Status status, Media item) {
+        return new LoanResult(status, item, null, 0);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** @return true if the item was borrowed or returned */
+    public boolean isSuccess() {
+        return status == Status.OK;
+    }
+
+    /** @return the item involved, or null if it was not found */
+    public Media getItem() {
+        return item;
+    }
+
+    /** @return due date of the copy borrowed or returned, or null */
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+
+    /** @return late fine applied on return, in NIS (0 if none) */
+    public int getFine() {
+        return fine;
+    }
+
+    @Override
+    public String toString() {
+        return status + (item == null ? "" : " " + item.getTitle())
+                + (dueDate == null ? "" : " due " + dueDate)
+                + (fine == 0 ? "" : " fine " + fine);
+    }
+}
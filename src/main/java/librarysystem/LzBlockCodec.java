@@ -0,0 +1,152 @@
+package librarysystem;
+
+import java.util.Arrays;
+
+/**
+ * LzBlockCodec is a small LZ77 block compressor in the style of LZ4: fast
+ * enough to sit on every save and load, with a useful ratio on catalog data
+ * (repeated id prefixes, titles and dates).
+ *
+ * <p><b>Block format:</b> a sequence of
+ * {@code token literals offset(2, little-endian) [extra match length]}, where
+ * the token's high nibble is the literal count and its low nibble the match
+ * length minus 4 (15 = more length bytes follow, 255 meaning "keep adding").
+ * The last sequence has literals only.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Greedy matching with a single-entry hash table of 4-byte sequences;
+ *         no entropy coding, so decoding is a plain copy loop</li>
+ *     <li>Matches reach back at most 64 KB, so blocks are independent</li>
+ *     <li>The last 12 bytes of a block are always literals, as in LZ4, which
+ *         keeps the match search inside the array without bounds checks</li>
+ * </ul>
+ */
+final class LzBlockCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 14;
+    private static final int TAIL_LITERALS = 12;
+
+    private final int[] table = new int[1 << HASH_BITS];
+
+    /** @return the largest possible compressed size of {@code length} bytes */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[0, length)} into {@code dst}.
+     *
+     * @param dst at least {@link #maxCompressedLength(int)} bytes
+     * @return the compressed length
+     */
+    int compress(byte[] src, int length, byte[] dst) {
+        Arrays.fill(table, 0);   // entries are position + 1; 0 = empty
+        int anchor = 0;
+        int out = 0;
+        int limit = length - TAIL_LITERALS;
+
+        int i = 0;
+        while (i < limit) {
+            int sequence = readInt(src, i);
+            int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h] - 1;
+            table[h] = i + 1;
+
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                i++;
+                continue;
+            }
+
+            int match = MIN_MATCH;
+            while (i + match < limit && src[ref + match] == src[i + match]) match++;
+
+            out = writeSequence(src, anchor, i - anchor, dst, out, i - ref, match);
+            i += match;
+            anchor = i;
+        }
+        return writeSequence(src, anchor, length - anchor, dst, out, 0, 0);
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @return the decompressed length
+     * @throws IllegalArgumentException if the block is corrupt or does not fit {@code dst}
+     */
+    static int decompress(byte[] src, int length, byte[] dst) {
+        int in = 0;
+        int out = 0;
+        try {
+            while (in < length) {
+                int token = src[in++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+                if (in >= length) break;   // last sequence
+
+                int offset = (src[in++] & 0xFF) | (src[in++] & 0xFF) << 8;
+                int match = token & 15;
+                if (match == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        match += b;
+                    } while (b == 255);
+                }
+                match += MIN_MATCH;
+
+                int from = out - offset;
+                if (offset == 0 || from < 0) throw new IllegalArgumentException("Corrupt block: bad offset");
+                for (int end = out + match; out < end; ) dst[out++] = dst[from++];   // may overlap
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupt block: overrun", e);
+        }
+        return out;
+    }
+
+    private static int writeSequence(byte[] src, int start, int literals, byte[] dst, int out,
+                                     int offset, int match) {
+        int extra = match - MIN_MATCH;
+        int tokenPos = out++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) out = writeLength(dst, out, literals - 15);
+
+        System.arraycopy(src, start, dst, out, literals);
+        out += literals;
+
+        if (match > 0) {
+            token |= Math.min(extra, 15);
+            dst[out++] = (byte) offset;
+            dst[out++] = (byte) (offset >>> 8);
+            if (extra >= 15) out = writeLength(dst, out, extra - 15);
+        }
+        dst[tokenPos] = (byte) token;
+        return out;
+    }
+
+    private static int writeLength(byte[] dst, int out, int remaining) {
+        while (remaining >= 255) {
+            dst[out++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[out++] = (byte) remaining;
+        return out;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
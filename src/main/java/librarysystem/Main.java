@@ -17,17 +17,64 @@ package librarysystem;
  *     <li>runMenu() takes InputStream to support unit testing (dependency injection)</li>
  *     <li>Uses SessionManager to maintain login state and enforce admin-only actions</li>
  *     <li>Services are initialized once at startup and reused throughout runtime</li>
+ *     <li>Library and email status lines go through the {@link AsyncLogger};
+ *         the menu flushes it before printing or reading, so output stays in order</li>
+ *     <li>The Library is also published over JMX ({@link LibraryManagement}) for
+ *         scripted monitoring and control</li>
  * </ul>
  */
 
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.management.JMException;
 
 public class Main {
 
     public static void main(String[] args) {
-        runMenu(System.in);
+        // --server [--port=8080 ...] runs the headless HTTP API instead of the menu
+        if (args.length > 0 && args[0].equals("--server")) {
+            try {
+                LibraryServer.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (Exception e) {
+                System.out.println("❌ Server failed to start: " + e.getMessage());
+            }
+            return;
+        }
+
+        // --batch [--batch-size=1000 ...] script.txt|- runs a command script without the menu
+        if (args.length > 0 && args[0].equals("--batch")) {
+            try {
+                BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.out.println("❌ Batch failed: " + e.getMessage());
+            }
+            return;
+        }
+
+        // -Dlibrary.metrics.file=/path/library.prom enables the Prometheus textfile export
+        String metricsFile = System.getProperty("library.metrics.file");
+        Closeable export = metricsFile == null ? null
+                : MetricsRegistry.shared().startExport(Paths.get(metricsFile),
+                        Long.getLong("library.metrics.periodSeconds", 15), TimeUnit.SECONDS);
+
+        try {
+            runMenu(System.in);
+        } finally {
+            if (export != null) {
+                try {
+                    export.close();
+                } catch (IOException e) {
+                    System.out.println("❌ Metrics export failed: " + e.getMessage());
+                }
+            }
+        }
     }
 
     public static void runMenu(InputStream inputStream) {
@@ -40,10 +87,17 @@ public class Main {
         Library library = new Library(fineManager);
         UserManager userManager = new UserManager();
 
+        try {
+            LibraryManagement.register("main", library);
+        } catch (JMException e) {
+            System.out.println("❌ JMX registration failed: " + e.getMessage());
+        }
+
         Scanner sc = new Scanner(inputStream);
 
         while (true) {
 
+            AsyncLogger.shared().flush();
             System.out.println("\n===== Library System =====");
             System.out.println("1. Admin Login");
             System.out.println("2. Exit");
@@ -70,6 +124,7 @@ public class Main {
 
                 while (session.isLoggedIn()) {
 
+                    AsyncLogger.shared().flush();
                     String currentUser = session.getCurrentUser();
 
                     System.out.println("\n----- Admin Menu -----");
@@ -110,12 +165,12 @@ public class Main {
 
                         case "3":
                             System.out.print("Keyword: ");
-                            library.searchBook(readInput(sc));
+                            printSearch(library.searchBook(readInput(sc)));
                             break;
 
                         case "4":
                             System.out.print("Enter ISBN: ");
-                            library.borrowBook(readInput(sc), currentUser);
+                            printLoan(library.borrowBook(readInput(sc), currentUser), "Book", "borrowed");
                             break;
 
                         case "5":
@@ -136,7 +191,7 @@ public class Main {
 
                         case "7":
                             System.out.print("Enter CD ID: ");
-                            library.borrowCD(readInput(sc), currentUser);
+                            printLoan(library.borrowCD(readInput(sc), currentUser), "CD", "borrowed");
                             break;
 
                         case "8":
@@ -179,6 +234,43 @@ public class Main {
         }
 
         sc.close();
+        AsyncLogger.shared().flush();
+    }
+
+    /** Prints a borrow/return outcome in the menu's usual wording. */
+    static void printLoan(LoanResult result, String kind, String action) {
+        switch (result.getStatus()) {
+            case OK:
+                System.out.println("✔ " + kind + " " + action + "."
+                        + (result.getDueDate() != null && action.equals("borrowed")
+                           ? " Due: " + result.getDueDate() : "")
+                        + (result.getFine() > 0 ? " Fine added: " + result.getFine() + " NIS" : ""));
+                break;
+            case BLOCKED_BY_FINE:
+                System.out.println("❌ Borrow blocked: unpaid fines.");
+                break;
+            case BLOCKED_BY_LOST_ITEM:
+                System.out.println("❌ Borrow blocked: lost item exists.");
+                break;
+            case NOT_FOUND:
+                System.out.println("❌ " + kind + " not found.");
+                break;
+            case NO_COPIES:
+                System.out.println("❌ No copies left.");
+                break;
+            default:
+                System.out.println("❌ You did not borrow this " + kind.toLowerCase() + ".");
+        }
+    }
+
+    /** Prints search hits, or a notice when there are none. */
+    static void printSearch(Stream<Book> hits) {
+        boolean[] found = {false};
+        hits.forEach(b -> {
+            System.out.println("✔ Found: " + b);
+            found[0] = true;
+        });
+        if (!found[0]) System.out.println("❌ No books found.");
     }
 
     private static String readInput(Scanner sc) {
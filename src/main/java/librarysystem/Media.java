@@ -20,6 +20,8 @@ import java.time.LocalDate;
  *     <li>The class is abstract to enforce implementation of fine calculation in subclasses</li>
  *     <li>Borrow/return logic is centralized here to avoid duplication</li>
  *     <li>Availability, due date, and borrower stored directly inside Media to support all media types</li>
+ *     <li>Once stocked by a Library, these fields mirror the latest outstanding loan of the
+ *         item's {@link InventoryItem}, which tracks every copy</li>
  * </ul>
  */
 public abstract class Media {
@@ -36,6 +38,9 @@ public abstract class Media {
     /** The username of the borrower (null when item is available). */
     protected String borrowedBy;
 
+    /** Copy-level loan table once the item is stocked by a Library (null otherwise). */
+    InventoryItem inventory;
+
     /**
      * Constructs a media item with the given title.
      *
@@ -47,21 +52,45 @@ public abstract class Media {
 
     /**
      * Marks this media as borrowed by the given user.
+     * When the item is stocked, one free copy is lent through its {@link InventoryItem}.
      *
      * @param dueDate  the due date for returning the item
      * @param username the user who borrowed the item
+     * @throws IllegalStateException if the item is stocked and no copy is free
      */
     public void borrow(LocalDate dueDate, String username) {
-        this.available = false;
-        this.dueDate = dueDate;
-        this.borrowedBy = username;
+        if (inventory != null) {
+            inventory.lend(username, dueDate);
+            return;
+        }
+        setLoan(dueDate, StringPool.shared().intern(username));
     }
 
     /**
      * Returns the item and resets its status.
      * Sets availability to true and clears borrower and due-date data.
+     * When the item is stocked, the copy held by the current borrower is released.
      */
     public void returnItem() {
+        if (inventory != null) {
+            int copy = borrowedBy == null ? inventory.nextLoan(0) : inventory.findLoan(borrowedBy);
+            if (copy >= 0) {
+                inventory.release(copy);
+                return;
+            }
+        }
+        clearLoan();
+    }
+
+    /** Shows a loan on this item (used by {@link InventoryItem}). */
+    void setLoan(LocalDate dueDate, String username) {
+        this.available = false;
+        this.dueDate = dueDate;
+        this.borrowedBy = username;
+    }
+
+    /** Marks this item as having no outstanding loan. */
+    void clearLoan() {
         this.available = true;
         this.dueDate = null;
         this.borrowedBy = null;
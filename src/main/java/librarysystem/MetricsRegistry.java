@@ -0,0 +1,315 @@
+package librarysystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * MetricsRegistry holds the application's named counters, gauges, timers
+ * and histograms and renders them in the Prometheus text exposition format.
+ *
+ * <p><b>Responsibilities:</b></p>
+ * <ul>
+ *     <li>Create metrics on first use and return the same instance afterwards</li>
+ *     <li>Render every metric on demand ({@link #dump()}, {@link #writeTo(Path)})</li>
+ *     <li>Optionally rewrite a text file periodically, for a node-exporter style
+ *         textfile collector ({@link #startExport})</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Instrumented classes look metrics up once into static fields, so the
+ *         hot path is a {@link LongAdder} increment or a {@link LatencyHistogram}
+ *         record — no locks and no allocation</li>
+ *     <li>Timers and histograms are exported as summaries (p50, p99, p99.9,
+ *         sum, count); timers are recorded in nanoseconds and exported in seconds</li>
+ *     <li>The export file is written to a temporary file and moved into place,
+ *         so a scraper never sees a partial file</li>
+ * </ul>
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /** @return the process-wide registry used by the library's own instrumentation */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    // ==========================================================
+    // METRIC TYPES
+    // ==========================================================
+
+    /** Common base of all metric types. */
+    public abstract static class Metric {
+        private final String name;
+        private final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        abstract String type();
+
+        abstract void render(StringBuilder out);
+    }
+
+    /** A monotonically increasing count. */
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            out.append(getName()).append(' ').append(get()).append('\n');
+        }
+    }
+
+    /**
+     * A value read when the metrics are rendered, from the source bound to
+     * it; NaN while nothing is bound.
+     */
+    public static final class Gauge extends Metric {
+        private static final DoubleSupplier UNBOUND = () -> Double.NaN;
+
+        private final AtomicReference<DoubleSupplier> source = new AtomicReference<>(UNBOUND);
+
+        Gauge(String name, String help) {
+            super(name, help);
+        }
+
+        /** Makes the gauge report the given source, replacing any other. */
+        public void bind(DoubleSupplier value) {
+            source.set(value);
+        }
+
+        /** Unbinds the given source, if it is still the one bound. */
+        public void unbind(DoubleSupplier value) {
+            source.compareAndSet(value, UNBOUND);
+        }
+
+        public double get() {
+            return source.get().getAsDouble();
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            out.append(getName()).append(' ').append(format(get())).append('\n');
+        }
+    }
+
+    /** A distribution of recorded values, backed by a {@link LatencyHistogram}. */
+    public static class Histogram extends Metric {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final double scale;
+
+        Histogram(String name, String help, double scale) {
+            super(name, help);
+            this.scale = scale;
+        }
+
+        public void record(long value) {
+            histogram.recordValue(value);
+        }
+
+        public long getCount() {
+            return histogram.getTotalCount();
+        }
+
+        /** @return the underlying histogram (raw, unscaled values) */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        @Override
+        String type() {
+            return "summary";
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            for (double q : QUANTILES) {
+                out.append(getName()).append("{quantile=\"").append(q).append("\"} ")
+                   .append(format(histogram.getValueAtPercentile(q * 100) * scale)).append('\n');
+            }
+            out.append(getName()).append("_sum ").append(format(histogram.getSum() * scale)).append('\n');
+            out.append(getName()).append("_count ").append(histogram.getTotalCount()).append('\n');
+        }
+    }
+
+    /** A histogram of durations: recorded in nanoseconds, exported in seconds. */
+    public static final class Timer extends Histogram {
+
+        Timer(String name, String help) {
+            super(name, help, 1e-9);
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos}.
+         *
+         * @param startNanos a value previously read from {@link System#nanoTime()}
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    // ==========================================================
+    // REGISTRATION
+    // ==========================================================
+
+    /** @return the counter with the given name, created if needed */
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help), Counter.class);
+    }
+
+    /** @return the gauge with the given name, created if needed */
+    public Gauge gauge(String name, String help) {
+        return register(new Gauge(name, help), Gauge.class);
+    }
+
+    /** @return the timer with the given name, created if needed */
+    public Timer timer(String name, String help) {
+        return register(new Timer(name, help), Timer.class);
+    }
+
+    /** @return the (unit-less) histogram with the given name, created if needed */
+    public Histogram histogram(String name, String help) {
+        return register(new Histogram(name, help, 1), Histogram.class);
+    }
+
+    private <M extends Metric> M register(M candidate, Class<M> type) {
+        Metric existing = metrics.putIfAbsent(candidate.getName(), candidate);
+        if (existing == null) return candidate;
+
+        if (existing.getClass() != type)
+            throw new IllegalArgumentException("Metric " + candidate.getName()
+                    + " is already registered as a " + existing.type() + ".");
+        return type.cast(existing);
+    }
+
+    /** @return the metric with the given name, or null */
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    // ==========================================================
+    // EXPORT
+    // ==========================================================
+
+    /** @return every metric in Prometheus text format, sorted by name */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        for (Metric m : metrics.values()) {
+            out.append("# HELP ").append(m.getName()).append(' ').append(m.help).append('\n');
+            out.append("# TYPE ").append(m.getName()).append(' ').append(m.type()).append('\n');
+            m.render(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes {@link #dump()} to a file, replacing it atomically where the
+     * file system allows.
+     *
+     * @param file destination file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(dump());
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Rewrites the given file every {@code period} on a daemon thread until
+     * the returned handle is closed; closing writes one final snapshot.
+     *
+     * @param file   destination file
+     * @param period time between snapshots
+     * @param unit   unit of {@code period}
+     * @return a handle that stops the export
+     */
+    public Closeable startExport(Path file, long period, TimeUnit unit) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-export");
+            t.setDaemon(true);
+            return t;
+        });
+
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                writeTo(file);
+            } catch (IOException e) {
+                AsyncLogger.shared().error("❌ Metrics export failed: " + e.getMessage());
+            }
+        }, 0, period, unit);
+
+        return () -> {
+            scheduler.shutdownNow();
+            writeTo(file);
+        };
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,916 @@
+package librarysystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+/**
+ * OffHeapCatalog stores catalog records outside the Java heap, so a very large
+ * catalog held only here adds almost nothing to garbage-collection work.
+ * That holds for code that works on rows; a {@link Library} copies what it
+ * uses onto the heap (see below).
+ *
+ * <p>Five segments are used:</p>
+ * <ul>
+ *     <li><b>records</b> — a 64-byte header followed by fixed 48-byte item records</li>
+ *     <li><b>strings</b> — an append-only heap of UTF-8 bytes referenced by records</li>
+ *     <li><b>index</b> — an open-addressing hash table of record numbers keyed by
+ *         media type and id, so a book and a CD may share an id</li>
+ *     <li><b>loans</b> — fixed 16-byte entries, one per copy on loan, chained
+ *         from their record as in {@link InventoryItem}</li>
+ *     <li><b>names</b> — an open-addressing hash table of the creator and
+ *         borrower names in the string heap, 12-byte slots of hash,
+ *         offset + 1 (0 = empty) and length</li>
+ * </ul>
+ *
+ * <p>Record layout (byte offsets):</p>
+ * <pre>
+ *   0  flags (bit 0 = CD, bit 1 = available, bit 2 = removed)
+ *   4  copies left            8  first loan entry + 1 (0 = none)
+ *  12  id hash               16  id offset       20  id length
+ *  24  title offset          28  title length
+ *  32  creator offset        36  creator length
+ *  40  copies on loan        44  unused
+ * </pre>
+ *
+ * <p>Loan entry layout: next entry + 1 (0 = end), borrower offset (-1 = none,
+ * -2 = free entry), borrower length, due epoch day (MIN_VALUE = none).</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Built on direct and memory-mapped {@link ByteBuffer}s, available on the
+ *         project's Java 17 baseline (the Foreign Memory API is not final there)</li>
+ *     <li>File-backed catalogs are opened by mapping the segments back in;
+ *         nothing is re-parsed and the id index is reused as-is</li>
+ *     <li>Creator and borrower names are written once to the string heap and
+ *         shared by offset, so finding a user's loan compares ints instead of
+ *         decoding strings. The names table that finds them is a segment too,
+ *         so it costs no heap and is mapped back in like the id index</li>
+ *     <li>Finding or ending a loan walks only its record's chain, and freed
+ *         entries are reused. There are no per-user scans: a {@link Library}
+ *         answers those from its {@link LoanLedger}</li>
+ *     <li>A removed record keeps its row number but leaves the index, so
+ *         adding its id again appends a new row</li>
+ *     <li>Each segment is limited to 2 GB (a single ByteBuffer)</li>
+ *     <li>Not thread-safe; callers synchronize</li>
+ *     <li>Replacing a row rewrites its title only when it changed; other
+ *         changes to the string heap are appends, so a catalog with many
+ *         renames should be rebuilt with {@link #of(Library)}</li>
+ * </ul>
+ *
+ * <p>{@link OffHeapCatalogRepository} keeps a {@link Library}'s catalog in
+ * one of these, for data files ending in {@value OffHeapCatalogRepository#EXTENSION}.
+ * By default the library loads every record onto the heap, so the gain is a
+ * fast restart and small saves, not less garbage-collection work. Opened with
+ * a cache size it runs tiered ({@link TieredCatalog}) and only the items on
+ * loan and a bounded cache of others are copied.</p>
+ */
+public class OffHeapCatalog implements Closeable {
+
+    private static final int MAGIC = 0x4C424F48; // "LBOH"
+    private static final int VERSION = 3;
+
+    /** Version before the names segment; opened by building that segment once. */
+    private static final int VERSION_WITHOUT_NAMES = 2;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_BYTES = 48;
+    private static final int LOAN_BYTES = 16;
+    private static final int NAME_BYTES = 12;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_COUNT = 8;
+    private static final int H_STRINGS_USED = 12;
+    private static final int H_INDEX_SLOTS = 16;
+    private static final int H_LOANS_USED = 20;
+    private static final int H_LOAN_FREE = 24;
+    private static final int H_LOAN_COUNT = 28;
+    private static final int H_NAME_SLOTS = 32;
+    private static final int H_NAMES_USED = 36;
+
+    private static final int R_FLAGS = 0;
+    private static final int R_COPIES = 4;
+    private static final int R_FIRST_LOAN = 8;
+    private static final int R_ID_HASH = 12;
+    private static final int R_ID = 16;
+    private static final int R_TITLE = 24;
+    private static final int R_CREATOR = 32;
+    private static final int R_LOANS = 40;
+
+    private static final int L_NEXT = 0;
+    private static final int L_BORROWER = 4;
+    private static final int L_DUE = 12;
+
+    private static final int N_HASH = 0;
+    private static final int N_OFFSET = 4;
+    private static final int N_LENGTH = 8;
+
+    private static final int FLAG_CD = 1;
+    private static final int FLAG_AVAILABLE = 2;
+    private static final int FLAG_REMOVED = 4;
+
+    /** Borrower offset marking a loan entry on the free list. */
+    private static final int FREE = -2;
+
+    /** Index entry of a removed record; probes continue past it. */
+    private static final int TOMBSTONE = -1;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final Segment records;
+    private final Segment strings;
+    private final Segment index;
+    private final Segment loans;
+    private final Segment names;
+
+    private int count;
+    private int stringsUsed;
+    private int indexSlots;
+    private int nameSlots;
+    private int namesUsed;
+
+    /** Loan entries ever used, head of the free list + 1, and entries in use. */
+    private int loansUsed;
+    private int loanFree;
+    private int loanCount;
+
+    private OffHeapCatalog(Segment records, Segment strings, Segment index, Segment loans,
+                           Segment names, boolean existing) {
+        this.records = records;
+        this.strings = strings;
+        this.index = index;
+        this.loans = loans;
+        this.names = names;
+
+        if (existing && records.buf.getInt(H_MAGIC) == MAGIC) {
+            int version = records.buf.getInt(H_VERSION);
+            if (version != VERSION && version != VERSION_WITHOUT_NAMES)
+                throw new IllegalStateException("Unsupported off-heap catalog version.");
+
+            count = records.buf.getInt(H_COUNT);
+            stringsUsed = records.buf.getInt(H_STRINGS_USED);
+            indexSlots = records.buf.getInt(H_INDEX_SLOTS);
+            loansUsed = records.buf.getInt(H_LOANS_USED);
+            loanFree = records.buf.getInt(H_LOAN_FREE);
+            loanCount = records.buf.getInt(H_LOAN_COUNT);
+            nameSlots = records.buf.getInt(H_NAME_SLOTS);
+            namesUsed = records.buf.getInt(H_NAMES_USED);
+            if (version == VERSION_WITHOUT_NAMES) buildNames();
+        } else {
+            indexSlots = Integer.highestOneBit(Math.max(index.buf.capacity() / 4, 16));
+            nameSlots = Integer.highestOneBit(Math.max(names.buf.capacity() / NAME_BYTES, 16));
+            names.ensure((long) nameSlots * NAME_BYTES);
+            records.buf.putInt(H_MAGIC, MAGIC);
+            records.buf.putInt(H_VERSION, VERSION);
+            writeHeader();
+        }
+    }
+
+    /**
+     * Creates an anonymous off-heap catalog backed by direct memory.
+     *
+     * @param expectedItems initial record capacity
+     */
+    public static OffHeapCatalog allocate(int expectedItems) {
+        int items = Math.max(expectedItems, 16);
+        return new OffHeapCatalog(
+                Segment.direct(HEADER_BYTES + (long) items * RECORD_BYTES),
+                Segment.direct((long) items * 48),
+                Segment.direct(indexBytesFor(items)),
+                Segment.direct((long) items * LOAN_BYTES),
+                Segment.direct(namesBytesFor(items)),
+                false);
+    }
+
+    /**
+     * Opens (or creates) a file-backed catalog. The segments are stored in
+     * {@code base.rec}, {@code base.str}, {@code base.key}, {@code base.lns}
+     * and {@code base.nam}. A catalog written before the names segment
+     * existed gets one on its first open.
+     *
+     * @param base          path prefix of the segment files
+     * @param expectedItems initial record capacity for a new catalog
+     * @throws IOException if the files cannot be opened or mapped
+     */
+    public static OffHeapCatalog open(Path base, int expectedItems) throws IOException {
+        int items = Math.max(expectedItems, 16);
+        Path rec = Paths.get(base + ".rec");
+        boolean existing = rec.toFile().length() >= HEADER_BYTES;
+
+        return new OffHeapCatalog(
+                Segment.mapped(rec, HEADER_BYTES + (long) items * RECORD_BYTES),
+                Segment.mapped(Paths.get(base + ".str"), (long) items * 48),
+                Segment.mapped(Paths.get(base + ".key"), indexBytesFor(items)),
+                Segment.mapped(Paths.get(base + ".lns"), (long) items * LOAN_BYTES),
+                Segment.mapped(Paths.get(base + ".nam"), namesBytesFor(items)),
+                existing);
+    }
+
+    /**
+     * Copies every item of a Library, with every copy on loan, into a new
+     * anonymous off-heap catalog.
+     *
+     * @param library the source library
+     */
+    public static OffHeapCatalog of(Library library) {
+        OffHeapCatalog catalog =
+                allocate(library.getBooks().size() + library.getCDs().size());
+
+        for (Book b : library.getBooks())
+            catalog.copy(library.getBookInventory(b.getIsbn()));
+
+        for (CD cd : library.getCDs())
+            catalog.copy(library.getCDInventory(cd.getId()));
+
+        return catalog;
+    }
+
+    /**
+     * Writes an item's current state: its row (added if new) with the shelf
+     * copies, and exactly its loans.
+     *
+     * @return the row number
+     */
+    int copy(InventoryItem item) {
+        Media m = item.getMedia();
+        int row = m instanceof CD
+                ? put(true, ((CD) m).getId(), m.getTitle(), ((CD) m).getArtist(), item.getAvailableCopies())
+                : put(false, ((Book) m).getIsbn(), m.getTitle(), ((Book) m).getAuthor(), item.getAvailableCopies());
+
+        clearLoans(row);
+        // chains are built at the head: lending the shown loan first puts it
+        // last, so a load that follows the chain makes it the Media's again
+        int shown = Library.shownLoan(item);
+        if (shown >= 0) lend(row, item.getBorrower(shown), item.getDueDate(shown));
+        for (int c = item.nextLoan(0); c >= 0; c = item.nextLoan(c + 1))
+            if (c != shown) lend(row, item.getBorrower(c), item.getDueDate(c));
+
+        writeHeader();
+        return row;
+    }
+
+    // ==========================================================
+    // WRITE
+    // ==========================================================
+
+    /**
+     * Adds a book, or overwrites the row with the same ISBN. A loan the book
+     * carries is recorded as one more copy, as {@link InventoryItem} does,
+     * unless the row already has a loan for that user.
+     *
+     * @return the row number
+     */
+    public int add(Book b, int copies) {
+        return carryLoan(put(false, b.getIsbn(), b.getTitle(), b.getAuthor(), copies), b);
+    }
+
+    /**
+     * Adds a CD, or overwrites the row with the same id; see {@link #add(Book, int)}.
+     *
+     * @return the row number
+     */
+    public int add(CD cd, int copies) {
+        return carryLoan(put(true, cd.getId(), cd.getTitle(), cd.getArtist(), copies), cd);
+    }
+
+    private int put(boolean isCd, String id, String title, String creator, int copies) {
+        int row = rowOf(id, isCd);
+        boolean added = row < 0;
+        int base;
+
+        if (added) {
+            row = count;
+            records.ensure(offsetOf(row + 1));
+            base = offsetOf(row);
+
+            records.buf.put(base + R_FLAGS, (byte) ((isCd ? FLAG_CD : 0) | FLAG_AVAILABLE));
+            records.buf.putInt(base + R_FIRST_LOAN, 0);
+            records.buf.putInt(base + R_LOANS, 0);
+            records.buf.putInt(base + R_ID_HASH, id.hashCode());
+            writeString(base + R_ID, id);
+            count++;
+            indexInsert(row);
+        } else {
+            base = offsetOf(row);
+        }
+
+        records.buf.putInt(base + R_COPIES, copies);
+
+        // the string heap is append-only: rewrite the title only if it changed
+        if (added || !sameString(records.buf, base + R_TITLE, title)) writeString(base + R_TITLE, title);
+        writeSharedString(records.buf, base + R_CREATOR, creator);
+
+        writeHeader();
+        return row;
+    }
+
+    private int carryLoan(int row, Media m) {
+        if (!m.isAvailable() && findLoan(row, m.getBorrowedBy()) < 0) {
+            lend(row, m.getBorrowedBy(), m.getDueDate());
+            writeHeader();
+        }
+        return row;
+    }
+
+    /**
+     * Records a loan on a row and takes one copy from stock.
+     *
+     * @return false if the row has no copies left
+     */
+    public boolean borrow(int row, String username, LocalDate due) {
+        int base = checkedOffset(row);
+
+        int copies = records.buf.getInt(base + R_COPIES);
+        if (copies <= 0) return false;
+
+        records.buf.putInt(base + R_COPIES, copies - 1);
+        lend(row, username, due);
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Ends the row's loan with the earliest due date and puts the copy back
+     * into stock.
+     *
+     * @return false if no copy of the row is on loan
+     */
+    public boolean returnItem(int row) {
+        checkedOffset(row);
+        return release(row, earliestLoan(row));
+    }
+
+    /**
+     * Ends the user's loan of a copy of the row and puts it back into stock.
+     *
+     * @return false if the user holds no copy of the row
+     */
+    public boolean returnItem(int row, String username) {
+        checkedOffset(row);
+        return username != null && release(row, findLoan(row, username));
+    }
+
+    /**
+     * Withdraws a row with its loans. The row number stays taken; adding the
+     * id again appends a new row.
+     */
+    public void remove(int row) {
+        int base = checkedOffset(row);
+        clearLoans(row);
+        records.buf.put(base + R_FLAGS, (byte) (records.buf.get(base + R_FLAGS) | FLAG_REMOVED));
+
+        int mask = indexSlots - 1;
+        int slot = mix(records.buf.getInt(base + R_ID_HASH)) & mask;
+        while (index.buf.getInt(slot * 4) != row + 1)
+            slot = (slot + 1) & mask;
+        index.buf.putInt(slot * 4, TOMBSTONE);
+        writeHeader();
+    }
+
+    /** Empties the catalog, keeping its reserved memory or files. */
+    public void clear() {
+        count = 0;
+        stringsUsed = 0;
+        loansUsed = 0;
+        loanFree = 0;
+        loanCount = 0;
+        namesUsed = 0;
+        for (int i = 0; i < indexSlots; i++)
+            index.buf.putInt(i * 4, 0);
+        for (int i = 0; i < nameSlots; i++)
+            names.buf.putInt(i * NAME_BYTES + N_OFFSET, 0);
+        writeHeader();
+    }
+
+    // ==========================================================
+    // LOANS
+    // ==========================================================
+
+    private void lend(int row, String username, LocalDate due) {
+        int loan;
+        if (loanFree != 0) {
+            loan = loanFree - 1;
+            loanFree = loans.buf.getInt(loanOffset(loan) + L_NEXT);
+        } else {
+            loan = loansUsed;
+            loans.ensure(loanOffset(loan + 1));
+            loansUsed++;
+        }
+
+        int base = offsetOf(row);
+        int entry = loanOffset(loan);
+        loans.buf.putInt(entry + L_NEXT, records.buf.getInt(base + R_FIRST_LOAN));
+        writeSharedString(loans.buf, entry + L_BORROWER, username);
+        loans.buf.putInt(entry + L_DUE, due == null ? NO_DATE : (int) due.toEpochDay());
+
+        records.buf.putInt(base + R_FIRST_LOAN, loan + 1);
+        records.buf.putInt(base + R_LOANS, records.buf.getInt(base + R_LOANS) + 1);
+        records.buf.put(base + R_FLAGS, (byte) (records.buf.get(base + R_FLAGS) & ~FLAG_AVAILABLE));
+        loanCount++;
+    }
+
+    private boolean release(int row, int loan) {
+        if (loan < 0) return false;
+
+        unlink(row, loan);
+        int base = offsetOf(row);
+        records.buf.putInt(base + R_COPIES, records.buf.getInt(base + R_COPIES) + 1);
+        writeHeader();
+        return true;
+    }
+
+    /** Takes a loan out of its row's chain and puts the entry on the free list. */
+    private void unlink(int row, int loan) {
+        int base = offsetOf(row);
+        int entry = loanOffset(loan);
+        int next = loans.buf.getInt(entry + L_NEXT);
+
+        int prev = -1;
+        for (int l = firstLoan(row); l != loan; l = nextLoan(l)) prev = l;
+        if (prev < 0) records.buf.putInt(base + R_FIRST_LOAN, next);
+        else loans.buf.putInt(loanOffset(prev) + L_NEXT, next);
+
+        loans.buf.putInt(entry + L_NEXT, loanFree);
+        loans.buf.putInt(entry + L_BORROWER, FREE);
+        loanFree = loan + 1;
+        loanCount--;
+
+        int onLoan = records.buf.getInt(base + R_LOANS) - 1;
+        records.buf.putInt(base + R_LOANS, onLoan);
+        if (onLoan == 0)
+            records.buf.put(base + R_FLAGS, (byte) (records.buf.get(base + R_FLAGS) | FLAG_AVAILABLE));
+    }
+
+    private void clearLoans(int row) {
+        for (int l = firstLoan(row); l >= 0; l = firstLoan(row)) unlink(row, l);
+    }
+
+    /** @return the first loan entry of a row's chain, or -1 */
+    int firstLoan(int row) {
+        return records.buf.getInt(offsetOf(row) + R_FIRST_LOAN) - 1;
+    }
+
+    /** @return the loan entry after {@code loan} in its row's chain, or -1 */
+    int nextLoan(int loan) {
+        return loans.buf.getInt(loanOffset(loan) + L_NEXT) - 1;
+    }
+
+    String getBorrower(int loan) {
+        return readString(loans.buf, loanOffset(loan) + L_BORROWER);
+    }
+
+    LocalDate getDueDate(int loan) {
+        int due = loans.buf.getInt(loanOffset(loan) + L_DUE);
+        return due == NO_DATE ? null : LocalDate.ofEpochDay(due);
+    }
+
+    /** @return the user's loan entry on the row (null matches a loan with no borrower), or -1 */
+    private int findLoan(int row, String username) {
+        int user;
+        if (username == null) {
+            user = -1;
+        } else {
+            user = findName(username.hashCode(), username.getBytes(StandardCharsets.UTF_8));
+            if (user < 0) return -1;
+        }
+        for (int l = firstLoan(row); l >= 0; l = nextLoan(l))
+            if (loans.buf.getInt(loanOffset(l) + L_BORROWER) == user) return l;
+        return -1;
+    }
+
+    /** @return the row's loan entry due first, or -1 */
+    private int earliestLoan(int row) {
+        int loan = -1;
+        int earliest = 0;
+        for (int l = firstLoan(row); l >= 0; l = nextLoan(l)) {
+            int due = loans.buf.getInt(loanOffset(l) + L_DUE);
+            if (loan < 0 || due < earliest) {
+                loan = l;
+                earliest = due;
+            }
+        }
+        return loan;
+    }
+
+    // ==========================================================
+    // READ
+    // ==========================================================
+
+    /**
+     * @return the row of a book with this ISBN or, failing that, of a CD with
+     *         this id; -1 if neither is in the catalog
+     */
+    public int rowOf(String id) {
+        int row = rowOf(id, false);
+        return row >= 0 ? row : rowOf(id, true);
+    }
+
+    /** @return the row of the book ({@code cd == false}) or CD with this id, or -1 */
+    public int rowOf(String id, boolean cd) {
+        if (id == null) return -1;
+
+        int hash = id.hashCode();
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int mask = indexSlots - 1;
+
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = index.buf.getInt(slot * 4);
+            if (entry == 0) return -1;
+            if (entry == TOMBSTONE) continue;
+
+            int row = entry - 1;
+            int base = offsetOf(row);
+            if (records.buf.getInt(base + R_ID_HASH) == hash
+                    && ((records.buf.get(base + R_FLAGS) & FLAG_CD) != 0) == cd
+                    && stringEquals(records.buf, base + R_ID, key))
+                return row;
+        }
+    }
+
+    /** @return number of rows, including removed ones */
+    public int size() {
+        return count;
+    }
+
+    public boolean isRemoved(int row) {
+        if (row < 0 || row >= count)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + count);
+        return (records.buf.get(offsetOf(row) + R_FLAGS) & FLAG_REMOVED) != 0;
+    }
+
+    /** @return copies of the row left in stock */
+    public int getCopies(int row) {
+        return records.buf.getInt(checkedOffset(row) + R_COPIES);
+    }
+
+    /** @return number of copies of the row on loan */
+    public int getLoanCount(int row) {
+        return records.buf.getInt(checkedOffset(row) + R_LOANS);
+    }
+
+    public boolean isCD(int row) {
+        return (records.buf.get(checkedOffset(row) + R_FLAGS) & FLAG_CD) != 0;
+    }
+
+    public boolean isAvailable(int row) {
+        return (records.buf.get(checkedOffset(row) + R_FLAGS) & FLAG_AVAILABLE) != 0;
+    }
+
+    /**
+     * Materializes a row as a detached Book or CD, carrying the loan due
+     * first. Changes to the returned object are not written back.
+     */
+    public Media view(int row) {
+        int base = checkedOffset(row);
+
+        int flags = records.buf.get(base + R_FLAGS);
+        boolean available = (flags & FLAG_AVAILABLE) != 0;
+        int loan = earliestLoan(row);
+        LocalDate dueDate = loan < 0 ? null : getDueDate(loan);
+        String borrower = loan < 0 ? null : getBorrower(loan);
+
+        String id = readString(records.buf, base + R_ID);
+        String title = readString(records.buf, base + R_TITLE);
+        String creator = readString(records.buf, base + R_CREATOR);
+
+        if ((flags & FLAG_CD) != 0) {
+            CD cd = new CD(title, creator, id, available, dueDate);
+            cd.setBorrowedBy(borrower);
+            return cd;
+        }
+
+        Book b = new Book(title, creator, id, available, dueDate);
+        b.setBorrowedBy(borrower);
+        return b;
+    }
+
+    /** @return number of copies currently on loan */
+    public int onLoanCount() {
+        return loanCount;
+    }
+
+    /** @return bytes of off-heap memory (or mapped file) currently reserved */
+    public long reservedBytes() {
+        return (long) records.buf.capacity() + strings.buf.capacity()
+                + index.buf.capacity() + loans.buf.capacity() + names.buf.capacity();
+    }
+
+    /** Flushes mapped segments to disk (no-op for anonymous catalogs). */
+    public void force() {
+        writeHeader();
+        records.force();
+        strings.force();
+        index.force();
+        loans.force();
+        names.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        records.close();
+        strings.close();
+        index.close();
+        loans.close();
+        names.close();
+    }
+
+    // ==========================================================
+    // STRING HEAP
+    // ==========================================================
+
+    private void writeString(int field, String value) {
+        writeString(records.buf, field, value);
+    }
+
+    /** Appends a string to the heap and points the offset/length field of {@code target} at it. */
+    private void writeString(ByteBuffer target, int field, String value) {
+        if (value == null) {
+            target.putInt(field, -1);
+            target.putInt(field + 4, 0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings.ensure((long) stringsUsed + bytes.length);
+
+        for (int i = 0; i < bytes.length; i++)
+            strings.buf.put(stringsUsed + i, bytes[i]);
+
+        target.putInt(field, stringsUsed);
+        target.putInt(field + 4, bytes.length);
+        stringsUsed += bytes.length;
+    }
+
+    private void writeSharedString(ByteBuffer target, int field, String value) {
+        if (value == null) {
+            writeString(target, field, null);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int offset = findName(value.hashCode(), bytes);
+        if (offset < 0) {
+            writeString(target, field, value);
+            insertName(value.hashCode(), target.getInt(field), bytes.length);
+        } else {
+            target.putInt(field, offset);
+            target.putInt(field + 4, bytes.length);
+        }
+    }
+
+    private String readString(ByteBuffer source, int field) {
+        int offset = source.getInt(field);
+        if (offset < 0) return null;
+
+        byte[] bytes = new byte[source.getInt(field + 4)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = strings.buf.get(offset + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean sameString(ByteBuffer source, int field, String value) {
+        if (value == null) return source.getInt(field) < 0;
+        return source.getInt(field) >= 0 && stringEquals(source, field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean stringEquals(ByteBuffer source, int field, byte[] key) {
+        if (source.getInt(field + 4) != key.length) return false;
+
+        return bytesEqual(source.getInt(field), key);
+    }
+
+    private boolean bytesEqual(int offset, byte[] key) {
+        for (int i = 0; i < key.length; i++)
+            if (strings.buf.get(offset + i) != key[i]) return false;
+        return true;
+    }
+
+    // ==========================================================
+    // ID INDEX
+    // ==========================================================
+
+    private void indexInsert(int row) {
+        if ((long) count * 2 > indexSlots) {
+            resizeIndex(indexSlots * 2);
+            return; // resize re-inserts every row, including this one
+        }
+        placeInIndex(row);
+    }
+
+    private void placeInIndex(int row) {
+        int mask = indexSlots - 1;
+        int slot = mix(records.buf.getInt(offsetOf(row) + R_ID_HASH)) & mask;
+        while (index.buf.getInt(slot * 4) > 0)
+            slot = (slot + 1) & mask;
+        index.buf.putInt(slot * 4, row + 1);
+    }
+
+    /** Rebuilds the index with the given slot count; removed rows and tombstones are left out. */
+    private void resizeIndex(int slots) {
+        index.ensure((long) slots * 4);
+        indexSlots = slots;
+        for (int i = 0; i < slots; i++)
+            index.buf.putInt(i * 4, 0);
+        for (int row = 0; row < count; row++)
+            if ((records.buf.get(offsetOf(row) + R_FLAGS) & FLAG_REMOVED) == 0)
+                placeInIndex(row);
+        writeHeader();
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long indexBytesFor(int items) {
+        return (long) Integer.highestOneBit(Math.max(items, 8) * 4 - 1) * 4;
+    }
+
+    // ==========================================================
+    // NAMES TABLE
+    // ==========================================================
+
+    /** @return the string-heap offset of a shared name, or -1 if it was never written */
+    private int findName(int hash, byte[] key) {
+        int mask = nameSlots - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slot * NAME_BYTES;
+            int offset = names.buf.getInt(entry + N_OFFSET) - 1;
+            if (offset < 0) return -1;
+            if (names.buf.getInt(entry + N_HASH) == hash
+                    && names.buf.getInt(entry + N_LENGTH) == key.length
+                    && bytesEqual(offset, key))
+                return offset;
+        }
+    }
+
+    private void insertName(int hash, int offset, int length) {
+        if ((long) (namesUsed + 1) * 2 > nameSlots) resizeNames(nameSlots * 2);
+        placeName(hash, offset, length);
+        namesUsed++;
+        writeHeader();
+    }
+
+    private void placeName(int hash, int offset, int length) {
+        int mask = nameSlots - 1;
+        int slot = mix(hash) & mask;
+        while (names.buf.getInt(slot * NAME_BYTES + N_OFFSET) != 0)
+            slot = (slot + 1) & mask;
+
+        int entry = slot * NAME_BYTES;
+        names.buf.putInt(entry + N_HASH, hash);
+        names.buf.putInt(entry + N_OFFSET, offset + 1);
+        names.buf.putInt(entry + N_LENGTH, length);
+    }
+
+    /** Re-places every name in a table of the given slot count. */
+    private void resizeNames(int slots) {
+        int[] entries = new int[namesUsed * 3];
+        int n = 0;
+        for (int slot = 0; slot < nameSlots; slot++) {
+            int entry = slot * NAME_BYTES;
+            if (names.buf.getInt(entry + N_OFFSET) == 0) continue;
+            entries[n++] = names.buf.getInt(entry + N_HASH);
+            entries[n++] = names.buf.getInt(entry + N_OFFSET) - 1;
+            entries[n++] = names.buf.getInt(entry + N_LENGTH);
+        }
+
+        names.ensure((long) slots * NAME_BYTES);
+        nameSlots = slots;
+        for (int slot = 0; slot < slots; slot++)
+            names.buf.putInt(slot * NAME_BYTES + N_OFFSET, 0);
+        for (int i = 0; i < n; i += 3)
+            placeName(entries[i], entries[i + 1], entries[i + 2]);
+    }
+
+    /** Fills the names table of a catalog written before it existed, once. */
+    private void buildNames() {
+        nameSlots = Integer.highestOneBit(Math.max(names.buf.capacity() / NAME_BYTES, 16));
+        names.ensure((long) nameSlots * NAME_BYTES);
+        namesUsed = 0;
+        for (int slot = 0; slot < nameSlots; slot++)
+            names.buf.putInt(slot * NAME_BYTES + N_OFFSET, 0);
+
+        for (int row = 0; row < count; row++)
+            rememberName(records.buf, offsetOf(row) + R_CREATOR);
+        for (int loan = 0; loan < loansUsed; loan++)
+            rememberName(loans.buf, loanOffset(loan) + L_BORROWER);
+
+        records.buf.putInt(H_VERSION, VERSION);
+        writeHeader();
+    }
+
+    private void rememberName(ByteBuffer source, int field) {
+        int offset = source.getInt(field);
+        if (offset < 0) return;
+
+        String value = readString(source, field);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (findName(value.hashCode(), bytes) < 0)
+            insertName(value.hashCode(), offset, bytes.length);
+    }
+
+    private static long namesBytesFor(int items) {
+        return (long) Integer.highestOneBit(Math.max(items, 8) * 4 - 1) * NAME_BYTES;
+    }
+
+    // ==========================================================
+    // INTERNALS
+    // ==========================================================
+
+    private void writeHeader() {
+        records.buf.putInt(H_COUNT, count);
+        records.buf.putInt(H_STRINGS_USED, stringsUsed);
+        records.buf.putInt(H_INDEX_SLOTS, indexSlots);
+        records.buf.putInt(H_LOANS_USED, loansUsed);
+        records.buf.putInt(H_LOAN_FREE, loanFree);
+        records.buf.putInt(H_LOAN_COUNT, loanCount);
+        records.buf.putInt(H_NAME_SLOTS, nameSlots);
+        records.buf.putInt(H_NAMES_USED, namesUsed);
+    }
+
+    private static int offsetOf(int row) {
+        return HEADER_BYTES + row * RECORD_BYTES;
+    }
+
+    private static int loanOffset(int loan) {
+        return loan * LOAN_BYTES;
+    }
+
+    /** @return the offset of a row that exists and was not removed */
+    private int checkedOffset(int row) {
+        if (isRemoved(row))
+            throw new IllegalArgumentException("Row " + row + " was removed.");
+        return offsetOf(row);
+    }
+
+    /** A growable direct or file-mapped buffer. */
+    private static final class Segment implements Closeable {
+
+        private final FileChannel channel;
+        private ByteBuffer buf;
+
+        private Segment(FileChannel channel, ByteBuffer buf) {
+            this.channel = channel;
+            this.buf = buf;
+        }
+
+        static Segment direct(long bytes) {
+            return new Segment(null, ByteBuffer.allocateDirect(checkSize(bytes)));
+        }
+
+        static Segment mapped(Path file, long bytes) throws IOException {
+            FileChannel ch = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = Math.max(ch.size(), bytes);
+            return new Segment(ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, checkSize(size)));
+        }
+
+        void ensure(long bytes) {
+            if (bytes <= buf.capacity()) return;
+
+            checkSize(bytes);
+            long size = Math.max(bytes, buf.capacity() + (long) (buf.capacity() >> 1));
+            size = Math.min(size, Integer.MAX_VALUE);
+            try {
+                if (channel == null) {
+                    ByteBuffer grown = ByteBuffer.allocateDirect((int) size);
+                    ByteBuffer old = buf.duplicate();
+                    old.clear();
+                    grown.put(old);
+                    grown.clear();
+                    buf = grown;
+                } else {
+                    buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot grow off-heap segment.", e);
+            }
+        }
+
+        void force() {
+            if (buf instanceof MappedByteBuffer)
+                ((MappedByteBuffer) buf).force();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+        }
+
+        private static int checkSize(long bytes) {
+            if (bytes > Integer.MAX_VALUE)
+                throw new IllegalStateException("Off-heap segment exceeds 2 GB.");
+            return (int) bytes;
+        }
+    }
+}
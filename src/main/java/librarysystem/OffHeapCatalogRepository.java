@@ -0,0 +1,245 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OffHeapCatalogRepository keeps a {@link Library}'s catalog in a file-backed
+ * {@link OffHeapCatalog}, for data files ending in ".ohc". The location names
+ * no file of its own; the segments sit next to it as
+ * {@code <location>.rec}, {@code .str}, {@code .key}, {@code .lns} and {@code .nam}.
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>A restart maps the segments back in instead of parsing a file, and
+ *         a flush writes only the records of items changed since the last
+ *         one, then forces the mapped pages to disk</li>
+ *     <li>Loading still copies every item onto the heap, as the other
+ *         backends do; only tiered mode (below) keeps most of them off it</li>
+ *     <li>Change notifications only mark an item dirty, as in
+ *         {@link JdbcCatalogRepository}; a flush writes the final state of
+ *         each dirty item, its record and exactly its loans</li>
+ *     <li>Records are changed in place, so a crash during a flush can leave
+ *         that flush half applied; the file formats that rewrite through a
+ *         temporary file do not have this problem</li>
+ *     <li>The catalog belongs to one process at a time: a {@link FileLock} on
+ *         {@code <location>.lock} is held while it is open</li>
+ *     <li>With a cache size the library runs tiered ({@link TieredCatalog}):
+ *         loading pins only the items on loan, other items are read on
+ *         lookup, and each change is written to the mapped records at once;
+ *         a flush then only forces them to disk, so a crash during a batch
+ *         may keep part of it</li>
+ * </ul>
+ */
+public class OffHeapCatalogRepository implements CatalogRepository {
+
+    static final String EXTENSION = ".ohc";
+
+    private final String location;
+    private final FileChannel lockChannel;
+    private final OffHeapCatalog catalog;
+
+    /** Heap tiers over {@link #catalog}, or null when the library loads every item. */
+    private final TieredCatalog tiers;
+
+    /** "TYPE:id" → item to write, or null for an item to remove; in change order. */
+    private final Map<String, InventoryItem> dirty = new LinkedHashMap<>();
+
+    /** Dirty keys that were removed and then added again; their old record goes first. */
+    private final Set<String> readded = new HashSet<>();
+
+    /**
+     * Locks and maps the catalog, creating it if needed. The library loads
+     * every item.
+     *
+     * @throws IOException if it is open in another process or cannot be mapped
+     */
+    public OffHeapCatalogRepository(String location) throws IOException {
+        this(location, 0);
+    }
+
+    /**
+     * Locks and maps the catalog, creating it if needed.
+     *
+     * @param cacheSize items without a loan the library keeps on the heap,
+     *                  or 0 to load every item
+     * @throws IOException if it is open in another process or cannot be mapped
+     */
+    public OffHeapCatalogRepository(String location, int cacheSize) throws IOException {
+        if (cacheSize < 0) throw new IllegalArgumentException("Cache size must not be negative.");
+        this.location = location;
+        this.lockChannel = FileChannel.open(Paths.get(location + FileCatalogRepository.LOCK_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) throw new IOException(location + " is open in another process.");
+            this.catalog = OffHeapCatalog.open(Paths.get(location), 1024);
+            this.tiers = cacheSize > 0 ? new TieredCatalog(catalog, cacheSize) : null;
+
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /** @return true if the location names an off-heap catalog */
+    static boolean handles(String location) {
+        return location.toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+
+    @Override
+    public String getLocation() {
+        return location;
+    }
+
+    @Override
+    public long getStoredBytes() {
+        return catalog.reservedBytes();
+    }
+
+    @Override
+    public Path sidecar(String suffix) {
+        return Paths.get(location + suffix);
+    }
+
+    // ==========================================================
+    // LOAD
+    // ==========================================================
+
+    /** Adds every item to the library, or in tiered mode only the items on loan. */
+    @Override
+    public int load(Library library) {
+        if (tiers != null) return library.loadTiered(tiers);
+
+        int records = 0;
+        for (int row = 0; row < catalog.size(); row++) {
+            if (catalog.isRemoved(row)) continue;
+
+            InventoryItem item = library.stockLoaded(mediaOf(catalog, row), catalog.getCopies(row));
+
+            for (int loan = catalog.firstLoan(row); loan >= 0; loan = catalog.nextLoan(loan)) {
+                item.addCopies(1);
+                item.lend(catalog.getBorrower(loan), catalog.getDueDate(loan));
+            }
+            records++;
+        }
+        return records;
+    }
+
+    /** @return a new Book or CD with the row's title, creator and id, and no loan */
+    static Media mediaOf(OffHeapCatalog catalog, int row) {
+        Media view = catalog.view(row);
+        return view instanceof CD
+                ? new CD(view.getTitle(), ((CD) view).getArtist(), ((CD) view).getId())
+                : new Book(view.getTitle(), ((Book) view).getAuthor(), ((Book) view).getIsbn());
+    }
+
+    // ==========================================================
+    // CHANGES
+    // ==========================================================
+
+    @Override
+    public void upsertItem(InventoryItem item) {
+        if (tiers != null) {
+            tiers.write(item);
+            return;
+        }
+        String key = FileCatalogRepository.keyOf(item);
+        if (dirty.containsKey(key) && dirty.get(key) == null) readded.add(key);
+        dirty.put(key, item);
+    }
+
+    @Override
+    public void removeItem(InventoryItem item) {
+        if (tiers != null) tiers.remove(item);
+        else dirty.put(FileCatalogRepository.keyOf(item), null);
+    }
+
+    @Override
+    public void recordLoan(InventoryItem item, int copy) {
+        changed(item);
+    }
+
+    @Override
+    public void recordReturn(InventoryItem item, int copy) {
+        changed(item);
+    }
+
+    @Override
+    public void updateStock(InventoryItem item) {
+        changed(item);
+    }
+
+    /** Marks an item dirty, or in tiered mode writes it through. */
+    private void changed(InventoryItem item) {
+        if (tiers != null) tiers.write(item);
+        else dirty.put(FileCatalogRepository.keyOf(item), item);
+    }
+
+    // ==========================================================
+    // FLUSH
+    // ==========================================================
+
+    /**
+     * Writes the dirty items and forces them to disk. Writing an item twice
+     * is harmless, so after a failure the next flush simply starts over. In
+     * tiered mode the items are written already and only forced.
+     */
+    @Override
+    public void flush(Library library) {
+        if (tiers != null) {
+            catalog.force();
+            return;
+        }
+        if (dirty.isEmpty()) return;
+
+        for (Map.Entry<String, InventoryItem> e : dirty.entrySet()) {
+            String key = e.getKey();
+            InventoryItem item = e.getValue();
+            if (item == null || readded.contains(key)) {
+                int colon = key.indexOf(':');
+                int row = catalog.rowOf(key.substring(colon + 1), key.startsWith("CD:"));
+                if (row >= 0) catalog.remove(row);
+            }
+            if (item != null) catalog.copy(item);
+        }
+        catalog.force();
+        dirty.clear();
+        readded.clear();
+    }
+
+    @Override
+    public void replaceAll(Library library) {
+        catalog.clear();
+        for (Book b : library.getBooks()) catalog.copy(library.getBookInventory(b.getIsbn()));
+        for (CD cd : library.getCDs()) catalog.copy(library.getCDInventory(cd.getId()));
+        catalog.force();
+        dirty.clear();
+        readded.clear();
+        if (tiers != null) tiers.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            catalog.close();
+        } finally {
+            lockChannel.close();   // also releases the lock
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package librarysystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one full load or rewrite of the catalog file,
+ * emitted by {@link Library}.
+ */
+@Name("librarysystem.Persist")
+@Label("Catalog Persist")
+@Category({"Library", "Persistence"})
+@Description("The catalog file was loaded or rewritten.")
+@StackTrace(false)
+final class PersistEvent extends Event {
+
+    @Label("Operation")
+    @Description("load or save")
+    String operation;
+
+    @Label("Path")
+    String path;
+
+    @Label("Records")
+    int records;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("ok or error")
+    String outcome = "error";
+
+    /** Creates and begins an event; the caller fills in the results and commits it. */
+    static PersistEvent start(String operation, String path) {
+        PersistEvent event = new PersistEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.path = path;
+            event.begin();
+        }
+        return event;
+    }
+}
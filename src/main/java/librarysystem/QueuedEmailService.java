@@ -0,0 +1,150 @@
+package librarysystem;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueuedEmailService hands emails to a background thread, so a slow SMTP
+ * server no longer holds up the borrow or return that triggered them.
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Decorates any {@link EmailService}; the wrapped service does the sending</li>
+ *     <li>The queue is bounded: when full, {@link #send} returns false and the
+ *         email is counted as dropped instead of blocking the caller</li>
+ *     <li>{@link #send} returns true once the email is queued, not when it is delivered</li>
+ *     <li>{@link #close()} stops accepting emails and drains the queue</li>
+ * </ul>
+ */
+public class QueuedEmailService implements EmailService, Closeable {
+
+    private static final Email POISON = new Email(null, null, null);
+
+    private final EmailService delegate;
+    private final BlockingQueue<Email> queue;
+    private final Thread worker;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object enqueueLock = new Object();
+    private boolean closed;   // guarded by enqueueLock
+
+    /**
+     * @param delegate service that actually delivers the emails
+     * @param capacity maximum number of queued emails
+     */
+    public QueuedEmailService(EmailService delegate, int capacity) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity + 1); // +1 for the shutdown marker
+        this.worker = new Thread(this::drain, "email-sender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * The email service of a command-line tool: SMTP through a queue, or
+     * nothing at all for {@code --no-email}. Close it before exiting so the
+     * queued emails go out.
+     */
+    static QueuedEmailService forTool(boolean sendEmail) {
+        EmailService delivery = sendEmail ? new EmailSender()::sendEmail : (to, subject, body) -> true;
+        return new QueuedEmailService(delivery, 10_000);
+    }
+
+    @Override
+    public boolean send(String to, String subject, String body) {
+        synchronized (enqueueLock) {   // close() cannot slip its marker in between the check and the offer
+            pending.incrementAndGet();
+            if (closed || queue.remainingCapacity() <= 1 || !queue.offer(new Email(to, subject, body))) {
+                pending.decrementAndGet();
+                dropped.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /** @return emails waiting to be sent */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** @return emails rejected because the queue was full or closed */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits until the queue is empty or the timeout expires.
+     *
+     * @return true if every queued email has been handed to the delegate
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending.get() > 0) {
+            if (System.nanoTime() >= deadline) return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        synchronized (enqueueLock) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            queue.put(POISON);   // nothing is enqueued after this, so the worker sends everything before it
+            worker.join();
+        } catch (InterruptedException e) {
+            worker.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Email email = queue.take();
+                if (email == POISON) return;
+
+                boolean ok;
+                try {
+                    ok = delegate.send(email.to, email.subject, email.body);
+                } catch (RuntimeException e) {
+                    ok = false;
+                }
+                (ok ? sent : failed).incrementAndGet();
+                pending.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Email {
+        final String to;
+        final String subject;
+        final String body;
+
+        Email(String to, String subject, String body) {
+            this.to = to;
+            this.subject = subject;
+            this.body = body;
+        }
+    }
+}
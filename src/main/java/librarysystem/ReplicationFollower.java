@@ -0,0 +1,262 @@
+package librarysystem;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * ReplicationFollower keeps a read-only {@link Library} in step with a
+ * primary's {@link ReplicationServer}, so another process can take over
+ * searches and availability queries.
+ *
+ * <p>The replica is built with {@link #newReplica(FineManager, EmailService)}:
+ * it starts empty, is filled by the primary's snapshot, and refuses every
+ * change with an {@link UnsupportedOperationException} (HTTP 405 through
+ * {@link LibraryServer}). Fines are not replicated.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Lines are buffered until their SYNC and applied under the replica's
+ *         lock, so readers never see half of a save or half of a snapshot</li>
+ *     <li>Replication lag is the time since the newest SYNC was applied,
+ *         measured on the replica's own clock, so clock skew between the hosts
+ *         does not distort it. Heartbeats keep it below about
+ *         {@value ReplicationServer#HEARTBEAT_MILLIS} ms while the primary is
+ *         reachable, and it keeps growing while the primary is silent or lost.
+ *         It is exported as the {@code library_replication_lag_current_seconds}
+ *         gauge, read at scrape time</li>
+ *     <li>Each SYNC's delay from the primary's send time is also recorded in
+ *         the {@code library_replication_lag_seconds} timer. That compares the
+ *         two hosts' clocks, so it is only meaningful when they are
+ *         synchronized; negative delays are recorded as 0</li>
+ *     <li>A lost connection, or a line the replica cannot parse or apply, is
+ *         logged and retried every {@value #RETRY_MILLIS} ms, starting over
+ *         from a snapshot; the replica keeps serving its last state meanwhile</li>
+ *     <li>A primary silent for {@value #TIMEOUT_MILLIS} ms (several missed
+ *         heartbeats) counts as lost</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   java librarysystem.LibraryServer --port=8081 --follow=primary-host:7070
+ * </pre>
+ */
+public final class ReplicationFollower implements Closeable {
+
+    private static final AsyncLogger LOG = AsyncLogger.shared();
+
+    static final int RETRY_MILLIS = 1000;
+    static final int TIMEOUT_MILLIS = 5 * ReplicationServer.HEARTBEAT_MILLIS;
+
+    private static final MetricsRegistry.Timer LAG = MetricsRegistry.shared()
+            .timer("library_replication_lag_seconds", "Time from the primary sending a SYNC to the replica applying it.");
+    private static final MetricsRegistry.Gauge CURRENT_LAG = MetricsRegistry.shared()
+            .gauge("library_replication_lag_current_seconds",
+                    "Age of the newest primary state applied by the replica; NaN before the first.");
+    private static final MetricsRegistry.Counter LINES_APPLIED = MetricsRegistry.shared()
+            .counter("library_replication_lines_applied_total", "Journal lines applied by replicas.");
+
+    private final Library replica;
+    private final InetSocketAddress primary;
+    private final Thread thread;
+    private final DoubleSupplier lagSeconds = () -> {
+        long lag = getLagMillis();
+        return lag < 0 ? Double.NaN : lag / 1000.0;
+    };
+
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private volatile boolean connected;
+
+    /** Sequence of the newest SYNC applied and when it was applied (replica clock), or -1 / 0 before the first. */
+    private volatile long sequence = -1;
+    private volatile long syncedAt;
+
+    /**
+     * Starts following at once, in the background.
+     *
+     * @param replica a library from {@link #newReplica}
+     * @param primary address of the primary's {@link ReplicationServer}
+     */
+    public ReplicationFollower(Library replica, InetSocketAddress primary) {
+        this.replica = replica;
+        this.primary = primary;
+        this.thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        CURRENT_LAG.bind(lagSeconds);
+        thread.start();
+    }
+
+    /** @return an empty, read-only library for a follower to fill */
+    public static Library newReplica(FineManager fineManager, EmailService emailService) {
+        return new Library(fineManager, emailService, new ReplicaRepository(), Clock.systemDefaultZone());
+    }
+
+    /** @return true while connected to the primary */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /** @return the primary's save count as of the replica's state, or -1 before the first snapshot */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /** @return milliseconds since the newest state from the primary was applied, or -1 before the first */
+    public long getLagMillis() {
+        return sequence < 0 ? -1 : Math.max(0, System.currentTimeMillis() - syncedAt);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        CURRENT_LAG.unbind(lagSeconds);
+        thread.interrupt();
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // ==========================================================
+    // RECEIVING
+    // ==========================================================
+
+    private void run() {
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(primary, TIMEOUT_MILLIS);
+                s.setSoTimeout(TIMEOUT_MILLIS);
+                connected = true;
+                LOG.info("Following replication primary " + primary);
+                receive(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                if (!closed && connected) LOG.error("Lost replication primary " + primary + ".");
+            } catch (RuntimeException e) {
+                // A bad line may have left a change half applied; the next snapshot replaces it.
+                LOG.error("Replication stream from " + primary + " rejected: " + e + "; resyncing.");
+            } finally {
+                connected = false;
+            }
+
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receive(BufferedReader in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        boolean reset = false;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("SYNC ")) {
+                String[] p = line.split(" ");
+                apply(reset, lines, Long.parseLong(p[1]), Long.parseLong(p[2]));
+                lines.clear();
+                reset = false;
+            } else if (line.equals("RESET")) {
+                reset = true;
+                lines.clear();
+            } else {
+                lines.add(line);
+            }
+        }
+    }
+
+    private void apply(boolean reset, List<String> lines, long seq, long sentAt) {
+        synchronized (replica) {
+            if (reset) replica.clearCatalog();
+            for (String line : lines) FileCatalogRepository.applyJournalLine(replica, line);
+        }
+        long now = System.currentTimeMillis();
+        sequence = seq;
+        syncedAt = now;
+        LINES_APPLIED.add(lines.size());
+        LAG.record(Math.max(0, now - sentAt) * 1_000_000L);
+    }
+
+    // ==========================================================
+    // READ-ONLY STORAGE
+    // ==========================================================
+
+    /** Storage of a replica: nothing to load or save, and every change refused. */
+    private static final class ReplicaRepository implements CatalogRepository {
+
+        @Override
+        public String getLocation() {
+            return "replica";
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public long getStoredBytes() {
+            return 0;
+        }
+
+        @Override
+        public Path sidecar(String suffix) {
+            return null;
+        }
+
+        @Override
+        public int load(Library library) {
+            return 0;
+        }
+
+        @Override
+        public void beginChange(Library library) {
+            throw new UnsupportedOperationException("Read-only replica");
+        }
+
+        @Override
+        public void upsertItem(InventoryItem item) {
+        }
+
+        @Override
+        public void removeItem(InventoryItem item) {
+        }
+
+        @Override
+        public void recordLoan(InventoryItem item, int copy) {
+        }
+
+        @Override
+        public void recordReturn(InventoryItem item, int copy) {
+        }
+
+        @Override
+        public void updateStock(InventoryItem item) {
+        }
+
+        @Override
+        public void flush(Library library) {
+        }
+
+        @Override
+        public void replaceAll(Library library) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
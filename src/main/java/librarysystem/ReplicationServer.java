@@ -0,0 +1,407 @@
+package librarysystem;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * ReplicationServer ships a primary {@link Library}'s changes over TCP to
+ * {@link ReplicationFollower} processes, which keep read-only copies for
+ * failover and for serving searches.
+ *
+ * <p><b>Protocol</b> (UTF-8 lines, primary to follower only):</p>
+ * <pre>
+ *   RESET                  the lines up to the next SYNC are the whole catalog
+ *   +record / -TYPE,id     journal lines, as in {@link FileCatalogRepository}
+ *   SYNC seq millis        apply the lines since the last SYNC as one change;
+ *                          seq counts the primary's saves, millis is when it
+ *                          sent this line
+ * </pre>
+ * A follower is sent a RESET snapshot when it connects, then one group of
+ * lines per save, and a lone SYNC every {@value #HEARTBEAT_MILLIS} ms so it
+ * can tell an idle primary from a lost one.
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   ReplicationServer replication = new ReplicationServer(new InetSocketAddress(7070));
+ *   Library library = new Library(fines, email,
+ *           replication.replicate(CatalogRepository.open("library.txt")), clock);
+ *   replication.start(library);
+ * </pre>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Changes are picked up by wrapping the library's
+ *         {@link CatalogRepository}, so every backend can be replicated and
+ *         only saves that succeeded are shipped</li>
+ *     <li>Like the journal, lines carry full item states: a save that touched
+ *         a title ten times ships it once, and applying a line twice is harmless</li>
+ *     <li>Snapshots and saves are queued under the library lock, so each
+ *         follower sees them in the order they happened</li>
+ *     <li>Every follower has its own queue and sender thread; one that falls
+ *         {@value #QUEUE_LIMIT} messages behind is disconnected and gets a fresh
+ *         snapshot when it reconnects, so a slow follower never holds up the
+ *         primary</li>
+ *     <li>Changes the library applies from other processes sharing its data
+ *         file are shipped too, once catching up is done: as lines, or as a
+ *         fresh snapshot when the whole file had to be reloaded</li>
+ * </ul>
+ */
+public final class ReplicationServer implements Closeable {
+
+    private static final AsyncLogger LOG = AsyncLogger.shared();
+
+    static final int HEARTBEAT_MILLIS = 1000;
+
+    /** Messages a follower may have queued before it is dropped. */
+    static final int QUEUE_LIMIT = 10_000;
+
+    private static final MetricsRegistry.Counter LINES_SHIPPED = MetricsRegistry.shared()
+            .counter("library_replication_lines_shipped_total", "Journal lines queued for followers.");
+    private static final MetricsRegistry.Counter FOLLOWERS_DROPPED = MetricsRegistry.shared()
+            .counter("library_replication_followers_dropped_total", "Followers disconnected for falling behind.");
+
+    private final ServerSocket socket;
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+
+    private Library library;
+
+    /** Number of saves shipped; guarded by the library lock. */
+    private long sequence;
+
+    private volatile boolean closed;
+
+    /**
+     * Binds the port; followers are accepted once {@link #start(Library)} is called.
+     *
+     * @param address address to bind (port 0 picks a free port)
+     * @throws IOException if the address cannot be bound
+     */
+    public ReplicationServer(InetSocketAddress address) throws IOException {
+        this.socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(address);
+    }
+
+    /** @return the bound port */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /** @return followers currently connected */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * Wraps the primary's storage so its saves are shipped; pass the result
+     * to the {@link Library} constructor.
+     */
+    public CatalogRepository replicate(CatalogRepository storage) {
+        return new ShippingRepository(storage);
+    }
+
+    /**
+     * Starts accepting followers of a library built on {@link #replicate}.
+     */
+    public void start(Library library) {
+        synchronized (library) {
+            if (this.library != null) throw new IllegalStateException("Already started.");
+            this.library = library;
+        }
+        daemon(this::accept, "replication-accept");
+        daemon(this::heartbeat, "replication-heartbeat");
+    }
+
+    /** Disconnects every follower and stops listening. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+        for (Follower f : followers) f.close();
+    }
+
+    private static void daemon(Runnable task, String name) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // ==========================================================
+    // FOLLOWERS
+    // ==========================================================
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Follower f = new Follower(socket.accept());
+                synchronized (library) {
+                    f.offer(snapshot());
+                    followers.add(f);
+                }
+                LOG.info("Replication follower connected from " + f.socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (!closed) LOG.error("Error accepting replication follower.");
+            }
+        }
+    }
+
+    private void heartbeat() {
+        while (!closed) {
+            try {
+                Thread.sleep(HEARTBEAT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (library) {
+                publish(syncLine());
+            }
+        }
+    }
+
+    /** Queues a message for every follower; the caller holds the library lock. */
+    private void publish(String message) {
+        for (Follower f : followers) f.offer(message);
+    }
+
+    /** @return RESET, the whole catalog and a SYNC; the caller holds the library lock */
+    private String snapshot() throws IOException {
+        StringWriter out = new StringWriter();
+        try (BufferedWriter bw = new BufferedWriter(out)) {
+            bw.write("RESET");
+            bw.newLine();
+            for (Book b : library.getBooks()) {
+                InventoryItem item = library.getBookInventory(b.getIsbn());
+                FileCatalogRepository.writeJournalEntry(bw, FileCatalogRepository.keyOf(item), item);
+            }
+            for (CD cd : library.getCDs()) {
+                InventoryItem item = library.getCDInventory(cd.getId());
+                FileCatalogRepository.writeJournalEntry(bw, FileCatalogRepository.keyOf(item), item);
+            }
+            bw.write(syncLine());
+        }
+        return out.toString();
+    }
+
+    private String syncLine() {
+        return "SYNC " + sequence + " " + System.currentTimeMillis() + "\n";
+    }
+
+    /** One connected follower: a bounded queue drained by its own sender thread. */
+    private final class Follower {
+        final Socket socket;
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>(QUEUE_LIMIT);
+        final Writer out;
+
+        Follower(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            daemon(this::send, "replication-sender");
+        }
+
+        void offer(String message) {
+            if (!queue.offer(message)) {
+                FOLLOWERS_DROPPED.increment();
+                LOG.error("Replication follower " + socket.getRemoteSocketAddress() + " fell behind; dropping it.");
+                close();
+            }
+        }
+
+        private void send() {
+            try {
+                while (true) {
+                    out.write(queue.take());
+                    if (queue.isEmpty()) out.flush();
+                }
+            } catch (InterruptedException | IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            followers.remove(this);
+            try {
+                socket.close();   // also stops the sender at its next write
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // ==========================================================
+    // STORAGE WRAPPER
+    // ==========================================================
+
+    /** Passes everything to the real storage and ships what each successful save changed. */
+    private final class ShippingRepository implements CatalogRepository {
+        private final CatalogRepository storage;
+
+        /** "TYPE:id" → item to ship, or null for a withdrawn item; in change order. */
+        private final Map<String, InventoryItem> dirty = new LinkedHashMap<>();
+
+        /** Changes other processes saved, applied while catching up; same form. */
+        private final Map<String, InventoryItem> applied = new LinkedHashMap<>();
+
+        /** Set when catching up reloaded the whole catalog. */
+        private boolean reloaded;
+
+        ShippingRepository(CatalogRepository storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public String getLocation() {
+            return storage.getLocation();
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return storage.isReadOnly();
+        }
+
+        @Override
+        public long getStoredBytes() {
+            return storage.getStoredBytes();
+        }
+
+        @Override
+        public Path sidecar(String suffix) {
+            return storage.sidecar(suffix);
+        }
+
+        @Override
+        public int load(Library library) throws IOException {
+            return storage.load(library);
+        }
+
+        @Override
+        public void upsertItem(InventoryItem item) {
+            storage.upsertItem(item);
+            dirty.put(FileCatalogRepository.keyOf(item), item);
+        }
+
+        @Override
+        public void removeItem(InventoryItem item) {
+            storage.removeItem(item);
+            dirty.put(FileCatalogRepository.keyOf(item), null);
+        }
+
+        @Override
+        public void recordLoan(InventoryItem item, int copy) {
+            storage.recordLoan(item, copy);
+            dirty.put(FileCatalogRepository.keyOf(item), item);
+        }
+
+        @Override
+        public void recordReturn(InventoryItem item, int copy) {
+            storage.recordReturn(item, copy);
+            dirty.put(FileCatalogRepository.keyOf(item), item);
+        }
+
+        @Override
+        public void updateStock(InventoryItem item) {
+            storage.updateStock(item);
+            dirty.put(FileCatalogRepository.keyOf(item), item);
+        }
+
+        @Override
+        public void flush(Library library) throws IOException {
+            storage.flush(library);
+            ship(dirty);
+        }
+
+        /** Ships the changes as one SYNC group and forgets them. */
+        private void ship(Map<String, InventoryItem> changes) throws IOException {
+            if (changes.isEmpty() || ReplicationServer.this.library == null) {
+                changes.clear();
+                return;
+            }
+
+            StringWriter out = new StringWriter();
+            try (BufferedWriter bw = new BufferedWriter(out)) {
+                for (Map.Entry<String, InventoryItem> e : changes.entrySet())
+                    FileCatalogRepository.writeJournalEntry(bw, e.getKey(), e.getValue());
+                sequence++;
+                bw.write(syncLine());
+            }
+            LINES_SHIPPED.add(changes.size());
+            changes.clear();
+            publish(out.toString());
+        }
+
+        /** Ships what catching up applied: the lines, or a snapshot after a reload. */
+        private void shipApplied() throws IOException {
+            if (reloaded) {
+                reloaded = false;
+                applied.clear();
+                if (ReplicationServer.this.library == null) return;
+                sequence++;
+                publish(snapshot());
+            } else {
+                ship(applied);
+            }
+        }
+
+        /** Followers get the new catalog as a fresh snapshot. */
+        @Override
+        public void replaceAll(Library library) throws IOException {
+            storage.replaceAll(library);
+            dirty.clear();
+            if (ReplicationServer.this.library == null) return;
+            sequence++;
+            publish(snapshot());
+        }
+
+        @Override
+        public void beginChange(Library library) throws IOException {
+            storage.beginChange(library);
+            shipApplied();
+        }
+
+        @Override
+        public void endChange() {
+            storage.endChange();
+        }
+
+        @Override
+        public void refresh(Library library) throws IOException {
+            storage.refresh(library);
+            shipApplied();
+        }
+
+        @Override
+        public void changedElsewhere(String key, InventoryItem item) {
+            applied.put(key, item);
+        }
+
+        @Override
+        public void catalogCleared() {
+            reloaded = true;
+        }
+
+        @Override
+        public Closeable watch(Library library) throws IOException {
+            return storage.watch(library);
+        }
+
+        @Override
+        public void close() throws IOException {
+            storage.close();
+        }
+    }
+}
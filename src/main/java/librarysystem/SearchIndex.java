@@ -0,0 +1,376 @@
+package librarysystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * SearchIndex is a trigram index over the titles, authors and ISBNs of the
+ * book catalog, saved next to the data file so that a restart can map it back
+ * in instead of rebuilding it.
+ *
+ * <p><b>File layout</b> (data file name + {@value #SUFFIX}):</p>
+ * <pre>
+ *   header    magic "LIX1"  version  rows  trigrams  crc32(body)  0  fingerprint(8)
+ *   keys      int[trigrams], ascending
+ *   counts    int[trigrams], rows per trigram
+ *   offsets   int[trigrams + 1], byte offsets into postings
+ *   postings  ascending row numbers as delta varints
+ * </pre>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Rows are positions in the book list. The fingerprint hashes the ISBN,
+ *         title and author of every indexed row, so a file is only used while
+ *         those rows are unchanged; books appended later are scanned linearly</li>
+ *     <li>A trigram key packs three lower-case chars in 10 bits each. Other
+ *         chars may share a key, which only adds candidates: callers always
+ *         re-check the real match</li>
+ *     <li>Files are memory-mapped read-only and checked against the CRC once
+ *         when opened; lookups then touch only the pages they need</li>
+ *     <li>Immutable once built, so it can be queried outside the library lock</li>
+ * </ul>
+ */
+final class SearchIndex {
+
+    static final String SUFFIX = ".idx";
+
+    static final int MAGIC = 0x4C495831;   // "LIX1"
+    static final int VERSION = 1;
+
+    private static final int HEADER = 32;
+
+    /** Keywords that narrow the candidates below this stop intersecting further lists. */
+    private static final int FEW_CANDIDATES = 16;
+
+    private final ByteBuffer data;
+    private final int rows;
+    private final int trigrams;
+    private final long fingerprint;
+
+    private final int countsAt;
+    private final int offsetsAt;
+    private final int postingsAt;
+
+    private SearchIndex(ByteBuffer data) throws IOException {
+        if (data.limit() < HEADER || data.getInt(0) != MAGIC)
+            throw new IOException("Not a search index");
+        if (data.getInt(4) != VERSION)
+            throw new IOException("Unsupported search index version " + data.getInt(4));
+
+        this.data = data;
+        this.rows = data.getInt(8);
+        this.trigrams = data.getInt(12);
+        this.fingerprint = data.getLong(24);
+        this.countsAt = HEADER + 4 * trigrams;
+        this.offsetsAt = countsAt + 4 * trigrams;
+        this.postingsAt = offsetsAt + 4 * (trigrams + 1);
+
+        if (rows < 0 || trigrams < 0 || postingsAt > data.limit()
+                || postingsAt + offset(trigrams) != data.limit())
+            throw new IOException("Truncated search index");
+    }
+
+    /** @return number of leading books covered by the index */
+    int rows() {
+        return rows;
+    }
+
+    /** @return the {@link #fingerprint(List, int)} of the rows the index was built from */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Hashes the ISBN, title and author of the first {@code rows} books.
+     */
+    static long fingerprint(List<Book> books, int rows) {
+        long h = rows;
+        for (int r = 0; r < rows; r++) {
+            Book b = books.get(r);
+            h = h * 0x9E3779B97F4A7C15L + b.getIsbn().hashCode();
+            h = h * 0x9E3779B97F4A7C15L + b.getTitle().hashCode();
+            h = h * 0x9E3779B97F4A7C15L + b.getAuthor().hashCode();
+        }
+        return h;
+    }
+
+    // ==========================================================
+    // QUERY
+    // ==========================================================
+
+    /**
+     * Finds the indexed rows that contain every trigram of the keyword in
+     * their title, author or ISBN. The result can hold false positives.
+     *
+     * @param keyword lower-case search keyword
+     * @return ascending row numbers, or null if the keyword is too short to use the index
+     */
+    int[] candidates(String keyword) {
+        if (keyword.length() < 3) return null;
+
+        int[] keys = distinctKeys(keyword);
+        int[] slots = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            slots[i] = find(keys[i]);
+            if (slots[i] < 0) return new int[0];
+        }
+
+        // Rarest trigram first, so the candidate list only shrinks.
+        long[] byCount = new long[slots.length];
+        for (int i = 0; i < slots.length; i++) byCount[i] = (long) count(slots[i]) << 32 | slots[i];
+        Arrays.sort(byCount);
+
+        int[] result = postings((int) byCount[0]);
+        for (int i = 1; i < byCount.length && result.length > FEW_CANDIDATES; i++)
+            result = intersect(result, (int) byCount[i]);
+        return result;
+    }
+
+    private int find(int key) {
+        int lo = 0;
+        int hi = trigrams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = data.getInt(HEADER + 4 * mid);
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private int count(int slot) {
+        return data.getInt(countsAt + 4 * slot);
+    }
+
+    private int offset(int slot) {
+        return data.getInt(offsetsAt + 4 * slot);
+    }
+
+    private ByteBuffer postingList(int slot) {
+        ByteBuffer list = data.duplicate();
+        list.limit(postingsAt + offset(slot + 1));
+        list.position(postingsAt + offset(slot));
+        return list;
+    }
+
+    private int[] postings(int slot) {
+        ByteBuffer list = postingList(slot);
+        int[] result = new int[count(slot)];
+        int row = 0;
+        for (int i = 0; i < result.length; i++) {
+            row += (int) VarintBuffer.readVarint(list);
+            result[i] = row;
+        }
+        return result;
+    }
+
+    /** @return the rows of {@code rows} that also appear in the slot's list */
+    private int[] intersect(int[] rows, int slot) {
+        ByteBuffer list = postingList(slot);
+        int[] result = new int[rows.length];
+        int n = 0;
+        int i = 0;
+        int row = 0;
+        for (int left = count(slot); left > 0 && i < rows.length; left--) {
+            row += (int) VarintBuffer.readVarint(list);
+            while (i < rows.length && rows[i] < row) i++;
+            if (i < rows.length && rows[i] == row) result[n++] = rows[i++];
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // ==========================================================
+    // BUILD
+    // ==========================================================
+
+    /**
+     * Indexes every book in the list, in list order.
+     */
+    static SearchIndex build(List<Book> books) {
+        Lists lists = new Lists();
+        KeyList keys = new KeyList();
+
+        for (int r = 0; r < books.size(); r++) {
+            Book b = books.get(r);
+            keys.size = 0;
+            keys.addTrigrams(b.getTitle().toLowerCase());
+            keys.addTrigrams(b.getAuthor().toLowerCase());
+            keys.addTrigrams(b.getIsbn().toLowerCase());
+
+            Arrays.sort(keys.keys, 0, keys.size);
+            for (int i = 0; i < keys.size; i++)
+                if (i == 0 || keys.keys[i] != keys.keys[i - 1]) lists.add(keys.keys[i], r);
+        }
+        return lists.toIndex(books.size(), fingerprint(books, books.size()));
+    }
+
+    /** Trigram keys of one book, reused from row to row. */
+    private static final class KeyList {
+        int[] keys = new int[64];
+        int size;
+
+        void addTrigrams(String s) {
+            int more = Math.max(0, s.length() - 2);
+            if (size + more > keys.length) keys = Arrays.copyOf(keys, Math.max(keys.length * 2, size + more));
+            for (int i = 0; i + 2 < s.length(); i++) keys[size++] = key(s.charAt(i), s.charAt(i + 1), s.charAt(i + 2));
+        }
+    }
+
+    private static int[] distinctKeys(String s) {
+        int[] keys = new int[s.length() - 2];
+        for (int i = 0; i < keys.length; i++) keys[i] = key(s.charAt(i), s.charAt(i + 1), s.charAt(i + 2));
+        Arrays.sort(keys);
+        int n = 0;
+        for (int i = 0; i < keys.length; i++)
+            if (i == 0 || keys[i] != keys[i - 1]) keys[n++] = keys[i];
+        return Arrays.copyOf(keys, n);
+    }
+
+    private static int key(char a, char b, char c) {
+        return (a & 0x3FF) << 20 | (b & 0x3FF) << 10 | (c & 0x3FF);
+    }
+
+    /** Posting lists under construction, in an open-addressing table keyed by trigram. */
+    private static final class Lists {
+        private int[] slotKeys = new int[1 << 12];
+        private int[] slotLists = new int[1 << 12];   // list number + 1; 0 = empty
+        private int[] listKeys = new int[1 << 11];
+        private VarintBuffer[] postings = new VarintBuffer[1 << 11];
+        private int[] counts = new int[1 << 11];
+        private int[] lastRows = new int[1 << 11];
+        private int size;
+
+        void add(int key, int row) {
+            int list = listFor(key);
+            postings[list].putVarint(row - lastRows[list]);
+            lastRows[list] = row;
+            counts[list]++;
+        }
+
+        private int listFor(int key) {
+            int mask = slotKeys.length - 1;
+            for (int i = (key * 0x9E3779B9) >>> 8 & mask; ; i = (i + 1) & mask) {
+                if (slotLists[i] == 0) {
+                    if (size == listKeys.length) growLists();
+                    listKeys[size] = key;
+                    postings[size] = new VarintBuffer(16);
+                    slotKeys[i] = key;
+                    slotLists[i] = ++size;
+                    if (size * 2 > slotKeys.length) rehash();
+                    return size - 1;
+                }
+                if (slotKeys[i] == key) return slotLists[i] - 1;
+            }
+        }
+
+        private void growLists() {
+            int capacity = listKeys.length * 2;
+            listKeys = Arrays.copyOf(listKeys, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            lastRows = Arrays.copyOf(lastRows, capacity);
+        }
+
+        private void rehash() {
+            slotKeys = new int[slotKeys.length * 2];
+            slotLists = new int[slotKeys.length];
+            int mask = slotKeys.length - 1;
+            for (int list = 0; list < size; list++) {
+                int i = (listKeys[list] * 0x9E3779B9) >>> 8 & mask;
+                while (slotLists[i] != 0) i = (i + 1) & mask;
+                slotKeys[i] = listKeys[list];
+                slotLists[i] = list + 1;
+            }
+        }
+
+        SearchIndex toIndex(int rows, long fingerprint) {
+            long[] order = new long[size];
+            for (int list = 0; list < size; list++) order[list] = (long) listKeys[list] << 32 | list;
+            Arrays.sort(order);   // keys are non-negative, so this sorts by key
+
+            int postingBytes = 0;
+            for (int list = 0; list < size; list++) postingBytes += postings[list].size;
+
+            ByteBuffer data = ByteBuffer.allocate(HEADER + 4 * (3 * size + 1) + postingBytes);
+            data.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(size).putInt(0).putInt(0).putLong(fingerprint);
+            for (long o : order) data.putInt(listKeys[(int) o]);
+            for (long o : order) data.putInt(counts[(int) o]);
+            int offset = 0;
+            for (long o : order) {
+                data.putInt(offset);
+                offset += postings[(int) o].size;
+            }
+            data.putInt(offset);
+            for (long o : order) data.put(postings[(int) o].bytes, 0, postings[(int) o].size);
+
+            data.putInt(16, crc(data));
+            data.clear();
+            try {
+                return new SearchIndex(data);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // ==========================================================
+    // FILES
+    // ==========================================================
+
+    /**
+     * Maps an index file read-only and verifies its checksum.
+     *
+     * @throws IOException if the file cannot be read, is truncated or corrupt
+     */
+    static SearchIndex open(Path file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        SearchIndex index = new SearchIndex(data);
+        if (data.getInt(16) != crc(data)) throw new IOException("Search index checksum mismatch: " + file);
+        return index;
+    }
+
+    /**
+     * Writes the index to a file, replacing it atomically where the file
+     * system allows (readers that mapped the old file keep their copy).
+     */
+    void write(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer all = data.duplicate();
+                all.clear();
+                while (all.hasRemaining()) ch.write(all);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int crc(ByteBuffer data) {
+        ByteBuffer body = data.duplicate();
+        body.limit(data.capacity());
+        body.position(HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
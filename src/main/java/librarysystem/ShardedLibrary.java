@@ -0,0 +1,421 @@
+package librarysystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ShardedLibrary spreads one catalog over several independent {@link Library}
+ * shards, partitioned by a hash of the item id, so operations on different
+ * titles no longer queue on one lock.
+ *
+ * <p>Each shard has its own lock, id maps, search index and storage (for a
+ * data file: its own file, lock file and journal). Fines are shared.</p>
+ *
+ * <p><b>Routing:</b></p>
+ * <ul>
+ *     <li>Adding, removing, borrowing and returning an item, and inventory
+ *         lookups, go straight to the item's shard</li>
+ *     <li>{@link #hasLostItem} and {@link #hasActiveLoans} ask every shard in
+ *         parallel and answer as soon as one says yes</li>
+ *     <li>{@link #checkOverdueBooks} runs on every shard in parallel</li>
+ *     <li>{@link #searchBook} searches every shard in parallel and merges the
+ *         results, shard by shard</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>The per-user checks read each shard's {@link LoanLedger}, which
+ *         walks only that user's loans, under that shard's lock. They
+ *         therefore see every loan a shard holds, including loans it picked
+ *         up through {@link Library#refresh()} or that were made on the shard
+ *         directly</li>
+ *     <li>A borrow checks the other shards first, then lets the item's shard
+ *         check again under its lock, so the rules match
+ *         {@link Library#borrowBook} without a global lock. A loan made on
+ *         another shard between the two steps is missed, as it would be a
+ *         moment earlier</li>
+ *     <li>Ids are spread with a multiplicative hash before taking the shard
+ *         number, since sequential ISBNs have poorly mixed low bits</li>
+ *     <li>Fan-out runs on one daemon thread per shard; a fan-out to a
+ *         single shard runs on the caller's thread instead</li>
+ *     <li>Search results keep catalog order within a shard; there is no
+ *         order across shards</li>
+ *     <li>The shard count is fixed when the catalog is created and recorded
+ *         in a "&lt;location&gt;.shards" file next to a data file; reopening
+ *         with a different count is refused rather than moving items (a
+ *         {@code jdbc:} catalog is not checked)</li>
+ * </ul>
+ *
+ * <p><b>Usage:</b></p>
+ * <pre>
+ *   ShardedLibrary library = new ShardedLibrary(fines, email, "library.txt", 8);
+ *   // stored in library-shard0.txt ... library-shard7.txt
+ * </pre>
+ */
+public class ShardedLibrary implements Closeable {
+
+    /** Suffix of the file recording a file-based catalog's shard count. */
+    static final String MANIFEST_SUFFIX = ".shards";
+
+    private final Library[] shards;
+    private final FineManager fineManager;
+    private final ExecutorService fanOut;
+
+    /**
+     * Opens (or creates) the shards of a catalog stored at the given location.
+     *
+     * @param location   data file path or {@code jdbc:} URL; each shard gets
+     *                   its own, see {@link #shardLocation}
+     * @param shardCount number of shards (at least 1)
+     * @throws IllegalArgumentException if the catalog was created with a
+     *                                  different number of shards
+     * @throws UncheckedIOException if a shard's storage cannot be opened
+     */
+    public ShardedLibrary(FineManager fineManager, EmailService emailService, String location, int shardCount) {
+        this(fineManager, emailService, openShards(location, shardCount), Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates one shard per repository; each is loaded now and closed in
+     * {@link #close()}.
+     */
+    public ShardedLibrary(FineManager fineManager, EmailService emailService,
+                          List<CatalogRepository> repositories, Clock clock) {
+        if (repositories.isEmpty()) throw new IllegalArgumentException("At least one shard is needed.");
+        this.fineManager = fineManager;
+        this.shards = new Library[repositories.size()];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new Library(fineManager, emailService, repositories.get(i), clock);
+
+        AtomicInteger n = new AtomicInteger();
+        this.fanOut = Executors.newFixedThreadPool(shards.length, r -> {
+            Thread t = new Thread(r, "shard-fanout-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static List<CatalogRepository> openShards(String location, int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("At least one shard is needed.");
+        List<CatalogRepository> repositories = new ArrayList<>(shardCount);
+        try {
+            if (!JdbcCatalogRepository.handles(location)) checkShardCount(location, shardCount);
+            for (int i = 0; i < shardCount; i++)
+                repositories.add(CatalogRepository.open(shardLocation(location, i)));
+        } catch (IOException e) {
+            for (CatalogRepository r : repositories) {
+                try {
+                    r.close();
+                } catch (IOException ignored) {}
+            }
+            throw new UncheckedIOException(e);
+        }
+        return repositories;
+    }
+
+    /**
+     * Compares the shard count with the one the catalog was created with,
+     * recording it on first use. A catalog from before the count was recorded
+     * is measured by its shard files.
+     *
+     * @throws IllegalArgumentException if the counts differ
+     */
+    private static void checkShardCount(String location, int shardCount) throws IOException {
+        Path manifest = Paths.get(location + MANIFEST_SUFFIX);
+        int existing = 0;
+        if (Files.exists(manifest)) {
+            try {
+                existing = Integer.parseInt(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Unreadable shard count in " + manifest, e);
+            }
+        } else {
+            while (Files.exists(Paths.get(shardLocation(location, existing)))) existing++;
+        }
+
+        if (existing != 0 && existing != shardCount)
+            throw new IllegalArgumentException(location + " has " + existing
+                    + " shards; it cannot be opened with " + shardCount + ".");
+        if (!Files.exists(manifest))
+            Files.write(manifest, (shardCount + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return where a shard is stored: "-shard&lt;i&gt;" goes before the file
+     *         extension ("library.txt" becomes "library-shard0.txt"), or before
+     *         the parameters of a {@code jdbc:} URL
+     */
+    static String shardLocation(String location, int shard) {
+        String suffix = "-shard" + shard;
+        int end = location.length();
+        if (JdbcCatalogRepository.handles(location)) {
+            int params = location.indexOf(';');
+            if (params >= 0) end = params;
+        } else {
+            int dot = location.lastIndexOf('.');
+            int slash = Math.max(location.lastIndexOf('/'), location.lastIndexOf('\\'));
+            if (dot > slash + 1) end = dot;
+        }
+        return location.substring(0, end) + suffix + location.substring(end);
+    }
+
+    /** @return the shard number of an item id */
+    static int shardOf(String id, int shardCount) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shardCount);
+    }
+
+    private Library shard(String id) {
+        return shards[shardOf(id, shards.length)];
+    }
+
+    /** @return number of shards */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /** @return one shard, for tools and tests */
+    Library getShard(int shard) {
+        return shards[shard];
+    }
+
+    public FineManager getFineManager() {
+        return fineManager;
+    }
+
+    // ==========================================================
+    // CATALOG
+    // ==========================================================
+
+    /** @see Library#addBook(Book, int) */
+    public void addBook(Book b, int copies) {
+        shard(b.getIsbn()).addBook(b, copies);
+    }
+
+    /** @see Library#addCD(CD, int) */
+    public void addCD(CD cd, int copies) {
+        shard(cd.getId()).addCD(cd, copies);
+    }
+
+    /** @see Library#removeBook(String) */
+    public boolean removeBook(String isbn) {
+        return shard(isbn).removeBook(isbn);
+    }
+
+    /** @see Library#removeCD(String) */
+    public boolean removeCD(String id) {
+        return shard(id).removeCD(id);
+    }
+
+    /** @return the book's inventory, or null */
+    InventoryItem getBookInventory(String isbn) {
+        return shard(isbn).getBookInventory(isbn);
+    }
+
+    /** @return the CD's inventory, or null */
+    InventoryItem getCDInventory(String id) {
+        return shard(id).getCDInventory(id);
+    }
+
+    /** @return number of books across all shards */
+    public int getBookCount() {
+        int count = 0;
+        for (Library s : shards) {
+            synchronized (s) {
+                count += s.getBooks().size();
+            }
+        }
+        return count;
+    }
+
+    // ==========================================================
+    // LOANS
+    // ==========================================================
+
+    /** @see Library#borrowBook(String, String) */
+    public LoanResult borrowBook(String isbn, String username) {
+        Library target = shard(isbn);
+        if (lostElsewhere(target, username))
+            return LoanResult.failed(LoanResult.Status.BLOCKED_BY_LOST_ITEM, null);
+        return target.borrowBook(isbn, username);
+    }
+
+    /** @see Library#borrowCD(String, String) */
+    public LoanResult borrowCD(String id, String username) {
+        Library target = shard(id);
+        if (lostElsewhere(target, username))
+            return LoanResult.failed(LoanResult.Status.BLOCKED_BY_LOST_ITEM, null);
+        return target.borrowCD(id, username);
+    }
+
+    /** @see Library#returnBook(String, String) */
+    public LoanResult returnBook(String isbn, String username) {
+        return shard(isbn).returnBook(isbn, username);
+    }
+
+    /** @see Library#returnCD(String, String) */
+    public LoanResult returnCD(String id, String username) {
+        return shard(id).returnCD(id, username);
+    }
+
+    /**
+     * Checks the shards other than the item's for a lost item; the item's
+     * shard checks itself. A user blocked by a fine is let through, since the
+     * shard reports the fine itself and it takes precedence.
+     */
+    private boolean lostElsewhere(Library target, String username) {
+        if (shards.length == 1 || fineManager.hasOutstandingFine(username)) return false;
+        List<Callable<Boolean>> checks = new ArrayList<>(shards.length - 1);
+        for (Library s : shards)
+            if (s != target) checks.add(() -> s.hasLostItem(username));
+        return any(checks);
+    }
+
+    // ==========================================================
+    // PER-USER CHECKS
+    // ==========================================================
+
+    /** @return true if the user has an item 30+ days overdue on any shard */
+    public boolean hasLostItem(String username) {
+        return any(forEachShard(s -> s.hasLostItem(username)));
+    }
+
+    /** @return true if the user has any copy on loan on any shard */
+    public boolean hasActiveLoans(String username) {
+        return any(forEachShard(s -> s.hasActiveLoans(username)));
+    }
+
+    /**
+     * Fines and notifies the user for every overdue copy on every shard.
+     *
+     * @return number of overdue copies
+     */
+    public int checkOverdueBooks(String username) {
+        int count = 0;
+        for (int n : all(forEachShard(s -> s.checkOverdueBooks(username)))) count += n;
+        return count;
+    }
+
+    // ==========================================================
+    // SEARCH (scatter-gather)
+    // ==========================================================
+
+    /**
+     * Searches every shard in parallel.
+     *
+     * @return matching books, in catalog order within each shard
+     * @see Library#searchBook(String)
+     */
+    public Stream<Book> searchBook(String keyword) {
+        List<Book> merged = new ArrayList<>();
+        for (List<Book> hits : all(forEachShard(s -> s.searchBook(keyword).collect(Collectors.toList()))))
+            merged.addAll(hits);
+        return merged.stream();
+    }
+
+    // ==========================================================
+    // FAN-OUT
+    // ==========================================================
+
+    private <T> List<Callable<T>> forEachShard(Function<Library, T> task) {
+        List<Callable<T>> calls = new ArrayList<>(shards.length);
+        for (Library s : shards) calls.add(() -> task.apply(s));
+        return calls;
+    }
+
+    /** Runs the tasks in parallel and returns their results in shard order. */
+    private <T> List<T> all(List<Callable<T>> tasks) {
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> f : fanOut.invokeAll(tasks)) results.add(f.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying shards.", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Runs the checks in parallel and returns true as soon as one does;
+     * checks that have not started by then are cancelled.
+     */
+    private boolean any(List<Callable<Boolean>> checks) {
+        if (checks.size() == 1) {
+            try {
+                return checks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        CompletionService<Boolean> done = new ExecutorCompletionService<>(fanOut);
+        List<Future<Boolean>> pending = new ArrayList<>(checks.size());
+        try {
+            for (Callable<Boolean> check : checks) pending.add(done.submit(check));
+            for (int i = 0; i < checks.size(); i++)
+                if (done.take().get()) return true;
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying shards.", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            for (Future<Boolean> f : pending) f.cancel(false);
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return new IllegalStateException(cause);
+    }
+
+    // ==========================================================
+    // PERSISTENCE
+    // ==========================================================
+
+    /** Saves every shard. */
+    public void flush() {
+        for (Library s : shards) s.flush();
+    }
+
+    /** Saves and closes every shard, then stops the fan-out threads. */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Library s : shards) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        fanOut.shutdownNow();
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,83 @@
+package librarysystem;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SimulationClock is a {@link Clock} that only moves when told to, for tests
+ * and for replaying months of circulation in seconds.
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Time is held as epoch milliseconds in an {@link AtomicLong}, so a
+ *         Library shared by several threads sees every advance</li>
+ *     <li>Clocks derived with {@link #withZone} share the same instant</li>
+ *     <li>Time can only move forward</li>
+ * </ul>
+ */
+public final class SimulationClock extends Clock {
+
+    private final AtomicLong millis;
+    private final ZoneId zone;
+
+    /**
+     * Creates a clock set to the start of the given day (UTC).
+     *
+     * @param start the initial date
+     */
+    public SimulationClock(LocalDate start) {
+        this(new AtomicLong(start.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli()),
+             ZoneOffset.UTC);
+    }
+
+    private SimulationClock(AtomicLong millis, ZoneId zone) {
+        this.millis = millis;
+        this.zone = zone;
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param amount non-negative duration to advance by
+     */
+    public void advance(Duration amount) {
+        if (amount.isNegative())
+            throw new IllegalArgumentException("Simulated time cannot go backwards.");
+        millis.addAndGet(amount.toMillis());
+    }
+
+    /** Moves the clock forward by whole days. */
+    public void advanceDays(int days) {
+        advance(Duration.ofDays(days));
+    }
+
+    /** @return the current simulated date in this clock's zone */
+    public LocalDate today() {
+        return LocalDate.now(this);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new SimulationClock(millis, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis.get());
+    }
+
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+}
@@ -0,0 +1,69 @@
+package librarysystem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StringDictionary assigns a dense integer code to each distinct string.
+ *
+ * <p>Columnar structures such as {@link LoanLedger} keep an {@code int} per
+ * entry instead of a String reference; the dictionary maps codes back to
+ * their values.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Codes start at 0 and are never reused, so they can index arrays</li>
+ *     <li>{@link #NONE} (-1) stands for a null value</li>
+ * </ul>
+ */
+final class StringDictionary {
+
+    /** Code used for null values. */
+    static final int NONE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private String[] values = new String[16];
+    private int size;
+
+    /**
+     * Returns the code of the given value, assigning a new one if needed.
+     *
+     * @param value the string to encode (may be null)
+     * @return its code, or {@link #NONE} for null
+     */
+    int encode(String value) {
+        if (value == null) return NONE;
+
+        Integer code = codes.get(value);
+        if (code != null) return code;
+
+        if (size == values.length)
+            values = Arrays.copyOf(values, size + (size >> 1));
+
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+
+    /**
+     * Looks up the code of a value without adding it.
+     *
+     * @return the code, or {@link #NONE} if the value is unknown or null
+     */
+    int lookup(String value) {
+        if (value == null) return NONE;
+        Integer code = codes.get(value);
+        return code == null ? NONE : code;
+    }
+
+    /** @return the string for a code, or null for {@link #NONE} */
+    String decode(int code) {
+        return code == NONE ? null : values[code];
+    }
+
+    /** @return number of distinct values */
+    int size() {
+        return size;
+    }
+}
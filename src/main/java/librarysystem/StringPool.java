@@ -0,0 +1,201 @@
+package librarysystem;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StringPool deduplicates frequently repeated strings such as author names,
+ * artist names and borrower usernames.
+ *
+ * <p>A large catalog holds millions of items but only a few thousand distinct
+ * creators and active borrowers. Without pooling, every line read from
+ * library.txt produces its own copy of those strings.</p>
+ *
+ * <p><b>Responsibilities:</b></p>
+ * <ul>
+ *     <li>Return a canonical instance for equal strings</li>
+ *     <li>Track how many duplicates were folded and the heap bytes saved</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Entries are weakly referenced, so unused names are garbage collected
+ *         and the pool never grows beyond the live set of strings; cleared
+ *         entries are removed on the next lookup</li>
+ *     <li>Backed by a {@link ConcurrentHashMap} with {@link LongAdder}
+ *         counters and no lock, since every borrow interns its username;
+ *         a hit allocates nothing</li>
+ *     <li>A private pool is used instead of {@link String#intern()} so the
+ *         savings can be measured and the JVM string table is not polluted</li>
+ *     <li>One shared pool is used by the Library loader, addBook/addCD and
+ *         {@link Media#borrow}; its savings are reported through
+ *         {@link LibraryMXBean#getStringPoolBytesSaved()} and /api/stats</li>
+ * </ul>
+ */
+public final class StringPool {
+
+    /** Shallow size of a String object (header + fields, compressed oops). */
+    private static final int STRING_HEADER_BYTES = 24;
+
+    /** Size of a byte[] header. */
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private static final StringPool SHARED = new StringPool();
+
+    /** Each entry maps to itself; see {@link Entry}. */
+    private final ConcurrentHashMap<Entry, Entry> pool = new ConcurrentHashMap<>();
+    private final ReferenceQueue<String> cleared = new ReferenceQueue<>();
+    private final ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /** @return the pool shared by all library components */
+    public static StringPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the canonical instance of the given string.
+     *
+     * @param s the string to deduplicate (may be null)
+     * @return a pooled string equal to {@code s}, or null if {@code s} is null
+     */
+    public String intern(String s) {
+        if (s == null) return null;
+
+        expungeCleared();
+        lookups.increment();
+
+        while (true) {
+            Entry existing = find(s);
+            if (existing == null) {
+                Entry entry = new Entry(s, cleared);
+                existing = pool.putIfAbsent(entry, entry);
+                if (existing == null) return s;
+            }
+
+            String value = existing.get();
+            if (value != null) {
+                if (value != s) {
+                    duplicates.increment();
+                    bytesSaved.add(estimateSize(s));
+                }
+                return value;
+            }
+            pool.remove(existing, existing);   // collected since it matched; try again
+        }
+    }
+
+    /** Looks a string up without allocating, so pooled hits stay garbage-free. */
+    private Entry find(String s) {
+        Probe probe = probes.get();
+        probe.value = s;
+        try {
+            return pool.get(probe);
+        } finally {
+            probe.value = null;
+        }
+    }
+
+    private void expungeCleared() {
+        Reference<? extends String> ref;
+        while ((ref = cleared.poll()) != null) pool.remove(ref, ref);
+    }
+
+    /** @return number of distinct strings currently held by the pool */
+    public int size() {
+        expungeCleared();
+        return pool.size();
+    }
+
+    /** @return number of duplicate strings replaced by a pooled instance */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /** @return estimated heap bytes saved by deduplication */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /** Clears all counters (the pooled strings are kept). */
+    public void resetStats() {
+        lookups.reset();
+        duplicates.reset();
+        bytesSaved.reset();
+    }
+
+    /** @return a one-line summary of the pool's effect */
+    public String report() {
+        return "String pool: " + size() + " distinct, "
+                + lookups.sum() + " lookups, "
+                + duplicates.sum() + " duplicates, ~"
+                + bytesSaved.sum() / 1024 + " KB saved";
+    }
+
+    /**
+     * Estimates the retained size of a string with compact strings enabled:
+     * one byte per char for Latin-1 content, two otherwise.
+     */
+    static long estimateSize(String s) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        long array = ARRAY_HEADER_BYTES + (long) s.length() * bytesPerChar;
+        return STRING_HEADER_BYTES + ((array + 7) & ~7L);
+    }
+
+    /**
+     * A weakly held pooled string. Live entries are equal when their strings
+     * are; a cleared entry is only equal to itself, so it can still be
+     * removed once it comes off the reference queue.
+     */
+    private static final class Entry extends WeakReference<String> {
+        private final int hash;
+
+        Entry(String s, ReferenceQueue<String> queue) {
+            super(s, queue);
+            this.hash = s.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof Entry)) return false;
+            String value = get();
+            return value != null && value.equals(((Entry) o).get());
+        }
+    }
+
+    /**
+     * A reusable lookup key; the map calls {@code probe.equals(entry)}, so
+     * only this side needs to know about entries.
+     */
+    private static final class Probe {
+        String value;
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && value.equals(((Entry) o).get());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package librarysystem;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TieredCatalog lets a {@link Library} keep the full catalog in an
+ * {@link OffHeapCatalog} and only the items that matter right now on the
+ * heap. {@link OffHeapCatalogRepository} uses one when it is opened with a
+ * cache size.
+ *
+ * <p><b>Tiers:</b></p>
+ * <ul>
+ *     <li><b>Cold</b> — every item, in the mapped catalog; the source of truth</li>
+ *     <li><b>Hot</b> — a W-TinyLFU {@link TinyLfuCache} of recently and
+ *         frequently looked-up items with no copy on loan, bounded by entry count</li>
+ *     <li><b>Pinned</b> — every item with a copy on loan, always on the heap,
+ *         so the library's {@link LoanLedger} sees every loan</li>
+ * </ul>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Changes are written through to the cold tier as the repository
+ *         hears of them, and the item moves to the pinned tier when a copy
+ *         goes out and back to the hot tier when the last one comes back</li>
+ *     <li>Items are faulted in on lookup by id; listing the catalog reads
+ *         detached views of unpinned items instead, so a full scan neither
+ *         flushes the hot tier nor counts as misses</li>
+ *     <li>Tiers are keyed by row, which stays fixed for an item's life</li>
+ *     <li>Changes must go through the {@link Library}; an item changed
+ *         directly is neither written through nor pinned</li>
+ *     <li>Not thread-safe; the library lock covers it</li>
+ * </ul>
+ */
+final class TieredCatalog {
+
+    private final OffHeapCatalog cold;
+    private final TinyLfuCache<Integer, InventoryItem> hot;
+    private final Map<Integer, InventoryItem> pinned = new HashMap<>();
+
+    /** Ledger the faulted-in items report their loans to, set by {@link #load}. */
+    private LoanLedger ledger;
+
+    /** Live rows of each type in catalog order, for rows below {@link #listed}. */
+    private int[] bookRows = new int[16];
+    private int[] cdRows = new int[16];
+    private int bookCount;
+    private int cdCount;
+    private int listed;
+
+    /**
+     * @param cold      the catalog to tier; closed by its owner
+     * @param cacheSize maximum number of items in the hot tier
+     */
+    TieredCatalog(OffHeapCatalog cold, int cacheSize) {
+        this.cold = cold;
+        this.hot = new TinyLfuCache<>(cacheSize);
+    }
+
+    /**
+     * Pins every item with a copy on loan; the rest stay cold until looked up.
+     *
+     * @param ledger where the library indexes loans
+     * @return number of items in the catalog
+     */
+    int load(LoanLedger ledger) {
+        this.ledger = ledger;
+        for (int row = 0; row < cold.size(); row++) {
+            if (!cold.isRemoved(row) && cold.getLoanCount(row) > 0)
+                pinned.put(row, materialize(row));
+        }
+        return size();
+    }
+
+    // ==========================================================
+    // LOOKUP
+    // ==========================================================
+
+    /**
+     * Looks up a book ({@code cd == false}) or CD, faulting it in from the
+     * cold tier on a miss.
+     *
+     * @return the item, or null if the id is unknown
+     */
+    InventoryItem get(boolean cd, String id) {
+        int row = cold.rowOf(id, cd);
+        if (row < 0) return null;
+
+        InventoryItem item = pinned.get(row);
+        if (item == null) item = hot.get(row);
+        if (item == null) {
+            item = materialize(row);
+            place(row, item);
+        }
+        return item;
+    }
+
+    /** Builds a row's inventory, with its loans, and attaches it to the ledger. */
+    private InventoryItem materialize(int row) {
+        InventoryItem item = new InventoryItem(OffHeapCatalogRepository.mediaOf(cold, row), cold.getCopies(row));
+        for (int loan = cold.firstLoan(row); loan >= 0; loan = cold.nextLoan(loan)) {
+            item.addCopies(1);
+            item.lend(cold.getBorrower(loan), cold.getDueDate(loan));
+        }
+        if (ledger != null) ledger.attach(item);
+        return item;
+    }
+
+    /** Files an item under the pinned tier if a copy is on loan, otherwise under the hot one. */
+    private void place(int row, InventoryItem item) {
+        if (item.getLoanCount() > 0) {
+            hot.remove(row);
+            pinned.put(row, item);
+        } else {
+            pinned.remove(row);
+            hot.put(row, item);
+        }
+    }
+
+    // ==========================================================
+    // WRITE-THROUGH
+    // ==========================================================
+
+    /** Writes an item's current state to the cold tier and re-files it. */
+    void write(InventoryItem item) {
+        place(cold.copy(item), item);
+    }
+
+    /** Withdraws an item from every tier. */
+    void remove(InventoryItem item) {
+        Media m = item.getMedia();
+        int row = m instanceof CD ? cold.rowOf(((CD) m).getId(), true)
+                                  : cold.rowOf(((Book) m).getIsbn(), false);
+        if (row < 0) return;
+
+        cold.remove(row);
+        hot.remove(row);
+        pinned.remove(row);
+        bookCount = cdCount = listed = 0;   // list again without the row
+    }
+
+    /** Forgets the heap tiers after the cold tier was rewritten wholesale. */
+    void reset() {
+        hot.clear();
+        pinned.clear();
+        bookCount = cdCount = listed = 0;
+    }
+
+    // ==========================================================
+    // LISTING
+    // ==========================================================
+
+    /**
+     * @return every book in catalog order; items on the heap are returned
+     *         as they are, the others as detached views of the cold tier
+     */
+    List<Book> books() {
+        return new Listing<>(Book.class);
+    }
+
+    /** CD counterpart of {@link #books()}. */
+    List<CD> cds() {
+        return new Listing<>(CD.class);
+    }
+
+    /** @return number of items in the catalog */
+    int size() {
+        list();
+        return bookCount + cdCount;
+    }
+
+    /** Adds the rows appended since the last listing. */
+    private void list() {
+        for (; listed < cold.size(); listed++) {
+            if (cold.isRemoved(listed)) continue;
+            if (cold.isCD(listed)) {
+                if (cdCount == cdRows.length) cdRows = Arrays.copyOf(cdRows, cdCount * 2);
+                cdRows[cdCount++] = listed;
+            } else {
+                if (bookCount == bookRows.length) bookRows = Arrays.copyOf(bookRows, bookCount * 2);
+                bookRows[bookCount++] = listed;
+            }
+        }
+    }
+
+    /** @return the row's item if it is on the heap, without counting an access; else null */
+    private InventoryItem resident(int row) {
+        InventoryItem item = pinned.get(row);
+        return item != null ? item : hot.peek(row);
+    }
+
+    /** @return the Media of a row, from the heap if it is there */
+    private Media mediaAt(int row) {
+        InventoryItem item = resident(row);
+        return item != null ? item.getMedia() : cold.view(row);
+    }
+
+    /**
+     * @return copies left of the listed book ({@code cd == false}) or CD at
+     *         an index of {@link #books()} or {@link #cds()}, read without
+     *         faulting the item in
+     */
+    int availableCopiesAt(boolean cd, int index) {
+        list();
+        int row = cd ? cdRows[index] : bookRows[index];
+        InventoryItem item = pinned.get(row);
+        return item != null ? item.getAvailableCopies() : cold.getCopies(row);
+    }
+
+    /** Read-only list over the live rows of one type. */
+    private final class Listing<T extends Media> extends AbstractList<T> {
+
+        private final Class<T> type;
+
+        Listing(Class<T> type) {
+            this.type = type;
+        }
+
+        @Override
+        public T get(int index) {
+            list();
+            boolean cd = type == CD.class;
+            if (index < 0 || index >= (cd ? cdCount : bookCount))
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+            return type.cast(mediaAt(cd ? cdRows[index] : bookRows[index]));
+        }
+
+        @Override
+        public int size() {
+            list();
+            return type == CD.class ? cdCount : bookCount;
+        }
+    }
+
+    // ==========================================================
+    // TOTALS
+    // ==========================================================
+
+    /** @return copies on loan across all titles */
+    int onLoanCount() {
+        return cold.onLoanCount();
+    }
+
+    /** @return copies owned across all titles */
+    int totalCopies() {
+        int count = 0;
+        for (int row = 0; row < cold.size(); row++) {
+            if (!cold.isRemoved(row)) count += cold.getCopies(row) + cold.getLoanCount(row);
+        }
+        return count;
+    }
+
+    // ==========================================================
+    // STATISTICS
+    // ==========================================================
+
+    long getHits() {
+        return hot.getHits();
+    }
+
+    long getMisses() {
+        return hot.getMisses();
+    }
+
+    long getEvictions() {
+        return hot.getEvictions();
+    }
+
+    /** @return hits / (hits + misses), or 0 before any lookup */
+    double getHitRate() {
+        return hot.getHitRate();
+    }
+
+    /** @return number of items in the hot tier */
+    int getCachedCount() {
+        return hot.size();
+    }
+
+    /** @return number of items pinned because a copy is on loan */
+    int getPinnedCount() {
+        return pinned.size();
+    }
+
+    /** @return maximum number of items in the hot tier */
+    int getCacheSize() {
+        return hot.getMaximumSize();
+    }
+
+    /**
+     * Changes the hot tier's capacity at runtime, evicting items if it
+     * shrinks; the frequency history carries over.
+     */
+    void setCacheSize(int maximumSize) {
+        hot.setMaximumSize(maximumSize);
+    }
+
+    /** @return a one-line summary of cache behavior */
+    String getStats() {
+        return String.format("Tiered catalog: %d items, %d pinned, %d/%d cached, "
+                        + "hits=%d misses=%d evictions=%d hitRate=%.1f%%",
+                size(), pinned.size(), hot.size(), hot.getMaximumSize(),
+                hot.getHits(), hot.getMisses(), hot.getEvictions(),
+                hot.getHitRate() * 100);
+    }
+}
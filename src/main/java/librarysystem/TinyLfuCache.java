@@ -0,0 +1,286 @@
+package librarysystem;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TinyLfuCache is a size-bounded cache using the W-TinyLFU policy.
+ *
+ * <p>New entries enter a small LRU <i>window</i>. When the window overflows,
+ * its oldest entry competes with the main region's eviction victim and is
+ * only admitted if it has been requested more often, as estimated by a
+ * count-min sketch. The main region is a segmented LRU (probation + protected)
+ * so entries hit twice are shielded from one-off scans.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>Segments are access-ordered LinkedHashMaps, keeping the code small;
+ *         a plain map of every entry answers {@link #peek} without touching
+ *         their order</li>
+ *     <li>Window = 1% of capacity, protected = 80% of the main region</li>
+ *     <li>The sketch uses 4-bit counters that are halved periodically (aging)</li>
+ *     <li>A resize folds or spreads the sketch's counters into the new width
+ *         instead of starting from zero</li>
+ *     <li>Not thread-safe; callers synchronize</li>
+ * </ul>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class TinyLfuCache<K, V> {
+
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> protectedSeg = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Every entry of the three segments. */
+    private final HashMap<K, V> entries = new HashMap<>();
+
+    private FrequencySketch sketch;
+
+    private int maximumSize;
+    private int windowMax;
+    private int protectedMax;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maximumSize maximum number of cached entries (at least 1)
+     */
+    TinyLfuCache(int maximumSize) {
+        setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Returns a cached value and records the access.
+     *
+     * @return the value, or null on a miss
+     */
+    V get(K key) {
+        sketch.increment(key.hashCode());
+
+        V value = window.get(key);
+        if (value == null) value = protectedSeg.get(key);
+        if (value == null) {
+            value = probation.remove(key);
+            if (value != null) promote(key, value);
+        }
+
+        if (value == null) misses++;
+        else hits++;
+        return value;
+    }
+
+    /**
+     * Returns a cached value without recording an access: no hit or miss is
+     * counted and neither the key's frequency nor its recency changes.
+     *
+     * @return the value, or null if not cached
+     */
+    V peek(K key) {
+        return entries.get(key);
+    }
+
+    /** Inserts or replaces a value. */
+    void put(K key, V value) {
+        sketch.increment(key.hashCode());
+        entries.put(key, value);
+
+        if (window.containsKey(key)) {
+            window.put(key, value);
+        } else if (protectedSeg.containsKey(key)) {
+            protectedSeg.put(key, value);
+        } else if (probation.containsKey(key)) {
+            probation.remove(key);
+            promote(key, value);
+        } else {
+            window.put(key, value);
+            evictFromWindow();
+        }
+    }
+
+    /** Removes an entry, if present. */
+    void remove(K key) {
+        entries.remove(key);
+        if (window.remove(key) == null && probation.remove(key) == null)
+            protectedSeg.remove(key);
+    }
+
+    /** Drops every entry; the statistics and frequency history stay. */
+    void clear() {
+        entries.clear();
+        window.clear();
+        probation.clear();
+        protectedSeg.clear();
+    }
+
+    /**
+     * Changes the capacity at runtime, evicting entries if it shrinks. The
+     * frequency history carries over, so admission stays informed.
+     *
+     * @param maximumSize new maximum number of entries (at least 1)
+     */
+    void setMaximumSize(int maximumSize) {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("Cache size must be positive.");
+
+        this.maximumSize = maximumSize;
+        this.windowMax = Math.max(1, maximumSize / 100);
+        this.protectedMax = (int) ((maximumSize - windowMax) * 0.8);
+        this.sketch = sketch == null ? new FrequencySketch(maximumSize) : sketch.resize(maximumSize);
+
+        evictFromWindow();
+        while (probation.size() + protectedSeg.size() > maximumSize - windowMax)
+            evictMainVictim();
+    }
+
+    int size() {
+        return window.size() + probation.size() + protectedSeg.size();
+    }
+
+    int getMaximumSize() {
+        return maximumSize;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    /** @return hits / (hits + misses), or 0 before any lookup */
+    double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // ==========================================================
+    // POLICY
+    // ==========================================================
+
+    private void promote(K key, V value) {
+        protectedSeg.put(key, value);
+        if (protectedSeg.size() > protectedMax) {
+            Map.Entry<K, V> demoted = eldest(protectedSeg);
+            protectedSeg.remove(demoted.getKey());
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    private void evictFromWindow() {
+        int mainMax = maximumSize - windowMax;
+
+        while (window.size() > windowMax) {
+            Map.Entry<K, V> candidate = eldest(window);
+            window.remove(candidate.getKey());
+
+            if (probation.size() + protectedSeg.size() < mainMax) {
+                probation.put(candidate.getKey(), candidate.getValue());
+                continue;
+            }
+
+            Map.Entry<K, V> victim = probation.isEmpty() ? eldest(protectedSeg) : eldest(probation);
+            if (victim != null
+                    && sketch.frequency(candidate.getKey().hashCode())
+                       > sketch.frequency(victim.getKey().hashCode())) {
+                remove(victim.getKey());
+                probation.put(candidate.getKey(), candidate.getValue());
+            } else {
+                entries.remove(candidate.getKey());
+            }
+            evictions++;
+        }
+    }
+
+    private void evictMainVictim() {
+        Map.Entry<K, V> victim = probation.isEmpty() ? eldest(protectedSeg) : eldest(probation);
+        remove(victim.getKey());
+        evictions++;
+    }
+
+    private static <K, V> Map.Entry<K, V> eldest(LinkedHashMap<K, V> segment) {
+        Iterator<Map.Entry<K, V>> it = segment.entrySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /** Count-min sketch of 4-bit counters with periodic halving. */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97CB3127, 0xC2B2AE35, 0x85EBCA6B, 0x27D4EB2F};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(maximumSize, 8) * 2 - 1);
+            this.counters = new byte[width * DEPTH];
+            this.mask = width - 1;
+            this.sampleSize = 10 * Math.max(maximumSize, 8);
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int idx = indexOf(hash, i);
+                if (counters[idx] < 15) {
+                    counters[idx]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        /**
+         * @return a sketch for a new capacity with the same estimates: a
+         *         counter's slot depends on the width only through the mask, so
+         *         a wider sketch copies each counter to every slot it splits
+         *         into and a narrower one keeps the largest of those it merges
+         */
+        FrequencySketch resize(int maximumSize) {
+            FrequencySketch to = new FrequencySketch(maximumSize);
+            int fromWidth = mask + 1;
+            int toWidth = to.mask + 1;
+            for (int row = 0; row < DEPTH; row++) {
+                for (int i = 0; i < Math.max(fromWidth, toWidth); i++) {
+                    int src = row * fromWidth + (i & mask);
+                    int dst = row * toWidth + (i & to.mask);
+                    to.counters[dst] = (byte) Math.max(to.counters[dst], counters[src]);
+                }
+            }
+            to.additions = Math.min(additions, to.sampleSize - 1);
+            return to;
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < DEPTH; i++)
+                min = Math.min(min, counters[indexOf(hash, i)]);
+            return min;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            h ^= h >>> 16;
+            return row * (mask + 1) + (h & mask);
+        }
+
+        private void reset() {
+            for (int i = 0; i < counters.length; i++)
+                counters[i] >>= 1;
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package librarysystem;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * VarintBuffer is a growable byte array with the primitive encodings shared
+ * by the binary file formats ({@link ColumnarExport}, {@link CompactCatalogFormat}),
+ * plus the matching static decoders.
+ *
+ * <p><b>Encodings:</b></p>
+ * <ul>
+ *     <li>Unsigned LEB128 varints (7 bits per byte, low bits first)</li>
+ *     <li>Zig-zag mapping for signed values such as epoch days</li>
+ *     <li>Strings as a varint byte length followed by UTF-8, encoded straight
+ *         from the String without a temporary byte array</li>
+ * </ul>
+ */
+final class VarintBuffer {
+
+    byte[] bytes;
+    int size;
+
+    VarintBuffer(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    VarintBuffer() {
+        this(4096);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private void ensure(int more) {
+        if (size + more > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+    }
+
+    void put(byte b) {
+        ensure(1);
+        bytes[size++] = b;
+    }
+
+    void putVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    /** Writes the UTF-8 byte length (varint) followed by the bytes. */
+    void putUtf8(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) length++;
+            else if (c < 0x800) length += 2;
+            else if (isPair(s, i)) {
+                length += 4;
+                i++;
+            } else length += 3;
+        }
+
+        putVarint(length);
+        ensure(length);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isPair(s, i)) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                bytes[size++] = (byte) (0xF0 | (cp >> 18));
+                bytes[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                if (Character.isSurrogate(c)) c = '?';   // unpaired surrogate
+                bytes[size++] = (byte) (0xE0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static boolean isPair(String s, int i) {
+        return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1));
+    }
+
+    /** Appends another buffer prefixed with its length (varint). */
+    void putSection(VarintBuffer section) {
+        putVarint(section.size);
+        ensure(section.size);
+        System.arraycopy(section.bytes, 0, bytes, size, section.size);
+        size += section.size;
+    }
+
+    // ==========================================================
+    // DECODING
+    // ==========================================================
+
+    static long zigZag(int value) {
+        return ((long) value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    static long readVarint(ByteBuffer buf) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** Reads a string written by {@link #putUtf8} from a heap buffer. */
+    static String readUtf8(ByteBuffer buf) {
+        int length = (int) readVarint(buf);
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,48 @@
+package librarysystem;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ZipfDistribution samples item ranks so that rank k is chosen with
+ * probability proportional to {@code 1 / (k + 1)^s}.
+ *
+ * <p>Used by the {@link LoadGenerator} to model item popularity: a handful of
+ * titles take most of the traffic while the long tail is rarely touched.</p>
+ *
+ * <p><b>Design Decisions:</b></p>
+ * <ul>
+ *     <li>The cumulative distribution is precomputed once (8 bytes per item),
+ *         and each sample is a binary search</li>
+ *     <li>Immutable, so one instance can be shared by all client threads</li>
+ * </ul>
+ */
+public final class ZipfDistribution {
+
+    private final double[] cumulative;
+
+    /**
+     * @param items    number of ranks (at least 1)
+     * @param exponent skew; 0 is uniform, around 1 is typical for catalogs
+     */
+    public ZipfDistribution(int items, double exponent) {
+        if (items < 1)
+            throw new IllegalArgumentException("Zipf needs at least one item.");
+
+        cumulative = new double[items];
+        double total = 0;
+        for (int k = 0; k < items; k++) {
+            total += 1.0 / Math.pow(k + 1, exponent);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < items; k++)
+            cumulative[k] /= total;
+    }
+
+    /** @return a rank in {@code [0, items)} */
+    public int sample(Random random) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        int rank = i >= 0 ? i : -i - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+}
@@ -7,13 +7,29 @@ import librarysystem.FineManager;
 import librarysystem.Book;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LibrarySystemTest {
 
@@ -51,6 +67,8 @@ public class LibrarySystemTest {
     @Test
     void testAddSearchAndShow() {
         new File("library.txt").delete();
+        new File("library.txt.lock").delete();
+        new File("library.txt.journal").delete();
         Library lib = new Library(new FineManager());
 
         Book b = new Book("Networks", "Tanenbaum", "123");
@@ -126,6 +144,1933 @@ public class LibrarySystemTest {
         assertTrue(fm.getFine("eman") > 0);
     }
 
+    @Test
+    void testReplaceAndRemoveKeepCatalogOrder(@TempDir Path dir) {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.beginBatch();
+        for (int i = 0; i < 5; i++) {
+            lib.addBook("Book " + i, "Author", "O" + i, 1);
+            lib.addCD("Album " + i, "Band", "OC" + i, 1);
+        }
+        assertTrue(lib.removeBook("O1"));
+        lib.addBook("Book 3 (2nd ed.)", "Author", "O3", 2);
+        lib.addBook("Book 5", "Author", "O5", 1);
+        assertTrue(lib.removeCD("OC0"));
+        lib.addCD("Album 4 (live)", "Band", "OC4", 1);
+        lib.commitBatch();
+
+        List<String> isbns = new ArrayList<>();
+        for (Book b : lib.getBooks()) isbns.add(b.getIsbn());
+        assertEquals(Arrays.asList("O0", "O2", "O3", "O4", "O5"), isbns);
+        assertEquals("Book 3 (2nd ed.)", lib.getBooks().get(2).getTitle());
+
+        List<String> ids = new ArrayList<>();
+        for (CD cd : lib.getCDs()) ids.add(cd.getId());
+        assertEquals(Arrays.asList("OC1", "OC2", "OC3", "OC4"), ids);
+        assertEquals("Album 4 (live)", lib.getCDs().get(3).getTitle());
+        assertEquals(5, lib.searchBook("author").count());
+    }
+
+    /* ================= STRING POOL ================= */
+
+    @Test
+    void testStringPoolDeduplicatesAuthorsAndBorrowers(@TempDir Path dir) {
+        StringPool pool = StringPool.shared();
+        long savedBefore = pool.getBytesSaved();
+
+        Book b1 = new Book("T1", new String("Pooled Author"), "SP1");
+        Book b2 = new Book("T2", new String("Pooled Author"), "SP2");
+        assertSame(b1.getAuthor(), b2.getAuthor());
+
+        b1.borrow(LocalDate.now().plusDays(1), new String("pooledUser"));
+        b2.borrow(LocalDate.now().plusDays(1), new String("pooledUser"));
+        assertSame(b1.getBorrowedBy(), b2.getBorrowedBy());
+
+        assertTrue(pool.getBytesSaved() > savedBefore);
+        assertTrue(pool.report().contains("KB saved"));
+        assertNull(pool.intern(null));
+        assertEquals(pool.getBytesSaved(),
+                new LibraryManagement.LibraryBean(new Library(new FineManager(), (to, s, b) -> true,
+                        dir.resolve("lib.txt").toString())).getStringPoolBytesSaved());
+    }
+
+    @Test
+    void testStringPoolInternsConcurrently() throws Exception {
+        StringPool pool = new StringPool();
+        int threads = 8;
+        String[][] results = new String[threads][];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                results[id] = new String[500];
+                for (int i = 0; i < 500; i++) results[id][i] = pool.intern(new String("user" + i));
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+
+        for (int t = 1; t < threads; t++)
+            for (int i = 0; i < 500; i++) assertSame(results[0][i], results[t][i]);
+        assertEquals(500, pool.size());
+        assertEquals(500L * (threads - 1), pool.getDuplicates());
+    }
+
+    /* ================= LOAN LEDGER ================= */
+
+    @Test
+    void testLoanLedgerChainsLoansByBorrower() {
+        LoanLedger ledger = new LoanLedger();
+        InventoryItem a = new InventoryItem(new Book("A", "Auth", "CHA"), 3);
+        InventoryItem b = new InventoryItem(new Book("B", "Auth", "CHB"), 3);
+        ledger.attach(a);
+        ledger.attach(b);
+        LocalDate today = LocalDate.now();
+
+        int a1 = a.lend("u1", today.minusDays(40));
+        b.lend("u1", today.plusDays(5));
+        int a2 = a.lend("u2", today.minusDays(1));
+        a.lend(null, today.minusDays(50));   // no borrower: not indexed
+        assertEquals(3, ledger.size());
+
+        // unlink the oldest entry of u1's chain, then reuse the freed entry
+        assertTrue(ledger.hasLoanDueBefore("u1", today.minusDays(30).toEpochDay()));
+        a.release(a1);
+        assertFalse(ledger.hasLoanDueBefore("u1", today.minusDays(30).toEpochDay()));
+        assertTrue(ledger.hasLoans("u1"));
+        a.release(a2);
+        assertFalse(ledger.hasLoans("u2"));
+        b.lend("u2", today);
+
+        int e = ledger.first("u2");
+        assertSame(b, ledger.item(e));
+        assertEquals(today.toEpochDay(), ledger.dueEpochDay(e));
+        assertEquals(-1, ledger.next(e));
+        assertEquals(2, ledger.size());
+
+        ledger.detach(b);
+        assertFalse(ledger.hasLoans("u1"));
+        assertFalse(ledger.hasLoans("u2"));
+        b.lend("u3", today);                  // no longer followed
+        assertFalse(ledger.hasLoans("u3"));
+        assertEquals(0, ledger.size());
+    }
+
+    @Test
+    void testLibraryLoanChecksFollowEveryKindOfLoan(@TempDir Path dir) {
+        String file = dir.resolve("lib.txt").toString();
+        java.time.Clock clock = java.time.Clock.fixed(LocalDate.of(2024, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant(),
+                ZoneId.systemDefault());
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file, clock);
+        lib.addBook(new Book("Shelf", "Auth", "LL1"), 2);
+        lib.addCD(new CD("Disc", "Band", "LL2"), 1);
+
+        Book carried = new Book("Carried", "Auth", "LL3", false, LocalDate.of(2023, 11, 1));
+        carried.setBorrowedBy("late");
+        lib.addBook(carried, 0);
+        assertTrue(lib.hasLostItem("late"));
+
+        // a replacement keeps the loan; the old entry's loan is not counted twice
+        lib.addBook(new Book("Carried Renamed", "Auth", "LL3"), 0);
+        assertTrue(lib.hasLostItem("late"));
+        assertEquals(1, lib.checkOverdueBooks("late"));
+
+        assertTrue(lib.borrowBook("LL1", "reader").isSuccess());
+        assertTrue(lib.borrowCD("LL2", "reader").isSuccess());
+        assertTrue(lib.hasActiveLoans("reader"));
+        assertFalse(lib.hasLostItem("reader"));
+
+        lib.getBookInventory("LL1").getMedia().borrow(LocalDate.of(2023, 1, 1), "direct");
+        assertTrue(lib.hasLostItem("direct"));
+
+        Library reloaded = new Library(new FineManager(), (to, s, b) -> true, file, clock);
+        assertTrue(reloaded.hasLostItem("late"));
+        assertTrue(reloaded.hasActiveLoans("reader"));
+        assertEquals(0, reloaded.checkOverdueBooks("reader"));
+
+        assertTrue(reloaded.returnBook("LL1", "reader").isSuccess());
+        assertTrue(reloaded.hasActiveLoans("reader"));
+        assertTrue(reloaded.returnCD("LL2", "reader").isSuccess());
+        assertFalse(reloaded.hasActiveLoans("reader"));
+    }
+
+    /* ================= OFF-HEAP CATALOG ================= */
+
+    @Test
+    void testOffHeapCatalogGrowsAndLends() {
+        OffHeapCatalog catalog = OffHeapCatalog.allocate(1);
+        LocalDate today = LocalDate.now();
+
+        for (int i = 0; i < 100; i++)
+            catalog.add(new Book("Title " + i, "Author " + (i % 3), "OH" + i), 1);
+
+        assertEquals(100, catalog.size());
+        int row = catalog.rowOf("OH42");
+        assertEquals(42, row);
+        assertEquals(-1, catalog.rowOf("OH100"));
+
+        assertTrue(catalog.borrow(row, "ohUser", today.minusDays(31)));
+        assertFalse(catalog.borrow(row, "ohUser", today));
+        assertEquals(List.of("ohUser"), borrowersOf(catalog, row));
+        assertEquals(today.minusDays(31), catalog.getDueDate(catalog.firstLoan(row)));
+        assertEquals(1, catalog.onLoanCount());
+
+        Media view = catalog.view(row);
+        assertEquals("Title 42", view.getTitle());
+        assertEquals("ohUser", view.getBorrowedBy());
+
+        catalog.returnItem(row);
+        assertEquals(List.of(), borrowersOf(catalog, row));
+        assertEquals(1, catalog.getCopies(row));
+    }
+
+    @Test
+    void testOffHeapCatalogRepeatedPutDoesNotGrowStrings() {
+        OffHeapCatalog catalog = OffHeapCatalog.allocate(16);
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 100; i++) title.append('t');
+
+        catalog.add(new Book(title.toString(), "Author", "OHSAME"), 1);
+        long reserved = catalog.reservedBytes();
+        for (int i = 0; i < 10_000; i++)
+            catalog.add(new Book(title.toString(), "Author", "OHSAME"), 1 + i % 3);
+
+        assertEquals(1, catalog.size());
+        assertEquals(reserved, catalog.reservedBytes());
+
+        catalog.add(new Book("Renamed", "Author", "OHSAME"), 1);
+        assertEquals("Renamed", catalog.view(0).getTitle());
+    }
+
+    @Test
+    void testOffHeapCatalogReopensMappedFiles(@TempDir Path dir) throws IOException {
+        Path base = dir.resolve("catalog");
+
+        try (OffHeapCatalog catalog = OffHeapCatalog.open(base, 4)) {
+            catalog.add(new CD("Mapped", "Band", "OHCD1"), 2);
+            catalog.borrow(catalog.rowOf("OHCD1"), "mapUser", LocalDate.now().plusDays(7));
+        }
+
+        try (OffHeapCatalog reopened = OffHeapCatalog.open(base, 4)) {
+            int row = reopened.rowOf("OHCD1");
+            assertEquals(0, row);
+            assertEquals(1, reopened.getCopies(row));
+            assertTrue(reopened.view(row) instanceof CD);
+            assertEquals(List.of("mapUser"), borrowersOf(reopened, row));
+        }
+    }
+
+    @Test
+    void testOffHeapCatalogSharesNamesAfterReopen(@TempDir Path dir) throws IOException {
+        Path base = dir.resolve("names");
+        LocalDate due = LocalDate.now().plusDays(7);
+
+        try (OffHeapCatalog catalog = OffHeapCatalog.open(base, 4)) {
+            catalog.add(new Book("Shared", "Writer", "OHNAME"), 1);
+            catalog.borrow(0, "nameUser", due);
+            catalog.returnItem(0);
+        }
+        assertTrue(Files.size(dir.resolve("names.nam")) > 0);
+
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                // a catalog from before the names segment: version 2, no .nam file
+                Files.delete(dir.resolve("names.nam"));
+                try (FileChannel rec = FileChannel.open(dir.resolve("names.rec"), StandardOpenOption.WRITE)) {
+                    rec.write(ByteBuffer.allocate(4).putInt(0, 2), 4);
+                }
+            }
+            try (OffHeapCatalog reopened = OffHeapCatalog.open(base, 4)) {
+                long reserved = reopened.reservedBytes();
+                for (int i = 0; i < 10_000; i++) {
+                    reopened.add(new Book("Shared", "Writer", "OHNAME"), 1);
+                    reopened.borrow(0, "nameUser", due);
+                    reopened.returnItem(0, "nameUser");
+                }
+                assertEquals(reserved, reopened.reservedBytes());
+                assertEquals("Writer", ((Book) reopened.view(0)).getAuthor());
+            }
+        }
+    }
+
+    @Test
+    void testOffHeapCatalogKeysByTypeAndTracksEveryCopy(@TempDir Path dir) throws IOException {
+        LocalDate today = LocalDate.now();
+        try (OffHeapCatalog catalog = OffHeapCatalog.open(dir.resolve("copies"), 4)) {
+            int book = catalog.add(new Book("Shared Id", "Auth", "OHSAME"), 2);
+            int cd = catalog.add(new CD("Shared Id", "Band", "OHSAME"), 1);
+            assertNotEquals(book, cd);
+            assertEquals(book, catalog.rowOf("OHSAME", false));
+            assertEquals(cd, catalog.rowOf("OHSAME", true));
+            assertTrue(catalog.view(cd) instanceof CD);
+            assertFalse(catalog.view(book) instanceof CD);
+
+            assertTrue(catalog.borrow(book, "first", today.plusDays(3)));
+            assertTrue(catalog.borrow(book, "second", today.minusDays(40)));
+            assertFalse(catalog.borrow(book, "third", today));
+            assertEquals(2, catalog.getLoanCount(book));
+            assertEquals(List.of("second", "first"), borrowersOf(catalog, book));
+            assertEquals("second", catalog.view(book).getBorrowedBy());   // due first
+
+            assertFalse(catalog.returnItem(book, "third"));
+            assertTrue(catalog.returnItem(book, "second"));
+            assertEquals(List.of("first"), borrowersOf(catalog, book));
+            assertFalse(catalog.isAvailable(book));
+            assertEquals(1, catalog.getCopies(book));
+
+            catalog.remove(cd);
+            assertEquals(-1, catalog.rowOf("OHSAME", true));
+            assertEquals(book, catalog.rowOf("OHSAME"));
+            assertEquals(2, catalog.add(new CD("Again", "Band", "OHSAME"), 1));
+        }
+
+        try (OffHeapCatalog reopened = OffHeapCatalog.open(dir.resolve("copies"), 4)) {
+            int book = reopened.rowOf("OHSAME", false);
+            assertTrue(reopened.isRemoved(1));
+            assertEquals("Again", reopened.view(reopened.rowOf("OHSAME", true)).getTitle());
+            assertEquals(1, reopened.onLoanCount());
+            assertTrue(reopened.returnItem(book, "first"));
+            assertTrue(reopened.isAvailable(book));
+            assertEquals(2, reopened.getCopies(book));
+        }
+    }
+
+    @Test
+    void testOffHeapCatalogFromLibraryKeepsLoans(@TempDir Path dir) {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.addBook(new Book("Copies", "Auth", "OHLIB"), 3);
+        lib.borrowBook("OHLIB", "ann");
+        lib.borrowBook("OHLIB", "bob");
+
+        OffHeapCatalog catalog = OffHeapCatalog.of(lib);
+        int row = catalog.rowOf("OHLIB");
+        assertEquals(1, catalog.getCopies(row));
+        assertEquals(2, catalog.getLoanCount(row));
+        assertTrue(borrowersOf(catalog, row).containsAll(List.of("ann", "bob")));
+    }
+
+    /** @return the borrowers of a row's copies, newest loan first */
+    private static List<String> borrowersOf(OffHeapCatalog catalog, int row) {
+        List<String> borrowers = new ArrayList<>();
+        for (int loan = catalog.firstLoan(row); loan >= 0; loan = catalog.nextLoan(loan))
+            borrowers.add(catalog.getBorrower(loan));
+        return borrowers;
+    }
+
+    /* ================= TIERED CATALOG ================= */
+
+    @Test
+    void testTieredLibraryFaultsInItemsAndPinsLoans(@TempDir Path dir) throws IOException {
+        String location = dir.resolve("catalog.ohc").toString();
+        java.time.Clock past = java.time.Clock.offset(java.time.Clock.systemDefaultZone(),
+                java.time.Duration.ofDays(-60));
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true, location, past)) {
+            assertFalse(lib.isTiered());
+            for (int i = 0; i < 50; i++) lib.addBook(new Book("Cold " + i, "Author", "T" + i), 1);
+            lib.addCD(new CD("Cold CD", "Artist", "TCD"), 2);
+            lib.borrowBook("T3", "tierUser");   // due 32 days ago
+        }
+
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true,
+                new OffHeapCatalogRepository(location, 10), java.time.Clock.systemDefaultZone())) {
+            assertTrue(lib.isTiered());
+            assertEquals(1, lib.getPinnedCount());            // only the item on loan was loaded
+            assertEquals(0, lib.getCachedCount());
+            assertTrue(lib.hasLostItem("tierUser"));
+            assertEquals(50, lib.getBooks().size());
+            assertEquals("Cold 49", lib.getBooks().get(49).getTitle());
+            assertEquals(1, lib.getCDs().size());
+            assertEquals(52, lib.getTotalCopies());
+            assertEquals(0, lib.getCacheMisses());            // listing reads the cold tier without caching
+
+            assertNull(lib.getBookInventory("missing"));
+            assertEquals("Cold 7", lib.getBookInventory("T7").getMedia().getTitle());   // miss
+            assertEquals("Cold 7", lib.getBookInventory("T7").getMedia().getTitle());   // hit
+            assertEquals(1, lib.getCacheHits());
+            assertEquals(1, lib.getCacheMisses());
+
+            for (int i = 0; i < 50; i++) lib.getBookInventory("T" + i);
+            assertTrue(lib.getCachedCount() <= 10);
+            assertTrue(lib.getCacheEvictions() > 0);
+
+            // a loan pins the item until its last copy comes back
+            assertEquals(LoanResult.Status.OK, lib.borrowCD("TCD", "cdUser").getStatus());
+            assertEquals(LoanResult.Status.OK, lib.borrowCD("TCD", "cdUser2").getStatus());
+            assertEquals(2, lib.getPinnedCount());
+            assertTrue(lib.hasActiveLoans("cdUser2"));
+            for (int i = 0; i < 50; i++) lib.getBookInventory("T" + i);
+            assertEquals(2, lib.getCDInventory("TCD").getLoanCount());
+            lib.returnCD("TCD", "cdUser");
+            lib.returnCD("TCD", "cdUser2");
+            assertEquals(1, lib.getPinnedCount());
+            assertFalse(lib.hasActiveLoans("cdUser"));
+
+            lib.returnBook("T3", "tierUser");
+            assertEquals(0, lib.getPinnedCount());
+            assertTrue(lib.removeBook("T8"));
+            lib.addBook(new Book("Hot New", "Author", "T50"), 1);
+            assertEquals(50, lib.getBooks().size());
+            assertEquals("Hot New", lib.getBooks().get(49).getTitle());
+            assertEquals(1, lib.searchBook("hot new").count());
+            assertTrue(lib.getCacheStats().contains("evictions="));
+        }
+
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true, location)) {
+            assertNull(lib.getBookInventory("T8"));
+            assertEquals(1, lib.getBookInventory("T50").getAvailableCopies());
+            assertEquals(1, lib.getBookInventory("T3").getAvailableCopies());
+            assertEquals(2, lib.getCDInventory("TCD").getAvailableCopies());
+        }
+    }
+
+    @Test
+    void testTieredListingLeavesTheCacheAlone(@TempDir Path dir) throws IOException {
+        String location = dir.resolve("catalog.ohc").toString();
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true, location)) {
+            for (int i = 0; i < 30; i++) lib.addBook(new Book("Listed " + i, "Author", "L" + i), 2);
+            lib.addCD(new CD("Listed CD", "Artist", "LCD"), 1);
+        }
+
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true,
+                new OffHeapCatalogRepository(location, 5), java.time.Clock.systemDefaultZone())) {
+            lib.borrowBook("L1", "reader");
+            InventoryItem cached = lib.getBookInventory("L2");
+            long hits = lib.getCacheHits();
+            long misses = lib.getCacheMisses();
+            long evictions = lib.getCacheEvictions();
+            int cachedCount = lib.getCachedCount();
+
+            lib.showBooks();
+            lib.showCDs();
+            assertSame(cached.getMedia(), lib.getBooks().get(2));   // cached items are listed as they are
+
+            assertEquals(hits, lib.getCacheHits());
+            assertEquals(misses, lib.getCacheMisses());
+            assertEquals(evictions, lib.getCacheEvictions());
+            assertEquals(cachedCount, lib.getCachedCount());
+        }
+
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(10);
+        cache.put(1, "one");
+        assertEquals("one", cache.peek(1));
+        assertNull(cache.peek(2));
+        assertEquals(0, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    void testTinyLfuCacheKeepsFrequenciesAcrossResize() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100);
+        for (int k = 0; k < 100; k++) {
+            cache.put(k, "hot " + k);
+            for (int i = 0; i < 5; i++) cache.get(k);
+        }
+
+        cache.setMaximumSize(200);
+        cache.setMaximumSize(100);
+        for (int k = 1000; k < 1050; k++) {   // a one-off scan must not push out the hot keys
+            cache.get(k);
+            cache.put(k, "cold " + k);
+        }
+
+        int kept = 0;
+        for (int k = 0; k < 100; k++)
+            if (cache.get(k) != null) kept++;
+        assertTrue(kept >= 90, "hot keys kept: " + kept);
+    }
+
+    /* ================= COPY-LEVEL LOANS ================= */
+
+    @Test
+    void testEveryCopyLoanIsTrackedAndPersisted(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file);
+        lib.addBook(new Book("Copies", "Auth", "CPY1"), 3);
+
+        lib.getBookInventory("CPY1").lend("copyC", LocalDate.now().minusDays(2));
+        lib.borrowBook("CPY1", "copyA");
+        lib.borrowBook("CPY1", "copyB");
+
+        InventoryItem item = lib.getBookInventory("CPY1");
+        assertEquals(0, item.getAvailableCopies());
+        assertEquals(3, item.getLoanCount());
+        assertTrue(lib.hasActiveLoans("copyA"));
+        assertEquals(1, lib.checkOverdueBooks("copyC"));
+        lib.close();
+
+        Library reloaded = new Library(new FineManager(), (to, s, b) -> true, file);
+        InventoryItem loaded = reloaded.getBookInventory("CPY1");
+        assertEquals(3, loaded.getLoanCount());
+        assertTrue(loaded.findLoan("copyA") >= 0);
+        assertTrue(loaded.findLoan("copyB") >= 0);
+
+        reloaded.returnBook("CPY1", "copyA");
+        assertFalse(reloaded.hasActiveLoans("copyA"));
+        assertTrue(reloaded.hasActiveLoans("copyB"));
+        assertEquals(1, reloaded.getBookCopies("CPY1"));
+        assertFalse(loaded.getMedia().isAvailable());
+        reloaded.close();
+    }
+
+    @Test
+    void testInventoryItemLendAndReleaseUpdatesMedia() {
+        Book b = new Book("Shown", "Auth", "CPY2");
+        InventoryItem item = new InventoryItem(b, 2);
+
+        int first = item.lend("u1", LocalDate.now().plusDays(1));
+        int second = item.lend("u2", LocalDate.now().plusDays(2));
+        assertEquals("u2", b.getBorrowedBy());
+
+        item.release(second);
+        assertEquals("u1", b.getBorrowedBy());
+        assertEquals(first, item.findLoan("u1"));
+
+        b.returnItem();
+        assertTrue(b.isAvailable());
+        assertEquals(2, item.getAvailableCopies());
+        assertEquals(-1, item.nextLoan(0));
+    }
+
+    /* ================= LOAD GENERATOR ================= */
+
+    @Test
+    void testLatencyHistogramPercentilesAndCorrection() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 1000; v++) h.recordValue(v * 1000);
+
+        assertEquals(1000, h.getTotalCount());
+        long p50 = h.getValueAtPercentile(50);
+        assertTrue(p50 >= 500_000 && p50 <= 510_000, "p50=" + p50);
+        assertEquals(1_000_000, h.getValueAtPercentile(100));
+
+        LatencyHistogram corrected = new LatencyHistogram();
+        corrected.recordValueWithExpectedInterval(10_000, 1_000);
+        assertEquals(10, corrected.getTotalCount());
+    }
+
+    @Test
+    void testLoadGeneratorRunsMixedWorkload() throws Exception {
+        LoadGenerator.Config cfg = new LoadGenerator.Config();
+        cfg.clients = 3;
+        cfg.items = 200;
+        cfg.seconds = 1;
+        cfg.warmupSeconds = 0;
+
+        LoadGenerator.Report report = LoadGenerator.run(cfg);
+
+        assertTrue(report.getTotalOperations() > 0);
+        assertTrue(report.getHistogram(LoadGenerator.Op.SEARCH).getTotalCount() > 0);
+        assertTrue(report.getEmailsSent() > 0);
+        assertTrue(report.toString().contains("p999"));
+    }
+
+    /* ================= SIMULATED TIME ================= */
+
+    @Test
+    void testLibraryUsesInjectedClock(@TempDir Path dir) {
+        SimulationClock clock = new SimulationClock(LocalDate.of(2024, 3, 1));
+        FineManager fm = new FineManager();
+        Library lib = new Library(fm, (to, s, b) -> true, dir.resolve("lib.txt").toString(), clock);
+
+        lib.addBook("Clocks", "Author", "CLK1", 1);
+        lib.borrowBook("CLK1", "tick");
+        assertEquals(LocalDate.of(2024, 3, 29), lib.getBookInventory("CLK1").getDueDate(0));
+
+        clock.advanceDays(30);
+        assertEquals(1, lib.checkOverdueBooks("tick"));
+        assertFalse(lib.hasLostItem("tick"));
+
+        clock.advanceDays(30);
+        assertTrue(lib.hasLostItem("tick"));
+
+        lib.returnBook("CLK1", "tick");
+        assertTrue(fm.getFine("tick") > 0);
+        assertThrows(IllegalArgumentException.class, () -> clock.advance(java.time.Duration.ofDays(-1)));
+    }
+
+    @Test
+    void testCirculationSimulatorReportsEachDay() throws Exception {
+        CirculationSimulator.Config cfg = new CirculationSimulator.Config();
+        cfg.days = 60;
+        cfg.users = 20;
+        cfg.items = 100;
+
+        java.util.List<CirculationSimulator.Day> days = CirculationSimulator.run(cfg, null);
+
+        assertEquals(60, days.size());
+        assertEquals(cfg.start.plusDays(59), days.get(59).getDate());
+        assertTrue(days.get(59).getOperations() > 0);
+        assertTrue(days.stream().anyMatch(d -> d.getLoansOutstanding() > 0));
+        assertTrue(days.stream().anyMatch(d -> d.getFinesOutstanding() > 0));
+        assertTrue(days.get(59).getFileBytes() > 0);
+    }
+
+    /* ================= METRICS ================= */
+
+    @Test
+    void testMetricsRegistryPrometheusFormat(@TempDir Path dir) throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Counter c = registry.counter("test_events_total", "Events.");
+        c.increment();
+        c.add(2);
+        assertSame(c, registry.counter("test_events_total", "Events."));
+        assertThrows(IllegalArgumentException.class, () -> registry.timer("test_events_total", "x"));
+
+        MetricsRegistry.Timer t = registry.timer("test_op_seconds", "Op time.");
+        t.record(2_000_000);
+
+        String text = registry.dump();
+        assertTrue(text.contains("# TYPE test_events_total counter\ntest_events_total 3\n"));
+        assertTrue(text.contains("# TYPE test_op_seconds summary"));
+        assertTrue(text.contains("test_op_seconds_count 1"));
+        assertTrue(text.contains("test_op_seconds{quantile=\"0.99\"} 0.00"));
+
+        MetricsRegistry.Gauge g = registry.gauge("test_depth", "Depth.");
+        java.util.function.DoubleSupplier depth = () -> 4;
+        assertTrue(Double.isNaN(g.get()));
+        g.bind(depth);
+        text = registry.dump();
+        assertTrue(text.contains("# TYPE test_depth gauge\ntest_depth 4.0\n"));
+        g.unbind(() -> 5);
+        assertEquals(4.0, g.get());
+        g.unbind(depth);
+        assertTrue(Double.isNaN(g.get()));
+        g.bind(depth);
+
+        Path out = dir.resolve("metrics.prom");
+        registry.startExport(out, 1, java.util.concurrent.TimeUnit.HOURS).close();
+        assertEquals(text, new String(java.nio.file.Files.readAllBytes(out), "UTF-8"));
+    }
+
+    @Test
+    void testLibraryAndFinesAreInstrumented(@TempDir Path dir) {
+        MetricsRegistry m = MetricsRegistry.shared();
+        FineManager fm = new FineManager();
+        Library lib = new Library(fm, (to, s, b) -> true, dir.resolve("lib.txt").toString());
+
+        long borrows = ((MetricsRegistry.Timer) m.get("library_borrow_seconds")).getCount();
+        long written = ((MetricsRegistry.Counter) m.get("library_file_written_bytes_total")).get();
+        long assessed = ((MetricsRegistry.Counter) m.get("fines_assessed_total")).get();
+
+        lib.addBook("Metered", "Author", "MET1", 1);
+        lib.borrowBook("MET1", "gauge");
+        fm.addFine("gauge", 7);
+
+        assertEquals(borrows + 1, ((MetricsRegistry.Timer) m.get("library_borrow_seconds")).getCount());
+        assertTrue(((MetricsRegistry.Counter) m.get("library_file_written_bytes_total")).get() > written);
+        assertTrue(((MetricsRegistry.Counter) m.get("fines_assessed_total")).get() >= assessed + 7);
+
+        AuthService auth = new AuthService();
+        long failures = ((MetricsRegistry.Counter) m.get("auth_login_failures_total")).get();
+        assertFalse(auth.login("nobody", "wrong"));
+        assertEquals(failures + 1, ((MetricsRegistry.Counter) m.get("auth_login_failures_total")).get());
+    }
+
+    /* ================= FLIGHT RECORDER ================= */
+
+    @Test
+    void testFlightRecorderEventsUseBundledProfile(@TempDir Path dir) throws Exception {
+        jdk.jfr.Configuration profile;
+        try (Reader r = new InputStreamReader(
+                getClass().getResourceAsStream("/library.jfc"), "UTF-8")) {
+            profile = jdk.jfr.Configuration.create(r);
+        }
+        assertEquals("true", profile.getSettings().get("librarysystem.Circulation#enabled"));
+
+        Path jfr = dir.resolve("library.jfr");
+        try (jdk.jfr.Recording recording = new jdk.jfr.Recording(profile)) {
+            recording.start();
+
+            Library lib = new Library(new FineManager(), (to, s, b) -> true,
+                    dir.resolve("lib.txt").toString());
+            lib.addBook("Recorded", "Author", "JFR1", 1);
+            lib.borrowBook("JFR1", "flight");
+            lib.borrowBook("JFR-missing", "flight");
+
+            recording.stop();
+            recording.dump(jfr);
+        }
+
+        java.util.List<String> outcomes = new java.util.ArrayList<>();
+        int saves = 0;
+        for (jdk.jfr.consumer.RecordedEvent e : jdk.jfr.consumer.RecordingFile.readAllEvents(jfr)) {
+            String name = e.getEventType().getName();
+            if (name.equals("librarysystem.Circulation"))
+                outcomes.add(e.getString("itemId") + ":" + e.getString("outcome"));
+            else if (name.equals("librarysystem.Persist") && e.getString("operation").equals("save")
+                    && e.getLong("bytes") > 0 && e.getInt("records") == 1)
+                saves++;
+        }
+
+        assertTrue(outcomes.contains("JFR1:ok"), outcomes.toString());
+        assertTrue(outcomes.contains("JFR-missing:not_found"), outcomes.toString());
+        assertTrue(saves >= 2);
+    }
+
+    /* ================= JMX ================= */
+
+    @Test
+    void testLibraryMXBeanAttributesAndOperations(@TempDir Path dir) throws Exception {
+        FineManager fm = new FineManager();
+        QueuedEmailService email = new QueuedEmailService((to, s, b) -> true, 16);
+        Library lib = new Library(fm, email, dir.resolve("lib.txt").toString());
+        lib.addBook("Managed", "Author", "JMX1", 2);
+        lib.borrowBook("JMX1", "ops");
+        fm.addFine("ops", 5);
+
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        javax.management.ObjectName name = LibraryManagement.register("test", lib);
+        try {
+            assertEquals(1, server.getAttribute(name, "BookCount"));
+            assertEquals(2, server.getAttribute(name, "TotalCopies"));
+            assertEquals(1, server.getAttribute(name, "OnLoanCount"));
+            assertEquals(5L, server.getAttribute(name, "OutstandingFines"));
+            assertEquals(0L, server.getAttribute(name, "PersistenceLagMillis"));
+            assertTrue((Long) server.getAttribute(name, "LastSavedAt") > 0);
+
+            String snap = dir.resolve("snap.txt").toString();
+            server.invoke(name, "snapshot", new Object[]{snap}, new String[]{String.class.getName()});
+            assertTrue(new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(snap)), "UTF-8")
+                    .contains("JMX1"));
+            assertEquals(1, server.invoke(name, "rebuildIndexes", null, null));
+            assertTrue(java.nio.file.Files.exists(dir.resolve("lib.txt" + SearchIndex.SUFFIX)));
+            server.invoke(name, "flush", null, null);
+
+            assertTrue(email.awaitEmpty(5, java.util.concurrent.TimeUnit.SECONDS));
+            assertEquals(0, server.getAttribute(name, "EmailQueueDepth"));
+            assertEquals(1, email.getSentCount());
+        } finally {
+            LibraryManagement.unregister(name);
+            email.close();
+        }
+        assertFalse(server.isRegistered(name));
+        assertFalse(email.send("late", "s", "b"));
+    }
+
+    @Test
+    void testLibraryMXBeanResizesTheTieredCache(@TempDir Path dir) throws Exception {
+        String location = dir.resolve("catalog.ohc").toString();
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true, location)) {
+            for (int i = 0; i < 40; i++) lib.addBook(new Book("Managed " + i, "Author", "M" + i), 1);
+        }
+
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true,
+                CatalogRepository.open(location, 30), java.time.Clock.systemDefaultZone())) {
+            javax.management.ObjectName name = LibraryManagement.register("tiered", lib);
+            try {
+                assertEquals(true, server.getAttribute(name, "Tiered"));
+                lib.borrowBook("M0", "ops");                  // miss, then pinned
+                for (int i = 1; i < 40; i++) lib.getBookInventory("M" + i);
+                lib.getBookInventory("M39");
+                assertEquals(40L, server.getAttribute(name, "CacheMisses"));
+                assertEquals(1L, server.getAttribute(name, "CacheHits"));
+                assertEquals(1, server.getAttribute(name, "PinnedCount"));
+
+                server.setAttribute(name, new javax.management.Attribute("CacheSize", 5));
+                assertEquals(5, server.getAttribute(name, "CacheSize"));
+                assertTrue((Integer) server.getAttribute(name, "CachedCount") <= 5);
+                assertTrue((Long) server.getAttribute(name, "CacheEvictions") > 0);
+                assertEquals(1, server.getAttribute(name, "PinnedCount"));   // loans stay on the heap
+                assertEquals("Managed 0", lib.getBookInventory("M0").getMedia().getTitle());
+            } finally {
+                LibraryManagement.unregister(name);
+            }
+        }
+
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString())) {
+            LibraryManagement.LibraryBean bean = new LibraryManagement.LibraryBean(lib);
+            assertFalse(bean.isTiered());
+            assertEquals(0, bean.getCacheSize());
+            assertThrows(IllegalStateException.class, () -> bean.setCacheSize(10));
+        }
+    }
+
+    /* ================= ALLOCATION BUDGETS ================= */
+
+    /**
+     * Runs {@code op} to warm it up, then returns the average bytes it
+     * allocates per call on this thread.
+     */
+    private static double allocatedBytesPerOp(int warmup, int ops, Runnable op) {
+        java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+        org.junit.jupiter.api.Assumptions.assumeTrue(mx instanceof com.sun.management.ThreadMXBean,
+                "per-thread allocation counters not available");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        org.junit.jupiter.api.Assumptions.assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < warmup; i++) op.run();
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ops; i++) op.run();
+        long after = threads.getThreadAllocatedBytes(thread);
+
+        return (double) (after - before) / ops;
+    }
+
+    @Test
+    void testHotPathsStayAllocationFree(@TempDir Path dir) {
+        FineManager fm = new FineManager();
+        Library lib = new Library(fm, (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.addBook("Budget", "Author", "AB1", 4);
+        fm.addFine("alloc", 1);
+
+        InventoryItem item = lib.getBookInventory("AB1");
+        LocalDate due = LocalDate.now().plusDays(28);
+        String user = "alloc";
+
+        double fines = allocatedBytesPerOp(50_000, 100_000, () -> fm.addFine(user, 1));
+        double lookups = allocatedBytesPerOp(50_000, 100_000, () -> lib.getBookInventory("AB1"));
+        double stock = allocatedBytesPerOp(50_000, 100_000, () -> item.release(item.lend(user, due)));
+
+        assertTrue(fines < 1, "FineManager.addFine allocates " + fines + " B/op");
+        assertTrue(lookups < 1, "inventory lookup allocates " + lookups + " B/op");
+        assertTrue(stock < 1, "lend/release allocates " + stock + " B/op");
+    }
+
+    @Test
+    void testBorrowReturnAllocationBudget(@TempDir Path dir) {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        for (int i = 0; i < 100; i++) lib.addBook("Title " + i, "Author", "AR" + i, 2);
+
+        PrintStream console = System.out;
+        System.setOut(LoadGenerator.discardingStream());
+        double perCycle;
+        lib.beginBatch();
+        try {
+            perCycle = allocatedBytesPerOp(2_000, 2_000, () -> {
+                lib.borrowBook("AR7", "alloc");
+                lib.returnBook("AR7", "alloc");
+            });
+        } finally {
+            lib.commitBatch();
+            AsyncLogger.shared().flush();
+            System.setOut(console);
+        }
+
+        // Inside a batch the file is not rewritten, so this is the loan path
+        // itself: emails, console lines and the changed rows' bookkeeping.
+        // Per-row garbage on the hot path shows up quickly here.
+        assertTrue(perCycle < 2 * 1024, "borrow+return allocates " + (long) perCycle + " B/cycle");
+    }
+
+    /* ================= LOAN RESULTS ================= */
+
+    @Test
+    void testBorrowAndReturnReportStructuredResults(@TempDir Path dir) {
+        SimulationClock clock = new SimulationClock(LocalDate.of(2024, 5, 1));
+        FineManager fm = new FineManager();
+        Library lib = new Library(fm, (to, s, b) -> true, dir.resolve("lib.txt").toString(), clock);
+        lib.addBook("Results", "Author", "LR1", 1);
+        lib.addCD("Songs", "Band", "LRCD", 1);
+
+        LoanResult ok = lib.borrowBook("LR1", "res");
+        assertTrue(ok.isSuccess());
+        assertEquals("Results", ok.getItem().getTitle());
+        assertEquals(LocalDate.of(2024, 5, 29), ok.getDueDate());
+
+        assertEquals(LoanResult.Status.NO_COPIES, lib.borrowBook("LR1", "other").getStatus());
+        assertEquals(LoanResult.Status.NOT_FOUND, lib.borrowBook("LR-missing", "res").getStatus());
+        assertEquals(LoanResult.Status.NOT_BORROWED, lib.returnCD("LRCD", "res").getStatus());
+        assertEquals(LoanResult.Status.NOT_FOUND, lib.returnBook("LR-missing", "res").getStatus());
+
+        clock.advanceDays(30);
+        LoanResult late = lib.returnBook("LR1", "res");
+        assertTrue(late.isSuccess());
+        assertEquals(2 * new Book("x", "y", "z").getOverdueFineAmount(), late.getFine());
+        assertEquals(late.getFine(), fm.getFine("res"));
+
+        assertEquals(LoanResult.Status.BLOCKED_BY_FINE, lib.borrowCD("LRCD", "res").getStatus());
+        assertEquals(LocalDate.of(2024, 6, 7), lib.borrowCD("LRCD", "clean").getDueDate());
+    }
+
+    @Test
+    void testSearchReturnsLazyStream(@TempDir Path dir) {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.addBook("Stream Basics", "Ann", "SR1", 1);
+        lib.addBook("Other", "Stream Author", "SR2", 1);
+        lib.addBook("Unrelated", "Bob", "SR3", 1);
+
+        java.util.List<String> hits = lib.searchBook("stream").map(Book::getIsbn)
+                .collect(java.util.stream.Collectors.toList());
+        assertEquals(java.util.Arrays.asList("SR1", "SR2"), hits);
+        assertEquals("SR3", lib.searchBook("sr3").findFirst().get().getIsbn());
+        assertEquals(0, lib.searchBook("nothing").count());
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            Main.printSearch(lib.searchBook("nothing"));
+            Main.printLoan(lib.borrowBook("SR1", "reader"), "Book", "borrowed");
+        } finally {
+            System.setOut(console);
+        }
+        assertTrue(out.toString().contains("No books found."));
+        assertTrue(out.toString().contains("Book borrowed. Due: "));
+    }
+
+    /* ================= ASYNC LOGGER ================= */
+
+    @Test
+    void testAsyncLoggerKeepsOrderAndFiltersLevels() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncLogger log = new AsyncLogger(64, java.nio.channels.Channels.newChannel(bytes),
+                java.nio.charset.StandardCharsets.UTF_8);
+        log.setLevel(AsyncLogger.Level.INFO);
+
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    while (!log.log(AsyncLogger.Level.INFO, "w" + id + " " + i)) Thread.yield();
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread w : writers) w.join();
+
+        assertFalse(log.log(AsyncLogger.Level.DEBUG, "hidden"));
+        log.warn("✔ done");
+        assertTrue(log.flush(5, java.util.concurrent.TimeUnit.SECONDS));
+        log.close();
+
+        String[] lines = new String(bytes.toByteArray(), "UTF-8").split(System.lineSeparator());
+        assertEquals(2001, lines.length);
+        assertEquals("✔ done", lines[2000]);
+
+        int[] next = new int[writers.length];
+        for (int i = 0; i < 2000; i++) {
+            String[] p = lines[i].split(" ");
+            int id = Integer.parseInt(p[0].substring(1));
+            assertEquals(next[id]++, Integer.parseInt(p[1]), "out of order: " + lines[i]);
+        }
+        assertFalse(log.log(AsyncLogger.Level.ERROR, "after close"));
+    }
+
+    @Test
+    void testAsyncLoggerDropsOnlyDebugLinesWhenFull() throws Exception {
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        java.nio.channels.WritableByteChannel slowSink = new java.nio.channels.WritableByteChannel() {
+            @Override
+            public int write(java.nio.ByteBuffer src) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                int n = src.remaining();
+                src.position(src.limit());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        AsyncLogger log = new AsyncLogger(4, slowSink, java.nio.charset.StandardCharsets.UTF_8);
+        log.setLevel(AsyncLogger.Level.DEBUG);
+        for (int i = 0; i < 50; i++) log.debug("line " + i);
+        long dropped = log.getDropped();
+        assertTrue(dropped > 0);
+
+        Thread listing = new Thread(() -> {
+            for (int i = 0; i < 50; i++) log.info("item " + i);
+        });
+        listing.start();
+        listing.join(200);
+        assertTrue(listing.isAlive());   // waits for room instead of dropping
+
+        release.countDown();
+        listing.join(5000);
+        assertFalse(listing.isAlive());
+        assertEquals(dropped, log.getDropped());
+        assertTrue(log.flush(5, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(0, log.getBacklog());
+        log.close();
+    }
+
+    /* ================= HTTP SERVER ================= */
+
+    /** Status code and trimmed body of one HTTP response. */
+    private static final class HttpReply {
+        final int status;
+        final String body;
+
+        HttpReply(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static HttpReply http(String method, String url) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setRequestMethod(method);
+        int status = c.getResponseCode();
+        InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            StringBuilder body = new StringBuilder();
+            for (String line; (line = r.readLine()) != null; ) body.append(line).append('\n');
+            return new HttpReply(status, body.toString().trim());
+        }
+    }
+
+    @Test
+    void testHttpServerEndpoints(@TempDir Path dir) throws Exception {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.addBook(new Book("Clean \"Code\"", "Martin", "H1"), 1);
+        lib.addCD(new CD("Blue", "Mitchell", "HC1"), 1);
+
+        try (LibraryServer server = new LibraryServer(lib, new InetSocketAddress("127.0.0.1", 0), 4)) {
+            String base = "http://127.0.0.1:" + server.getPort();
+
+            HttpReply found = http("GET", base + "/api/search?q=clean");
+            assertEquals(200, found.status);
+            assertTrue(found.body.contains("\"title\":\"Clean \\\"Code\\\"\""), found.body);
+            assertTrue(found.body.contains("\"availableCopies\":1"), found.body);
+
+            HttpReply borrowed = http("POST", base + "/api/borrow?id=H1&user=kiosk");
+            assertEquals(200, borrowed.status);
+            assertTrue(borrowed.body.contains("\"status\":\"OK\""), borrowed.body);
+
+            assertEquals(409, http("POST", base + "/api/borrow?id=H1&user=other").status);
+
+            String cd = http("GET", base + "/api/items?id=HC1").body;
+            assertTrue(cd.contains("\"type\":\"cd\"") && cd.contains("\"creator\":\"Mitchell\""), cd);
+
+            assertEquals(200, http("POST", base + "/api/return?id=H1&user=kiosk").status);
+            assertEquals(404, http("POST", base + "/api/return?id=NOPE&user=kiosk").status);
+
+            assertEquals(405, http("GET", base + "/api/borrow?id=H1&user=kiosk").status);
+            assertEquals(400, http("GET", base + "/api/fines").status);
+
+            assertTrue(http("GET", base + "/api/stats").body.contains("\"books\":1"));
+            assertTrue(http("GET", base + "/api/stats").body.contains("\"stringPoolBytesSaved\":"));
+            assertTrue(http("GET", base + "/metrics").body.contains("http_borrow_seconds_count"));
+        }
+    }
+
+    @Test
+    void testHttpServerConcurrentBorrows(@TempDir Path dir) throws Exception {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.addBook(new Book("Popular", "Author", "HP"), 5);
+
+        try (LibraryServer server = new LibraryServer(lib, new InetSocketAddress("127.0.0.1", 0), 8)) {
+            String url = "http://127.0.0.1:" + server.getPort() + "/api/borrow?id=HP&user=u";
+            ExecutorService pool = Executors.newFixedThreadPool(20);
+            AtomicInteger ok = new AtomicInteger();
+            List<Future<?>> calls = new ArrayList<>();
+
+            for (int i = 0; i < 20; i++) {
+                final int n = i;
+                calls.add(pool.submit(() -> {
+                    HttpURLConnection c = (HttpURLConnection) new URL(url + n).openConnection();
+                    c.setRequestMethod("POST");
+                    if (c.getResponseCode() == 200) ok.incrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> f : calls) f.get();
+            pool.shutdown();
+
+            assertEquals(5, ok.get());
+            assertEquals(0, lib.getBookInventory("HP").getAvailableCopies());
+        }
+    }
+
+    /* ================= BATCH MODE ================= */
+
+    @Test
+    void testBatchRunnerExecutesScriptAndCommitsInBatches(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+
+        String script = "# nightly returns\n"
+                + "ADD_BOOK B1 2 \"Batch Title\" \"Some Author\"\n"
+                + "BORROW_BOOK B1 ann\n"
+                + "BORROW_BOOK B1 bob\n"
+                + "BORROW_BOOK B1 cat\n"
+                + "\n"
+                + "RETURN_BOOK B1 ann\n"
+                + "RETURN_BOOK B1 zed\n"
+                + "RETURN_BOOK B1\n"
+                + "FLY_AWAY now\n"
+                + "PAY_FINE ann 5\n";
+
+        BatchRunner.Report report = BatchRunner.run(lib, new BufferedReader(new StringReader(script)), 4);
+
+        assertEquals(9, report.getCommands());
+        assertEquals(2, report.getErrorCount());
+        assertEquals(2, report.getCount("BORROW_BOOK", "ok"));
+        assertEquals(1, report.getCount("BORROW_BOOK", "no_copies"));
+        assertEquals(1, report.getCount("RETURN_BOOK", "not_borrowed"));
+        assertEquals(2, report.getCommits());   // after 4 commands, then the final partial batch
+        assertTrue(report.toString().contains("line 9: expected RETURN_BOOK isbn user"), report.toString());
+
+        Library reloaded = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        assertEquals(1, reloaded.getBookInventory("B1").getAvailableCopies());
+        assertEquals("Batch Title", reloaded.getBookInventory("B1").getMedia().getTitle());
+    }
+
+    @Test
+    void testLibraryBatchDefersSaves(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+
+        lib.beginBatch();
+        lib.beginBatch();
+        lib.addBook(new Book("Deferred", "Auth", "D1"), 1);
+        assertEquals(0, java.nio.file.Files.size(file));
+        assertFalse(lib.commitBatch());               // inner commit
+        assertTrue(lib.commitBatch());                // outer commit saves
+        assertTrue(java.nio.file.Files.size(file) > 0);
+        assertThrows(IllegalStateException.class, lib::commitBatch);
+
+        assertEquals(java.util.Arrays.asList("ADD_BOOK", "1", "two words", ""),
+                BatchRunner.tokenize("ADD_BOOK  1 \"two words\" \"\""));
+    }
+
+    @Test
+    void testBatchBelongsToItsThreadAndHoldsEmailsUntilCommit(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        java.util.List<String> sent = new java.util.concurrent.CopyOnWriteArrayList<>();
+        try (Library lib = new Library(new FineManager(), (to, s, b) -> sent.add(s), file)) {
+            lib.addBook(new Book("Owned", "Auth", "O1"), 2);
+
+            lib.beginBatch();
+            lib.borrowBook("O1", "u1");
+            assertTrue(sent.isEmpty());
+
+            java.util.concurrent.atomic.AtomicReference<Throwable> failure =
+                    new java.util.concurrent.atomic.AtomicReference<>();
+            Thread other = new Thread(() -> {
+                try {
+                    lib.commitBatch();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            other.start();
+            other.join(5000);
+            assertTrue(failure.get() instanceof IllegalStateException, String.valueOf(failure.get()));
+
+            assertTrue(lib.commitBatch());
+            assertEquals(java.util.List.of("Book Borrowed"), sent);
+
+            // the change lock was released by its owner, so other threads can still change the catalog
+            Thread borrower = new Thread(() -> lib.borrowBook("O1", "u2"));
+            borrower.start();
+            borrower.join(5000);
+            assertFalse(borrower.isAlive());
+            assertEquals(2, lib.getBookInventory("O1").getLoanCount());
+        }
+    }
+
+    /* ================= BULK IMPORT ================= */
+
+    @Test
+    void testBulkImportMergesAndDedupes(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        lib.addBook(new Book("Existing", "Auth", "BI1"), 1);
+        lib.borrowBook("BI1", "reader");
+
+        Path feed = dir.resolve("feed.csv");
+        java.nio.file.Files.write(feed, java.util.Arrays.asList(
+                "type,title,creator,id,copies",
+                "BOOK,\"Existing, Renamed\",Auth,BI1,2",
+                "BOOK,\"The \"\"New\"\" One\",Writer,BI2,1",
+                "CD,Album,Band,BI2,3",
+                "BOOK,Duplicate,Writer,BI2,4",
+                "BOOK,Broken,Writer,BI3,many",
+                "DVD,Movie,Studio,BI4,1"));
+
+        BulkImporter.Result r = BulkImporter.run(lib, feed, BulkImporter.separatorFor(feed));
+
+        assertEquals(4, r.getRows());
+        assertEquals(2, r.getRejected());
+        assertEquals(2, r.getInserted());     // book BI2 and CD BI2
+        assertEquals(1, r.getMerged());
+        assertEquals(1, r.getDuplicates());
+        assertTrue(r.toString().contains("rows/s"));
+
+        InventoryItem existing = lib.getBookInventory("BI1");
+        assertEquals("Existing", existing.getMedia().getTitle());
+        assertEquals(3, existing.getTotalCopies());
+        assertEquals(1, existing.getLoanCount());
+        assertEquals(5, lib.getBookInventory("BI2").getTotalCopies());
+        assertEquals("The \"New\" One", lib.getBookInventory("BI2").getMedia().getTitle());
+
+        Library reloaded = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        assertEquals(3, reloaded.getCDInventory("BI2").getTotalCopies());
+    }
+
+    @Test
+    void testBulkImportTsvFeed(@TempDir Path dir) throws Exception {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        Path feed = dir.resolve("feed.tsv");
+        StringBuilder tsv = new StringBuilder();
+        for (int i = 0; i < 2000; i++) tsv.append("BOOK\tTitle ").append(i).append("\tAuthor\tTSV").append(i % 1000).append("\t1\n");
+        java.nio.file.Files.write(feed, tsv.toString().getBytes("UTF-8"));
+
+        BulkImporter.Result r = BulkImporter.run(lib, feed, BulkImporter.separatorFor(feed));
+
+        assertEquals(1000, r.getInserted());
+        assertEquals(1000, r.getDuplicates());
+        assertEquals(2, lib.getBookInventory("TSV999").getTotalCopies());
+        assertEquals("Title 999", lib.getBookInventory("TSV999").getMedia().getTitle());
+    }
+
+    @Test
+    void testBulkImportRejectsCommasInIds(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        Path feed = dir.resolve("feed.tsv");
+        java.nio.file.Files.write(feed, "BOOK\tCommas, Everywhere\tA, B\tX,1\t1\nBOOK\tPlain\tAuthor\tX2\t1\n"
+                .getBytes("UTF-8"));
+
+        BulkImporter.Result r = BulkImporter.run(lib, feed, BulkImporter.separatorFor(feed));
+
+        assertEquals(1, r.getRejected());
+        assertEquals(1, r.getInserted());
+        assertNull(lib.getBookInventory("X,1"));
+
+        Library reloaded = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        assertEquals(1, reloaded.getBooks().size());
+        assertNotNull(reloaded.getBookInventory("X2"));
+    }
+
+    /* ================= CATALOG SYNC ================= */
+
+    @Test
+    void testCatalogSyncAppliesOnlyDifferences(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        lib.addBook(new Book("Same", "Auth", "S1"), 1);
+        lib.addBook(new Book("Old Title", "Auth", "S2"), 1);
+        lib.addBook(new Book("Withdrawn", "Auth", "S3"), 1);
+        lib.addBook(new Book("Loaned Gone", "Auth", "S4"), 1);
+        lib.addCD(new CD("Loaned Changed", "Band", "S5"), 1);
+        lib.borrowBook("S4", "reader");
+        lib.borrowCD("S5", "reader");
+
+        Path feed = dir.resolve("dump.csv");
+        java.nio.file.Files.write(feed, java.util.Arrays.asList(
+                "BOOK,New Title,Auth,S2,2",
+                "CD,Loaned Renamed,Band,S5,1",
+                "BOOK,Same,Auth,S1,1",
+                "BOOK,Fresh,Writer,S6,1",
+                "BOOK,Fresh,Writer,S6,2",
+                "bad line"));
+
+        CatalogSync.Config cfg = new CatalogSync.Config();
+        cfg.runSize = 2;            // forces three spilled runs
+        cfg.tempDir = dir;
+        cfg.maxDeleteFraction = 0.5;
+        cfg.dryRun = true;
+        CatalogSync.Result dry = CatalogSync.run(lib, feed, cfg);
+        assertEquals(1, dry.getInserts());
+        assertEquals(1, dry.getUpdates());
+        assertEquals(0, dry.getDeletes());
+        assertEquals(1, dry.getDeletesWithheld());   // the bad line could have been S3
+        assertEquals(2, dry.getSkippedOnLoan());
+        assertEquals(1, dry.getRejected());
+        assertEquals(3, dry.getRuns());
+        assertNull(lib.getBookInventory("S6"));
+
+        cfg.dryRun = false;
+        CatalogSync.Result r = CatalogSync.run(lib, feed, cfg);
+        assertEquals(1, r.getInserts());
+        assertEquals(3, lib.getBookInventory("S6").getTotalCopies());
+        assertEquals("New Title", lib.getBookInventory("S2").getMedia().getTitle());
+        assertEquals(2, lib.getBookInventory("S2").getTotalCopies());
+        assertNotNull(lib.getBookInventory("S3"));
+
+        java.nio.file.Files.write(feed, java.util.Arrays.asList(
+                "BOOK,New Title,Auth,S2,2",
+                "CD,Loaned Renamed,Band,S5,1",
+                "BOOK,Same,Auth,S1,1",
+                "BOOK,Fresh,Writer,S6,3"));
+        assertEquals(1, CatalogSync.run(lib, feed, cfg).getDeletes());
+        assertNull(lib.getBookInventory("S3"));
+        assertNotNull(lib.getBookInventory("S4"));
+        assertEquals("Loaned Changed", lib.getCDInventory("S5").getMedia().getTitle());
+
+        try (java.util.stream.Stream<Path> files = java.nio.file.Files.list(dir)) {
+            assertEquals(0, files.filter(p -> p.getFileName().toString().startsWith("sync-run")).count());
+        }
+
+        Library reloaded = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        assertNull(reloaded.getBookInventory("S3"));
+        assertEquals(0, CatalogSync.run(reloaded, feed, cfg).getInserts());
+    }
+
+    @Test
+    void testCatalogSyncMergesRunsInPassesAndKeepsLongTitles(@TempDir Path dir) throws Exception {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        StringBuilder longTitle = new StringBuilder();
+        while (longTitle.length() < 70_000) longTitle.append("Long title ");
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 9; i >= 0; i--) lines.add("BOOK,Title " + i + ",Auth,M" + i + ",1");
+        lines.add("BOOK,Later Title,Auth,M3,2");   // folded into the first M3
+        lines.add("CD," + longTitle + ",Band,M0,1");
+        Path feed = dir.resolve("dump.csv");
+        java.nio.file.Files.write(feed, lines);
+
+        CatalogSync.Config cfg = new CatalogSync.Config();
+        cfg.runSize = 1;
+        cfg.mergeFanIn = 2;        // 12 runs take three passes down to 2
+        cfg.tempDir = dir;
+        CatalogSync.Result r = CatalogSync.run(lib, feed, cfg);
+
+        assertEquals(12, r.getRuns());
+        assertEquals(11, r.getInserts());
+        assertEquals("Title 3", lib.getBookInventory("M3").getMedia().getTitle());
+        assertEquals(3, lib.getBookInventory("M3").getTotalCopies());
+        assertEquals(longTitle.toString().trim(), lib.getCDInventory("M0").getMedia().getTitle());
+        try (java.util.stream.Stream<Path> files = java.nio.file.Files.list(dir)) {
+            assertEquals(0, files.filter(p -> p.getFileName().toString().startsWith("sync-run")).count());
+        }
+        cfg.mergeFanIn = 1;
+        assertThrows(IllegalArgumentException.class, () -> CatalogSync.run(lib, feed, cfg));
+    }
+
+    @Test
+    void testCatalogSyncWithholdsDeletesForSuspectFeeds(@TempDir Path dir) throws Exception {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        lib.beginBatch();
+        for (int i = 0; i < 20; i++) lib.addBook(new Book("Kept " + i, "Auth", "K" + i), 1);
+        lib.commitBatch();
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i < 20; i++) lines.add("BOOK,Kept " + i + ",Auth,K" + i + ",1");
+        lines.add("BOOK,Kept 0,Auth,K0,many");   // malformed, but names an existing id
+        Path feed = dir.resolve("dump.csv");
+        Files.write(feed, lines);
+
+        CatalogSync.Result r = CatalogSync.run(lib, feed, new CatalogSync.Config());
+        assertEquals(1, r.getRejected());
+        assertEquals(0, r.getDeletes());
+        assertEquals(1, r.getDeletesWithheld());
+        assertNotNull(lib.getBookInventory("K0"));
+
+        Files.write(feed, new ArrayList<String>());   // empty dump
+        r = CatalogSync.run(lib, feed, new CatalogSync.Config());
+        assertEquals(20, r.getDeletesWithheld());
+        assertEquals(20, lib.getBooks().size());
+    }
+
+    /* ================= COLUMNAR EXPORT ================= */
+
+    @Test
+    void testColumnarExportRoundTrip(@TempDir Path dir) throws Exception {
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("lib.txt").toString());
+        for (int i = 0; i < 250; i++) lib.addBook(new Book("Title " + i, "Author " + (i % 7), "CX" + i), 2);
+        lib.addBook(new Book("Commas, Quotes \" and Ünïcødé 📚", "Auteur", "CXU"), 1);
+        lib.addCD(new CD("Album", "Band", "CXD"), 1);
+        lib.borrowBook("CX3", "ann");
+        lib.borrowBook("CX3", "bob");
+        lib.borrowBook("CXU", "ann");
+        lib.borrowCD("CXD", "cat");
+
+        ColumnarExport.Config cfg = new ColumnarExport.Config();
+        cfg.rowsPerGroup = 100;
+        Path out = dir.resolve("catalog.lcx");
+        ColumnarExport.Summary summary = ColumnarExport.write(lib, out, cfg);
+
+        assertEquals(252, summary.getItems());
+        assertEquals(4, summary.getLoans());
+        assertEquals(3, summary.getGroups());
+        assertTrue(summary.getFileBytes() < summary.getRawBytes());
+
+        java.util.Map<Long, String> ids = new java.util.HashMap<>();
+        java.util.List<String> loans = new java.util.ArrayList<>();
+        java.util.List<String> rows = new java.util.ArrayList<>();
+        long read = ColumnarExport.read(out, new ColumnarExport.Visitor() {
+            @Override
+            public void item(long row, boolean cd, String id, String title, String creator, int copies, boolean available) {
+                ids.put(row, id);
+                rows.add((cd ? "CD " : "BOOK ") + id + "|" + title + "|" + creator + "|" + copies + "|" + available);
+            }
+
+            @Override
+            public void loan(long itemRow, String borrower, LocalDate due) {
+                loans.add(ids.get(itemRow) + ":" + borrower + ":" + (due != null));
+            }
+        });
+
+        assertEquals(252, read);
+        assertTrue(rows.contains("BOOK CX3|Title 3|Author 3|2|false"));
+        assertTrue(rows.contains("BOOK CX4|Title 4|Author 4|2|true"));
+        assertTrue(rows.contains("BOOK CXU|Commas, Quotes \" and Ünïcødé 📚|Auteur|1|false"));
+        assertEquals("CD CXD|Album|Band|1|false", rows.get(251));
+        java.util.Collections.sort(loans);   // copies of one title are lent in free-list order
+        assertEquals(java.util.Arrays.asList("CX3:ann:true", "CX3:bob:true", "CXD:cat:true", "CXU:ann:true"), loans);
+    }
+
+    /* ================= COMPACT CATALOG ================= */
+
+    @Test
+    void testCompactCatalogMatchesCsv(@TempDir Path dir) throws Exception {
+        Path csv = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, csv.toString());
+        lib.beginBatch();
+        for (int i = 0; i < 3000; i++) lib.addBook(new Book("Title " + i, "Author " + (i % 40), "CC" + i), 1 + i % 3);
+        lib.commitBatch();
+        lib.addCD(new CD("Ünïcødé Album", "Band", "CCD"), 2);
+        lib.borrowBook("CC1", "ann");
+        lib.borrowBook("CC1", "bob");
+        lib.borrowCD("CCD", "ann");
+
+        Path compact = dir.resolve("lib.lcf");
+        lib.snapshot(compact.toString());
+        assertTrue(java.nio.file.Files.size(compact) * 4 < java.nio.file.Files.size(csv));
+
+        Library fromCsv = new Library(new FineManager(), (to, s, b) -> true, csv.toString());
+        Library fromCompact = new Library(new FineManager(), (to, s, b) -> true, compact.toString());
+        Path a = dir.resolve("a.txt");
+        Path b = dir.resolve("b.txt");
+        fromCsv.snapshot(a.toString());
+        fromCompact.snapshot(b.toString());
+        assertEquals(java.nio.file.Files.readAllLines(a), java.nio.file.Files.readAllLines(b));
+
+        assertEquals("bob", fromCompact.getBookInventory("CC1").getMedia().getBorrowedBy());
+        fromCompact.returnBook("CC1", "bob");   // saves in compact format
+        Library reloaded = new Library(new FineManager(), (to, s, b2) -> true, compact.toString());
+        assertEquals(1, reloaded.getBookInventory("CC1").getLoanCount());
+        assertEquals("Ünïcødé Album", reloaded.getCDInventory("CCD").getMedia().getTitle());
+    }
+
+    @Test
+    void testLzBlockCodecRoundTrip() {
+        java.util.Random random = new java.util.Random(7);
+        LzBlockCodec codec = new LzBlockCodec();
+        for (int size : new int[]{0, 5, 13, 300, 70_000}) {
+            byte[] src = new byte[size];
+            for (int i = 0; i < size; i++)
+                src[i] = (byte) (i % 1000 < 500 ? random.nextInt(256) : "repeat me ".charAt(i % 10));
+
+            byte[] packed = new byte[LzBlockCodec.maxCompressedLength(size)];
+            int n = codec.compress(src, size, packed);
+            byte[] unpacked = new byte[size];
+            assertEquals(size, LzBlockCodec.decompress(packed, n, unpacked));
+            assertArrayEquals(src, unpacked);
+            if (size == 70_000) assertTrue(n < size * 3 / 4, "compressed to " + n);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> LzBlockCodec.decompress(new byte[]{0x00, 0x10, 0x00}, 3, new byte[8]));
+    }
+
+    /* ================= SEARCH INDEX ================= */
+
+    private static java.util.List<String> isbns(java.util.stream.Stream<Book> books) {
+        return books.map(Book::getIsbn).collect(java.util.stream.Collectors.toList());
+    }
+
+    @Test
+    void testSearchIndexIsSavedAndReused(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Path idx = dir.resolve("lib.txt" + SearchIndex.SUFFIX);
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        lib.beginBatch();
+        for (int i = 0; i < 2000; i++) lib.addBook("Title " + i, "Author " + (i % 30), "SI" + i, 1);
+        lib.commitBatch();
+
+        java.util.List<String> scanned = isbns(lib.searchBook("Title 12"));
+        assertEquals(111, scanned.size());
+        assertTrue(lib.awaitSearchIndex(10_000));
+        assertEquals(2000, lib.getIndexedBookCount());
+        assertTrue(idx.toFile().exists());
+        assertEquals(scanned, isbns(lib.searchBook("title 12")));
+        assertEquals(java.util.Collections.singletonList("SI77"), isbns(lib.searchBook("si77")));
+
+        lib.addBook("Appended Volume", "Nobody", "SI-NEW", 1);   // after the indexed rows
+        assertEquals(java.util.Collections.singletonList("SI-NEW"), isbns(lib.searchBook("appended")));
+
+        Object fileKey = java.nio.file.Files.readAttributes(idx,
+                java.nio.file.attribute.BasicFileAttributes.class).fileKey();
+        Library restarted = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        assertEquals(java.util.Collections.singletonList("SI-NEW"), isbns(restarted.searchBook("Appended")));
+        assertEquals(2000, restarted.getIndexedBookCount());
+        assertTrue(restarted.awaitSearchIndex(10_000));
+        assertEquals(fileKey, java.nio.file.Files.readAttributes(idx,
+                java.nio.file.attribute.BasicFileAttributes.class).fileKey());   // not rewritten
+    }
+
+    @Test
+    void testStaleOrCorruptSearchIndexIsRebuilt(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("lib.txt");
+        Path idx = dir.resolve("lib.txt" + SearchIndex.SUFFIX);
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        lib.beginBatch();
+        for (int i = 0; i < 1500; i++) lib.addBook("Book " + i, "Writer", "ST" + i, 1);
+        lib.commitBatch();
+        lib.searchBook("book");
+        assertTrue(lib.awaitSearchIndex(10_000));
+
+        lib.addBook("Renamed Edition", "Writer", "ST5", 1);   // replaces an indexed row
+        assertEquals(0, lib.getIndexedBookCount());
+        assertEquals(java.util.Collections.singletonList("ST5"), isbns(lib.searchBook("renamed")));
+        assertTrue(lib.awaitSearchIndex(10_000));
+        assertEquals(1500, lib.getIndexedBookCount());
+        assertTrue(isbns(lib.searchBook("book 5")).indexOf("ST5") < 0);
+
+        byte[] bytes = java.nio.file.Files.readAllBytes(idx);
+        bytes[bytes.length - 1] ^= 1;
+        java.nio.file.Files.write(idx, bytes);
+        Library restarted = new Library(new FineManager(), (to, s, b) -> true, file.toString());
+        assertEquals(java.util.Collections.singletonList("ST5"), isbns(restarted.searchBook("Renamed")));
+        assertTrue(restarted.awaitSearchIndex(10_000));
+        assertEquals(1500, SearchIndex.open(idx).rows());
+    }
+
+    /* ================= STORAGE BACKENDS ================= */
+
+    @Test
+    void testJdbcRepositoryRoundTrip(@TempDir Path dir) throws Exception {
+        String url = "jdbc:h2:" + dir.resolve("catalog").toAbsolutePath();
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, url);
+        lib.beginBatch();
+        for (int i = 0; i < 500; i++) lib.addBook("Title " + i, "Author " + (i % 7), "DB" + i, 1 + i % 2);
+        lib.commitBatch();
+        lib.addCD("Album", "Band", "DBCD", 2);
+        assertEquals(LoanResult.Status.OK, lib.borrowBook("DB1", "ann").getStatus());
+        assertEquals(LoanResult.Status.OK, lib.borrowBook("DB1", "bob").getStatus());
+        assertEquals(LoanResult.Status.OK, lib.borrowCD("DBCD", "ann").getStatus());
+        assertEquals(LoanResult.Status.OK, lib.returnBook("DB1", "ann").getStatus());
+        assertTrue(lib.removeBook("DB2"));
+        lib.beginBatch();
+        assertTrue(lib.removeBook("DB3"));
+        lib.addBook("Title 3 (2nd ed.)", "Author 3", "DB3", 1);   // back at the end of the catalog
+        lib.restock(new Book("Title 4", "Author 4", "DB4"), 3);
+        lib.commitBatch();
+
+        Path expected = dir.resolve("expected.txt");
+        lib.snapshot(expected.toString());
+        lib.close();
+
+        Library reopened = new Library(new FineManager(), (to, s, b) -> true, url);
+        Path actual = dir.resolve("actual.txt");
+        reopened.snapshot(actual.toString());
+        assertEquals(java.nio.file.Files.readAllLines(expected), java.nio.file.Files.readAllLines(actual));
+        assertEquals("bob", reopened.getBookInventory("DB1").getMedia().getBorrowedBy());
+        assertNull(reopened.getBookInventory("DB2"));
+        reopened.close();
+    }
+
+    @Test
+    void testSnapshotConvertsBetweenBackends(@TempDir Path dir) throws Exception {
+        Path csv = dir.resolve("lib.txt");
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, csv.toString());
+        lib.addBook("Networks", "Tanenbaum", "CV1", 2);
+        lib.addCD("Album", "Band", "CV2", 1);
+        lib.borrowBook("CV1", "eve");
+
+        String url = "jdbc:h2:" + dir.resolve("converted").toAbsolutePath();
+        lib.snapshot(url);
+        lib.snapshot(url);   // replaces, does not append
+
+        Library fromDb = new Library(new FineManager(), (to, s, b) -> true, url);
+        Path back = dir.resolve("back.txt");
+        fromDb.snapshot(back.toString());
+        fromDb.close();
+        assertEquals(java.nio.file.Files.readAllLines(csv), java.nio.file.Files.readAllLines(back));
+
+        assertThrows(UncheckedIOException.class,
+                () -> new Library(new FineManager(), (to, s, b) -> true, "jdbc:nosuchdb:x"));
+    }
+
+    @Test
+    void testOffHeapRepositoryRoundTrip(@TempDir Path dir) throws Exception {
+        String location = dir.resolve("catalog.ohc").toString();
+        Library lib = new Library(new FineManager(), (to, s, b) -> true, location);
+        lib.beginBatch();
+        for (int i = 0; i < 200; i++) lib.addBook("Title " + i, "Author " + (i % 7), "OH" + i, 1 + i % 2);
+        lib.commitBatch();
+        lib.addCD("Album", "Band", "OH1", 2);   // same id as a book
+        assertEquals(LoanResult.Status.OK, lib.borrowBook("OH1", "ann").getStatus());
+        assertEquals(LoanResult.Status.OK, lib.borrowBook("OH1", "bob").getStatus());
+        assertEquals(LoanResult.Status.OK, lib.borrowCD("OH1", "ann").getStatus());
+        assertEquals(LoanResult.Status.OK, lib.returnBook("OH1", "ann").getStatus());
+        assertTrue(lib.removeBook("OH2"));
+        lib.beginBatch();
+        assertTrue(lib.removeBook("OH3"));
+        lib.addBook("Title 3 (2nd ed.)", "Author 3", "OH3", 1);   // back at the end of the catalog
+        lib.restock(new Book("Title 4", "Author 4", "OH4"), 3);
+        lib.commitBatch();
+
+        assertThrows(UncheckedIOException.class,
+                () -> new Library(new FineManager(), (to, s, b) -> true, location));
+
+        Path expected = dir.resolve("expected.txt");
+        lib.snapshot(expected.toString());
+        lib.close();
+
+        Library reopened = new Library(new FineManager(), (to, s, b) -> true, location);
+        Path actual = dir.resolve("actual.txt");
+        reopened.snapshot(actual.toString());
+        assertEquals(Files.readAllLines(expected), Files.readAllLines(actual));
+        assertEquals("bob", reopened.getBookInventory("OH1").getMedia().getBorrowedBy());
+        assertEquals("ann", reopened.getCDInventory("OH1").getMedia().getBorrowedBy());
+        assertNull(reopened.getBookInventory("OH2"));
+        reopened.close();
+    }
+
+    /* ================= SHARED DATA FILE ================= */
+
+    @Test
+    void testLibrariesSharingAFileSeeEachOthersChanges(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        try (Library a = new Library(new FineManager(), (to, s, b) -> true, file);
+             Library b = new Library(new FineManager(), (to, s, b2) -> true, file)) {
+
+            a.addBook(new Book("Shared", "Author", "S1"), 2);
+            assertTrue(b.borrowBook("S1", "u1").isSuccess());   // b catches up first
+
+            a.refresh();
+            assertEquals(1, a.getBookInventory("S1").getLoanCount());
+            assertFalse(a.removeBook("S1"));
+
+            assertTrue(b.returnBook("S1", "u1").isSuccess());
+            assertTrue(a.removeBook("S1"));
+            b.refresh();
+            assertNull(b.getBookInventory("S1"));
+        }
+        assertTrue(new File(file + FileCatalogRepository.JOURNAL_SUFFIX).exists());
+    }
+
+    @Test
+    void testBatchKeepsOtherLibrariesWaiting(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        try (Library a = new Library(new FineManager(), (to, s, b) -> true, file);
+             Library b = new Library(new FineManager(), (to, s, b2) -> true, file)) {
+
+            a.beginBatch();
+            a.addBook(new Book("Batched", "Author", "B1"), 1);
+            Thread writer = new Thread(() -> b.borrowBook("B1", "u1"));
+            writer.start();
+            writer.join(200);
+            assertTrue(writer.isAlive());
+
+            a.commitBatch();
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+            assertEquals(1, b.getBookInventory("B1").getLoanCount());
+        }
+    }
+
+    @Test
+    void testReplacedDataFileIsReloaded(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        try (Library a = new Library(new FineManager(), (to, s, b) -> true, file)) {
+            a.addBook(new Book("Old", "Author", "O1"), 1);
+
+            Library other = new Library(new FineManager(), (to, s, b) -> true, dir.resolve("other.txt").toString());
+            other.addBook(new Book("New", "Author", "N1"), 1);
+            FileCatalogRepository.write(other, file);
+            java.nio.file.Files.delete(java.nio.file.Paths.get(file + FileCatalogRepository.JOURNAL_SUFFIX));
+
+            a.refresh();
+            assertNull(a.getBookInventory("O1"));
+            assertNotNull(a.getBookInventory("N1"));
+        }
+    }
+
+    @Test
+    void testWatchForChangesRefreshesInBackground(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        try (Library a = new Library(new FineManager(), (to, s, b) -> true, file);
+             Library b = new Library(new FineManager(), (to, s, b2) -> true, file)) {
+
+            Closeable watch = b.watchForChanges();
+            try {
+                a.addBook(new Book("Watched", "Author", "W1"), 1);
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (b.getBookInventory("W1") == null && System.currentTimeMillis() < deadline)
+                    Thread.sleep(20);
+                assertNotNull(b.getBookInventory("W1"));
+            } finally {
+                watch.close();
+            }
+        }
+    }
+
+    /* ================= REPLICATION ================= */
+
+    private static void await(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertTrue(condition.getAsBoolean(), "condition not met within 10 s");
+    }
+
+    @Test
+    void testFollowerAppliesSnapshotAndShippedSaves(@TempDir Path dir) throws Exception {
+        java.net.InetSocketAddress local = new java.net.InetSocketAddress("127.0.0.1", 0);
+        try (ReplicationServer replication = new ReplicationServer(local);
+             Library primary = new Library(new FineManager(), (to, s, b) -> true,
+                     replication.replicate(CatalogRepository.open(dir.resolve("lib.txt").toString())),
+                     java.time.Clock.systemDefaultZone())) {
+
+            primary.addBook(new Book("Before", "Author", "R1"), 2);
+            replication.start(primary);
+
+            try (Library replica = ReplicationFollower.newReplica(new FineManager(), (to, s, b) -> true);
+                 ReplicationFollower follower = new ReplicationFollower(replica,
+                         new java.net.InetSocketAddress("127.0.0.1", replication.getPort()))) {
+
+                await(() -> replica.getBookInventory("R1") != null);   // from the snapshot
+
+                primary.addCD(new CD("After", "Artist", "R2"), 1);
+                assertTrue(primary.borrowBook("R1", "u1").isSuccess());
+                await(() -> replica.getCDInventory("R2") != null
+                        && replica.getBookInventory("R1").getLoanCount() == 1);
+
+                assertTrue(primary.removeCD("R2"));
+                await(() -> replica.getCDInventory("R2") == null);
+
+                assertTrue(follower.isConnected());
+                assertTrue(follower.getSequence() >= 3);
+                assertTrue(follower.getLagMillis() >= 0);
+                MetricsRegistry.Gauge lag = (MetricsRegistry.Gauge)
+                        MetricsRegistry.shared().get("library_replication_lag_current_seconds");
+                assertTrue(lag.get() >= 0);
+                assertEquals(1, replication.getFollowerCount());
+                assertEquals(1, replica.searchBook("before").count());
+            }
+        }
+    }
+
+    @Test
+    void testReplicaRefusesChangesAndResyncsOnReconnect(@TempDir Path dir) throws Exception {
+        java.net.InetSocketAddress local = new java.net.InetSocketAddress("127.0.0.1", 0);
+        try (ReplicationServer replication = new ReplicationServer(local);
+             Library primary = new Library(new FineManager(), (to, s, b) -> true,
+                     replication.replicate(CatalogRepository.open(dir.resolve("lib.txt").toString())),
+                     java.time.Clock.systemDefaultZone())) {
+            replication.start(primary);
+            primary.addBook(new Book("Kept", "Author", "K1"), 1);
+
+            java.net.InetSocketAddress address = new java.net.InetSocketAddress("127.0.0.1", replication.getPort());
+            try (Library replica = ReplicationFollower.newReplica(new FineManager(), (to, s, b) -> true)) {
+                ReplicationFollower follower = new ReplicationFollower(replica, address);
+                try {
+                    await(() -> replica.getBookInventory("K1") != null);
+                } finally {
+                    follower.close();
+                }
+
+                assertTrue(replica.isReadOnly());
+                assertThrows(UnsupportedOperationException.class, () -> replica.borrowBook("K1", "u1"));
+                assertThrows(UnsupportedOperationException.class, () -> replica.addBook(new Book("X", "Y", "K2"), 1));
+                assertNull(replica.getBookInventory("K2"));
+
+                // Changes made while disconnected arrive in the next snapshot.
+                assertTrue(primary.removeBook("K1"));
+                primary.addBook(new Book("Later", "Author", "K3"), 1);
+                follower = new ReplicationFollower(replica, address);
+                try {
+                    await(() -> replica.getBookInventory("K1") == null && replica.getBookInventory("K3") != null);
+                } finally {
+                    follower.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    void testChangesFromProcessesSharingThePrimaryFileAreShipped(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        java.net.InetSocketAddress local = new java.net.InetSocketAddress("127.0.0.1", 0);
+        try (ReplicationServer replication = new ReplicationServer(local);
+             Library primary = new Library(new FineManager(), (to, s, b) -> true,
+                     replication.replicate(CatalogRepository.open(file)), java.time.Clock.systemDefaultZone());
+             Library desk = new Library(new FineManager(), (to, s, b) -> true, file)) {
+            replication.start(primary);
+
+            try (Library replica = ReplicationFollower.newReplica(new FineManager(), (to, s, b) -> true);
+                 ReplicationFollower follower = new ReplicationFollower(replica,
+                         new java.net.InetSocketAddress("127.0.0.1", replication.getPort()))) {
+                await(() -> follower.getSequence() >= 0);
+
+                desk.addBook(new Book("From Desk", "Author", "D1"), 1);
+                primary.refresh();
+                await(() -> replica.getBookInventory("D1") != null);
+
+                assertTrue(desk.removeBook("D1"));
+                primary.addCD(new CD("Primary", "Artist", "D2"), 1);   // catches up first
+                await(() -> replica.getBookInventory("D1") == null && replica.getCDInventory("D2") != null);
+            }
+        }
+    }
+
+    @Test
+    void testFollowerResyncsAfterALineItCannotApply() throws Exception {
+        try (java.net.ServerSocket primary = new java.net.ServerSocket(0, 1, java.net.InetAddress.getLoopbackAddress());
+             Library replica = ReplicationFollower.newReplica(new FineManager(), (to, s, b) -> true)) {
+            primary.setSoTimeout(10_000);
+            ReplicationFollower follower = new ReplicationFollower(replica,
+                    new InetSocketAddress("127.0.0.1", primary.getLocalPort()));
+            try {
+                try (java.net.Socket first = primary.accept()) {
+                    first.getOutputStream().write("SYNC bad 0\n".getBytes("UTF-8"));
+                    first.setSoTimeout(10_000);
+                    assertEquals(-1, first.getInputStream().read());   // the follower hung up
+                }
+                try (java.net.Socket second = primary.accept()) {
+                    second.getOutputStream().write(("RESET\n+BOOK,Fresh,Author,F1,1,true,null,null,\n"
+                            + "SYNC 1 " + System.currentTimeMillis() + "\n").getBytes("UTF-8"));
+                    await(() -> replica.getBookInventory("F1") != null);
+                    assertEquals(1, follower.getSequence());
+                    assertTrue(follower.getLagMillis() >= 0);
+                }
+            } finally {
+                follower.close();
+            }
+        }
+    }
+
+    /* ================= SHARDED LIBRARY ================= */
+
+    @Test
+    void testShardedLibraryRoutesAndFansOut(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        try (ShardedLibrary lib = new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 4)) {
+            for (int i = 0; i < 40; i++) lib.addBook(new Book("Sharded " + i, "Author", "SH" + i), 1);
+            lib.addCD(new CD("Sharded CD", "Artist", "SC1"), 1);
+
+            assertEquals(40, lib.getBookCount());
+            for (int s = 0; s < lib.getShardCount(); s++)
+                assertFalse(lib.getShard(s).getBooks().isEmpty(), "shard " + s + " is empty");
+
+            assertTrue(lib.borrowBook("SH7", "u1").isSuccess());
+            assertTrue(lib.borrowCD("SC1", "u1").isSuccess());
+            assertEquals(1, lib.getShard(ShardedLibrary.shardOf("SH7", 4)).getBookInventory("SH7").getLoanCount());
+            assertTrue(lib.hasActiveLoans("u1"));
+            assertFalse(lib.hasActiveLoans("u2"));
+            assertEquals(0, lib.checkOverdueBooks("u1"));
+
+            assertEquals(40, lib.searchBook("sharded").count());
+            assertEquals(1, lib.searchBook("sh12").count());
+            assertTrue(lib.returnCD("SC1", "u1").isSuccess());
+            assertTrue(lib.removeCD("SC1"));
+        }
+
+        assertTrue(new File(dir.toFile(), "lib-shard3.txt").exists());
+        try (ShardedLibrary reopened = new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 4)) {
+            assertEquals(40, reopened.getBookCount());
+            assertEquals(1, reopened.getBookInventory("SH7").getLoanCount());
+            assertNull(reopened.getCDInventory("SC1"));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 8));
+
+        // a catalog without a recorded count is measured by its shard files
+        Files.delete(dir.resolve("lib.txt" + ShardedLibrary.MANIFEST_SUFFIX));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 2));
+        new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 4).close();
+        assertTrue(Files.exists(dir.resolve("lib.txt" + ShardedLibrary.MANIFEST_SUFFIX)));
+
+        assertEquals("jdbc:h2:./lib-shard2;MODE=MySQL", ShardedLibrary.shardLocation("jdbc:h2:./lib;MODE=MySQL", 2));
+        assertEquals("data/lib-shard0", ShardedLibrary.shardLocation("data/lib", 0));
+        assertEquals("./lib-shard1.lcf", ShardedLibrary.shardLocation("./lib.lcf", 1));
+    }
+
+    @Test
+    void testLostItemOnOneShardBlocksBorrowingOnAnother(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        String lostId = "LOST";
+        String otherId = "OTHER0";
+        for (int i = 1; ShardedLibrary.shardOf(otherId, 4) == ShardedLibrary.shardOf(lostId, 4); i++)
+            otherId = "OTHER" + i;
+
+        try (ShardedLibrary lib = new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 4)) {
+            Book lost = new Book("Lost", "Author", lostId);
+            lost.borrow(LocalDate.now().minusDays(45), "u1");
+            lib.addBook(lost, 1);
+            lib.addBook(new Book("Other", "Author", otherId), 1);
+
+            assertTrue(lib.hasLostItem("u1"));
+            assertFalse(lib.hasLostItem("u2"));
+            assertEquals(LoanResult.Status.BLOCKED_BY_LOST_ITEM, lib.borrowBook(otherId, "u1").getStatus());
+            assertTrue(lib.borrowBook(otherId, "u2").isSuccess());
+            assertTrue(lib.hasActiveLoans("u2"));
+        }
+
+        // the checks read the shards after reopening, and follow returns
+        try (ShardedLibrary lib = new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 4)) {
+            assertTrue(lib.hasLostItem("u1"));
+            assertTrue(lib.returnBook(lostId, "u1").isSuccess());
+            assertFalse(lib.hasLostItem("u1"));
+            assertFalse(lib.hasActiveLoans("u1"));
+            assertTrue(lib.returnBook(otherId, "u2").isSuccess());
+            assertFalse(lib.hasActiveLoans("u2"));
+        }
+    }
+
+    @Test
+    void testShardedChecksSeeLoansMadeOutsideTheFacade(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        int shard = ShardedLibrary.shardOf("EXT1", 2);
+        try (ShardedLibrary lib = new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 2)) {
+            lib.addBook(new Book("Elsewhere", "Author", "EXT1"), 2);
+
+            // another process shares the shard's data file
+            try (Library desk = new Library(new FineManager(), (to, s, b) -> true,
+                    ShardedLibrary.shardLocation(file, shard))) {
+                assertTrue(desk.borrowBook("EXT1", "deskUser").isSuccess());
+            }
+            lib.getShard(shard).refresh();
+            assertTrue(lib.hasActiveLoans("deskUser"));
+
+            lib.getShard(shard).getBookInventory("EXT1").getMedia().borrow(LocalDate.now().minusDays(45), "direct");
+            assertTrue(lib.hasLostItem("direct"));
+            assertEquals(LoanResult.Status.BLOCKED_BY_LOST_ITEM, lib.borrowBook("EXT1", "direct").getStatus());
+        }
+    }
+
+    @Test
+    void testShardedChecksAnswerWithoutWaitingForBusyShards(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("lib.txt").toString();
+        try (ShardedLibrary lib = new ShardedLibrary(new FineManager(), (to, s, b) -> true, file, 4)) {
+            // the loan sits past the busy first shard, so a check in shard order would wait
+            int n = 0;
+            while (ShardedLibrary.shardOf("BUSY" + n, 4) == 0) n++;
+            lib.addBook(new Book("Busy", "Author", "BUSY" + n), 1);
+            assertTrue(lib.borrowBook("BUSY" + n, "u1").isSuccess());
+            Library busy = lib.getShard(0);
+
+            java.util.concurrent.CountDownLatch held = new java.util.concurrent.CountDownLatch(1);
+            java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+            Thread holder = new Thread(() -> {
+                synchronized (busy) {
+                    held.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {}
+                }
+            });
+            holder.start();
+            held.await();
+            try {
+                assertTimeoutPreemptively(java.time.Duration.ofSeconds(5),
+                        () -> assertTrue(lib.hasActiveLoans("u1")));
+            } finally {
+                release.countDown();
+                holder.join();
+            }
+            assertFalse(lib.hasActiveLoans("u2"));
+        }
+    }
+
     /* ================= USER & SESSION ================= */
 
     @Test
@@ -644,6 +2589,8 @@ void testLostCDAfter30Days1() {
 
         // cleanup
         f.delete();
+        new File("library.txt.lock").delete();
+        new File("library.txt.journal").delete();
     }
 
     @Test